@@ -25,9 +25,10 @@ import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import demo.utils.MiniClusterUtils;
 
 import oz.hadoop.yarn.api.ApplicationContainerProcessor;
-import oz.hadoop.yarn.api.ContainerReplyListener;
 import oz.hadoop.yarn.api.DataProcessor;
 import oz.hadoop.yarn.api.FsByteBufferPersister;
+import oz.hadoop.yarn.api.ReplyEnvelope;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
 import oz.hadoop.yarn.api.YarnApplication;
 import oz.hadoop.yarn.api.YarnAssembly;
 import oz.hadoop.yarn.api.utils.ConfigUtils;
@@ -53,7 +54,7 @@ public class MonteCarloSimulationDemo {
 							memory(128).
 							build("MonteCarloSimulation");
 		
-		yarnApplication.registerReplyListener(new ResultsPrinter());
+		yarnApplication.registerReplyEnvelopeListener(new ResultsPrinter());
 		
 		DataProcessor processor = yarnApplication.launch();
 		System.out.println("\n=== STARTING SIMULATION ===\n");
@@ -69,7 +70,7 @@ public class MonteCarloSimulationDemo {
 					inputBuffer.putInt(100000); // initial investment
 					inputBuffer.putInt(100000);  // simulations
 					inputBuffer.flip();
-					processor.process(inputBuffer);
+					processor.process(inputBuffer, null, "sigma=" + sigma + "; avReturn=" + avReturn + "; anualInv=" + anualInv);
 				}
 			}
 		}
@@ -103,13 +104,11 @@ public class MonteCarloSimulationDemo {
 	/**
 	 * 
 	 */
-	public static class ResultsPrinter implements ContainerReplyListener {
+	public static class ResultsPrinter implements ReplyEnvelopeListener {
 		@Override
-		public void onReply(ByteBuffer replyData) {
-			byte[] metaBytes = new byte[replyData.capacity() - 24];
-			replyData.rewind();
-			replyData.get(metaBytes);
-			System.out.println("REPLY: " + new String(metaBytes) + " - MEAN:" +  df.format(replyData.getDouble()) + "; MEDIAN:" + 
+		public void onReply(ReplyEnvelope replyEnvelope) {
+			ByteBuffer replyData = replyEnvelope.getData();
+			System.out.println("REPLY: " + replyEnvelope.getTag() + " from " + replyEnvelope.getContainerAddress() + " - MEAN:" +  df.format(replyData.getDouble()) + "; MEDIAN:" + 
 						df.format(replyData.getDouble()) + "; STDV:" + df.format(replyData.getDouble()));
 		}
 	}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Strategy for implementing listeners which could be registered with {@link DataProcessor}
+ * to be notified when the Application Container was evicted since nothing was heard from it
+ * within the heartbeat timeout (see {@link YayaConstants#HEARTBEAT_INTERVAL_MILLIS} and 
+ * {@link YayaConstants#HEARTBEAT_TIMEOUT_MILLIS}). By the time of the invocation the requests 
+ * which were in flight to such Application Container have already been failed and no new 
+ * requests will be dispatched to it.
+ * 
+ * Callback is invoked by the networking thread, so it must return quickly.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ContainerEvictionListener {
+
+	/**
+	 * 
+	 * @param containerAddress
+	 * 		address of the evicted Application Container
+	 */
+	void onEviction(InetSocketAddress containerAddress);
+}
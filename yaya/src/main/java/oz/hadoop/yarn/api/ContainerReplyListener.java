@@ -32,6 +32,8 @@ public interface ContainerReplyListener {
 	 * command or {@link ApplicationContainerProcessor}
 	 * 
 	 * @param replyData
+	 * 		copy of the reply data which is owned by the listener, so it may be kept 
+	 * 		or handed over to another thread
 	 */
 	void onReply(ByteBuffer replyData);
 }
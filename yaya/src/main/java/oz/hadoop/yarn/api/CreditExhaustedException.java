@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when the submission is rejected since the credit granted by the Application Container
+ * or the budget of bytes in flight shared by all Application Containers ran out, while
+ * {@link YayaConstants#CREDIT_FAIL_FAST} is set (see {@link CreditListener}).
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public class CreditExhaustedException extends RejectedExecutionException {
+
+	private static final long serialVersionUID = -4328017615498765522L;
+
+	/**
+	 * 
+	 * @param message
+	 */
+	public CreditExhaustedException(String message) {
+		super(message);
+	}
+}
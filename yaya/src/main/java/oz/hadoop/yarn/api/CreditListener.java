@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Strategy for implementing listeners which could be registered with {@link DataProcessor}
+ * to be notified when submissions can not proceed since the credit ran out, and when it is 
+ * replenished again. Credit is either granted by the individual Application Container 
+ * (see {@link YayaConstants#CREDIT_MESSAGES} and {@link YayaConstants#CREDIT_BYTES}) or is 
+ * the budget of bytes in flight shared by all Application Containers 
+ * (see {@link YayaConstants#IN_FLIGHT_BYTES_BUDGET}).
+ * 
+ * Callbacks are invoked by the submitting thread or the thread receiving the reply, 
+ * so they must return quickly.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface CreditListener {
+
+	/**
+	 * Invoked when the submission could not proceed since the credit ran out. Depending 
+	 * on {@link YayaConstants#CREDIT_FAIL_FAST} the submitting thread then either waits for 
+	 * the credit or fails with {@link CreditExhaustedException}.
+	 * 
+	 * @param containerAddress
+	 * 		address of the Application Container whose credit ran out or 
+	 * 		null if it is the budget shared by all Application Containers
+	 */
+	void onCreditExhausted(InetSocketAddress containerAddress);
+	
+	/**
+	 * Invoked once the credit which previously ran out was replenished (e.g., reply was received).
+	 * 
+	 * @param containerAddress
+	 * 		address of the Application Container whose credit was replenished or 
+	 * 		null if it is the budget shared by all Application Containers
+	 */
+	void onCreditReplenished(InetSocketAddress containerAddress);
+}
@@ -15,7 +15,14 @@
  */
 package oz.hadoop.yarn.api;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Strategy to represent launched Application Containers of the YARN application assembled
@@ -31,6 +38,9 @@ public interface DataProcessor {
 	/**
 	 * Allows you to submit data as {@link ByteBuffer} to a first available 
 	 * Application Container.
+	 * Blocks while the credit of the Application Container or the budget of bytes in flight
+	 * is exhausted, unless {@link YayaConstants#CREDIT_FAIL_FAST} is set, in which case 
+	 * it fails with {@link CreditExhaustedException} (see {@link CreditListener}).
 	 * 
 	 * @param data
 	 * 		data to process
@@ -50,8 +60,96 @@ public interface DataProcessor {
 	void process(ByteBuffer data, String ipRegexFilter);
 	
 	/**
-	 * The amount of successful calls to {@link #process(ByteBuffer)} or
-	 * {@link #process(ByteBuffer, String)} methods since the launch of the application.
+	 * Same as {@link #process(ByteBuffer, String)}, but associates the submission with an arbitrary 'tag' 
+	 * which is given back together with the reply via {@link ReplyEnvelope} 
+	 * (see {@link YarnApplication#registerReplyEnvelopeListener(ReplyEnvelopeListener)}).
+	 * 
+	 * @param data
+	 * 		data to process
+	 * @param ipRegexFilter
+	 * 		regular expression for IP address filtering (e.g., "192\.168\.19\.(1[0-5])"). Could be null.
+	 * @param tag
+	 * 		user defined object to correlate the reply with this submission. Could be null.
+	 */
+	void process(ByteBuffer data, String ipRegexFilter, Object tag);
+	
+	/**
+	 * Same as {@link #process(ByteBuffer)}, but gives back the reply to this submission as {@link ReplyFuture}, 
+	 * so it could be awaited with timeout or given to {@link ReplyCallback} without dedicating a thread to each 
+	 * request in flight. Callbacks are invoked by the thread receiving the reply.
+	 * Blocks as {@link #process(ByteBuffer)} does while none of the Application Containers is available.
+	 * 
+	 * @param data
+	 * 		data to process
+	 * @return {@link ReplyFuture} which completes with the reply or fails with {@link ExecutionException}
+	 * 		if Application Container failed to process the data or was evicted before replying.
+	 */
+	ReplyFuture submitAsync(ByteBuffer data);
+	
+	/**
+	 * Same as {@link #submitAsync(ByteBuffer)}, but callbacks registered with the returned {@link ReplyFuture} 
+	 * are invoked by the 'callbackExecutor', so they do not hold back the thread receiving the replies.
+	 * 
+	 * @param data
+	 * 		data to process
+	 * @param callbackExecutor
+	 * 		executor to invoke {@link ReplyCallback}s
+	 */
+	ReplyFuture submitAsync(ByteBuffer data, Executor callbackExecutor);
+	
+	/**
+	 * Submits the same data (e.g., reference data) to every live Application Container. 
+	 * Data is not copied for each Application Container, so it must not be modified until the returned 
+	 * {@link Future} completes. Application Containers which have room in their in-flight window are sent 
+	 * the data first, so the ones which are busy do not hold the others back, while the call only blocks 
+	 * as long as it takes to send the data to the latter.
+	 * 
+	 * @param data
+	 * 		data to process
+	 * @return {@link Future} which completes once every Application Container the data was sent to replied, 
+	 * 		giving back the amount of such Application Containers. It fails with {@link ExecutionException}
+	 * 		if any of them failed to process the data, could not be sent it (e.g., its credit ran out 
+	 * 		while {@link YayaConstants#CREDIT_FAIL_FAST} is set) or was evicted before replying.
+	 * @throws RejectedExecutionException
+	 * 		if none of the Application Containers is live
+	 */
+	Future<Integer> broadcast(ByteBuffer data);
+	
+	/**
+	 * Allows you to submit data of arbitrary size (e.g., larger than memory) as {@link ReadableByteChannel} 
+	 * to a first available Application Container. Data is streamed to the Application Container in chunks
+	 * as it is read, while the reply is written into the 'replyChannel' as it arrives, so neither is ever held
+	 * in memory in its entirety. Unlike other process methods this one returns only once the reply is complete.
+	 * Application Container given streamed data which is not a {@link StreamingApplicationContainerProcessor} 
+	 * will be given all of it at once.
+	 * 
+	 * @param data
+	 * 		data to process
+	 * @param replyChannel
+	 * 		channel to write the reply into
+	 * @throws IOException
+	 * 		if either channel fails or Application Container failed to process the data
+	 */
+	void process(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException;
+	
+	/**
+	 * Same as {@link #process(ReadableByteChannel, WritableByteChannel)}, but submits data to a first available 
+	 * Application Container that matches the IP filter described via regular expression.
+	 * 
+	 * @param data
+	 * 		data to process
+	 * @param replyChannel
+	 * 		channel to write the reply into
+	 * @param ipRegexFilter
+	 * 		regular expression for IP address filtering (e.g., "192\.168\.19\.(1[0-5])")
+	 * @throws IOException
+	 * 		if either channel fails or Application Container failed to process the data
+	 */
+	void process(ReadableByteChannel data, WritableByteChannel replyChannel, String ipRegexFilter) throws IOException;
+	
+	/**
+	 * The amount of successful calls to any of the process methods (e.g., {@link #process(ByteBuffer)})
+	 * since the launch of the application.
 	 * 
 	 * @return
 	 */
@@ -64,6 +162,23 @@ public interface DataProcessor {
 	 */
 	int containers();
 	
+	/**
+	 * Registers {@link CreditListener} to be notified when submissions can not proceed 
+	 * since the credit ran out and when it is replenished.
+	 * 
+	 * @param creditListener
+	 */
+	void registerCreditListener(CreditListener creditListener);
+	
+	/**
+	 * Registers {@link ContainerEvictionListener} to be notified when the Application Container 
+	 * is evicted since it stopped responding. Data is then only submitted to the remaining 
+	 * Application Containers.
+	 * 
+	 * @param evictionListener
+	 */
+	void registerEvictionListener(ContainerEvictionListener evictionListener);
+	
 //	/**
 //	 * Allow for the registration of the {@link DataProcessorReplyListener} for the cases where
 //	 * you need to deal with replies produced by the {@link ApplicationContainerProcessor}s or commands executed 
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Strategy for implementing callbacks which could be registered with {@link ReplyFuture}
+ * to be invoked once the reply to the request it represents is received or the request failed.
+ * 
+ * Unless {@link Executor} was given to {@link DataProcessor#submitAsync(ByteBuffer, Executor)}
+ * callback is invoked by the networking thread, so it must return quickly.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ReplyCallback {
+
+	/**
+	 * Callback method to receive the reply produced by a task running as command or 
+	 * {@link ApplicationContainerProcessor}
+	 * 
+	 * @param reply
+	 */
+	void onReply(ByteBuffer reply);
+	
+	/**
+	 * Callback method invoked instead of {@link #onReply(ByteBuffer)} when Application Container 
+	 * failed to process the data or the reply will never be received (e.g., Application Container was evicted).
+	 * 
+	 * @param cause
+	 */
+	void onFailure(Exception cause);
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Reply produced by the Application Container together with the context of the request it 
+ * replies to, given to the {@link ReplyEnvelopeListener}. Allows replies to be matched with 
+ * the requests (see {@link DataProcessor#process(ByteBuffer, String, Object)}) without having 
+ * to echo the request back or to parse the reply.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public final class ReplyEnvelope {
+
+	private final long requestId;
+	
+	private final Object tag;
+	
+	private final InetSocketAddress containerAddress;
+	
+	private final int containerId;
+	
+	private final boolean success;
+	
+	private final long queueTimeNanos;
+	
+	private final long serviceTimeNanos;
+	
+	private final long processingTimeNanos;
+	
+	private final ByteBuffer data;
+	
+	/**
+	 * Created by the framework for every reply.
+	 * 
+	 * @param requestId
+	 * @param tag
+	 * @param containerAddress
+	 * @param containerId
+	 * @param success
+	 * @param queueTimeNanos
+	 * @param serviceTimeNanos
+	 * @param processingTimeNanos
+	 * @param data
+	 */
+	public ReplyEnvelope(long requestId, Object tag, InetSocketAddress containerAddress, int containerId, boolean success, 
+			long queueTimeNanos, long serviceTimeNanos, long processingTimeNanos, ByteBuffer data) {
+		this.requestId = requestId;
+		this.tag = tag;
+		this.containerAddress = containerAddress;
+		this.containerId = containerId;
+		this.success = success;
+		this.queueTimeNanos = queueTimeNanos;
+		this.serviceTimeNanos = serviceTimeNanos;
+		this.processingTimeNanos = processingTimeNanos;
+		this.data = data;
+	}
+	
+	/**
+	 * Returns the id assigned to the request when it was sent, which is unique among the requests 
+	 * sent to the Application Containers of the same application.
+	 */
+	public long getRequestId() {
+		return this.requestId;
+	}
+	
+	/**
+	 * Returns the tag supplied with the request (see {@link DataProcessor#process(ByteBuffer, String, Object)})
+	 * or null if none was supplied.
+	 */
+	public Object getTag() {
+		return this.tag;
+	}
+	
+	/**
+	 * Returns the address of the Application Container which produced the reply.
+	 */
+	public InetSocketAddress getContainerAddress() {
+		return this.containerAddress;
+	}
+	
+	/**
+	 * Returns the id of the Application Container which produced the reply (id of its YARN container or 
+	 * the sequence number of the emulated one) or -1 if the reply did not identify it (e.g., streamed reply).
+	 */
+	public int getContainerId() {
+		return this.containerId;
+	}
+	
+	/**
+	 * Returns 'false' if the Application Container failed to process the request, in which case 
+	 * the data contains the stack trace of the failure (UTF-8).
+	 */
+	public boolean isSuccess() {
+		return this.success;
+	}
+	
+	/**
+	 * Returns nanoseconds the request waited (e.g., for the available Application Container 
+	 * or its credit) since it was submitted until it was sent.
+	 */
+	public long getQueueTimeNanos() {
+		return this.queueTimeNanos;
+	}
+	
+	/**
+	 * Returns nanoseconds which passed since the request was sent until the reply was received.
+	 */
+	public long getServiceTimeNanos() {
+		return this.serviceTimeNanos;
+	}
+	
+	/**
+	 * Returns nanoseconds the Application Container spent processing the request, which is the part of the 
+	 * service time (see {@link #getServiceTimeNanos()}) not spent in transport or -1 if it was not reported 
+	 * (e.g., streamed reply).
+	 */
+	public long getProcessingTimeNanos() {
+		return this.processingTimeNanos;
+	}
+	
+	/**
+	 * Returns read-only view of the data produced by the Application Container. 
+	 * Must not be used once the {@link ReplyEnvelopeListener} returns.
+	 */
+	public ByteBuffer getData() {
+		return this.data;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "ReplyEnvelope:[requestId=" + this.requestId + ", tag=" + this.tag + ", containerAddress=" + this.containerAddress + 
+				", containerId=" + this.containerId + ", success=" + this.success + ", queueTimeNanos=" + this.queueTimeNanos + 
+				", serviceTimeNanos=" + this.serviceTimeNanos + ", processingTimeNanos=" + this.processingTimeNanos + ", data=" + this.data + "]";
+	}
+}
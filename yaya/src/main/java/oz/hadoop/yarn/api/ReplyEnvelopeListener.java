@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+/**
+ * Strategy for implementing listeners which could be registered with {@link YarnApplication}
+ * to be invoked every time an Application Container task running as command or 
+ * {@link ApplicationContainerProcessor} produces a reply. Unlike {@link ContainerReplyListener} 
+ * the reply is given as {@link ReplyEnvelope} which carries the context of the request it replies to.
+ * 
+ * Callback is invoked by the networking thread, so it must return quickly.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ReplyEnvelopeListener {
+
+	/**
+	 * Callback method to receive and process a reply produced by a task running as
+	 * command or {@link ApplicationContainerProcessor}
+	 * 
+	 * @param replyEnvelope
+	 */
+	void onReply(ReplyEnvelope replyEnvelope);
+}
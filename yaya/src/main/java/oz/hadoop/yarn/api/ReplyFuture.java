@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * {@link Future} of the reply to the data submitted via {@link DataProcessor#submitAsync(ByteBuffer)}.
+ * Unlike the replies given to {@link ContainerReplyListener}, each reply is given back only to those 
+ * interested in the request it replies to, either by blocking on {@link #get()} or without blocking 
+ * via {@link ReplyCallback}s, which is how the replies are pipelined or combined with other work. 
+ * Replies are copied once received, so they remain valid after the callbacks return.
+ * Request can not be cancelled once submitted.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ReplyFuture extends Future<ByteBuffer> {
+
+	/**
+	 * Registers {@link ReplyCallback} which is invoked once the reply is received or the request failed. 
+	 * Callback is invoked by the thread receiving the reply or the {@link Executor} given to 
+	 * {@link DataProcessor#submitAsync(ByteBuffer, Executor)}, while if this future is already complete it 
+	 * is invoked right away (e.g., by the calling thread).
+	 * 
+	 * @param callback
+	 */
+	void addCallback(ReplyCallback callback);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ApplicationContainerProcessor} which is also capable of processing data of arbitrary size 
+ * (e.g., larger than memory) submitted via {@link DataProcessor#process(ReadableByteChannel, WritableByteChannel)}.
+ * Such data is never buffered in its entirety, but instead is streamed to the Application Container in chunks 
+ * while its reply is streamed back as it is produced. Data submitted as {@link ByteBuffer} is still 
+ * given to {@link #process(ByteBuffer)}.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface StreamingApplicationContainerProcessor extends ApplicationContainerProcessor {
+
+	/**
+	 * This method reads the data to be processed by an Application Container from the 'input' channel
+	 * (which blocks until more data arrives) while writing the reply into the 'reply' channel.
+	 * Reply is complete once this method returns, while the exception aborts it.
+	 * 
+	 * @param input
+	 * 		input data
+	 * @param reply
+	 * 		reply data
+	 * @throws IOException
+	 */
+	public void process(ReadableByteChannel input, WritableByteChannel reply) throws IOException;
+}
@@ -123,4 +123,13 @@ public interface YarnApplication<T> {
 	 * @param replyListener
 	 */
 	void registerReplyListener(ContainerReplyListener replyListener);
+	
+	/**
+	 * Allow for the registration of the {@link ReplyEnvelopeListener} for the cases where
+	 * replies produced by the {@link ApplicationContainerProcessor}s or commands executed 
+	 * by Application Containers must be matched with the requests they reply to (see {@link ReplyEnvelope}).
+	 *
+	 * @param replyEnvelopeListener
+	 */
+	void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener);
 }
@@ -553,6 +553,26 @@ public final class YarnAssembly {
 	}
 
 	public interface ApplicationMasterBuildable<T> {
+		/**
+		 * Will make Application Master and Application Containers exchange messages through 
+		 * NIO.2 asynchronous channels instead of selector loops (see {@link oz.hadoop.yarn.api.net.TransportSettings#isAsyncTransport()}).
+		 */
+		ApplicationMasterBuildable<T> asyncTransport(boolean asyncTransport);
+		
+		/**
+		 * Will make Application Master and Application Containers run their threads on executors created by the 
+		 * {@link oz.hadoop.yarn.api.net.ExecutorFactory} identified by name (e.g., "virtual" for virtual threads) or 
+		 * fully qualified class name (see {@link oz.hadoop.yarn.api.net.TransportSettings#getExecutorFactory()}).
+		 */
+		ApplicationMasterBuildable<T> executorFactory(String executorFactory);
+		
+		/**
+		 * Will make each Application Container process as many messages concurrently, each with its own instance of 
+		 * {@link ApplicationContainerProcessor}. Defaults to the amount of virtual cores of Application Container 
+		 * (see {@link oz.hadoop.yarn.api.net.TransportSettings#getContainerParallelism()}).
+		 */
+		ApplicationMasterBuildable<T> containerParallelism(int containerParallelism);
+		
 		YarnApplication<T> build(String applicationName);
 	}
 }
\ No newline at end of file
@@ -66,4 +66,56 @@ public interface YayaConstants {
 	String JAVA_COMMAND = "JAVA_COMMAND";
 	
 	String CLIENTS_JOIN_TIMEOUT = "CLIENTS_JOIN_TIMEOUT";
+	
+	String IN_FLIGHT_WINDOW = "IN_FLIGHT_WINDOW";
+	
+	String BUFFER_POOL_BUDGET = "BUFFER_POOL_BUDGET";
+	
+	String BUFFER_POOL_DIRECT = "BUFFER_POOL_DIRECT";
+	
+	String IO_THREADS = "IO_THREADS";
+	
+	String SELECTOR_BUSY_SPIN = "SELECTOR_BUSY_SPIN";
+	
+	String BATCH_MAX_SIZE = "BATCH_MAX_SIZE";
+	
+	String BATCH_LINGER_MICROS = "BATCH_LINGER_MICROS";
+	
+	String COMPRESSION_CODECS = "COMPRESSION_CODECS";
+	
+	String COMPRESSION_THRESHOLD = "COMPRESSION_THRESHOLD";
+	
+	String STREAM_CHUNK_SIZE = "STREAM_CHUNK_SIZE";
+	
+	String STREAM_BUFFERED_CHUNKS = "STREAM_BUFFERED_CHUNKS";
+	
+	String SHARED_MEMORY_RING_SIZE = "SHARED_MEMORY_RING_SIZE";
+	
+	String SHARED_MEMORY_DIRECTORY = "SHARED_MEMORY_DIRECTORY";
+	
+	String IN_PROCESS_TRANSPORT = "IN_PROCESS_TRANSPORT";
+	
+	String ASYNC_TRANSPORT = "asyncTransport";
+	
+	String CREDIT_MESSAGES = "CREDIT_MESSAGES";
+	
+	String CREDIT_BYTES = "CREDIT_BYTES";
+	
+	String IN_FLIGHT_BYTES_BUDGET = "IN_FLIGHT_BYTES_BUDGET";
+	
+	String CREDIT_FAIL_FAST = "CREDIT_FAIL_FAST";
+	
+	String HEARTBEAT_INTERVAL_MILLIS = "HEARTBEAT_INTERVAL_MILLIS";
+	
+	String HEARTBEAT_TIMEOUT_MILLIS = "HEARTBEAT_TIMEOUT_MILLIS";
+	
+	String RECONNECT_ATTEMPTS = "RECONNECT_ATTEMPTS";
+	
+	String RECONNECT_BACKOFF_MILLIS = "RECONNECT_BACKOFF_MILLIS";
+	
+	String SESSION_RESUME_TIMEOUT_MILLIS = "SESSION_RESUME_TIMEOUT_MILLIS";
+	
+	String EXECUTOR_FACTORY = "executorFactory";
+	
+	String CONTAINER_PARALLELISM = "containerParallelism";
 }
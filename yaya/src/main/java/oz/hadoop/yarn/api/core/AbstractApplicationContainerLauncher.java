@@ -37,6 +37,7 @@ import org.apache.hadoop.yarn.util.Records;
 import oz.hadoop.yarn.api.YayaConstants;
 import oz.hadoop.yarn.api.net.ApplicationContainerClient;
 import oz.hadoop.yarn.api.net.ApplicationContainerMessageHandler;
+import oz.hadoop.yarn.api.net.TransportSettings;
 import oz.hadoop.yarn.api.utils.PrimitiveImmutableTypeMap;
 import oz.hadoop.yarn.api.utils.ReflectionUtils;
 
@@ -267,9 +268,12 @@ public abstract class AbstractApplicationContainerLauncher implements Applicatio
 		try {
 			InetSocketAddress address = new InetSocketAddress(this.applicationSpecification.getString(YayaConstants.CLIENT_HOST), 
 					  this.applicationSpecification.getInt(YayaConstants.CLIENT_PORT));
+			TransportSettings transportSettings = new TransportSettings(this.applicationSpecification);
 			Constructor<ApplicationContainerClient> acCtr = ReflectionUtils.getInvocableConstructor(
-					ApplicationContainerClient.class.getPackage().getName() + ".ApplicationContainerClientImpl", 
-					InetSocketAddress.class, ApplicationContainerMessageHandler.class, Runnable.class);
+					ApplicationContainerClient.class.getPackage().getName() + 
+						(transportSettings.isInProcessTransport() ? ".InProcessApplicationContainerClient" : 
+							(transportSettings.isAsyncTransport() ? ".AsyncApplicationContainerClient" : ".ApplicationContainerClientImpl")), 
+					InetSocketAddress.class, ApplicationContainerMessageHandler.class, Runnable.class, TransportSettings.class);
 			this.client = acCtr.newInstance(address, new ApplicationContainerMessageHandler() {		
 				@Override
 				public void onDisconnect() {
@@ -286,7 +290,7 @@ public abstract class AbstractApplicationContainerLauncher implements Applicatio
 				public void run() {
 					// noop
 				}
-			});
+			}, transportSettings);
 			InetSocketAddress clientAddress = this.client.start();
 			if (logger.isDebugEnabled()){
 				logger.debug("Started Application Master client on " + clientAddress);
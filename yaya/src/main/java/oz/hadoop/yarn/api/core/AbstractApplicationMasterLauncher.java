@@ -33,10 +33,12 @@ import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
 import oz.hadoop.yarn.api.YayaConstants;
 import oz.hadoop.yarn.api.net.ApplicationContainerServer;
 import oz.hadoop.yarn.api.net.ContainerDelegate;
 import oz.hadoop.yarn.api.net.ReplyPostProcessor;
+import oz.hadoop.yarn.api.net.TransportSettings;
 import oz.hadoop.yarn.api.utils.PrimitiveImmutableTypeMap;
 import oz.hadoop.yarn.api.utils.PrintUtils;
 import oz.hadoop.yarn.api.utils.ReflectionUtils;
@@ -69,6 +71,8 @@ abstract class AbstractApplicationMasterLauncher<T> implements ApplicationMaster
 	
 	private volatile ContainerReplyListener replyListener;
 	
+	private volatile ReplyEnvelopeListener replyEnvelopeListener;
+	
 	private T launchResult;
 	
 //	protected boolean running;
@@ -102,6 +106,14 @@ abstract class AbstractApplicationMasterLauncher<T> implements ApplicationMaster
 		this.replyListener = replyListener;
 	}
 	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener) {
+		this.replyEnvelopeListener = replyEnvelopeListener;
+	}
+	
 	/**
 	 * 
 	 */
@@ -143,6 +155,9 @@ abstract class AbstractApplicationMasterLauncher<T> implements ApplicationMaster
 		if (this.replyListener != null){
 			this.clientServer.registerReplyListener(this.replyListener);
 		}
+		if (this.replyEnvelopeListener != null){
+			this.clientServer.registerReplyEnvelopeListener(this.replyEnvelopeListener);
+		}
 		
 		this.doLaunch(applicationContainerCount);
 		
@@ -283,8 +298,12 @@ abstract class AbstractApplicationMasterLauncher<T> implements ApplicationMaster
 	private ApplicationContainerServer buildClientServer(int expectedClientContainerCount, boolean finite){
 		try {
 			InetSocketAddress address = this.buildSocketAddress();
+			TransportSettings transportSettings = new TransportSettings(this.applicationSpecification);
 			Constructor<ApplicationContainerServer> clCtr = ReflectionUtils.getInvocableConstructor(
-					ApplicationContainerServer.class.getPackage().getName() + ".ApplicationContainerServerImpl", InetSocketAddress.class, int.class, boolean.class, Runnable.class);
+					ApplicationContainerServer.class.getPackage().getName() + 
+						(transportSettings.isInProcessTransport() ? ".InProcessApplicationContainerServer" : 
+							(transportSettings.isAsyncTransport() ? ".AsyncApplicationContainerServer" : ".ApplicationContainerServerImpl")), 
+					InetSocketAddress.class, int.class, boolean.class, Runnable.class, TransportSettings.class);
 			
 			ApplicationContainerServer cs = clCtr.newInstance(address, expectedClientContainerCount, finite, new Runnable() {	
 				@Override
@@ -294,7 +313,7 @@ abstract class AbstractApplicationMasterLauncher<T> implements ApplicationMaster
 					}
 					close();
 				}
-			});
+			}, transportSettings);
 			return cs;
 		} 
 		catch (Exception e) {
@@ -15,21 +15,27 @@
  */
 package oz.hadoop.yarn.api.core;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.hadoop.yarn.api.ApplicationConstants.Environment;
+import org.apache.hadoop.yarn.util.ConverterUtils;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import oz.hadoop.yarn.api.ApplicationContainerProcessor;
+import oz.hadoop.yarn.api.StreamingApplicationContainerProcessor;
 import oz.hadoop.yarn.api.YayaConstants;
 import oz.hadoop.yarn.api.net.ApplicationContainerClient;
 import oz.hadoop.yarn.api.net.ApplicationContainerMessageHandler;
-import oz.hadoop.yarn.api.utils.ByteBufferUtils;
+import oz.hadoop.yarn.api.net.ReplyHeader;
+import oz.hadoop.yarn.api.net.TransportSettings;
 import oz.hadoop.yarn.api.utils.PrimitiveImmutableTypeMap;
 import oz.hadoop.yarn.api.utils.ReflectionUtils;
 
@@ -45,9 +51,12 @@ class ApplicationContainer extends AbstractContainer {
 	
 	private volatile InetSocketAddress listeningAddress;
 	
-	private volatile String successReplyMessage;
+	/*
+	 * Emulated Application Containers share the JVM, so they are numbered in order of creation
+	 */
+	private static final AtomicInteger emulatedContainerIds = new AtomicInteger();
 	
-	private volatile String failureReplyMessage;
+	private final int containerId;
 	
 	/**
 	 * 
@@ -55,6 +64,7 @@ class ApplicationContainer extends AbstractContainer {
 	 */
 	ApplicationContainer(PrimitiveImmutableTypeMap containerArguments) {
 		super(containerArguments);
+		this.containerId = discoverContainerId();
 	}
 
 	/**
@@ -81,24 +91,45 @@ class ApplicationContainer extends AbstractContainer {
 	 * 
 	 */
 	private void doLaunch(){
-		ApplicationContainerProcessor applicationContainer = null;
+		ApplicationContainerProcessor[] applicationContainers = null;
+		TransportSettings transportSettings = new TransportSettings(this.applicationSpecification);
 		
 		String command = this.containerSpec.getString(YayaConstants.COMMAND);
 		if (StringUtils.hasText(command)){
-			applicationContainer = new ProcessLaunchingApplicationContainer(new CommandProcessLauncher(command));
+			applicationContainers = new ApplicationContainerProcessor[]{
+					new ProcessLaunchingApplicationContainer(new CommandProcessLauncher(command, transportSettings.getExecutorFactory()))};
 		}
 		else {
 			String appContainerImplClass = this.containerSpec.getString(YayaConstants.CONTAINER_IMPL);
 			Assert.hasText(appContainerImplClass, "Invalid condition: 'appContainerImplClass' must not be null or empty. " +
 					"Since this is coming from internal API it must be a bug. Please REPORT.");
-			applicationContainer = (ApplicationContainerProcessor) ReflectionUtils.newDefaultInstance(appContainerImplClass);
 			String containerArguments = this.containerSpec.getString(YayaConstants.CONTAINER_ARG);
 			if (StringUtils.hasText(containerArguments)){
-				applicationContainer = new ProcessLaunchingApplicationContainer(new JavaProcessLauncher<ByteBuffer>(applicationContainer, containerArguments));
+				ApplicationContainerProcessor applicationContainer = (ApplicationContainerProcessor) ReflectionUtils.newDefaultInstance(appContainerImplClass);
+				applicationContainers = new ApplicationContainerProcessor[]{
+						new ProcessLaunchingApplicationContainer(new JavaProcessLauncher<ByteBuffer>(applicationContainer, containerArguments, 
+						transportSettings.getExecutorFactory()))};
+			}
+			else {
+				/*
+				 * Each processing slot gets its own instance, so concurrently processed messages 
+				 * never share the state of the user's processor.
+				 */
+				applicationContainers = new ApplicationContainerProcessor[transportSettings.getContainerParallelism()];
+				for (int i = 0; i < applicationContainers.length; i++) {
+					applicationContainers[i] = (ApplicationContainerProcessor) ReflectionUtils.newDefaultInstance(appContainerImplClass);
+				}
+			}
+		}
+		for (int i = 0; i < applicationContainers.length; i++) {
+			if (applicationContainers[i] instanceof StreamingApplicationContainerProcessor){
+				applicationContainers[i] = new StreamingExceptionHandlingApplicationContainer((StreamingApplicationContainerProcessor) applicationContainers[i]);
+			}
+			else {
+				applicationContainers[i] = new ExceptionHandlingApplicationContainer(applicationContainers[i]);
 			}
 		}
-		applicationContainer = new ExceptionHandlingApplicationContainer(applicationContainer);
-		this.connectWithApplicationMaster(applicationContainer);	
+		this.connectWithApplicationMaster(applicationContainers, transportSettings);	
 				
 		logger.info("Awaiting Application Container's process to finish or termination signal from the client");
 		/*
@@ -112,18 +143,16 @@ class ApplicationContainer extends AbstractContainer {
 	
 	/**
 	 * 
-	 * @param applicationContainer
-	 * @return
+	 * @param applicationContainers
+	 * @param transportSettings
 	 */
-	private void connectWithApplicationMaster(ApplicationContainerProcessor applicationContainer){
-		MessageDispatchingHandler messageHandler = new MessageDispatchingHandler(applicationContainer);
+	private void connectWithApplicationMaster(ApplicationContainerProcessor[] applicationContainers, TransportSettings transportSettings){
+		MessageDispatchingHandler messageHandler = new MessageDispatchingHandler(this.containerId, applicationContainers);
 		
 		InetSocketAddress address = new InetSocketAddress(this.applicationSpecification.getString(YayaConstants.CLIENT_HOST), 
 				                                          this.applicationSpecification.getInt(YayaConstants.CLIENT_PORT));
-		this.client = this.buildApplicationContainerClient(address, messageHandler);
+		this.client = this.buildApplicationContainerClient(address, messageHandler, transportSettings);
 		this.listeningAddress = this.client.start();
-		this.successReplyMessage = "OK:" + listeningAddress.getAddress().getHostAddress() + ":" + listeningAddress.getPort() + ":";
-		this.failureReplyMessage = "FAILED:" + listeningAddress.getAddress().getHostAddress() + ":" + listeningAddress.getPort();
 		if (logger.isInfoEnabled()){
 			logger.info("Started ApplicationContainerClient on " + listeningAddress);
 		}
@@ -132,17 +161,20 @@ class ApplicationContainer extends AbstractContainer {
 	/**
 	 * 
 	 */
-	private ApplicationContainerClient buildApplicationContainerClient(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler){
+	private ApplicationContainerClient buildApplicationContainerClient(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler, 
+			TransportSettings transportSettings){
 		try {
 			Constructor<ApplicationContainerClient> acCtr = ReflectionUtils.getInvocableConstructor(
-					ApplicationContainerClient.class.getPackage().getName() + ".ApplicationContainerClientImpl", 
-					InetSocketAddress.class, ApplicationContainerMessageHandler.class, Runnable.class);
+					ApplicationContainerClient.class.getPackage().getName() + 
+						(transportSettings.isInProcessTransport() ? ".InProcessApplicationContainerClient" : 
+							(transportSettings.isAsyncTransport() ? ".AsyncApplicationContainerClient" : ".ApplicationContainerClientImpl")), 
+					InetSocketAddress.class, ApplicationContainerMessageHandler.class, Runnable.class, TransportSettings.class);
 			ApplicationContainerClient ac = acCtr.newInstance(address, messageHandler, new Runnable() {
 				@Override
 				public void run() {
 					// noop
 				}
-			});
+			}, transportSettings);
 			return ac;
 		} 
 		catch (Exception e) {
@@ -150,6 +182,18 @@ class ApplicationContainer extends AbstractContainer {
 		}
 	}
 	
+	/**
+	 * Id of the YARN container this Application Container runs in (see {@link Environment#CONTAINER_ID})
+	 * or the next sequence number if it is emulated.
+	 */
+	private static int discoverContainerId() {
+		String containerId = System.getenv(Environment.CONTAINER_ID.name());
+		if (StringUtils.hasText(containerId)){
+			return ConverterUtils.toContainerId(containerId).getId();
+		}
+		return emulatedContainerIds.incrementAndGet();
+	}
+	
 	/**
 	 * 
 	 */
@@ -178,7 +222,17 @@ class ApplicationContainer extends AbstractContainer {
 	}
 	
 	/**
-	 * 
+	 * Messages may already be delivered while the client is still starting, 
+	 * so the listening address may not yet be known.
+	 */
+	private String processLocation() {
+		InetSocketAddress address = this.listeningAddress;
+		return address == null ? "starting Application Container" : address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+	
+	/**
+	 * Logs the failure of the processor, which is then replied as {@link ReplyHeader#FAILURE} 
+	 * by the {@link MessageDispatchingHandler}.
 	 */
 	private class ExceptionHandlingApplicationContainer implements ApplicationContainerProcessor {
 		private final ApplicationContainerProcessor targetApplicationContainer;
@@ -190,33 +244,37 @@ class ApplicationContainer extends AbstractContainer {
 		@Override
 		public ByteBuffer process(ByteBuffer input) {
 			try {
-				ByteBuffer reply = this.targetApplicationContainer.process(input);
-				if (reply == null){
-					reply = ByteBuffer.wrap(successReplyMessage.getBytes());
-				}
-				else {
-					ByteBuffer source = ByteBuffer.wrap(successReplyMessage.getBytes());
-					source.position(source.limit());
-					reply = ByteBufferUtils.merge(source, reply);
-				}
-				reply.rewind();
-				return reply;
+				return this.targetApplicationContainer.process(input);
 			} 
-			catch (Exception e) {
-				logger.error("Process failed in " + listeningAddress.getAddress().getHostAddress() + ":" + listeningAddress.getPort(), e);
-				StringBuffer replyMessageBuffer = new StringBuffer();
-				replyMessageBuffer.append(failureReplyMessage);
-				replyMessageBuffer.append(":{\n");
-				
-				StringWriter sw = new StringWriter();
-				PrintWriter pw = new PrintWriter(sw);
-				e.printStackTrace(pw);
-				
-				replyMessageBuffer.append(sw.toString());
-				replyMessageBuffer.append("\n}");
+			catch (RuntimeException e) {
+				logger.error("Process failed in " + processLocation(), e);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Streamed replies are not prefixed with the {@link ReplyHeader} since they are written 
+	 * as they are produced. Instead failure aborts the reply stream.
+	 */
+	private class StreamingExceptionHandlingApplicationContainer extends ExceptionHandlingApplicationContainer 
+						implements StreamingApplicationContainerProcessor {
+		private final StreamingApplicationContainerProcessor targetApplicationContainer;
+		
+		StreamingExceptionHandlingApplicationContainer(StreamingApplicationContainerProcessor targetApplicationContainer){
+			super(targetApplicationContainer);
+			this.targetApplicationContainer = targetApplicationContainer;
+		}
 
-				return ByteBuffer.wrap(replyMessageBuffer.toString().getBytes());
+		@Override
+		public void process(ReadableByteChannel input, WritableByteChannel reply) throws IOException {
+			try {
+				this.targetApplicationContainer.process(input, reply);
+			} 
+			catch (IOException | RuntimeException e) {
+				logger.error("Process failed in " + processLocation(), e);
+				throw e;
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -20,7 +20,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 
@@ -37,6 +36,7 @@ import org.apache.hadoop.yarn.client.api.AMRMClient.ContainerRequest;
 import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
 import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
 
+import oz.hadoop.yarn.api.net.TransportSettings;
 import oz.hadoop.yarn.api.utils.PrimitiveImmutableTypeMap;
 import oz.hadoop.yarn.api.utils.ReflectionUtils;
 
@@ -69,7 +69,7 @@ public final class ApplicationContainerLauncherEmulatorImpl extends AbstractAppl
 	 */
 	public ApplicationContainerLauncherEmulatorImpl(PrimitiveImmutableTypeMap applicationSpecification, PrimitiveImmutableTypeMap containerSpecification) {
 		super(applicationSpecification, containerSpecification);
-		this.executor = Executors.newCachedThreadPool();
+		this.executor = new TransportSettings(applicationSpecification).getExecutorFactory().newExecutor(this.getClass().getSimpleName());
 		this.rmCallbackHandler = this.callbackSupport.buildResourceManagerCallbackHandler(this);
 		this.nmCallbackHandler = this.callbackSupport.buildNodeManagerCallbackHandler(this);
 		this.applicationId = ApplicationId.newInstance(System.currentTimeMillis(), 1);
@@ -21,6 +21,7 @@ import java.util.concurrent.locks.LockSupport;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 
 import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
 import oz.hadoop.yarn.api.YarnApplication;
 import oz.hadoop.yarn.api.YarnAssembly;
 import oz.hadoop.yarn.api.YayaConstants;
@@ -110,6 +111,11 @@ class ApplicationImpl<T> implements YarnApplication<T> {
 	public void registerReplyListener(ContainerReplyListener replyListener) {
 		this.yarnApplicationMasterLauncher.registerReplyListener(replyListener);
 	}
+	
+	@Override
+	public void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener) {
+		this.yarnApplicationMasterLauncher.registerReplyEnvelopeListener(replyEnvelopeListener);
+	}
 
 	@Override
 	public void awaitLaunch() {
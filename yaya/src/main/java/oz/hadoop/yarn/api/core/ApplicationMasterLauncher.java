@@ -17,6 +17,7 @@ package oz.hadoop.yarn.api.core;
 
 import oz.hadoop.yarn.api.ApplicationContainerProcessor;
 import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
 
 
 
@@ -65,4 +66,12 @@ interface ApplicationMasterLauncher<T> {
 	 * @param replyListener
 	 */
 	void registerReplyListener(ContainerReplyListener replyListener);
+	
+	/**
+	 * Allow for the registration of the {@link ReplyEnvelopeListener} for the cases where
+	 * replies must be matched with the requests they reply to.
+	 * 
+	 * @param replyEnvelopeListener
+	 */
+	void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener);
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import oz.hadoop.yarn.api.DataProcessor;
+import oz.hadoop.yarn.api.net.ReplyPostProcessor;
+
+/**
+ * INTERNAL API
+ * 
+ * {@link Future} of the data broadcast to the Application Containers (see {@link DataProcessor#broadcast(ByteBuffer)}) 
+ * which completes once each of them acknowledged it. Acknowledgments are given by the {@link ReplyPostProcessor}s
+ * of the data sent to each Application Container (see {@link #acknowledge(ByteBuffer, boolean)}), as are the failures
+ * to send it (see {@link #fail(Exception)}), while the amount of them is only known once the data was sent to all 
+ * (see {@link #sent(int)}).
+ * Broadcast can not be cancelled once started.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class BroadcastFuture implements Future<Integer> {
+	
+	private final int maxContainers;
+	
+	private final CountDownLatch acknowledged;
+	
+	private final AtomicInteger failures;
+	
+	private final AtomicReference<Exception> firstFailure;
+	
+	private volatile int containers;
+	
+	/**
+	 * 
+	 * @param maxContainers
+	 * 		maximum amount of Application Containers the data could be sent to
+	 */
+	BroadcastFuture(int maxContainers) {
+		this.maxContainers = maxContainers;
+		this.acknowledged = new CountDownLatch(maxContainers);
+		this.failures = new AtomicInteger();
+		this.firstFailure = new AtomicReference<>();
+	}
+	
+	/**
+	 * Invoked with the reply of a single Application Container the data was sent to.
+	 * 
+	 * @param reply
+	 * @param failedReply
+	 * 		'true' if the reply carries the stack trace of the failure (see {@link ReplyPostProcessor#isFailedReply()})
+	 */
+	void acknowledge(ByteBuffer reply, boolean failedReply) {
+		if (failedReply){
+			byte[] stackTrace = new byte[reply.remaining()];
+			reply.get(stackTrace);
+			this.fail(new IllegalStateException("Application Container failed to process broadcast data: " + 
+					new String(stackTrace, StandardCharsets.UTF_8)));
+		}
+		else {
+			this.acknowledged.countDown();
+		}
+	}
+	
+	/**
+	 * Invoked once the data could not be sent to a single Application Container 
+	 * or its reply will never be received.
+	 */
+	void fail(Exception cause) {
+		this.firstFailure.compareAndSet(null, cause);
+		this.failures.incrementAndGet();
+		this.acknowledged.countDown();
+	}
+	
+	/**
+	 * Invoked once data was sent (or failed to be sent) to 'containers' Application Containers, 
+	 * which accounts for the ones it was not sent to (e.g., since they were not live).
+	 */
+	void sent(int containers) {
+		this.containers = containers;
+		for (int i = containers; i < this.maxContainers; i++) {
+			this.acknowledged.countDown();
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public boolean isDone() {
+		return this.acknowledged.getCount() == 0;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public Integer get() throws InterruptedException, ExecutionException {
+		this.acknowledged.await();
+		return this.result();
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!this.acknowledged.await(timeout, unit)){
+			throw new TimeoutException("Broadcast was not acknowledged by all Application Containers within " + timeout + " " + unit);
+		}
+		return this.result();
+	}
+	
+	/**
+	 * 
+	 */
+	private Integer result() throws ExecutionException {
+		int failures = this.failures.get();
+		if (failures > 0){
+			throw new ExecutionException(failures + " of " + this.containers + " Application Containers did not acknowledge broadcast data", 
+					this.firstFailure.get());
+		}
+		return this.containers;
+	}
+}
@@ -22,6 +22,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.Assert;
 
+import oz.hadoop.yarn.api.net.ExecutorFactory;
+import oz.hadoop.yarn.api.net.PlatformThreadExecutorFactory;
 import oz.hadoop.yarn.api.utils.PrintUtils;
 import oz.hadoop.yarn.api.utils.ReflectionUtils;
 
@@ -47,7 +49,16 @@ public class CommandProcessLauncher extends ProcessLauncher<Void> {
 	 * @param containerLivelinesBarrier
 	 */
 	public CommandProcessLauncher(String command) {
-		super();
+		this(command, new PlatformThreadExecutorFactory());
+	}
+	
+	/**
+	 * 
+	 * @param command
+	 * @param executorFactory
+	 */
+	public CommandProcessLauncher(String command, ExecutorFactory executorFactory) {
+		super(executorFactory);
 		Assert.hasText(command, "'command' must not be null or empty");
 		this.command = command;
 		this.streamsFinished = new AtomicInteger();
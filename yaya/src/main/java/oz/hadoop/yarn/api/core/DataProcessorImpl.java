@@ -15,19 +15,27 @@
  */
 package oz.hadoop.yarn.api.core;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.LockSupport;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.StringUtils;
 
+import oz.hadoop.yarn.api.ContainerEvictionListener;
+import oz.hadoop.yarn.api.CreditListener;
 import oz.hadoop.yarn.api.DataProcessor;
+import oz.hadoop.yarn.api.ReplyFuture;
+import oz.hadoop.yarn.api.core.HostAffinityIndex.HostGroup;
 import oz.hadoop.yarn.api.net.ApplicationContainerServer;
 import oz.hadoop.yarn.api.net.ContainerDelegate;
 import oz.hadoop.yarn.api.net.ReplyPostProcessor;
@@ -42,9 +50,18 @@ class DataProcessorImpl implements DataProcessor {
 	
 	private final Log logger = LogFactory.getLog(DataProcessorImpl.class);
 	
+	/*
+	 * Bounds the wait for the idle slot, so Application Containers which are no longer live are noticed
+	 */
+	private static final long AWAIT_IDLE_SLOT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	
 	private final AtomicLong completedSinceStart;
 	
-	private final AtomicBoolean[] busyDelegatesFlags;
+	/*
+	 * Each ContainerDelegate owns 'inFlightWindow' consecutive in-flight slots 
+	 * (see HostAffinityIndex.delegateIndex(int)), which are taken from the index while busy.
+	 */
+	private final HostAffinityIndex hostAffinityIndex;
 	
 	private final ContainerDelegate[] containerDelegates;
 	
@@ -59,10 +76,8 @@ class DataProcessorImpl implements DataProcessor {
 	DataProcessorImpl(ApplicationContainerServer clientServer) {
 		this.clientServer = clientServer;
 		this.containerDelegates = this.clientServer.getContainerDelegates();
-		this.busyDelegatesFlags = new AtomicBoolean[containerDelegates.length];
-		for (int i = 0; i < busyDelegatesFlags.length; i++) {
-			this.busyDelegatesFlags[i] = new AtomicBoolean();
-		}
+		int inFlightWindow = this.containerDelegates.length > 0 ? this.containerDelegates[0].inFlightWindow() : 1;
+		this.hostAffinityIndex = new HostAffinityIndex(this.containerDelegates, inFlightWindow);
 		this.completedSinceStart = new AtomicLong();
 		this.active = true;
 	}
@@ -83,6 +98,22 @@ class DataProcessorImpl implements DataProcessor {
 		return containerDelegates.length;
 	}
 	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerCreditListener(CreditListener creditListener) {
+		this.clientServer.registerCreditListener(creditListener);
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerEvictionListener(ContainerEvictionListener evictionListener) {
+		this.clientServer.registerEvictionListener(evictionListener);
+	}
+	
 	/**
 	 * 
 	 */
@@ -97,32 +128,219 @@ class DataProcessorImpl implements DataProcessor {
 	 */
 	@Override
 	public void process(ByteBuffer data, String ipRegexFilter) {
+		this.process(data, ipRegexFilter, null);
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void process(ByteBuffer data, String ipRegexFilter, Object tag) {
+		this.submit(data, ipRegexFilter, tag, null);
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public ReplyFuture submitAsync(ByteBuffer data) {
+		return this.submitAsync(data, null);
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public ReplyFuture submitAsync(ByteBuffer data, Executor callbackExecutor) {
+		ReplyFutureImpl replyFuture = new ReplyFutureImpl(callbackExecutor);
+		this.submit(data, null, null, replyFuture);
+		return replyFuture;
+	}
+	
+	/**
+	 * 
+	 * @param replyFuture
+	 * 		future to complete with the reply or null if reply is only given to the listeners
+	 */
+	private void submit(ByteBuffer data, String ipRegexFilter, Object tag, ReplyFutureImpl replyFuture) {
+		long submittedNanos = System.nanoTime();
 		if (this.active){
-			final int index = this.getIndexOfAvailableDelegate(ipRegexFilter);
+			int index = this.getIndexOfAvailableDelegate(ipRegexFilter);
 			if (index >= 0){
-				final ContainerDelegate delegate = this.containerDelegates[index];
-				if (logger.isDebugEnabled()){
-					logger.debug("Selected ContainerDelegate for process invocation: " + delegate);
+				while (!this.process(data, index, tag, submittedNanos, replyFuture)){
+					// Application Container was evicted, so resubmit to the one which is still live
+					index = this.getIndexOfAvailableDelegate(ipRegexFilter);
+					if (index < 0){
+						this.discard(replyFuture);
+						return;
+					}
 				}
-				
-				ReplyPostProcessor replyPostProcessor = new ReplyPostProcessor() {
-					@Override
-					public void doProcess(ByteBuffer reply) {
-						/*
-						 * This is release logic which will make ContainerDelegate available again.
-						 */
-						if (!DataProcessorImpl.this.busyDelegatesFlags[index].compareAndSet(true, false)) {
-							logger.error("Failed to release 'busyDelegatesFlag'. Should never happen. Concurrency issue; if you see this message, REPORT!");
-							DataProcessorImpl.this.stop();
-							throw new IllegalStateException("Should never happen. Concurrency issue, if you see this message, REPORT!");
+				this.completedSinceStart.getAndIncrement();
+			}
+			else {
+				this.discard(replyFuture);
+			}
+		}
+		else {
+			logger.warn("Rejecting submission due to the shutdown. Completed processes: " + this.completedSinceStart.get());
+			throw new RejectedExecutionException("Rejecting submission due to a termination");
+		}
+	}
+	
+	/**
+	 * Submits data to the {@link ContainerDelegate} owning the in-flight slot identified by 'index'.
+	 * 
+	 * @return 'false' if data was rejected since {@link ContainerDelegate} is no longer live
+	 */
+	private boolean process(ByteBuffer data, final int index, Object tag, long submittedNanos, final ReplyFutureImpl replyFuture) {
+		final ContainerDelegate delegate = this.containerDelegates[this.hostAffinityIndex.delegateIndex(index)];
+		if (logger.isDebugEnabled()){
+			logger.debug("Selected ContainerDelegate for process invocation: " + delegate);
+		}
+		
+		ReplyPostProcessor replyPostProcessor = new ReplyPostProcessor(tag, submittedNanos) {
+			@Override
+			public void doProcess(ByteBuffer reply) {
+				this.releaseDelegate();
+				if (replyFuture != null){
+					replyFuture.complete(reply, this.isFailedReply());
+				}
+			}
+			
+			/*
+			 * Reply will never come (e.g., Application Container was evicted)
+			 */
+			@Override
+			public void doFail(Exception cause) {
+				super.doFail(cause);
+				this.releaseDelegate();
+				if (replyFuture != null){
+					replyFuture.fail(cause);
+				}
+			}
+			
+			/*
+			 * This is release logic which will make ContainerDelegate available again.
+			 */
+			private void releaseDelegate() {
+				DataProcessorImpl.this.hostAffinityIndex.offer(index);
+			}
+		};
+		if (logger.isDebugEnabled()){
+			logger.debug("Submitting data " + data + " to the Application Container");
+		}
+		try {
+			delegate.process(data, replyPostProcessor);
+		} 
+		catch (RuntimeException e) {
+			// rejected (e.g., credit ran out), so reply will never come
+			this.hostAffinityIndex.offer(index);
+			if (e instanceof RejectedExecutionException && !delegate.isLive()){
+				return false;
+			}
+			throw e;
+		}
+		if (replyPostProcessor.getRequestId() <= 0){
+			// returned without sending, so reply will never come and the slot is idle again
+			this.hostAffinityIndex.offer(index);
+			if (replyFuture != null){
+				replyFuture.fail(new RejectedExecutionException("Data was not sent to " + delegate));
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 */
+	private void discard(ReplyFutureImpl replyFuture) {
+		logger.debug("Process awaiting available container delegate was discarded due to application termination.");
+		if (replyFuture != null){
+			replyFuture.fail(new RejectedExecutionException("Submission was discarded due to application termination"));
+		}
+	}
+	
+	/**
+	 * Data is sent through the in-flight slot of each Application Container, which is taken from the 
+	 * {@link HostAffinityIndex} the same way as for the rest of the data, starting with the ones which 
+	 * have the idle slot right away. Failure to send it to any of them fails the returned {@link Future}
+	 * while the data is still sent to the rest.
+	 */
+	@Override
+	public Future<Integer> broadcast(ByteBuffer data) {
+		if (this.active){
+			BroadcastFuture broadcastFuture = new BroadcastFuture(this.containerDelegates.length);
+			List<Integer> busyDelegates = new ArrayList<>();
+			boolean live = false;
+			int sent = 0;
+			try {
+				for (int i = 0; i < this.containerDelegates.length; i++) {
+					if (this.containerDelegates[i].isLive()){
+						live = true;
+						int slot = this.hostAffinityIndex.pollSlotOf(i);
+						if (slot >= 0){
+							sent += this.broadcast(data, slot, broadcastFuture);
 						}
+						else {
+							busyDelegates.add(i);
+						}
+					}
+				}
+				if (!live){
+					throw new RejectedExecutionException("None of the Application Containers is live");
+				}
+				for (Integer delegateIndex : busyDelegates) {
+					int slot = this.getSlotOf(delegateIndex);
+					if (slot >= 0){
+						sent += this.broadcast(data, slot, broadcastFuture);
 					}
-				};
+					else if (!this.active){
+						broadcastFuture.fail(new RejectedExecutionException("Broadcast was discarded due to application termination"));
+						sent++;
+					}
+				}
+			} 
+			finally {
+				broadcastFuture.sent(sent);
+			}
+			return broadcastFuture;
+		}
+		else {
+			logger.warn("Rejecting broadcast due to the shutdown. Completed processes: " + this.completedSinceStart.get());
+			throw new RejectedExecutionException("Rejecting broadcast due to a termination");
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void process(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+		this.process(data, replyChannel, null);
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void process(ReadableByteChannel data, WritableByteChannel replyChannel, String ipRegexFilter) throws IOException {
+		if (this.active){
+			int index = this.getIndexOfAvailableDelegate(ipRegexFilter);
+			if (index >= 0){
+				ContainerDelegate delegate = this.containerDelegates[this.hostAffinityIndex.delegateIndex(index)];
 				if (logger.isDebugEnabled()){
-					logger.debug("Submitting data " + data + " to the Application Container");
+					logger.debug("Selected ContainerDelegate for streaming process invocation: " + delegate);
+				}
+				try {
+					delegate.process(data, replyChannel);
+					this.completedSinceStart.getAndIncrement();
+				} 
+				finally {
+					/*
+					 * Reply is complete (or failed) by now, so ContainerDelegate is available again.
+					 */
+					this.hostAffinityIndex.offer(index);
 				}
-				delegate.process(data, replyPostProcessor);
-				this.completedSinceStart.getAndIncrement();
 			}
 			else {
 				logger.debug("Process awaiting available container delegate was discarded due to application termination.");
@@ -134,59 +352,122 @@ class DataProcessorImpl implements DataProcessor {
 		}
 	}
 	
+	/**
+	 * Sends read-only view of the broadcast data to the {@link ContainerDelegate} owning the in-flight slot 
+	 * identified by 'slot', which is made idle again once the reply is received. Failure to send it 
+	 * (e.g., credit ran out) is given to the 'broadcastFuture'.
+	 * 
+	 * @return 1 if data was sent (or failed to be sent) or 0 if it was not (e.g., {@link ContainerDelegate} 
+	 * 		was evicted in the meantime)
+	 */
+	private int broadcast(ByteBuffer data, final int slot, final BroadcastFuture broadcastFuture) {
+		ContainerDelegate delegate = this.containerDelegates[this.hostAffinityIndex.delegateIndex(slot)];
+		if (logger.isDebugEnabled()){
+			logger.debug("Broadcasting data " + data + " to " + delegate);
+		}
+		ReplyPostProcessor replyPostProcessor = new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer reply) {
+				DataProcessorImpl.this.hostAffinityIndex.offer(slot);
+				broadcastFuture.acknowledge(reply, this.isFailedReply());
+			}
+			
+			@Override
+			public void doFail(Exception cause) {
+				super.doFail(cause);
+				DataProcessorImpl.this.hostAffinityIndex.offer(slot);
+				broadcastFuture.fail(cause);
+			}
+		};
+		try {
+			delegate.process(data.asReadOnlyBuffer(), replyPostProcessor);
+		} 
+		catch (RuntimeException e) {
+			// rejected (e.g., credit ran out), so reply will never come
+			this.hostAffinityIndex.offer(slot);
+			if (e instanceof RejectedExecutionException && !delegate.isLive()){
+				return 0;
+			}
+			broadcastFuture.fail(e);
+			return 1;
+		}
+		if (replyPostProcessor.getRequestId() > 0){
+			return 1;
+		}
+		// not sent (e.g., ContainerDelegate was suspended), so reply will never come
+		this.hostAffinityIndex.offer(slot);
+		return 0;
+	}
+	
 	/**
 	 * 
 	 */
 	void stop(){
 		this.active = false;
+		this.hostAffinityIndex.wakeUpAll();
 	}
 
 	/**
+	 * Takes the idle in-flight slot of the live {@link ContainerDelegate} matching the 'ipRegexFilter', 
+	 * waiting for one to become idle if necessary. Slots of the {@link ContainerDelegate}s which are no longer 
+	 * live are discarded.
 	 * 
 	 * @param ipRegexFilter
-	 * @return
+	 * @return index of the slot or -1 if application terminated
+	 * @throws RejectedExecutionException
+	 * 		if none of the Application Containers matching the 'ipRegexFilter' is live
 	 */
 	private int getIndexOfAvailableDelegate(String ipRegexFilter){
-		int index = -1;
-		boolean found = false;
-		while (!found && this.active){
-			for (int i = 0; i < this.busyDelegatesFlags.length && !found; i++) {
-				found = this.busyDelegatesFlags[i].compareAndSet(false, true);
-				if (found){
-					if (isMatch(index, ipRegexFilter)){
-						index = i;
-					}
-					else {
-						found = false;
-						if (this.busyDelegatesFlags[index].compareAndSet(true, false)){
-							logger.error("Failed to release 'busyDelegatesFlag'. Should never happen. Concurrency issue; if you see this message, REPORT!");
-							DataProcessorImpl.this.stop();
-							throw new IllegalStateException("Should never happen. Concurrency issue, if you see this message, REPORT!");
-						}
+		HostGroup hostGroup = this.hostAffinityIndex.getHostGroup(ipRegexFilter);
+		while (this.active){
+			int index = hostGroup.poll();
+			if (index < 0){
+				long[] seenOffers = hostGroup.offers();
+				index = hostGroup.poll();
+				if (index < 0){
+					if (!hostGroup.isAnyDelegateLive()){
+						throw new RejectedExecutionException("None of the Application Containers" + 
+								(StringUtils.hasText(ipRegexFilter) ? " matching '" + ipRegexFilter + "'" : "") + " is live");
 					}
+					hostGroup.awaitOffer(seenOffers, AWAIT_IDLE_SLOT_NANOS);
+					continue;
 				}
 			}
-			LockSupport.parkNanos(10000);
+			if (this.containerDelegates[this.hostAffinityIndex.delegateIndex(index)].isLive()){
+				return index;
+			}
+			// disconnected or evicted, so the slot is never given back
 		}
-		return index;
+		return -1;
 	}
 	
 	/**
+	 * Takes the in-flight slot of the {@link ContainerDelegate} identified by 'delegateIndex', waiting 
+	 * for one to become idle if necessary.
 	 * 
-	 * @param index
-	 * @param ipRegexFilter
-	 * @return
+	 * @return index of the slot or -1 if application terminated or {@link ContainerDelegate} is no longer live
 	 */
-	private boolean isMatch(int index, String ipRegexFilter) {
-		if (StringUtils.hasText(ipRegexFilter)){
-			ContainerDelegate delegate = this.containerDelegates[index];
-			String delegateIpAddress = delegate.getHost().getAddress().getHostAddress();
-			Pattern pattern = Pattern.compile(ipRegexFilter);
-			Matcher matcher = pattern.matcher(delegateIpAddress);
-			return matcher.find();
-		}
-		else {
-			return true;
+	private int getSlotOf(int delegateIndex) {
+		ContainerDelegate delegate = this.containerDelegates[delegateIndex];
+		IdleSlotQueue[] slotQueue = new IdleSlotQueue[]{this.hostAffinityIndex.slotQueueOf(delegateIndex)};
+		boolean awaited = false;
+		while (this.active && delegate.isLive()){
+			int slot = this.hostAffinityIndex.pollSlotOf(delegateIndex);
+			if (slot >= 0){
+				return slot;
+			}
+			if (awaited){
+				// offered slot may be the one of the other Application Container of the same host
+				slotQueue[0].wakeUpOne();
+			}
+			long[] seenOffers = new long[]{slotQueue[0].offers()};
+			slot = this.hostAffinityIndex.pollSlotOf(delegateIndex);
+			if (slot >= 0){
+				return slot;
+			}
+			IdleSlotQueue.awaitOffer(slotQueue, seenOffers, AWAIT_IDLE_SLOT_NANOS);
+			awaited = true;
 		}
+		return -1;
 	}
 }
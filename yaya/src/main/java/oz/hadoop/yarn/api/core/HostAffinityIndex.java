@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import org.springframework.util.StringUtils;
+
+import oz.hadoop.yarn.api.net.ContainerDelegate;
+
+/**
+ * INTERNAL API
+ * 
+ * Index of the in-flight slots of the {@link DataProcessorImpl} by the IP address of the host of the 
+ * {@link ContainerDelegate} owning them. Idle slots of each host are kept in their own {@link IdleSlotQueue}, 
+ * so dispatching to the hosts matching the IP filter takes the matching slot right away instead of passing over 
+ * the ones which do not match. IP filter is matched against the host addresses once, the first time it is used 
+ * (see {@link #getHostGroup(String)}), since {@link ContainerDelegate}s never change hosts.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class HostAffinityIndex {
+	
+	/*
+	 * Bounds the memory taken by the applications which generate IP filters (e.g., one per submission), 
+	 * whose filters are matched every time once that many is cached.
+	 */
+	private static final int MAX_CACHED_FILTERS = 256;
+	
+	private final ContainerDelegate[] containerDelegates;
+	
+	private final int inFlightWindow;
+	
+	/*
+	 * Boxed once, so releasing the slot does not allocate
+	 */
+	private final Integer[] slots;
+	
+	/*
+	 * Queue of the host of each slot
+	 */
+	private final IdleSlotQueue[] slotQueues;
+	
+	private final Map<String, IdleSlotQueue> hostQueues;
+	
+	private final Map<String, List<Integer>> hostDelegates;
+	
+	private final HostGroup allHosts;
+	
+	private final ConcurrentHashMap<String, HostGroup> filteredHosts;
+	
+	/**
+	 * 
+	 * @param containerDelegates
+	 * @param inFlightWindow
+	 * 		amount of in-flight slots of each {@link ContainerDelegate} (consecutive slot indexes)
+	 */
+	HostAffinityIndex(ContainerDelegate[] containerDelegates, int inFlightWindow) {
+		this.containerDelegates = containerDelegates;
+		this.inFlightWindow = inFlightWindow;
+		this.slots = new Integer[containerDelegates.length * inFlightWindow];
+		for (int i = 0; i < this.slots.length; i++) {
+			this.slots[i] = i;
+		}
+		this.hostDelegates = new LinkedHashMap<>();
+		for (int i = 0; i < containerDelegates.length; i++) {
+			String hostAddress = this.getHostAddress(containerDelegates[i]);
+			List<Integer> delegates = this.hostDelegates.get(hostAddress);
+			if (delegates == null){
+				delegates = new ArrayList<>();
+				this.hostDelegates.put(hostAddress, delegates);
+			}
+			delegates.add(i);
+		}
+		this.slotQueues = new IdleSlotQueue[this.slots.length];
+		this.hostQueues = new LinkedHashMap<>();
+		for (Entry<String, List<Integer>> hostDelegatesEntry : this.hostDelegates.entrySet()) {
+			IdleSlotQueue hostQueue = this.newIdleSlotQueue(hostDelegatesEntry.getValue());
+			this.hostQueues.put(hostDelegatesEntry.getKey(), hostQueue);
+		}
+		this.allHosts = this.newHostGroup(null);
+		this.filteredHosts = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Returns the {@link HostGroup} of the hosts whose IP address matches the 'ipRegexFilter' 
+	 * or all hosts if it is null or empty.
+	 */
+	HostGroup getHostGroup(String ipRegexFilter) {
+		if (!StringUtils.hasText(ipRegexFilter)){
+			return this.allHosts;
+		}
+		HostGroup hostGroup = this.filteredHosts.get(ipRegexFilter);
+		if (hostGroup == null){
+			hostGroup = this.newHostGroup(Pattern.compile(ipRegexFilter));
+			if (this.filteredHosts.size() < MAX_CACHED_FILTERS){
+				this.filteredHosts.putIfAbsent(ipRegexFilter, hostGroup);
+			}
+		}
+		return hostGroup;
+	}
+	
+	/**
+	 * Maps the index of the in-flight slot to the index of the {@link ContainerDelegate} owning it.
+	 */
+	int delegateIndex(int slot) {
+		return slot / this.inFlightWindow;
+	}
+	
+	/**
+	 * Takes the idle in-flight slot of the {@link ContainerDelegate} identified by 'delegate' 
+	 * (e.g., to broadcast to it) or returns -1 if all of its slots are busy.
+	 */
+	int pollSlotOf(int delegate) {
+		for (int slot = delegate * this.inFlightWindow; slot < (delegate + 1) * this.inFlightWindow; slot++) {
+			if (this.slotQueues[slot].remove(this.slots[slot])){
+				return slot;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the {@link IdleSlotQueue} of the host of the {@link ContainerDelegate} identified by 'delegate', 
+	 * which is offered its slots once they become idle.
+	 */
+	IdleSlotQueue slotQueueOf(int delegate) {
+		return this.slotQueues[delegate * this.inFlightWindow];
+	}
+	
+	/**
+	 * Makes the 'slot' taken from any of the {@link HostGroup}s (or {@link #pollSlotOf(int)}) idle again.
+	 */
+	void offer(int slot) {
+		this.slotQueues[slot].offer(this.slots[slot]);
+	}
+	
+	/**
+	 * Unparks all threads waiting for the idle slot.
+	 */
+	void wakeUpAll() {
+		for (IdleSlotQueue hostQueue : this.hostQueues.values()) {
+			hostQueue.wakeUpAll();
+		}
+	}
+	
+	/**
+	 * Slots of the host are offered interleaved (first slot of every {@link ContainerDelegate}, then the second 
+	 * and so on), so load is spread across its Application Containers before their in-flight windows fill up.
+	 */
+	private IdleSlotQueue newIdleSlotQueue(List<Integer> delegates) {
+		Integer[] hostSlots = new Integer[delegates.size() * this.inFlightWindow];
+		int i = 0;
+		for (int slot = 0; slot < this.inFlightWindow; slot++) {
+			for (Integer delegate : delegates) {
+				hostSlots[i++] = this.slots[delegate * this.inFlightWindow + slot];
+			}
+		}
+		IdleSlotQueue hostQueue = new IdleSlotQueue(hostSlots);
+		for (Integer hostSlot : hostSlots) {
+			this.slotQueues[hostSlot] = hostQueue;
+		}
+		return hostQueue;
+	}
+	
+	/**
+	 * 
+	 */
+	private HostGroup newHostGroup(Pattern ipPattern) {
+		List<IdleSlotQueue> queues = new ArrayList<>();
+		List<ContainerDelegate> delegates = new ArrayList<>();
+		for (Entry<String, IdleSlotQueue> hostQueueEntry : this.hostQueues.entrySet()) {
+			String hostAddress = hostQueueEntry.getKey();
+			if (ipPattern == null || ipPattern.matcher(hostAddress).find()){
+				queues.add(hostQueueEntry.getValue());
+				for (Integer delegate : this.hostDelegates.get(hostAddress)) {
+					delegates.add(this.containerDelegates[delegate]);
+				}
+			}
+		}
+		return new HostGroup(queues.toArray(new IdleSlotQueue[queues.size()]), 
+				delegates.toArray(new ContainerDelegate[delegates.size()]));
+	}
+	
+	/**
+	 * 
+	 */
+	private String getHostAddress(ContainerDelegate containerDelegate) {
+		InetSocketAddress host = containerDelegate.getHost();
+		return host.getAddress() != null ? host.getAddress().getHostAddress() : host.getHostString();
+	}
+	
+	/**
+	 * INTERNAL API
+	 * 
+	 * Idle slots of the hosts matching the same IP filter.
+	 */
+	static class HostGroup {
+		
+		private final IdleSlotQueue[] queues;
+		
+		private final ContainerDelegate[] containerDelegates;
+		
+		/**
+		 * 
+		 */
+		private HostGroup(IdleSlotQueue[] queues, ContainerDelegate[] containerDelegates) {
+			this.queues = queues;
+			this.containerDelegates = containerDelegates;
+		}
+		
+		/**
+		 * Returns the idle slot of any of the hosts or -1 if there is none. Hosts are tried starting 
+		 * with the random one, so the load is spread across them.
+		 */
+		int poll() {
+			int hosts = this.queues.length;
+			int start = hosts > 1 ? ThreadLocalRandom.current().nextInt(hosts) : 0;
+			for (int i = 0; i < hosts; i++) {
+				int slot = this.queues[(start + i) % hosts].poll();
+				if (slot >= 0){
+					return slot;
+				}
+			}
+			return -1;
+		}
+		
+		/**
+		 * Returns the amount of offers made so far to the queue of each host, which is given to 
+		 * {@link #awaitOffer(long[], long)}.
+		 */
+		long[] offers() {
+			long[] offers = new long[this.queues.length];
+			for (int i = 0; i < offers.length; i++) {
+				offers[i] = this.queues[i].offers();
+			}
+			return offers;
+		}
+		
+		/**
+		 * See {@link IdleSlotQueue#awaitOffer(IdleSlotQueue[], long[], long)}
+		 */
+		void awaitOffer(long[] seenOffers, long timeoutNanos) {
+			IdleSlotQueue.awaitOffer(this.queues, seenOffers, timeoutNanos);
+		}
+		
+		/**
+		 * 
+		 */
+		boolean isAnyDelegateLive() {
+			for (ContainerDelegate containerDelegate : this.containerDelegates) {
+				if (containerDelegate.isLive()){
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * 
+		 */
+		int hosts() {
+			return this.queues.length;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * INTERNAL API
+ * 
+ * Lock-free queue of the idle in-flight slots of the {@link DataProcessorImpl}, so finding the available slot 
+ * takes constant time regardless of the amount of Application Containers. Threads which find no idle slot 
+ * park until one is offered, each offer unparking one of them. Thread may wait on several queues at once 
+ * (see {@link #awaitOffer(IdleSlotQueue[], long[], long)}), in which case it is unparked by the first offer 
+ * made to any of them.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class IdleSlotQueue {
+	
+	private final ConcurrentLinkedQueue<Integer> idleSlots;
+	
+	private final ConcurrentLinkedQueue<Waiter> waiters;
+	
+	/*
+	 * Incremented by every offer, so waiting thread can tell whether it missed one
+	 */
+	private final AtomicLong offers;
+	
+	/**
+	 * 
+	 * @param slots
+	 * 		initially idle slots in the order they are to be taken
+	 */
+	IdleSlotQueue(Integer... slots) {
+		this.idleSlots = new ConcurrentLinkedQueue<>();
+		this.waiters = new ConcurrentLinkedQueue<>();
+		this.offers = new AtomicLong();
+		for (Integer slot : slots) {
+			this.idleSlots.offer(slot);
+		}
+	}
+	
+	/**
+	 * Returns the idle slot or -1 if there is none.
+	 */
+	int poll() {
+		Integer slot = this.idleSlots.poll();
+		return slot == null ? -1 : slot;
+	}
+	
+	/**
+	 * Makes the 'slot' idle again, unparking one of the waiting threads. Slot is given boxed, 
+	 * so the caller could box it once and offering it does not allocate.
+	 */
+	void offer(Integer slot) {
+		this.idleSlots.offer(slot);
+		this.offers.incrementAndGet();
+		this.wakeUpOne();
+	}
+	
+	/**
+	 * Takes the particular idle 'slot' (e.g., the one of the particular Application Container) 
+	 * returning 'false' if it is not idle. Unlike {@link #poll()} takes linear time.
+	 */
+	boolean remove(Integer slot) {
+		return this.idleSlots.remove(slot);
+	}
+	
+	/**
+	 * Unparks one of the waiting threads (e.g., since the thread unparked by the offer 
+	 * could not take the offered slot, see {@link #remove(Integer)}).
+	 */
+	void wakeUpOne() {
+		Waiter waiter;
+		while ((waiter = this.waiters.poll()) != null){
+			// skip the ones already unparked by the offer made to the other queue they wait on
+			if (waiter.unpark()){
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the amount of offers made so far, which is given to {@link #awaitOffer(IdleSlotQueue[], long[], long)}.
+	 */
+	long offers() {
+		return this.offers.get();
+	}
+	
+	/**
+	 * Unparks all waiting threads (e.g., since no slot will ever be offered again).
+	 */
+	void wakeUpAll() {
+		Waiter waiter;
+		while ((waiter = this.waiters.poll()) != null){
+			waiter.unpark();
+		}
+	}
+	
+	/**
+	 * Parks the calling thread until the slot is offered to any of the 'queues' after 'seenOffers' 
+	 * offers were made to each of them (see {@link #offers()}), 'timeoutNanos' elapse or {@link #wakeUpAll()} 
+	 * is invoked. Returns right away if such offer was already made.
+	 */
+	static void awaitOffer(IdleSlotQueue[] queues, long[] seenOffers, long timeoutNanos) {
+		Waiter waiter = new Waiter(Thread.currentThread());
+		for (IdleSlotQueue queue : queues) {
+			queue.waiters.offer(waiter);
+		}
+		/*
+		 * Offer made before the registration is seen here, while the one made after
+		 * finds this thread registered.
+		 */
+		boolean missedOffer = false;
+		for (int i = 0; i < queues.length && !missedOffer; i++) {
+			missedOffer = queues[i].offers.get() != seenOffers[i];
+		}
+		if (!missedOffer){
+			LockSupport.parkNanos(waiter, timeoutNanos);
+		}
+		// so the offers which still find it registered unpark the other waiting thread
+		waiter.unparked.set(true);
+		for (IdleSlotQueue queue : queues) {
+			queue.waiters.remove(waiter);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private static class Waiter {
+		
+		private final Thread thread;
+		
+		private final AtomicBoolean unparked;
+		
+		Waiter(Thread thread) {
+			this.thread = thread;
+			this.unparked = new AtomicBoolean();
+		}
+		
+		/**
+		 * Returns 'false' if this waiter was already unparked.
+		 */
+		boolean unpark() {
+			if (this.unparked.compareAndSet(false, true)){
+				LockSupport.unpark(this.thread);
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -23,6 +23,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import oz.hadoop.yarn.api.ApplicationContainerProcessor;
+import oz.hadoop.yarn.api.net.ExecutorFactory;
+import oz.hadoop.yarn.api.net.PlatformThreadExecutorFactory;
 
 /**
  * Launcher for launching java-based tasks
@@ -45,7 +47,17 @@ public class JavaProcessLauncher<R> extends ProcessLauncher<R> {
 	 * @param containerLivelinesBarrier
 	 */
 	JavaProcessLauncher(ApplicationContainerProcessor applicationContainer, String containerArguments) {
-		super();
+		this(applicationContainer, containerArguments, new PlatformThreadExecutorFactory());
+	}
+	
+	/**
+	 * 
+	 * @param applicationContainer
+	 * @param containerArguments
+	 * @param executorFactory
+	 */
+	JavaProcessLauncher(ApplicationContainerProcessor applicationContainer, String containerArguments, ExecutorFactory executorFactory) {
+		super(executorFactory);
 		this.containerArguments = containerArguments;
 		this.applicationContainer = applicationContainer;
 	}
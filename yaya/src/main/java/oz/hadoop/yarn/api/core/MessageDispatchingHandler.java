@@ -15,15 +15,29 @@
  */
 package oz.hadoop.yarn.api.core;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
 
 import oz.hadoop.yarn.api.ApplicationContainerProcessor;
+import oz.hadoop.yarn.api.StreamingApplicationContainerProcessor;
 import oz.hadoop.yarn.api.net.ApplicationContainerClient;
-import oz.hadoop.yarn.api.net.ApplicationContainerMessageHandler;
 import oz.hadoop.yarn.api.net.ApplicationContainerServer;
+import oz.hadoop.yarn.api.net.ReplyHeader;
+import oz.hadoop.yarn.api.net.ReplyHeaderWritingMessageHandler;
+import oz.hadoop.yarn.api.net.StreamingMessageHandler;
+import oz.hadoop.yarn.api.utils.ByteBufferUtils;
 
 /**
  * INTERNAL API
@@ -31,34 +45,117 @@ import oz.hadoop.yarn.api.net.ApplicationContainerServer;
  * A dispatcher-type class which is bound to {@link ApplicationContainerClient} with the 
  * purpose of dispatching messages coming from {@link ApplicationContainerServer} to the 
  * provided {@link ApplicationContainerProcessor}.
+ * Streamed messages given to the {@link ApplicationContainerProcessor} which is not a 
+ * {@link StreamingApplicationContainerProcessor} are read fully before being dispatched.
+ * Messages may be handled concurrently, in which case each of them borrows one of the provided 
+ * {@link ApplicationContainerProcessor}s for the duration of its processing, so no instance is 
+ * ever used by two threads at once.
+ * Replies to the messages which are not streamed are prefixed with the {@link ReplyHeader}, 
+ * which is written separately from the data produced by the {@link ApplicationContainerProcessor}, 
+ * so the data is never copied (see {@link ReplyHeaderWritingMessageHandler}).
  * 
  * @author Oleg Zhurakousky
  *
  */
-class MessageDispatchingHandler implements ApplicationContainerMessageHandler {
+class MessageDispatchingHandler implements StreamingMessageHandler, ReplyHeaderWritingMessageHandler {
 	
 	private final static Log logger = LogFactory.getLog(MessageDispatchingHandler.class);
 	
-	private final ApplicationContainerProcessor applicationContainer;
+	private final BlockingQueue<ApplicationContainerProcessor> applicationContainers;
+	
+	private final boolean streaming;
+	
+	private final int containerId;
 	
 	/**
 	 * 
-	 * @param applicationContainer
-	 * @param disconnectMonitor
+	 * @param containerId
+	 * 		id of the Application Container written into the {@link ReplyHeader}
+	 * @param applicationContainers
 	 */
-	public MessageDispatchingHandler(ApplicationContainerProcessor applicationContainer){
-		this.applicationContainer = applicationContainer;
+	public MessageDispatchingHandler(int containerId, ApplicationContainerProcessor... applicationContainers){
+		Assert.notEmpty(applicationContainers, "'applicationContainers' must not be null or empty");
+		this.applicationContainers = new ArrayBlockingQueue<>(applicationContainers.length, false, Arrays.asList(applicationContainers));
+		this.streaming = applicationContainers[0] instanceof StreamingApplicationContainerProcessor;
+		this.containerId = containerId;
 	}
 
 	/**
-	 * 
+	 * Same as {@link #handle(ByteBuffer, ByteBuffer)} while the {@link ReplyHeader} is discarded, 
+	 * since its presence could only be signified by the transport which writes it.
 	 */
 	@Override
 	public ByteBuffer handle(ByteBuffer messageBuffer) {
+		return this.handle(messageBuffer, ByteBuffer.allocate(ReplyHeader.LENGTH));
+	}
+	
+	/**
+	 * Failure of the {@link ApplicationContainerProcessor} is replied with its stack trace (UTF-8) 
+	 * marked as {@link ReplyHeader#FAILURE}.
+	 */
+	@Override
+	public ByteBuffer handle(ByteBuffer messageBuffer, ByteBuffer replyHeader) {
 		if (logger.isDebugEnabled()){
 			logger.debug("Handling buffer: " + messageBuffer);
 		}
-		return this.applicationContainer.process(messageBuffer);
+		ApplicationContainerProcessor applicationContainer = this.borrow();
+		long startNanos = System.nanoTime();
+		byte status = ReplyHeader.SUCCESS;
+		ByteBuffer data;
+		try {
+			data = applicationContainer.process(messageBuffer);
+			if (data == null){
+				data = ByteBuffer.allocate(0);
+			}
+		} 
+		catch (RuntimeException e) {
+			status = ReplyHeader.FAILURE;
+			data = ByteBuffer.wrap(stackTraceOf(e));
+		}
+		finally {
+			this.applicationContainers.offer(applicationContainer);
+		}
+		ReplyHeader.write(replyHeader, status, this.containerId, System.nanoTime() - startNanos);
+		return data;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public void handle(ReadableByteChannel message, WritableByteChannel reply) throws IOException {
+		if (this.streaming){
+			if (logger.isDebugEnabled()){
+				logger.debug("Handling streamed message");
+			}
+			ApplicationContainerProcessor applicationContainer = this.borrow();
+			try {
+				((StreamingApplicationContainerProcessor) applicationContainer).process(message, reply);
+			} 
+			finally {
+				this.applicationContainers.offer(applicationContainer);
+			}
+		}
+		else {
+			ByteBuffer messageBuffer = ByteBufferUtils.readFully(message);
+			// streamed reply carries no ReplyHeader, so the failure aborts it instead
+			ByteBuffer replyBuffer;
+			ApplicationContainerProcessor applicationContainer = this.borrow();
+			try {
+				replyBuffer = applicationContainer.process(messageBuffer);
+			} 
+			finally {
+				this.applicationContainers.offer(applicationContainer);
+			}
+			if (replyBuffer != null){
+				if (replyBuffer.position() != 0){
+					replyBuffer.flip();
+				}
+				while (replyBuffer.hasRemaining()){
+					reply.write(replyBuffer);
+				}
+			}
+		}
 	}
 
 	/**
@@ -70,4 +167,30 @@ class MessageDispatchingHandler implements ApplicationContainerMessageHandler {
 			logger.debug("Received onDisconnect event");
 		}
 	}
+
+	/**
+	 * Waits for one of the instances to be returned, since no more messages are handled 
+	 * concurrently then there are instances this only happens when the transport 
+	 * lets more messages through.
+	 */
+	private ApplicationContainerProcessor borrow() {
+		try {
+			return this.applicationContainers.take();
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for available ApplicationContainerProcessor", e);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private static byte[] stackTraceOf(Exception e) {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		e.printStackTrace(pw);
+		pw.flush();
+		return sw.toString().getBytes(StandardCharsets.UTF_8);
+	}
 }
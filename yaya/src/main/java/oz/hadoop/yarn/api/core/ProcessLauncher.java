@@ -17,10 +17,12 @@ package oz.hadoop.yarn.api.core;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import oz.hadoop.yarn.api.net.ExecutorFactory;
 
 /**
  * 
@@ -39,10 +41,11 @@ public abstract class ProcessLauncher<R> {
 	
 	/**
 	 * 
-	 * @param containerLivelinesBarrier
+	 * @param executorFactory
 	 */
-	ProcessLauncher(){
-		this.executor = Executors.newCachedThreadPool();
+	ProcessLauncher(ExecutorFactory executorFactory){
+		Assert.notNull(executorFactory, "'executorFactory' must not be null");
+		this.executor = executorFactory.newExecutor(this.getClass().getSimpleName());
 		this.containerLivelinesBarrier = new CountDownLatch(1);
 	}
 
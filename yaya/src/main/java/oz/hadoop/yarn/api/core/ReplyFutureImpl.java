@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import oz.hadoop.yarn.api.ReplyCallback;
+import oz.hadoop.yarn.api.ReplyFuture;
+import oz.hadoop.yarn.api.net.ReplyPostProcessor;
+
+/**
+ * INTERNAL API
+ * 
+ * {@link ReplyFuture} which is completed by the {@link ReplyPostProcessor} of the request it represents 
+ * (see {@link #complete(ByteBuffer, boolean)} and {@link #fail(Exception)}). Callbacks are taken off the queue 
+ * before they are invoked, so each is invoked once regardless of whether it was registered before or after 
+ * this future completed.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class ReplyFutureImpl implements ReplyFuture {
+	
+	private final Log logger = LogFactory.getLog(ReplyFutureImpl.class);
+	
+	private final CountDownLatch completed;
+	
+	private final ConcurrentLinkedQueue<ReplyCallback> callbacks;
+	
+	private final Executor callbackExecutor;
+	
+	private volatile ByteBuffer reply;
+	
+	private volatile Exception failure;
+	
+	/**
+	 * 
+	 * @param callbackExecutor
+	 * 		executor to invoke the callbacks or null to invoke them by the completing thread
+	 */
+	ReplyFutureImpl(Executor callbackExecutor) {
+		this.completed = new CountDownLatch(1);
+		this.callbacks = new ConcurrentLinkedQueue<>();
+		this.callbackExecutor = callbackExecutor;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void addCallback(ReplyCallback callback) {
+		this.callbacks.offer(callback);
+		if (this.isDone()){
+			this.invokeCallbacks();
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public boolean isDone() {
+		return this.completed.getCount() == 0;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public ByteBuffer get() throws InterruptedException, ExecutionException {
+		this.completed.await();
+		return this.result();
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public ByteBuffer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!this.completed.await(timeout, unit)){
+			throw new TimeoutException("Reply was not received within " + timeout + " " + unit);
+		}
+		return this.result();
+	}
+	
+	/**
+	 * Completes this future with the copy of the 'reply', since the received one is only valid 
+	 * until {@link ReplyPostProcessor} returns.
+	 * 
+	 * @param reply
+	 * @param failedReply
+	 * 		'true' if the 'reply' is the stack trace of the failure of the Application Container 
+	 * 		(see {@link ReplyPostProcessor#isFailedReply()})
+	 */
+	void complete(ByteBuffer reply, boolean failedReply) {
+		if (failedReply){
+			byte[] stackTrace = new byte[reply.remaining()];
+			reply.get(stackTrace);
+			this.fail(new IllegalStateException("Application Container failed to process the data: " + 
+					new String(stackTrace, StandardCharsets.UTF_8)));
+		}
+		else {
+			ByteBuffer replyCopy = ByteBuffer.allocate(reply.remaining());
+			replyCopy.put(reply);
+			replyCopy.flip();
+			this.reply = replyCopy.asReadOnlyBuffer();
+			this.completed.countDown();
+			this.invokeCallbacks();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	void fail(Exception cause) {
+		this.failure = cause;
+		this.completed.countDown();
+		this.invokeCallbacks();
+	}
+	
+	/**
+	 * 
+	 */
+	private ByteBuffer result() throws ExecutionException {
+		if (this.failure != null){
+			throw new ExecutionException(this.failure);
+		}
+		return this.reply.duplicate();
+	}
+	
+	/**
+	 * 
+	 */
+	private void invokeCallbacks() {
+		ReplyCallback callback;
+		while ((callback = this.callbacks.poll()) != null){
+			if (this.callbackExecutor == null){
+				this.invokeCallback(callback);
+			}
+			else {
+				final ReplyCallback executedCallback = callback;
+				try {
+					this.callbackExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							ReplyFutureImpl.this.invokeCallback(executedCallback);
+						}
+					});
+				} 
+				catch (RejectedExecutionException e) {
+					logger.warn("Callback executor rejected the callback, so it is invoked by the completing thread", e);
+					this.invokeCallback(callback);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Failure of the callback is only logged, so it does not affect the thread which invoked it 
+	 * (e.g., the networking thread).
+	 */
+	private void invokeCallback(ReplyCallback callback) {
+		try {
+			if (this.failure != null){
+				callback.onFailure(this.failure);
+			}
+			else {
+				callback.onReply(this.reply.duplicate());
+			}
+		} 
+		catch (RuntimeException e) {
+			logger.error("Failed to invoke reply callback " + callback, e);
+		}
+	}
+}
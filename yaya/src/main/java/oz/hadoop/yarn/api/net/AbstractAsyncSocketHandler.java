@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Base class to implement network Client and Server on top of NIO.2 asynchronous channels as an alternative 
+ * to {@link AbstractSocketHandler}. Instead of selector loops all I/O is performed by the completion handlers
+ * invoked by the threads of the {@link AsynchronousChannelGroup} owned by this handler (see {@link AsyncConnection}).
+ * 
+ * Frames are the same as the ones of {@link AbstractSocketHandler}, while only messages and credit grants are 
+ * exchanged, so batching, compression, shared memory, streamed messages, heartbeats and session resume 
+ * do not apply to this transport (see {@link TransportSettings#isAsyncTransport()}).
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+abstract class AbstractAsyncSocketHandler implements SocketHandler {
+	
+	private final Log logger = LogFactory.getLog(AbstractAsyncSocketHandler.class);
+	
+	private final int threads;
+	
+	private final ByteBufferPool bufferPool;
+	
+	final TransportSettings transportSettings;
+	
+	final CountDownLatch lifeCycleLatch;
+	
+	final InetSocketAddress address;
+	
+	final Runnable onDisconnectTask;
+	
+	volatile AsynchronousChannelGroup channelGroup;
+	
+	/**
+	 * 
+	 * @param address
+	 * @param threads
+	 * 		threads of the {@link AsynchronousChannelGroup} which perform I/O and invoke the completion handlers
+	 * @param onDisconnectTask
+	 * @param transportSettings
+	 */
+	AbstractAsyncSocketHandler(InetSocketAddress address, int threads, Runnable onDisconnectTask, TransportSettings transportSettings) {
+		Assert.notNull(address, "'address' must not be null");
+		Assert.notNull(transportSettings, "'transportSettings' must not be null");
+		this.address = address;
+		this.threads = threads;
+		this.onDisconnectTask = onDisconnectTask;
+		this.transportSettings = transportSettings;
+		this.bufferPool = new ByteBufferPool(transportSettings.getBufferPoolBudget(), transportSettings.isBufferPoolDirect());
+		this.lifeCycleLatch = new CountDownLatch(1);
+	}
+	
+	/**
+	 * Will asynchronously start this socket handler (client or server) returning the address which 
+	 * represents this side of the connection for clients and bind address for server.
+	 */
+	@Override
+	public synchronized InetSocketAddress start() {
+		if (this.channelGroup == null){
+			try {
+				this.channelGroup = AsynchronousChannelGroup.withFixedThreadPool(this.threads, new IoThreadFactory(this.getClass().getSimpleName()));
+				InetSocketAddress localAddress = this.init();
+				if (logger.isDebugEnabled()){
+					logger.debug("Started " + this.getClass().getSimpleName() + " with " + this.threads + " I/O threads");
+				}
+				return localAddress;
+			} 
+			catch (IOException e) {
+				this.shutdown();
+				throw new IllegalStateException("Failed to start " + this.getClass().getName(), e);
+			}
+		}
+		return this.address;
+	}
+	
+	/**
+	 * Blocks until this handler is shut down.
+	 */
+	@Override
+	public void awaitShutdown() {
+		try {
+			this.lifeCycleLatch.await();
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for shutdown");
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public boolean isRunning() {
+		return this.channelGroup != null && this.lifeCycleLatch.getCount() > 0;
+	}
+	
+	/**
+	 * Messages are never compressed, so always empty.
+	 */
+	@Override
+	public Map<String, CompressionStats> getCompressionStats() {
+		return Collections.emptyMap();
+	}
+	
+	/**
+	 * 
+	 */
+	ByteBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+	
+	/**
+	 * Shuts down the {@link AsynchronousChannelGroup} closing all of its channels and releases 
+	 * the threads waiting for this handler to shut down. May be invoked by the I/O thread.
+	 */
+	void shutdown() {
+		AsynchronousChannelGroup channelGroup = this.channelGroup;
+		if (channelGroup != null){
+			try {
+				channelGroup.shutdownNow();
+			} 
+			catch (IOException e) {
+				logger.warn("Failure shutting down channel group", e);
+			}
+		}
+		this.lifeCycleLatch.countDown();
+	}
+	
+	/**
+	 * Initialization method to be implemented by sub-classes of this socket handler.
+	 * Typically for bind (server) and connect (client) logic.
+	 * 
+	 * @return address of this side of the connection (client) or bind address (server)
+	 */
+	abstract InetSocketAddress init() throws IOException;
+	
+	/**
+	 * Invoked by the I/O thread for every message received through the {@link AsyncConnection} 
+	 * together with the flags of the frame which carried it (see {@link AbstractSocketHandler#REPLY_HEADER_FLAG}).
+	 * The implementation becomes the owner of the message and must release it once done 
+	 * (see {@link PooledByteBuffer#release()}).
+	 */
+	abstract void onMessage(AsyncConnection connection, long requestId, int flags, PooledByteBuffer message);
+	
+	/**
+	 * Invoked by the I/O thread once the {@link AsyncConnection} was closed by the other side or failed.
+	 * Not invoked for connections closed by this side.
+	 */
+	abstract void onDisconnect(AsyncConnection connection);
+	
+	/**
+	 * Invoked by the I/O thread when the credit frame is received (see {@link AbstractSocketHandler#CREDIT_FRAME_ID}).
+	 * Only server honors it.
+	 */
+	void onCreditGrant(AsyncConnection connection, int messages, long bytes) {
+		logger.warn("Ignoring credit grant from " + connection.getRemoteAddress());
+	}
+	
+	/**
+	 * Names I/O threads after the handler, so they could be told apart from the selector threads.
+	 */
+	private static class IoThreadFactory implements ThreadFactory {
+		private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+		
+		private final AtomicInteger threadCount = new AtomicInteger();
+		
+		private final String prefix;
+		
+		/**
+		 * 
+		 * @param prefix
+		 */
+		IoThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = this.threadFactory.newThread(task);
+			thread.setName(this.prefix + "-io-" + this.threadCount.incrementAndGet());
+			return thread;
+		}
+	}
+}
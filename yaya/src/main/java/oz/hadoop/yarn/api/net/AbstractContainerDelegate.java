@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import oz.hadoop.yarn.api.CreditExhaustedException;
+
+/**
+ * Base class of {@link ContainerDelegate}s which governs the amount of requests in flight
+ * (see {@link TransportSettings#getInFlightWindow()}) as well as the credit granted by the 
+ * Application Container (see {@link CreditGate}) regardless of how they reach the Application Container.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ */
+abstract class AbstractContainerDelegate implements ContainerDelegate {
+	private final Log logger = LogFactory.getLog(AbstractContainerDelegate.class);
+
+	private final Semaphore executionGovernor;
+
+	private final int inFlightWindow;
+
+	private final CreditGate creditGate;
+
+	private volatile boolean suspended;
+
+	private volatile boolean discarded;
+
+	/*
+	 * Set while Application Container which lost its connection is expected to resume its session
+	 */
+	private volatile boolean detached;
+
+	/**
+	 *
+	 * @param inFlightWindow
+	 * @param creditBudget
+	 * 		budget of bytes in flight shared by all Application Containers
+	 */
+	AbstractContainerDelegate(int inFlightWindow, CreditGate creditBudget){
+		this.inFlightWindow = inFlightWindow;
+		this.executionGovernor = new Semaphore(this.inFlightWindow);
+		this.creditGate = new CreditGate(this, creditBudget);
+	}
+
+	/**
+	 * Credit for the message is taken once the execution permit was acquired 
+	 * and both are returned once the reply is received.
+	 * 
+	 * @throws CreditExhaustedException
+	 * 		if credit ran out and {@link TransportSettings#isCreditFailFast()} is set
+	 * @throws IllegalArgumentException
+	 * 		if data does not fit into a single frame (see {@link AbstractSocketHandler#MAX_FRAME_PAYLOAD_SIZE}), 
+	 * 		which is checked before anything is acquired regardless of the transport
+	 * @throws RejectedExecutionException
+	 * 		if this delegate is suspended or the thread was interrupted while waiting for the execution permit, 
+	 * 		so the data is never sent without the caller knowing
+	 */
+	@Override
+	public void process(ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
+		AbstractSocketHandler.checkPayloadSize(data.remaining());
+		try {
+			if (!this.suspended){
+				this.executionGovernor.acquire();
+				int size = data.remaining();
+				try {
+					this.creditGate.acquire(size);
+				} 
+				catch (InterruptedException | RuntimeException e) {
+					this.executionGovernor.release();
+					throw e;
+				}
+				if (this.detached){
+					try {
+						this.awaitAttached();
+					} 
+					catch (InterruptedException | RuntimeException e) {
+						this.release(size);
+						throw e;
+					}
+				}
+				replyPostProcessor.setContainerDelegate(this, size);
+				this.doProcess(data, replyPostProcessor);
+			}
+			else {
+				throw this.rejectSuspended();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for aquiring execution permit for " + this, e);
+		}
+	}
+
+	/**
+	 * Streamed message takes the credit of a single message, while its bytes are not counted
+	 * since only few of its chunks are ever buffered (see {@link TransportSettings#getStreamBufferedChunks()}).
+	 * 
+	 * @throws CreditExhaustedException
+	 * 		if credit ran out and {@link TransportSettings#isCreditFailFast()} is set
+	 * @throws RejectedExecutionException
+	 * 		if this delegate is suspended
+	 */
+	@Override
+	public void process(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+		if (!this.suspended){
+			try {
+				this.executionGovernor.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for aquiring execution permit for " + this);
+			}
+			try {
+				this.creditGate.acquire(0);
+			}
+			catch (InterruptedException e) {
+				this.executionGovernor.release();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for credit of " + this);
+			}
+			catch (RuntimeException e) {
+				this.executionGovernor.release();
+				throw e;
+			}
+			try {
+				if (this.detached){
+					this.awaitAttached();
+				}
+				this.doProcess(data, replyChannel);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + this + " to resume its session");
+			}
+			finally {
+				this.release(0);
+			}
+		}
+		else {
+			throw this.rejectSuspended();
+		}
+	}
+
+	/**
+	 * Releases the execution permit and returns the credit taken for the message of 'size' bytes 
+	 * once the reply was received (see {@link ReplyPostProcessor}).
+	 */
+	public void release(long size) {
+		this.creditGate.release(size);
+		this.executionGovernor.release();
+	}
+
+	/**
+	 * Replaces the credit granted by the Application Container (see {@link ApplicationContainerClient#grantCredit(int, long)}).
+	 */
+	void grantCredit(int messages, long bytes) {
+		this.creditGate.grant(messages, bytes);
+	}
+
+	/**
+	 * Invoked once the Application Container disconnected or was evicted, returning the credit 
+	 * of messages which will never be replied to back to the budget.
+	 */
+	void discard() {
+		synchronized (this) {
+			this.discarded = true;
+			this.notifyAll();
+		}
+		this.creditGate.close();
+	}
+
+	/**
+	 * Invoked once the connection to the Application Container was lost, while it is expected to reconnect 
+	 * (see {@link TransportSettings#getSessionResumeTimeoutMillis()}). Until then requests wait for it.
+	 */
+	synchronized void detach() {
+		this.detached = true;
+	}
+
+	/**
+	 * Returns 'true' while the Application Container which lost its connection is expected to resume its session.
+	 */
+	boolean isDetached() {
+		return this.detached;
+	}
+
+	/**
+	 * Invoked once the Application Container resumed its session, letting the waiting requests through.
+	 * 
+	 * @return 'false' if it is too late since this ContainerDelegate was discarded
+	 */
+	synchronized boolean attach() {
+		if (this.discarded){
+			return false;
+		}
+		this.detached = false;
+		this.notifyAll();
+		return true;
+	}
+
+	/**
+	 * Discards this ContainerDelegate unless the Application Container resumed its session by now.
+	 * 
+	 * @return 'true' if it was discarded
+	 */
+	boolean discardIfDetached() {
+		synchronized (this) {
+			if (!this.detached || this.discarded){
+				return false;
+			}
+		}
+		this.discard();
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean isLive() {
+		return !this.discarded;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean available() {
+		return this.executionGovernor.availablePermits() == this.inFlightWindow;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int inFlightWindow() {
+		return this.inFlightWindow;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString(){
+		return "CD:[" + this.getHost().getAddress().getHostAddress() + "]";
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void suspend() {
+		this.suspended = true;
+	}
+
+	/**
+	 * 
+	 */
+	private RejectedExecutionException rejectSuspended() {
+		logger.warn("This ContainerDelegate is suspended due to its imenent shutdown. No more processes would be accepted");
+		return new RejectedExecutionException(this + " is suspended due to its imminent shutdown");
+	}
+	
+	/**
+	 * 
+	 */
+	private synchronized void awaitAttached() throws InterruptedException {
+		while (this.detached && !this.discarded){
+			this.wait();
+		}
+		if (this.discarded){
+			throw new RejectedExecutionException("Session of " + this + " was not resumed");
+		}
+	}
+
+	/**
+	 * Sends the request to the Application Container once the execution permit was acquired.
+	 * Permit is released by the 'replyPostProcessor' once the reply is received.
+	 */
+	abstract void doProcess(ByteBuffer data, ReplyPostProcessor replyPostProcessor);
+
+	/**
+	 * Performs streamed message exchange once the execution permit was acquired.
+	 * Must block until the reply is complete.
+	 */
+	abstract void doProcess(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException;
+}
@@ -15,11 +15,18 @@
  */
 package oz.hadoop.yarn.api.net;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.NetworkChannel;
@@ -27,17 +34,28 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.Assert;
-
-import oz.hadoop.yarn.api.utils.ByteBufferUtils;
+import org.springframework.util.StringUtils;
 
 /**
  * Base class to implement network Client and Server to enable communication between the 
@@ -50,27 +68,147 @@ import oz.hadoop.yarn.api.utils.ByteBufferUtils;
  */
 abstract class AbstractSocketHandler implements SocketHandler {
 	
+	/**
+	 * Every frame starts with the header which consists of frame length (int) which includes 
+	 * the length of the header itself followed by the request id (long) used to correlate
+	 * replies with requests. The highest bits of the frame length are reserved for the 
+	 * flags (see {@link #FRAME_LENGTH_MASK}).
+	 */
+	static final int FRAME_HEADER_SIZE = 12;
+	
+	/**
+	 * Mask to extract frame length from the first int of the frame header, while 
+	 * the remaining bits are flags.
+	 */
+	static final int FRAME_LENGTH_MASK = 0x1FFFFFFF;
+	
+	/**
+	 * Maximum size of the payload carried by a single frame, since the larger one would overflow 
+	 * into the flags. Larger data has to be streamed (see {@link ChunkedOutputChannel}).
+	 */
+	static final int MAX_FRAME_PAYLOAD_SIZE = FRAME_LENGTH_MASK - FRAME_HEADER_SIZE;
+	
+	/**
+	 * Flag which signifies that the payload of the frame is compressed with 
+	 * the {@link CompressionCodec} negotiated for the connection.
+	 */
+	static final int COMPRESSED_FLAG = 0x80000000;
+	
+	/**
+	 * Flag which signifies that the frame carries a chunk of the streamed message 
+	 * (see {@link ChunkedOutputChannel}) identified by the request id of the frame.
+	 */
+	static final int CHUNK_FLAG = 0x40000000;
+	
+	/**
+	 * Flag which signifies that the payload of the frame carrying the reply starts with the {@link ReplyHeader}, 
+	 * so the presence of the header is never guessed from the data of the reply.
+	 */
+	static final int REPLY_HEADER_FLAG = 0x20000000;
+	
+	/**
+	 * Request id reserved for frames which carry batches of messages (see {@link FrameBatcher}).
+	 * Regular request ids are always positive.
+	 */
+	static final long BATCH_FRAME_ID = -1;
+	
+	/**
+	 * Request id reserved for frames exchanged during the handshake which negotiates 
+	 * the {@link CompressionCodec}. Client offers the names of its codecs (comma-delimited) 
+	 * and server replies with the name of the chosen one (empty if none).
+	 */
+	static final long HANDSHAKE_FRAME_ID = -2;
+	
+	/**
+	 * Request id reserved for frames which negotiate the {@link SharedMemoryChannel} between the ends 
+	 * of the connection which are on the same host. Client offers, server either declines or replies with 
+	 * the file to map, after which each side sends the switch frame as its last frame written to the socket.
+	 * Once switched, frames with empty payload wake up the parked side of the shared memory.
+	 */
+	static final long SHARED_MEMORY_FRAME_ID = -3;
+	
+	/**
+	 * Request id reserved for frames which carry the credit granted by the Application Container 
+	 * as "messages:bytes" (see {@link CreditGate}). Sent by the client once connected and every time 
+	 * it grants different credit.
+	 */
+	static final long CREDIT_FRAME_ID = -4;
+	
+	/**
+	 * Request id reserved for frames with empty payload which each side of the connection sends 
+	 * periodically (see {@link TransportSettings#getHeartbeatIntervalMillis()}), so the other side 
+	 * could tell the idle connection from the dead one (see {@link #onHeartbeatTimeout(SelectionKey)}).
+	 */
+	static final long HEARTBEAT_FRAME_ID = -5;
+	
+	/**
+	 * Request id reserved for frames which carry the session token of the Application Container (UTF-8). 
+	 * Sent by the client every time it connects, so the server could tell the reconnected Application Container 
+	 * from the new one (see {@link TransportSettings#getReconnectAttempts()}). Server sends it back once the 
+	 * session was accepted or resumed.
+	 */
+	static final long SESSION_FRAME_ID = -6;
+	
+	private static final ByteBuffer HEARTBEAT_PAYLOAD = ByteBuffer.allocate(0);
+	
+	private static final String SHARED_MEMORY_OFFER = "OFFER";
+	
+	private static final String SHARED_MEMORY_MAP = "MAP:";
+	
+	private static final String SHARED_MEMORY_DECLINE = "DECLINE";
+	
+	private static final String SHARED_MEMORY_SWITCH = "SWITCH";
+	
+	/*
+	 * Selector loops are woken up when there is work for them, so timeout 
+	 * only serves as a safety net.
+	 */
+	private static final int SELECT_TIMEOUT = 100;
+	
 	private final Log logger = LogFactory.getLog(AbstractSocketHandler.class);
 	
 	private final Class<? extends AbstractSocketHandler> thisClass;
 	
-	private final ByteBuffer readingBuffer;
+	private final ByteBufferPool bufferPool;
+	
+	private final TransportMetrics metrics;
 	
-	private final ByteBufferPool bufferPoll;
+	private final boolean server;
+	
+	private final AtomicInteger nextIoLoop;
+	
+	private final long batchLingerNanos;
+	
+	/*
+	 * Keyed by codec name in the order of preference
+	 */
+	private final Map<String, FrameCompressor> frameCompressors;
+	
+	final TransportSettings transportSettings;
 	
 	final CountDownLatch lifeCycleLatch;
 	
 	final InetSocketAddress address;
 	
-	final Runnable listenerTask;
-	
 	final Runnable onDisconnectTask;
 	
-	final NetworkChannel rootChannel;
+	/*
+	 * Replaced by the client every time it reconnects
+	 */
+	volatile NetworkChannel rootChannel;
 	
 	final ExecutorService executor;
 	
 	volatile Selector selector;
+	
+	/*
+	 * Selector loops which perform I/O on the connections. For server these are separate 
+	 * from the loop which accepts connections (see TransportSettings.getIoThreads()), 
+	 * while client performs all of its I/O on a single loop.
+	 */
+	private volatile SelectorLoop[] ioLoops;
+	
+	private volatile SelectorLoop listenerLoop;
 
 	/**
 	 * 
@@ -78,13 +216,33 @@ abstract class AbstractSocketHandler implements SocketHandler {
 	 * @param server
 	 */
 	public AbstractSocketHandler(InetSocketAddress address, boolean server, Runnable onDisconnectTask){
+		this(address, server, onDisconnectTask, new TransportSettings());
+	}
+	
+	/**
+	 * 
+	 * @param address
+	 * @param server
+	 * @param onDisconnectTask
+	 * @param transportSettings
+	 */
+	public AbstractSocketHandler(InetSocketAddress address, boolean server, Runnable onDisconnectTask, TransportSettings transportSettings){
 		Assert.notNull(address);
+		Assert.notNull(transportSettings, "'transportSettings' must not be null");
+		this.transportSettings = transportSettings;
 		this.onDisconnectTask = onDisconnectTask;
 		this.address = address;
-		this.executor = Executors.newCachedThreadPool();
-		this.listenerTask = new ListenerTask();
-		this.readingBuffer = ByteBuffer.allocate(16384);
-		this.bufferPoll = new ByteBufferPool();
+		this.server = server;
+		this.nextIoLoop = new AtomicInteger();
+		this.batchLingerNanos = TimeUnit.MICROSECONDS.toNanos(transportSettings.getBatchLingerMicros());
+		this.executor = transportSettings.getExecutorFactory().newExecutor(this.getClass().getSimpleName());
+		this.bufferPool = new ByteBufferPool(transportSettings.getBufferPoolBudget(), transportSettings.isBufferPoolDirect());
+		this.metrics = new TransportMetrics(this.bufferPool);
+		this.frameCompressors = new LinkedHashMap<>();
+		for (String codecName : transportSettings.getCompressionCodecs()) {
+			CompressionCodec codec = createCompressionCodec(codecName);
+			this.frameCompressors.put(codec.getName(), new FrameCompressor(codec, transportSettings.getCompressionThreshold(), this.bufferPool));
+		}
 		try {
 			this.rootChannel = server ? ServerSocketChannel.open() : SocketChannel.open();
 			if (logger.isDebugEnabled()){
@@ -108,10 +266,28 @@ abstract class AbstractSocketHandler implements SocketHandler {
 		try {
 			if (this.selector == null) {
 				this.selector = Selector.open();
+				SelectorLoop listenerLoop = new SelectorLoop(this.selector, true);
+				this.listenerLoop = listenerLoop;
+				if (this.server){
+					SelectorLoop[] loops = new SelectorLoop[this.transportSettings.getIoThreads()];
+					for (int i = 0; i < loops.length; i++) {
+						loops[i] = new SelectorLoop(Selector.open(), false);
+					}
+					this.ioLoops = loops;
+				}
+				else {
+					this.ioLoops = new SelectorLoop[]{listenerLoop};
+				}
 				this.init();
-				this.executor.execute(this.listenerTask);
+				for (SelectorLoop ioLoop : this.ioLoops) {
+					if (ioLoop != listenerLoop){
+						this.executor.execute(ioLoop);
+					}
+				}
+				this.executor.execute(listenerLoop);
 				if (logger.isDebugEnabled()){
-					logger.debug("Started listener for " + AbstractSocketHandler.this.getClass().getSimpleName());
+					logger.debug("Started listener for " + AbstractSocketHandler.this.getClass().getSimpleName() + 
+							(this.server ? " with " + this.ioLoops.length + " I/O threads" : ""));
 				}	
 				serverAddress = (InetSocketAddress) this.rootChannel.getLocalAddress();
 			}
@@ -139,11 +315,13 @@ abstract class AbstractSocketHandler implements SocketHandler {
 		 * close all client sockets which will trigger AM to close its client socket
 		 * triggering onDisconnect() 
 		 */
-		for (SelectionKey key : new HashSet<>(AbstractSocketHandler.this.selector.keys())) {
-			if (this.canClose(key)){
-				Channel channel = key.channel();
-				if (channel instanceof SocketChannel){
-					this.closeChannel(channel);
+		for (SelectorLoop ioLoop : this.ioLoops) {
+			for (SelectionKey key : new HashSet<>(ioLoop.selector.keys())) {
+				if (this.canClose(key)){
+					Channel channel = key.channel();
+					if (channel instanceof SocketChannel){
+						this.closeChannel(channel);
+					}
 				}
 			}
 		}
@@ -202,7 +380,16 @@ abstract class AbstractSocketHandler implements SocketHandler {
 			logger.warn("Failure closing channel", e);
 		}
 		if (channel.equals(this.rootChannel)){
+			this.metrics.unregister();
 			lifeCycleLatch.countDown();
+			SelectorLoop[] loops = this.ioLoops;
+			if (loops != null){
+				// let loops exit without waiting for select timeout
+				for (SelectorLoop ioLoop : loops) {
+					ioLoop.selector.wakeup();
+				}
+				this.selector.wakeup();
+			}
 		}
 	}
 	
@@ -228,14 +415,579 @@ abstract class AbstractSocketHandler implements SocketHandler {
 	 * 
 	 * @param selectionKey
 	 * 		{@link SelectionKey} for socket from which the data was read
-	 * @param buffer
-	 * 		Contains data that was read form the Socket
+	 * @param requestId
+	 * 		id of the request this message belongs to
+	 * @param flags
+	 * 		flags of the frame which carried the message (e.g., {@link #REPLY_HEADER_FLAG})
+	 * @param message
+	 * 		Contains data that was read form the Socket. The implementation becomes the owner
+	 * 		of the message and must release it once done (see {@link PooledByteBuffer#release()}).
 	 * @throws IOException
 	 */
-	abstract void read(SelectionKey selectionKey, ByteBuffer buffer) throws IOException;
+	abstract void read(SelectionKey selectionKey, long requestId, int flags, PooledByteBuffer message) throws IOException;
+	
+	/**
+	 * Will frame the 'payload' with the header carrying 'requestId' and queue it for writing 
+	 * to the socket identified by the {@link SelectionKey}. May be invoked by any thread.
+	 * The write is performed by the selector thread which owns the connection which is woken up
+	 * if necessary, so the frame is written without delay.
+	 * Header and payload are written using gathering write without being copied into a single buffer,
+	 * therefore the 'payload' must not be modified until it is written. The exception are small messages 
+	 * when batching is enabled (see {@link TransportSettings#getBatchMaxSize()}), which are copied into the batch 
+	 * written once it is full or once the linger time expires.
+	 * 
+	 * @param selectionKey
+	 * @param requestId
+	 * @param payload
+	 */
+	void writeFrame(SelectionKey selectionKey, long requestId, ByteBuffer payload) {
+		this.writeFrame(selectionKey, requestId, payload, null);
+	}
+	
+	/**
+	 * Same as {@link #writeFrame(SelectionKey, long, ByteBuffer)} while also taking over the reference 
+	 * to the 'retainedBuffer' which will be released once the frame is written. Allows 'payload' to share
+	 * data with the received message (e.g., echo) without copying it. 'retainedBuffer' is also released 
+	 * when the frame could not be written (e.g., {@link CancelledKeyException}), so the caller never releases it.
+	 * 
+	 * @param selectionKey
+	 * @param requestId
+	 * @param payload
+	 * @param retainedBuffer
+	 */
+	void writeFrame(SelectionKey selectionKey, long requestId, ByteBuffer payload, PooledByteBuffer retainedBuffer) {
+		this.writeFrame(selectionKey, requestId, 0, payload, retainedBuffer);
+	}
+	
+	/**
+	 * Same as {@link #writeFrame(SelectionKey, long, ByteBuffer, PooledByteBuffer)} while also marking 
+	 * the frame with 'flags' (e.g., {@link #CHUNK_FLAG}).
+	 * 
+	 * @param selectionKey
+	 * @param requestId
+	 * @param flags
+	 * @param payload
+	 * @param retainedBuffer
+	 */
+	void writeFrame(SelectionKey selectionKey, long requestId, int flags, ByteBuffer payload, PooledByteBuffer retainedBuffer) {
+		this.writeFrame(selectionKey, requestId, flags, null, payload, retainedBuffer);
+	}
+	
+	/**
+	 * Same as {@link #writeFrame(SelectionKey, long, int, ByteBuffer, PooledByteBuffer)} while the frame 
+	 * carries the 'prefix' (e.g., {@link ReplyHeader} which is marked with {@link #REPLY_HEADER_FLAG}) in front of the 'payload'. 
+	 * Unless the frame is batched or compressed, 'prefix' is written together with the frame header, so the 'payload' is never copied.
+	 * 
+	 * @param selectionKey
+	 * @param requestId
+	 * @param flags
+	 * @param prefix
+	 * 		could be null
+	 * @param payload
+	 * @param retainedBuffer
+	 */
+	void writeFrame(SelectionKey selectionKey, long requestId, int flags, ByteBuffer prefix, ByteBuffer payload, PooledByteBuffer retainedBuffer) {
+		ByteBuffer frameBody = payload.duplicate();
+		if (frameBody.position() != 0){
+			frameBody.flip();
+		}
+		int prefixSize = prefix == null ? 0 : prefix.remaining();
+		if (prefixSize + frameBody.remaining() > MAX_FRAME_PAYLOAD_SIZE){
+			if (retainedBuffer != null){
+				retainedBuffer.release();
+			}
+			checkPayloadSize(prefixSize + frameBody.remaining());
+		}
+		if (!selectionKey.isValid()){
+			if (retainedBuffer != null){
+				retainedBuffer.release();
+			}
+			throw new CancelledKeyException();
+		}
+		ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		SelectorLoop ioLoop = this.selectorLoopOf(selectionKey);
+		FrameCompressor frameCompressor = connectionContext.getFrameCompressor();
+		// shared memory is not worth compressing for
+		if (frameCompressor != null && connectionContext.getSharedMemoryChannel() == null){
+			if (prefixSize > 0 && frameCompressor.canCompress(prefixSize + frameBody.remaining())){
+				// compressed as a whole, so the prefix is copied in front of the payload
+				ByteBuffer prefixedBody = this.bufferPool.allocate(prefixSize + frameBody.remaining());
+				prefixedBody.put(prefix.duplicate());
+				prefixedBody.put(frameBody);
+				prefixedBody.flip();
+				if (retainedBuffer != null){
+					retainedBuffer.release();
+				}
+				retainedBuffer = new PooledByteBuffer(prefixedBody, this.bufferPool);
+				frameBody = retainedBuffer.asReadOnlyBuffer();
+				prefix = null;
+				prefixSize = 0;
+			}
+			// original payload is released together with the compressed one
+			PooledByteBuffer compressedBody = frameCompressor.compress(frameBody, retainedBuffer);
+			if (compressedBody != null){
+				retainedBuffer = compressedBody;
+				frameBody = compressedBody.asReadOnlyBuffer();
+				flags |= COMPRESSED_FLAG;
+			}
+		}
+		if (connectionContext.canBatch(prefixSize + frameBody.remaining())){
+			boolean batchSealed = connectionContext.batch(requestId, flags, prefix, frameBody);
+			// message was copied into the batch
+			if (retainedBuffer != null){
+				retainedBuffer.release();
+			}
+			if (batchSealed){
+				ioLoop.scheduleWrite(selectionKey, 0);
+			}
+			if (connectionContext.markWriteScheduled()){
+				ioLoop.scheduleWrite(selectionKey, this.batchLingerNanos);
+			}
+		}
+		else {
+			ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE + prefixSize);
+			header.putInt(frameLength(prefixSize + frameBody.remaining(), flags));
+			header.putLong(requestId);
+			if (prefix != null){
+				header.put(prefix.duplicate());
+			}
+			header.flip();
+			connectionContext.enqueue(retainedBuffer, header, frameBody);
+			if (connectionContext.markWriteScheduled()){
+				ioLoop.scheduleWrite(selectionKey, 0);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the first int of the header of the frame carrying 'payloadSize' bytes marked with 'flags'.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		if 'payloadSize' exceeds {@link #MAX_FRAME_PAYLOAD_SIZE}
+	 */
+	static int frameLength(int payloadSize, int flags) {
+		checkPayloadSize(payloadSize);
+		return (payloadSize + FRAME_HEADER_SIZE) | flags;
+	}
+	
+	/**
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		if 'payloadSize' exceeds {@link #MAX_FRAME_PAYLOAD_SIZE}
+	 */
+	static void checkPayloadSize(int payloadSize) {
+		if (payloadSize > MAX_FRAME_PAYLOAD_SIZE){
+			throw new IllegalArgumentException("Message of " + payloadSize + " bytes exceeds the maximum of " + MAX_FRAME_PAYLOAD_SIZE + 
+					" bytes carried by a single frame. Submit it as ReadableByteChannel, so it is streamed in chunks.");
+		}
+	}
+	
+	/**
+	 * Submits the task to be executed by the thread which accepts connections (client's only thread) 
+	 * once 'delayMillis' elapse. Task is discarded if this handler stops before then.
+	 */
+	void schedule(Runnable task, long delayMillis) {
+		this.listenerLoop.schedule(task, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+	}
+	
+	/**
+	 * Registers the accepted 'channel' with one of the I/O selector loops (selected in round-robin fashion)
+	 * which will perform all I/O for this connection for as long as it is open. May be invoked by any thread
+	 * and will block until registration is complete.
+	 * 
+	 * @param channel
+	 * @param ops
+	 * @param attachment
+	 * @return {@link SelectionKey} representing the registration
+	 */
+	SelectionKey registerConnection(SocketChannel channel, int ops, Object attachment) throws IOException {
+		SelectorLoop[] loops = this.ioLoops;
+		SelectorLoop ioLoop = loops[(this.nextIoLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		return ioLoop.register(channel, ops, attachment);
+	}
+	
+	/**
+	 * 
+	 */
+	private SelectorLoop selectorLoopOf(SelectionKey selectionKey) {
+		Selector keySelector = selectionKey.selector();
+		for (SelectorLoop ioLoop : this.ioLoops) {
+			if (ioLoop.selector == keySelector){
+				return ioLoop;
+			}
+		}
+		throw new IllegalStateException("SelectionKey does not belong to any of the selector loops of " + this.thisClass.getSimpleName());
+	}
+	
+	/**
+	 * Returns {@link CompressionStats} of every configured {@link CompressionCodec} keyed by codec name.
+	 */
+	@Override
+	public Map<String, CompressionStats> getCompressionStats() {
+		Map<String, CompressionStats> compressionStats = new LinkedHashMap<>();
+		for (FrameCompressor frameCompressor : this.frameCompressors.values()) {
+			compressionStats.put(frameCompressor.getCodec().getName(), frameCompressor.getStats());
+		}
+		return compressionStats;
+	}
+	
+	/**
+	 * Initiates the handshake which negotiates the {@link CompressionCodec} for the connection identified by
+	 * the {@link SelectionKey}. Must be invoked by the client once connected. Until the handshake
+	 * completes frames are sent uncompressed.
+	 */
+	void initiateHandshake(SelectionKey selectionKey) {
+		if (!this.frameCompressors.isEmpty()){
+			String offeredCodecs = StringUtils.collectionToCommaDelimitedString(this.frameCompressors.keySet());
+			this.writeFrame(selectionKey, HANDSHAKE_FRAME_ID, ByteBuffer.wrap(offeredCodecs.getBytes(StandardCharsets.UTF_8)));
+		}
+		if (this.isSharedMemoryPossible(selectionKey)){
+			this.writeFrame(selectionKey, SHARED_MEMORY_FRAME_ID, ByteBuffer.wrap(SHARED_MEMORY_OFFER.getBytes(StandardCharsets.UTF_8)));
+		}
+		if (this.transportSettings.getCreditMessages() > 0 || this.transportSettings.getCreditBytes() > 0){
+			this.writeCreditGrant(selectionKey, this.transportSettings.getCreditMessages(), this.transportSettings.getCreditBytes());
+		}
+	}
+	
+	/**
+	 * Sends the credit granted to the other side of the connection identified by the {@link SelectionKey}.
+	 */
+	void writeCreditGrant(SelectionKey selectionKey, int messages, long bytes) {
+		Assert.isTrue(messages >= 0 && bytes >= 0, "'messages' and 'bytes' must be >= 0");
+		String credit = messages + ":" + bytes;
+		this.writeFrame(selectionKey, CREDIT_FRAME_ID, ByteBuffer.wrap(credit.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Invoked by the selector thread when the credit frame is received (see {@link #CREDIT_FRAME_ID}).
+	 * Only server honors it.
+	 */
+	void onCreditGrant(SelectionKey selectionKey, int messages, long bytes) {
+		logger.warn("Ignoring credit grant from " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+	}
+	
+	/**
+	 * Invoked by the selector thread when nothing was received from the other side of the connection 
+	 * identified by the {@link SelectionKey} within the heartbeat timeout (see {@link TransportSettings#getHeartbeatTimeoutMillis()}).
+	 * Returns 'true' if the connection was dealt with (e.g., evicted), otherwise it is closed the same way 
+	 * it would be if it was closed by the other side.
+	 */
+	boolean onHeartbeatTimeout(SelectionKey selectionKey) {
+		return false;
+	}
+	
+	/**
+	 * Invoked by the selector thread once the connection identified by the {@link SelectionKey} was lost 
+	 * (e.g., closed by the other side, failed or timed out) before it is closed. Returns 'true' if it was 
+	 * dealt with (e.g., will be re-established), otherwise connection is closed, {@link #onDisconnect(SelectionKey)}
+	 * is invoked followed by the 'onDisconnectTask'.
+	 */
+	boolean onConnectionLost(SelectionKey selectionKey) {
+		return false;
+	}
+	
+	/**
+	 * Invoked by the selector thread when the session frame is received (see {@link #SESSION_FRAME_ID}).
+	 * Ignored unless overridden.
+	 */
+	void onSession(SelectionKey selectionKey, String sessionToken) {
+		logger.warn("Ignoring session " + sessionToken + " of " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+	}
+	
+	/**
+	 * Handles handshake frame. Server chooses the first codec offered by the client which 
+	 * it also supports and replies with its name, while client simply applies the chosen codec.
+	 * Server must send its reply before it starts compressing, so the client would always
+	 * be able to decompress.
+	 */
+	void onHandshake(SelectionKey selectionKey, ByteBuffer payload) {
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		String[] codecNames = StringUtils.commaDelimitedListToStringArray(new String(bytes, StandardCharsets.UTF_8));
+		FrameCompressor frameCompressor = null;
+		for (String codecName : codecNames) {
+			frameCompressor = this.frameCompressors.get(codecName);
+			if (frameCompressor != null){
+				break;
+			}
+		}
+		if (this.server){
+			String chosenCodec = frameCompressor == null ? "" : frameCompressor.getCodec().getName();
+			this.writeFrame(selectionKey, HANDSHAKE_FRAME_ID, ByteBuffer.wrap(chosenCodec.getBytes(StandardCharsets.UTF_8)));
+		}
+		((ConnectionContext) selectionKey.attachment()).setFrameCompressor(frameCompressor);
+		if (logger.isInfoEnabled()){
+			logger.info("Negotiated compression codec '" + (frameCompressor == null ? "none" : frameCompressor.getCodec().getName()) + 
+					"' with " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+		}
+	}
+	
+	/**
+	 * Handles the frame which negotiates the {@link SharedMemoryChannel} (see {@link #SHARED_MEMORY_FRAME_ID}). 
+	 * Server creates the shared memory when offered, while client maps it and switches to it. Failure to 
+	 * create or map the shared memory is not fatal, since the connection simply remains on the socket.
+	 * Invoked by the selector thread.
+	 * 
+	 * @return 'true' if the other side switched, so the frames must be read from the shared memory from now on.
+	 */
+	boolean onSharedMemoryNegotiation(SelectionKey selectionKey, String message) throws IOException {
+		ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		SocketAddress remoteAddress = ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress();
+		if (SHARED_MEMORY_OFFER.equals(message) && this.server){
+			String reply = SHARED_MEMORY_DECLINE;
+			if (this.isSharedMemoryPossible(selectionKey)){
+				try {
+					SharedMemoryChannel sharedMemoryChannel = SharedMemoryChannel.create(new File(this.transportSettings.getSharedMemoryDirectory()), 
+							this.transportSettings.getSharedMemoryRingSize(), this.bufferPool);
+					connectionContext.setSharedMemoryChannel(sharedMemoryChannel);
+					reply = SHARED_MEMORY_MAP + sharedMemoryChannel.getToken() + ":" + sharedMemoryChannel.getPath();
+				} 
+				catch (IOException e) {
+					logger.warn("Failed to create shared memory for " + remoteAddress + ". Frames will be written to the socket.", e);
+				}
+			}
+			this.writeFrame(selectionKey, SHARED_MEMORY_FRAME_ID, ByteBuffer.wrap(reply.getBytes(StandardCharsets.UTF_8)));
+		}
+		else if (message.startsWith(SHARED_MEMORY_MAP) && !this.server){
+			String[] tokenAndPath = message.substring(SHARED_MEMORY_MAP.length()).split(":", 2);
+			try {
+				SharedMemoryChannel sharedMemoryChannel = SharedMemoryChannel.open(tokenAndPath[1], Long.parseLong(tokenAndPath[0]), this.bufferPool);
+				connectionContext.setSharedMemoryChannel(sharedMemoryChannel);
+				this.switchToSharedMemory(selectionKey);
+			} 
+			catch (IOException | RuntimeException e) {
+				logger.info("Failed to map shared memory offered by " + remoteAddress + " (" + e.getMessage() + "). Frames will be written to the socket.");
+				this.writeFrame(selectionKey, SHARED_MEMORY_FRAME_ID, ByteBuffer.wrap(SHARED_MEMORY_DECLINE.getBytes(StandardCharsets.UTF_8)));
+			}
+		}
+		else if (SHARED_MEMORY_DECLINE.equals(message)){
+			SharedMemoryChannel sharedMemoryChannel = connectionContext.getSharedMemoryChannel();
+			if (sharedMemoryChannel != null){
+				connectionContext.setSharedMemoryChannel(null);
+				sharedMemoryChannel.release();
+			}
+			if (logger.isDebugEnabled()){
+				logger.debug("Shared memory was declined by " + remoteAddress);
+			}
+		}
+		else if (SHARED_MEMORY_SWITCH.equals(message)){
+			SharedMemoryChannel sharedMemoryChannel = connectionContext.getSharedMemoryChannel();
+			if (sharedMemoryChannel == null){
+				throw new StreamCorruptedException("Received shared memory switch frame while no shared memory was negotiated");
+			}
+			if (this.server){
+				// both sides mapped it
+				sharedMemoryChannel.unlink();
+				this.switchToSharedMemory(selectionKey);
+			}
+			if (logger.isInfoEnabled()){
+				logger.info("Switched to " + sharedMemoryChannel + " with " + remoteAddress);
+			}
+			return true;
+		}
+		else {
+			throw new StreamCorruptedException("Unexpected shared memory negotiation frame: " + message);
+		}
+		return false;
+	}
+	
+	/**
+	 * Queues the switch frame after which frames of this side are written into the shared memory.
+	 */
+	private void switchToSharedMemory(SelectionKey selectionKey) {
+		byte[] message = SHARED_MEMORY_SWITCH.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer switchFrame = ByteBuffer.allocate(FRAME_HEADER_SIZE + message.length);
+		switchFrame.putInt(FRAME_HEADER_SIZE + message.length);
+		switchFrame.putLong(SHARED_MEMORY_FRAME_ID);
+		switchFrame.put(message);
+		switchFrame.flip();
+		ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		connectionContext.enqueueSharedMemorySwitch(switchFrame);
+		if (connectionContext.markWriteScheduled()){
+			this.selectorLoopOf(selectionKey).scheduleWrite(selectionKey, 0);
+		}
+	}
 	
 	/**
-	 * Will be invoked by {@link ListenerTask#accept(SelectionKey)} method after accepting a connection.
+	 * Shared memory is only possible if enabled on this side and the other side of the connection is on the same host.
+	 */
+	private boolean isSharedMemoryPossible(SelectionKey selectionKey) {
+		if (this.transportSettings.getSharedMemoryRingSize() == 0 || !SharedMemoryRing.isSupported()){
+			return false;
+		}
+		InetAddress remoteAddress = ((SocketChannel) selectionKey.channel()).socket().getInetAddress();
+		try {
+			return remoteAddress != null && (remoteAddress.isLoopbackAddress() || NetworkInterface.getByInetAddress(remoteAddress) != null);
+		} 
+		catch (SocketException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Invoked by the selector thread when the first chunk of the streamed message which was not
+	 * expected arrives (e.g., request streamed to the client). Sub-classes which accept streamed messages
+	 * must dispatch the returned channel (see {@link #newChunkedInputChannel(SelectionKey)}) for processing
+	 * by another thread, since it will only be filled once this method returns.
+	 * 
+	 * @return channel to deliver the chunks of the message to or null if message should be discarded
+	 */
+	ChunkedInputChannel acceptInboundStream(SelectionKey selectionKey, long requestId) {
+		return null;
+	}
+	
+	/**
+	 * Creates {@link ChunkedInputChannel} to receive the streamed message from the connection identified 
+	 * by {@link SelectionKey}. Reading from the connection is suspended while the channel is full. 
+	 */
+	ChunkedInputChannel newChunkedInputChannel(final SelectionKey selectionKey) {
+		long highWatermark = (long) this.transportSettings.getStreamChunkSize() * this.transportSettings.getStreamBufferedChunks();
+		return new ChunkedInputChannel(highWatermark, new Runnable() {
+			@Override
+			public void run() {
+				AbstractSocketHandler.this.resumeRead(selectionKey);
+			}
+		});
+	}
+	
+	/**
+	 * Delivers the chunk of the streamed message to its {@link ChunkedInputChannel} 
+	 * (see {@link ChunkedOutputChannel} for the chunk format).
+	 * Invoked by the selector thread.
+	 */
+	private void readChunk(SelectionKey selectionKey, long requestId, PooledByteBuffer chunk) throws IOException {
+		ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		try {
+			ByteBuffer chunkData = chunk.asReadOnlyBuffer();
+			if (!chunkData.hasRemaining()){
+				throw new StreamCorruptedException("Chunk frame of the stream " + requestId + " has no chunk type");
+			}
+			ChunkedInputChannel inboundStream = connectionContext.getInboundStream(requestId);
+			if (inboundStream == null){
+				inboundStream = this.acceptInboundStream(selectionKey, requestId);
+				if (inboundStream == null){
+					logger.warn("Received chunk of unknown stream " + requestId + ". Discarding.");
+					return;
+				}
+				connectionContext.addInboundStream(requestId, inboundStream);
+			}
+			byte chunkType = chunkData.get();
+			if (chunkType == ChunkedOutputChannel.DATA_CHUNK){
+				if (inboundStream.offer(chunk.slice(1, chunkData.remaining()))){
+					this.suspendRead(selectionKey);
+				}
+			}
+			else if (chunkType == ChunkedOutputChannel.END_CHUNK){
+				connectionContext.removeInboundStream(requestId);
+				inboundStream.complete();
+			}
+			else if (chunkType == ChunkedOutputChannel.ABORT_CHUNK){
+				connectionContext.removeInboundStream(requestId);
+				byte[] reason = new byte[chunkData.remaining()];
+				chunkData.get(reason);
+				inboundStream.fail(new IOException("Stream " + requestId + " was aborted by the sender: " + new String(reason, StandardCharsets.UTF_8)));
+			}
+			else {
+				throw new StreamCorruptedException("Unknown chunk type " + chunkType + " of the stream " + requestId);
+			}
+		} 
+		finally {
+			chunk.release();
+		}
+	}
+	
+	/**
+	 * Stops reading from the connection since one of its streams is full.
+	 * Invoked by the selector thread.
+	 */
+	private void suspendRead(SelectionKey selectionKey) {
+		ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		connectionContext.setReadSuspended(true);
+		if (connectionContext.isSocketReadSuspended()){
+			selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+		}
+		if (logger.isTraceEnabled()){
+			logger.trace("Suspended reading from " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+		}
+	}
+	
+	/**
+	 * Resumes reading from the connection unless other streams are still full.
+	 * May be invoked by any thread.
+	 */
+	private void resumeRead(final SelectionKey selectionKey) {
+		if (!selectionKey.isValid()){
+			return;
+		}
+		final SelectorLoop ioLoop = this.selectorLoopOf(selectionKey);
+		ioLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+				if (selectionKey.isValid() && connectionContext.isReadSuspended() && !connectionContext.hasFullInboundStream()){
+					connectionContext.setReadSuspended(false);
+					selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+					if (logger.isTraceEnabled()){
+						logger.trace("Resumed reading from " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+					}
+					// data left in the shared memory will not be signaled again
+					ioLoop.pollSharedMemory(selectionKey);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * 
+	 */
+	TransportSettings getTransportSettings() {
+		return this.transportSettings;
+	}
+	
+	/**
+	 * Returns {@link ByteBufferPool} used by this handler to receive messages.
+	 */
+	ByteBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+	
+	/**
+	 * Creates {@link ConnectionContext} which must be attached to the {@link SelectionKey} 
+	 * of every new connection.
+	 */
+	ConnectionContext newConnectionContext() {
+		int batchMaxSize = this.transportSettings.getBatchMaxSize();
+		return new ConnectionContext(new FrameDecoder(this.bufferPool), batchMaxSize > 0 ? new FrameBatcher(this.bufferPool, batchMaxSize) : null, 
+				this.metrics.newConnectionMetrics());
+	}
+	
+	/**
+	 * Returns {@link TransportMetrics} which aggregate the metrics of all connections of this handler.
+	 */
+	TransportMetrics getTransportMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Registers {@link TransportMetrics} of this handler as MBean (see {@link TransportMetricsMXBean}) 
+	 * identified by the local address of the root channel. Must be invoked once it is bound (server) or connected (client). 
+	 * Unregistered once the root channel is closed.
+	 */
+	void registerMetrics() throws IOException {
+		this.metrics.register(this.thisClass.getSimpleName(), this.rootChannel.getLocalAddress());
+	}
+	
+	/**
+	 * Registers {@link ConnectionMetrics} of the connection identified by the {@link SelectionKey} as MBean 
+	 * (see {@link ConnectionMetricsMXBean}), which is unregistered once the connection is closed.
+	 */
+	void registerConnectionMetrics(SelectionKey selectionKey) {
+		this.metrics.registerConnection(((ConnectionContext) selectionKey.attachment()).getMetrics(), 
+				((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+	}
+	
+	/**
+	 * Will be invoked by {@link SelectorLoop#accept(SelectionKey)} method after accepting a connection.
 	 * 
 	 * @param clientSelectionKey
 	 * 		{@link SelectionKey} with the socket for the accepted socket connection
@@ -252,16 +1004,187 @@ abstract class AbstractSocketHandler implements SocketHandler {
 	}
 	
 	/**
-	 * Main listener task which will process delegate {@link SelectionKey} selected from the {@link Selector}
-	 * to the appropriate processing method (e.g., accept, read, wrote etc.)
+	 * Selector loop which will process delegate {@link SelectionKey} selected from its {@link Selector}
+	 * to the appropriate processing method (e.g., accept, read, wrote etc.). Each loop runs on its own thread
+	 * and owns its reading buffer, so connections registered with different loops are processed in parallel.
+	 * 
+	 * Other threads never touch the selector directly. Instead they submit tasks (e.g., registration, write) 
+	 * which are executed by the loop's thread, waking up the selector only if the wakeup is not already pending.
+	 * In busy-spin mode (see {@link TransportSettings#isSelectorBusySpin()}) selector is never blocked, so no wakeup
+	 * is necessary. Tasks could also be delayed (e.g., write of the batch which waits for more messages), in which 
+	 * case selector is blocked no longer then until the earliest of them is due.
+	 * 
+	 * Connections switched to the shared memory (see {@link SharedMemoryChannel}) are read when woken up by the
+	 * other side or, in busy-spin mode, polled on every iteration of the loop, so the other side never has to wake it up.
+	 * 
+	 * Unless disabled, each loop periodically sends heartbeat frames over its connections, while detecting the 
+	 * connections which other side went silent (see {@link TransportSettings#getHeartbeatTimeoutMillis()}).
+	 * 
+	 * Time spent processing the selected keys and the time each of them waited to be processed 
+	 * since the selector reported it ready are recorded by {@link TransportMetrics}.
 	 */
-	private class ListenerTask implements Runnable {
+	private class SelectorLoop implements Runnable, FrameDecoder.FrameHandler {
+		
+		private final Selector selector;
+		
+		/*
+		 * Whether this loop manages the root channel
+		 */
+		private final boolean listener;
+		
+		private final ByteBuffer readingBuffer;
+		
+		/*
+		 * Tasks which must be executed by the thread of this loop (e.g., channel registration)
+		 */
+		private final Queue<Runnable> pendingTasks;
+		
+		/*
+		 * Only accessed by the thread of this loop
+		 */
+		private final PriorityQueue<DelayedTask> delayedTasks;
+		
+		private final AtomicBoolean wakeupRequested;
+		
+		private final boolean busySpin;
+		
+		private volatile Thread thread;
+		
+		/*
+		 * Connections which shared memory is polled in busy-spin mode. Only accessed by the thread of this loop.
+		 */
+		private final List<SelectionKey> sharedMemoryKeys;
+		
+		/*
+		 * Key of the connection which is currently being read. 
+		 * Allows this task to act as a FrameHandler for all connections. 
+		 */
+		private SelectionKey currentSelectionKey;
+		
+		/*
+		 * Set while messages of the batch frame are dispatched, so they are not counted as frames
+		 */
+		private boolean unbatching;
+		
+		private final long heartbeatIntervalNanos;
+		
+		private final long heartbeatTimeoutNanos;
+		
+		/**
+		 * 
+		 * @param selector
+		 * @param listener
+		 */
+		SelectorLoop(Selector selector, boolean listener) {
+			this.selector = selector;
+			this.listener = listener;
+			this.readingBuffer = ByteBuffer.allocate(16384);
+			this.pendingTasks = new ConcurrentLinkedQueue<>();
+			this.delayedTasks = new PriorityQueue<>();
+			this.wakeupRequested = new AtomicBoolean();
+			this.busySpin = AbstractSocketHandler.this.transportSettings.isSelectorBusySpin();
+			this.sharedMemoryKeys = new ArrayList<>();
+			this.heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(AbstractSocketHandler.this.transportSettings.getHeartbeatIntervalMillis());
+			this.heartbeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(AbstractSocketHandler.this.transportSettings.getHeartbeatTimeoutMillis());
+		}
+		
+		/**
+		 * Submits the task to be executed by the thread of this loop.
+		 */
+		void execute(Runnable task) {
+			this.pendingTasks.offer(task);
+			if (!this.busySpin && Thread.currentThread() != this.thread && this.wakeupRequested.compareAndSet(false, true)){
+				this.selector.wakeup();
+			}
+		}
+		
+		/**
+		 * Submits the task to be executed by the thread of this loop once 'delayNanos' elapse.
+		 */
+		void schedule(final Runnable task, long delayNanos) {
+			if (delayNanos <= 0){
+				this.execute(task);
+			}
+			else {
+				final long deadline = System.nanoTime() + delayNanos;
+				this.execute(new Runnable() {
+					@Override
+					public void run() {
+						SelectorLoop.this.delayedTasks.offer(new DelayedTask(task, deadline));
+					}
+				});
+			}
+		}
+		
+		/**
+		 * Schedules the write of the frames queued for the connection identified by 'selectionKey'
+		 * to be performed once 'delayNanos' elapse.
+		 */
+		void scheduleWrite(final SelectionKey selectionKey, long delayNanos) {
+			this.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (selectionKey.isValid()){
+						try {
+							SelectorLoop.this.write(selectionKey);
+						} 
+						catch (CancelledKeyException e) {
+							logger.warn("Socket was prematurely closed");
+						}
+					}
+				}
+			}, delayNanos);
+		}
+		
+		/**
+		 * Registers 'channel' with the {@link Selector} of this loop. Since registration would block while 
+		 * selector is selecting, registration is performed by the thread of this loop.
+		 */
+		SelectionKey register(final SocketChannel channel, final int ops, final Object attachment) throws IOException {
+			if (Thread.currentThread() == this.thread){
+				return channel.register(this.selector, ops, attachment);
+			}
+			FutureTask<SelectionKey> registration = new FutureTask<>(new Callable<SelectionKey>() {
+				@Override
+				public SelectionKey call() throws Exception {
+					return channel.register(SelectorLoop.this.selector, ops, attachment);
+				}
+			});
+			this.execute(registration);
+			if (!this.selector.isOpen()){
+				// loop has exited, so registration will fail since selector is closed
+				registration.run();
+			}
+			try {
+				return registration.get();
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while registering channel");
+			}
+			catch (ExecutionException e) {
+				throw new IOException("Failed to register channel", e.getCause());
+			}
+		}
 
 		@Override
 		public void run() {	
+			this.thread = Thread.currentThread();
+			if (this.heartbeatIntervalNanos > 0){
+				this.scheduleHeartbeat();
+			}
 			try {
 				while (AbstractSocketHandler.this.rootChannel.isOpen()){
-					this.processSelector(10);
+					/*
+					 * Flag must be reset before running tasks, so the task submitted 
+					 * after that will wake up the selector (see execute(..))
+					 */
+					this.wakeupRequested.set(false);
+					this.runPendingTasks();
+					this.processSelector(this.runDelayedTasks());
+					if (this.busySpin){
+						this.pollSharedMemory();
+					}
 				}
 			} 
 			catch (IOException e) {
@@ -272,15 +1195,20 @@ abstract class AbstractSocketHandler implements SocketHandler {
 			}
 
 			if (logger.isDebugEnabled()){
-				logger.debug(thisClass.getSimpleName() +  "Exited Listener loop in " + AbstractSocketHandler.this.thisClass.getSimpleName());
+				logger.debug(thisClass.getSimpleName() +  "Exited " + (this.listener ? "Listener" : "I/O") + " loop in " + AbstractSocketHandler.this.thisClass.getSimpleName());
 			}
 			
 			try {
-				AbstractSocketHandler.this.selector.close();
+				this.selector.close();
 			} 
 			catch (IOException e) {
 				logger.warn("IOException while closing selector.", e);
 			}
+			// fail registrations which did not make it
+			this.runPendingTasks();
+			if (!this.listener){
+				return;
+			}
 			/*
 			 * At this point we must terminate to send interrupt to all currently running tasks.
 			 * Forceful or graceful shutdown details are handled much earlier, but if it got 
@@ -288,40 +1216,135 @@ abstract class AbstractSocketHandler implements SocketHandler {
 			 * to continue.
 			 */
 			AbstractSocketHandler.this.executor.shutdownNow();
+			if (logger.isDebugEnabled()){
+				logger.debug(AbstractSocketHandler.this.thisClass.getSimpleName() + " - " + AbstractSocketHandler.this.bufferPool);
+				for (CompressionStats compressionStats : AbstractSocketHandler.this.getCompressionStats().values()) {
+					logger.debug(AbstractSocketHandler.this.thisClass.getSimpleName() + " - " + compressionStats);
+				}
+			}
+		}
+		
+		/**
+		 * Schedules the next heartbeat of the connections of this loop (see {@link #heartbeat()}).
+		 */
+		private void scheduleHeartbeat() {
+			this.schedule(new Runnable() {
+				@Override
+				public void run() {
+					SelectorLoop.this.heartbeat();
+					SelectorLoop.this.scheduleHeartbeat();
+				}
+			}, this.heartbeatIntervalNanos);
+		}
+		
+		/**
+		 * Sends the heartbeat frame over every connection of this loop, unless nothing was received 
+		 * from its other side within the heartbeat timeout, in which case such connection is considered dead 
+		 * (see {@link AbstractSocketHandler#onHeartbeatTimeout(SelectionKey)}). Connections which are 
+		 * not read on purpose (see {@link ConnectionContext#isReadSuspended()}) never time out.
+		 */
+		private void heartbeat() {
+			long now = System.nanoTime();
+			// connections may be closed while iterating
+			for (SelectionKey selectionKey : new ArrayList<>(this.selector.keys())) {
+				if (selectionKey.isValid() && selectionKey.channel() instanceof SocketChannel && ((SocketChannel) selectionKey.channel()).isConnected()){
+					ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+					if (connectionContext.isReadSuspended()){
+						connectionContext.setLastReceived(now);
+					}
+					else if (now - connectionContext.getLastReceived() > this.heartbeatTimeoutNanos){
+						logger.warn("Nothing was received from " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress() + 
+								" for more then " + TimeUnit.NANOSECONDS.toMillis(now - connectionContext.getLastReceived()) + " milliseconds. Connection is considered dead.");
+						if (!AbstractSocketHandler.this.onHeartbeatTimeout(selectionKey)){
+							this.disconnect(selectionKey);
+						}
+					}
+					else {
+						AbstractSocketHandler.this.writeFrame(selectionKey, HEARTBEAT_FRAME_ID, HEARTBEAT_PAYLOAD);
+					}
+				}
+			}
 		}
 		
 		/**
 		 * 
-		 * @param timeout
+		 */
+		private void runPendingTasks() {
+			Runnable task;
+			while ((task = this.pendingTasks.poll()) != null){
+				task.run();
+			}
+		}
+		
+		/**
+		 * Runs delayed tasks which are due.
+		 * 
+		 * @return nanoseconds until the next delayed task is due or -1 if there are none.
+		 */
+		private long runDelayedTasks() {
+			DelayedTask delayedTask;
+			while ((delayedTask = this.delayedTasks.peek()) != null){
+				long remaining = delayedTask.deadline - System.nanoTime();
+				if (remaining > 0){
+					return remaining;
+				}
+				this.delayedTasks.poll().task.run();
+			}
+			return -1;
+		}
+		
+		/**
+		 * 
+		 * @param nanosToNextTask
+		 * 		nanoseconds until the next delayed task is due or -1 if there are none
 		 * @throws Exception
 		 */
-		private void processSelector(int timeout) throws Exception {
-			if (AbstractSocketHandler.this.selector.isOpen() && AbstractSocketHandler.this.selector.select(timeout) > 0){	
-				Iterator<SelectionKey> keys = AbstractSocketHandler.this.selector.selectedKeys().iterator();
-				processKeys(keys);
+		private void processSelector(long nanosToNextTask) throws Exception {
+			if (!this.selector.isOpen()){
+				return;
+			}
+			long timeout = nanosToNextTask < 0 ? SELECT_TIMEOUT : Math.min(SELECT_TIMEOUT, TimeUnit.NANOSECONDS.toMillis(nanosToNextTask));
+			boolean spinning = this.busySpin || timeout == 0;
+			int selected = spinning ? this.selector.selectNow() : this.selector.select(timeout);
+			if (selected > 0){	
+				long selectedAt = System.nanoTime();
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				processKeys(keys, selectedAt);
+				AbstractSocketHandler.this.metrics.recordSelectorLoopIteration(System.nanoTime() - selectedAt);
+			}
+			else if (spinning){
+				// give other threads a chance if cores are oversubscribed
+				Thread.yield();
 			}
 		}
 		
 		/**
 		 * 
 		 * @param keys
+		 * @param selectedAt
+		 * 		time (see System.nanoTime()) when the selector returned the keys
 		 */
-		private void processKeys(Iterator<SelectionKey> keys) throws IOException {
+		private void processKeys(Iterator<SelectionKey> keys, long selectedAt) throws IOException {
 			while (keys.hasNext()) {
                 SelectionKey selectionKey = (SelectionKey) keys.next();
                 keys.remove();
+                if (selectionKey.attachment() instanceof ConnectionContext){
+                	((ConnectionContext) selectionKey.attachment()).getMetrics().recordReadyWait(System.nanoTime() - selectedAt);
+                }
                 if (selectionKey.isValid()) {
                 	if (selectionKey.isAcceptable()) {
                         this.accept(selectionKey);
                     }
-                    else if (selectionKey.isReadable()) {
-                        this.read(selectionKey); 
-                    }
-                    else if (selectionKey.isConnectable()){
+                	else if (selectionKey.isConnectable()){
                 		this.connect(selectionKey);
                 	}
-                	else if (selectionKey.isWritable()){
-                		this.write(selectionKey);
+                	else {
+                		if (selectionKey.isReadable()) {
+                			this.read(selectionKey); 
+                		}
+                		if (selectionKey.isValid() && selectionKey.isWritable()){
+                			this.write(selectionKey);
+                		}
                 	}
                 }
             }
@@ -342,25 +1365,50 @@ abstract class AbstractSocketHandler implements SocketHandler {
 	        if (clientChannel.isConnectionPending()){
 	        	clientChannel.finishConnect();
 	        }
-	        clientChannel.register(AbstractSocketHandler.this.selector, SelectionKey.OP_READ);
+	        clientChannel.register(this.selector, SelectionKey.OP_READ, selectionKey.attachment());
 	    }
 		
 		/**
 		 * 
 		 * @param selectionKey
-		 * @throws IOException
 		 */
-		private void write(SelectionKey selectionKey) throws IOException {
-			ByteBuffer writeBuffer = (ByteBuffer) selectionKey.attachment();
-			if (writeBuffer == null){
-				throw new IllegalStateException("Failed to get write buffer from " + selectionKey);
+		private void write(SelectionKey selectionKey) {
+			ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+			SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+			connectionContext.sealBatch();
+			boolean flushed;
+			try {
+				flushed = connectionContext.flush(socketChannel);
+			} 
+			catch (IOException e) {
+				logger.warn("Failed to write to " + socketChannel.socket().getRemoteSocketAddress() + ": " + e.getMessage());
+				this.disconnect(selectionKey);
+				return;
 			}
-			selectionKey.attach(null);
-			((ByteChannel)selectionKey.channel()).write(writeBuffer);
+			// reading may be suspended while one of the inbound streams is full
+			int readOps = connectionContext.isSocketReadSuspended() ? 0 : SelectionKey.OP_READ;
 			try {
-				selectionKey.channel().register(selector, SelectionKey.OP_READ);
+				if (flushed) {
+					selectionKey.interestOps(readOps);
+					connectionContext.clearWriteScheduled();
+					/*
+					 * Frame could have been queued after the queue was drained, but before 
+					 * the mark was cleared, so check again to avoid loosing it.
+					 */
+					if (connectionContext.hasPendingWrites() && connectionContext.markWriteScheduled()){
+						selectionKey.interestOps(readOps | SelectionKey.OP_WRITE);
+					}
+				}
+				else if (connectionContext.isAwaitingSharedMemory()){
+					// shared memory is full, so continue once woken up by the other side
+					selectionKey.interestOps(readOps);
+				}
+				else {
+					// socket send buffer is full, so continue on the next write event
+					selectionKey.interestOps(readOps | SelectionKey.OP_WRITE);
+				}
 			} 
-			catch (ClosedChannelException e) {
+			catch (CancelledKeyException e) {
 				logger.warn("Socket was prematurely closed");
 			}
 		}
@@ -369,50 +1417,306 @@ abstract class AbstractSocketHandler implements SocketHandler {
 		 * 
 		 */
 		private void read(SelectionKey selectionKey) throws IOException {
-			AbstractSocketHandler.this.readingBuffer.clear();
+			this.readingBuffer.clear();
 	        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+	        ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+	        connectionContext.setLastReceived(System.nanoTime());
 	      
 	        int count = -1;
-	        boolean finished = false;
-			while (!finished && (count = socketChannel.read(AbstractSocketHandler.this.readingBuffer)) > -1){
-				ByteBuffer messageBuffer = (ByteBuffer) selectionKey.attachment();
-				if (messageBuffer == null) { // new message
-		    		messageBuffer = AbstractSocketHandler.this.bufferPoll.poll();
-					selectionKey.attach(messageBuffer);
-				}
-				AbstractSocketHandler.this.readingBuffer.flip();
-				if (AbstractSocketHandler.this.readingBuffer.limit() > 0){
-					if (logger.isTraceEnabled()){
-						logger.trace(AbstractSocketHandler.this.getClass().getName() + " - Received data message with " + readingBuffer.limit() + " bytes");
-			    	}
-					messageBuffer = ByteBufferUtils.merge(messageBuffer, AbstractSocketHandler.this.readingBuffer);
-				}
-				AbstractSocketHandler.this.readingBuffer.clear();
-				
-				int expectedMessageLength = messageBuffer.getInt(0);
-
-				if (expectedMessageLength == messageBuffer.position()){
-					selectionKey.attach(null);
-					messageBuffer.flip();
-					byte[] message = new byte[messageBuffer.limit()-4];
-					messageBuffer.position(4);
-					messageBuffer.get(message);
-					AbstractSocketHandler.this.bufferPoll.release(messageBuffer);
-					AbstractSocketHandler.this.read(selectionKey, ByteBuffer.wrap(message));
-					finished = true;
-				}
-			}
+	        try {
+	        	count = this.doRead(selectionKey, socketChannel, connectionContext);
+	        } 
+	        catch (ClosedChannelException e) {
+	        	// channel was closed by another thread (e.g., stop(..)) while being read
+	        	count = -1;
+	        }
+	        catch (StreamCorruptedException e) {
+	        	logger.error("Received corrupted data from " + socketChannel.socket().getRemoteSocketAddress() + ". Closing connection.", e);
+	        	count = -1;
+	        }
 	        
 	        if (count < 0) {
-	            if (logger.isDebugEnabled()){
-	            	logger.debug(AbstractSocketHandler.this.thisClass.getSimpleName() + " - Connection closed by: " + socketChannel.socket().getRemoteSocketAddress());
-	            }
-	            AbstractSocketHandler.this.closeChannel(socketChannel);
-	            AbstractSocketHandler.this.onDisconnect(selectionKey);
-	            if (AbstractSocketHandler.this.onDisconnectTask != null){
-	            	AbstractSocketHandler.this.onDisconnectTask.run();
-				}
+	            this.disconnect(selectionKey);
 	        }
 	    }
+		
+		/**
+		 * 
+		 */
+		private void disconnect(SelectionKey selectionKey) {
+			SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+			if (logger.isDebugEnabled()){
+            	logger.debug(AbstractSocketHandler.this.thisClass.getSimpleName() + " - Connection closed by: " + socketChannel.socket().getRemoteSocketAddress());
+            }
+            if (AbstractSocketHandler.this.onConnectionLost(selectionKey)){
+            	return;
+            }
+            AbstractSocketHandler.this.closeChannel(socketChannel);
+            ((ConnectionContext) selectionKey.attachment()).release();
+            AbstractSocketHandler.this.onDisconnect(selectionKey);
+            if (AbstractSocketHandler.this.onDisconnectTask != null){
+            	AbstractSocketHandler.this.onDisconnectTask.run();
+			}
+		}
+
+		/**
+		 * Reads all available data from the socket dispatching every complete message 
+		 * to {@link AbstractSocketHandler#read(SelectionKey, long, PooledByteBuffer)}, unless reading is 
+		 * suspended since one of the inbound streams is full.
+		 * While the body of a large frame is being accumulated, data is read directly into it.
+		 * 
+		 * @return the result of the last read from the socket (-1 if connection was closed)
+		 */
+		private int doRead(SelectionKey selectionKey, SocketChannel socketChannel, ConnectionContext connectionContext) throws IOException {
+			FrameDecoder frameDecoder = connectionContext.getFrameDecoder();
+			this.currentSelectionKey = selectionKey;
+			int count;
+			try {
+				do {
+					if (frameDecoder.isAccumulatingBody()){
+						count = frameDecoder.readBody(socketChannel, this);
+						if (count > 0){
+							connectionContext.getMetrics().recordBytesIn(count);
+						}
+					}
+					else if ((count = socketChannel.read(this.readingBuffer)) > 0){
+						connectionContext.getMetrics().recordBytesIn(count);
+						this.readingBuffer.flip();
+						if (logger.isTraceEnabled()){
+							logger.trace(AbstractSocketHandler.this.getClass().getName() + " - Received data message with " + this.readingBuffer.limit() + " bytes");
+				    	}
+						frameDecoder.decode(this.readingBuffer, this);
+						this.readingBuffer.clear();
+					}
+				} 
+				while (count > 0 && !connectionContext.isSocketReadSuspended());
+			} 
+			finally {
+				this.currentSelectionKey = null;
+			}
+			return count;
+		}
+		
+		/**
+		 * Reads frames from the shared memory of the connection (if it switched to it) until it is empty
+		 * or reading is suspended since one of the inbound streams is full. Parks this side of the shared 
+		 * memory once it is empty (unless in busy-spin mode), so the other side wakes it up once it writes more.
+		 */
+		private void readSharedMemory(SelectionKey selectionKey) throws IOException {
+			ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+			SharedMemoryChannel sharedMemoryChannel = connectionContext.getSharedMemoryChannel();
+			if (sharedMemoryChannel == null || !sharedMemoryChannel.isInboundActive()){
+				return;
+			}
+			SharedMemoryRing ring = sharedMemoryChannel.getInboundRing();
+			// may be invoked while the socket of the same connection is being read
+			SelectionKey previousSelectionKey = this.currentSelectionKey;
+			this.currentSelectionKey = selectionKey;
+			try {
+				while (selectionKey.isValid() && !connectionContext.isReadSuspended()){
+					ByteBuffer data = ring.readable(this.readingBuffer.capacity());
+					if (data == null){
+						if (this.busySpin || ring.parkConsumer()){
+							break;
+						}
+					}
+					else {
+						connectionContext.setLastReceived(System.nanoTime());
+						int length = data.remaining();
+						connectionContext.getMetrics().recordBytesIn(length);
+						sharedMemoryChannel.getFrameDecoder().decode(data, this);
+						if (ring.consumed(length)){
+							// other side is waiting for the room to write
+							connectionContext.requestDoorbell();
+							this.write(selectionKey);
+						}
+					}
+				}
+			} 
+			finally {
+				this.currentSelectionKey = previousSelectionKey;
+			}
+		}
+		
+		/**
+		 * Reads the shared memory of the connection outside of the socket read, 
+		 * disconnecting it if the data is corrupted.
+		 */
+		void pollSharedMemory(SelectionKey selectionKey) {
+			try {
+				this.readSharedMemory(selectionKey);
+			} 
+			catch (IOException e) {
+				logger.error("Failed to read shared memory of " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress() + 
+						". Closing connection.", e);
+				this.disconnect(selectionKey);
+			}
+		}
+		
+		/**
+		 * 
+		 */
+		private void pollSharedMemory() {
+			Iterator<SelectionKey> keys = this.sharedMemoryKeys.iterator();
+			while (keys.hasNext()){
+				SelectionKey selectionKey = keys.next();
+				if (selectionKey.isValid()){
+					this.pollSharedMemory(selectionKey);
+				}
+				else {
+					keys.remove();
+				}
+			}
+		}
+		
+		/**
+		 * 
+		 */
+		@Override
+		public void onFrame(long requestId, int flags, PooledByteBuffer payload) throws IOException {
+			if (!this.unbatching){
+				((ConnectionContext) this.currentSelectionKey.attachment()).getMetrics().recordFrameIn(payload.size() + FRAME_HEADER_SIZE);
+			}
+			if ((flags & COMPRESSED_FLAG) != 0){
+				FrameCompressor frameCompressor = ((ConnectionContext) this.currentSelectionKey.attachment()).getFrameCompressor();
+				try {
+					if (frameCompressor == null){
+						throw new StreamCorruptedException("Received compressed frame while no compression codec was negotiated");
+					}
+					PooledByteBuffer decompressedPayload = frameCompressor.decompress(payload);
+					payload.release();
+					payload = decompressedPayload;
+				} 
+				catch (IOException e) {
+					payload.release();
+					throw e;
+				}
+			}
+			
+			if ((flags & CHUNK_FLAG) != 0){
+				AbstractSocketHandler.this.readChunk(this.currentSelectionKey, requestId, payload);
+			}
+			else if (requestId == BATCH_FRAME_ID){
+				this.unbatching = true;
+				try {
+					FrameBatcher.unbatch(payload, this);
+				} 
+				finally {
+					this.unbatching = false;
+					payload.release();
+				}
+			}
+			else if (requestId == SHARED_MEMORY_FRAME_ID){
+				String message;
+				try {
+					ByteBuffer messageBuffer = payload.asReadOnlyBuffer();
+					byte[] messageBytes = new byte[messageBuffer.remaining()];
+					messageBuffer.get(messageBytes);
+					message = new String(messageBytes, StandardCharsets.UTF_8);
+				} 
+				finally {
+					payload.release();
+				}
+				SelectionKey selectionKey = this.currentSelectionKey;
+				if (message.length() == 0){
+					// woken up by the other side of the shared memory
+					this.readSharedMemory(selectionKey);
+					if (selectionKey.isValid() && ((ConnectionContext) selectionKey.attachment()).hasPendingWrites()){
+						this.write(selectionKey);
+					}
+				}
+				else if (AbstractSocketHandler.this.onSharedMemoryNegotiation(selectionKey, message)){
+					((ConnectionContext) selectionKey.attachment()).getSharedMemoryChannel().activateInbound();
+					if (this.busySpin){
+						this.sharedMemoryKeys.add(selectionKey);
+					}
+					this.readSharedMemory(selectionKey);
+				}
+			}
+			else if (requestId == HANDSHAKE_FRAME_ID){
+				try {
+					AbstractSocketHandler.this.onHandshake(this.currentSelectionKey, payload.asReadOnlyBuffer());
+				} 
+				finally {
+					payload.release();
+				}
+			}
+			else if (requestId == CREDIT_FRAME_ID){
+				String[] credit;
+				try {
+					ByteBuffer creditBuffer = payload.asReadOnlyBuffer();
+					byte[] creditBytes = new byte[creditBuffer.remaining()];
+					creditBuffer.get(creditBytes);
+					credit = new String(creditBytes, StandardCharsets.UTF_8).split(":");
+				} 
+				finally {
+					payload.release();
+				}
+				if (credit.length != 2){
+					throw new StreamCorruptedException("Malformed credit frame: " + StringUtils.arrayToDelimitedString(credit, ":"));
+				}
+				AbstractSocketHandler.this.onCreditGrant(this.currentSelectionKey, Integer.parseInt(credit[0]), Long.parseLong(credit[1]));
+			}
+			else if (requestId == SESSION_FRAME_ID){
+				String sessionToken;
+				try {
+					ByteBuffer sessionBuffer = payload.asReadOnlyBuffer();
+					byte[] sessionBytes = new byte[sessionBuffer.remaining()];
+					sessionBuffer.get(sessionBytes);
+					sessionToken = new String(sessionBytes, StandardCharsets.UTF_8);
+				} 
+				finally {
+					payload.release();
+				}
+				AbstractSocketHandler.this.onSession(this.currentSelectionKey, sessionToken);
+			}
+			else if (requestId == HEARTBEAT_FRAME_ID){
+				// its arrival is all that matters (see ConnectionContext.getLastReceived())
+				payload.release();
+			}
+			else {
+				AbstractSocketHandler.this.read(this.currentSelectionKey, requestId, flags & ~COMPRESSED_FLAG, payload);
+			}
+		}
+	}
+	
+	/**
+	 * Creates built-in codec by its name or custom codec by its class name.
+	 */
+	private static CompressionCodec createCompressionCodec(String codecName) {
+		if (DeflateCompressionCodec.NAME.equals(codecName)){
+			return new DeflateCompressionCodec();
+		}
+		else if (LzCompressionCodec.NAME.equals(codecName)){
+			return new LzCompressionCodec();
+		}
+		try {
+			Class<?> codecClass = Class.forName(codecName, true, Thread.currentThread().getContextClassLoader());
+			Assert.isAssignable(CompressionCodec.class, codecClass);
+			return (CompressionCodec) codecClass.getDeclaredConstructor().newInstance();
+		} 
+		catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Failed to create compression codec '" + codecName + "'", e);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private static class DelayedTask implements Comparable<DelayedTask> {
+		private final Runnable task;
+		
+		private final long deadline;
+		
+		DelayedTask(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public int compareTo(DelayedTask other) {
+			long diff = this.deadline - other.deadline;
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
 	}
 }
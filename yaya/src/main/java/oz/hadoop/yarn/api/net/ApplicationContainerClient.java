@@ -22,5 +22,15 @@ package oz.hadoop.yarn.api.net;
  */
 public interface ApplicationContainerClient extends SocketHandler {
 	
-
+	/**
+	 * Grants the Application Master the credit of messages and bytes it may have in flight 
+	 * to this Application Container at any given time, replacing the one granted before 
+	 * (see {@link TransportSettings#getCreditMessages()} and {@link TransportSettings#getCreditBytes()}). 
+	 * Allows Application Container to signal that it is overloaded by granting less, 
+	 * while 0 means unlimited.
+	 * 
+	 * @param messages
+	 * @param bytes
+	 */
+	void grantCredit(int messages, long bytes);
 }
\ No newline at end of file
@@ -19,14 +19,18 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-
-import oz.hadoop.yarn.api.utils.ByteBufferUtils;
+import org.springframework.util.Assert;
 
 
 /**
@@ -40,10 +44,36 @@ import oz.hadoop.yarn.api.utils.ByteBufferUtils;
  */
 class ApplicationContainerClientImpl extends AbstractSocketHandler implements ApplicationContainerClient {
 	
+	private static final int RECONNECT_TIMEOUT_MILLIS = 5000;
+	
+	private static final long MAX_RECONNECT_BACKOFF_MILLIS = 30000;
+	
 	private final Log logger = LogFactory.getLog(ApplicationContainerClientImpl.class);
 	
 	private final ApplicationContainerMessageHandler messageHandler;
 	
+	/*
+	 * Messages are processed one at a time in the order they were received, 
+	 * while the ones that arrived ahead of time are queued.
+	 */
+	private final ExecutorService messageProcessingExecutor;
+	
+	private volatile SelectionKey selectionKey;
+	
+	/*
+	 * Identifies this Application Container when it reconnects (see TransportSettings.getReconnectAttempts())
+	 */
+	private final String sessionToken;
+	
+	private volatile boolean stopping;
+	
+	/*
+	 * Attempts to reconnect made since the session was last confirmed by the server, so the 
+	 * server which keeps accepting and closing the connection does not keep this client forever.
+	 * Only accessed by the selector thread.
+	 */
+	private int unconfirmedReconnects;
+	
 	/**
 	 * Connects and instance of ApplicationContainerClient for a provided {@link SocketAddress}
 	 * which points to the running server (see {@link ApplicationContainerServerImpl})
@@ -51,8 +81,26 @@ class ApplicationContainerClientImpl extends AbstractSocketHandler implements Ap
 	 * @param address
 	 */
 	public ApplicationContainerClientImpl(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler, Runnable onDisconnectTask){
-		super(address, false, onDisconnectTask);
+		this(address, messageHandler, onDisconnectTask, new TransportSettings());
+	}
+	
+	/**
+	 * Connects and instance of ApplicationContainerClient for a provided {@link SocketAddress}
+	 * which points to the running server (see {@link ApplicationContainerServerImpl}) using 
+	 * provided {@link TransportSettings}.
+	 * 
+	 * @param address
+	 * @param messageHandler
+	 * @param onDisconnectTask
+	 * @param transportSettings
+	 */
+	public ApplicationContainerClientImpl(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler, 
+			Runnable onDisconnectTask, TransportSettings transportSettings){
+		super(address, false, onDisconnectTask, transportSettings);
 		this.messageHandler = messageHandler;
+		this.messageProcessingExecutor = transportSettings.getExecutorFactory().newBoundedExecutor(this.getClass().getSimpleName() + "-message", 
+				transportSettings.getContainerParallelism());
+		this.sessionToken = UUID.randomUUID().toString();
 	}
 	
 	/**
@@ -66,7 +114,10 @@ class ApplicationContainerClientImpl extends AbstractSocketHandler implements Ap
 		if (connected){
 			channel.configureBlocking(false);
 
-			channel.register(this.selector, SelectionKey.OP_READ);
+			SelectionKey selectionKey = channel.register(this.selector, SelectionKey.OP_READ, this.newConnectionContext());
+			this.registerMetrics();
+			this.registerConnectionMetrics(selectionKey);
+			this.onConnected(selectionKey);
 
 			if (logger.isInfoEnabled()){
 				logger.info("Connected to " + this.address);
@@ -77,30 +128,194 @@ class ApplicationContainerClientImpl extends AbstractSocketHandler implements Ap
 		}
 	}
 	
+	/**
+	 * Unless reconnect is disabled (see {@link TransportSettings#getReconnectAttempts()}), keeps the selector 
+	 * loop running while attempting to reconnect, so neither this client, nor the Application Container it 
+	 * serves have to be restarted. Messages which were being processed are not replied to, since server 
+	 * fails them once it loses the connection.
+	 */
+	@Override
+	boolean onConnectionLost(SelectionKey selectionKey) {
+		if (this.unconfirmedReconnects >= this.getTransportSettings().getReconnectAttempts() || this.stopping){
+			return false;
+		}
+		logger.warn("Lost connection to " + this.address + ". Attempting to reconnect.");
+		// root channel stays open until replaced, so the selector loop keeps running
+		selectionKey.cancel();
+		((ConnectionContext) selectionKey.attachment()).release();
+		this.scheduleReconnect();
+		return true;
+	}
+	
+	/**
+	 * Server confirms the session once it accepted or resumed it.
+	 */
+	@Override
+	void onSession(SelectionKey selectionKey, String sessionToken) {
+		if (this.sessionToken.equals(sessionToken)){
+			this.unconfirmedReconnects = 0;
+		}
+		else {
+			super.onSession(selectionKey, sessionToken);
+		}
+	}
+	
+	/**
+	 * Makes sure the client which is reconnecting stops as well.
+	 */
+	@Override
+	void preStop(boolean force) {
+		this.stopping = true;
+		SelectionKey selectionKey = this.selectionKey;
+		if (selectionKey != null && !selectionKey.isValid()){
+			this.closeChannel(this.rootChannel);
+		}
+	}
+	
+	/**
+	 * May be invoked by any thread (e.g., the one processing the message).
+	 */
+	@Override
+	public void grantCredit(int messages, long bytes) {
+		SelectionKey selectionKey = this.selectionKey;
+		Assert.state(selectionKey != null, "ApplicationContainerClient is not connected");
+		this.writeCreditGrant(selectionKey, messages, bytes);
+	}
+	
 	/**
 	 * 
 	 */
 	@Override
-	void read(SelectionKey selectionKey, ByteBuffer messageBuffer) throws IOException {
+	void read(SelectionKey selectionKey, long requestId, int flags, PooledByteBuffer message) throws IOException {
 		logger.debug("Buffered full message. Releasing to handler");
-		this.executor.execute(new MessageProcessor(messageBuffer, selectionKey));
+		try {
+			this.messageProcessingExecutor.execute(new MessageProcessor(requestId, message, selectionKey));
+		} 
+		catch (RejectedExecutionException e) {
+			message.release();
+			logger.warn("Message " + requestId + " was rejected since client is shutting down");
+		}
+	}
+	
+	/**
+	 * Streamed messages are processed in order with other messages, while their chunks are 
+	 * buffered as they arrive (see {@link TransportSettings#getStreamBufferedChunks()}).
+	 */
+	@Override
+	ChunkedInputChannel acceptInboundStream(SelectionKey selectionKey, long requestId) {
+		ChunkedInputChannel message = this.newChunkedInputChannel(selectionKey);
+		try {
+			this.messageProcessingExecutor.execute(new StreamProcessor(requestId, message, selectionKey));
+		} 
+		catch (RejectedExecutionException e) {
+			// remaining chunks will be discarded
+			message.close();
+			logger.warn("Streamed message " + requestId + " was rejected since client is shutting down");
+		}
+		return message;
 	}
 	
 	/**
 	 * 
 	 */
+	@Override
+	protected void closeChannel(Channel channel) {
+		super.closeChannel(channel);
+		if (channel.equals(this.rootChannel)){
+			this.messageProcessingExecutor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Identifies this Application Container to the server (if it may reconnect) and initiates the handshake. 
+	 */
+	private void onConnected(SelectionKey selectionKey) {
+		this.selectionKey = selectionKey;
+		if (this.getTransportSettings().getReconnectAttempts() > 0){
+			this.writeFrame(selectionKey, SESSION_FRAME_ID, ByteBuffer.wrap(this.sessionToken.getBytes(StandardCharsets.UTF_8)));
+		}
+		this.initiateHandshake(selectionKey);
+	}
+	
+	/**
+	 * Schedules the attempt to reconnect after the backoff which doubles with every attempt.
+	 */
+	private void scheduleReconnect() {
+		final int attempt = ++this.unconfirmedReconnects;
+		long backoff = Math.min(this.getTransportSettings().getReconnectBackoffMillis() << Math.min(attempt - 1, 20), MAX_RECONNECT_BACKOFF_MILLIS);
+		this.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ApplicationContainerClientImpl.this.reconnect(attempt);
+			}
+		}, backoff);
+	}
+	
+	/**
+	 * Performed by the selector thread, which has nothing else to do until reconnected. 
+	 * Once attempts are exhausted, client disconnects the same way as if reconnect was disabled.
+	 */
+	private void reconnect(int attempt) {
+		if (this.stopping){
+			return;
+		}
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.socket().connect(this.address, RECONNECT_TIMEOUT_MILLIS);
+			channel.configureBlocking(false);
+			SelectionKey selectionKey = channel.register(this.selector, SelectionKey.OP_READ, this.newConnectionContext());
+			Channel lostChannel = this.rootChannel;
+			this.rootChannel = channel;
+			this.closeChannel(lostChannel);
+			this.registerConnectionMetrics(selectionKey);
+			this.onConnected(selectionKey);
+			if (this.stopping){
+				this.closeChannel(channel);
+			}
+			else if (logger.isInfoEnabled()){
+				logger.info("Reconnected to " + this.address + " on attempt " + attempt);
+			}
+		} 
+		catch (IOException e) {
+			if (channel != null){
+				this.closeChannel(channel);
+			}
+			if (attempt < this.getTransportSettings().getReconnectAttempts()){
+				logger.warn("Attempt " + attempt + " to reconnect to " + this.address + " failed: " + e.getMessage());
+				this.scheduleReconnect();
+			}
+			else {
+				logger.error("Failed to reconnect to " + this.address + " after " + attempt + " attempts. Disconnecting.");
+				this.closeChannel(this.rootChannel);
+				if (this.onDisconnectTask != null){
+					this.onDisconnectTask.run();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gives read-only view of the received message to the {@link ApplicationContainerMessageHandler}.
+	 * Since reply may share data with the message (e.g., echo), message is released only 
+	 * after the reply is written.
+	 */
 	private class MessageProcessor implements Runnable {
-		private final ByteBuffer messageBuffer;
+		private final long requestId;
+		
+		private final PooledByteBuffer message;
 		
 		private final SelectionKey selectionKey;
 		
 		/**
 		 * 
-		 * @param messageBuffer
+		 * @param requestId
+		 * @param message
 		 * @param selectionKey
 		 */
-		MessageProcessor(ByteBuffer messageBuffer, SelectionKey selectionKey){
-			this.messageBuffer = messageBuffer;
+		MessageProcessor(long requestId, PooledByteBuffer message, SelectionKey selectionKey){
+			this.requestId = requestId;
+			this.message = message;
 			this.selectionKey = selectionKey;
 		}
 		
@@ -109,12 +324,27 @@ class ApplicationContainerClientImpl extends AbstractSocketHandler implements Ap
 		 */
 		@Override
 		public void run() {
-			ByteBuffer replyBuffer = ApplicationContainerClientImpl.this.messageHandler.handle(this.messageBuffer);
-			ByteBuffer message = ByteBufferUtils.merge(ByteBuffer.allocate(4).putInt(replyBuffer.limit() + 4), replyBuffer);
-			message.flip();
+			ApplicationContainerMessageHandler messageHandler = ApplicationContainerClientImpl.this.messageHandler;
+			ByteBuffer replyHeader = null;
+			ByteBuffer replyBuffer;
 			try {
-				this.selectionKey.attach(message);
-				this.selectionKey.interestOps(SelectionKey.OP_WRITE);
+				if (messageHandler instanceof ReplyHeaderWritingMessageHandler){
+					replyHeader = ByteBuffer.allocate(ReplyHeader.LENGTH);
+					replyBuffer = ((ReplyHeaderWritingMessageHandler) messageHandler).handle(this.message.asReadOnlyBuffer(), replyHeader);
+					replyHeader.flip();
+				}
+				else {
+					replyBuffer = messageHandler.handle(this.message.asReadOnlyBuffer());
+				}
+			} 
+			catch (RuntimeException e) {
+				this.message.release();
+				throw e;
+			}
+			try {
+				// from this point on the message is released once the reply is written or connection is closed
+				ApplicationContainerClientImpl.this.writeFrame(this.selectionKey, this.requestId, 
+						replyHeader == null ? 0 : REPLY_HEADER_FLAG, replyHeader, replyBuffer, this.message);
 			} 
 			catch (CancelledKeyException e) {
 				// may happen when server kills connection before receiving a reply
@@ -122,4 +352,57 @@ class ApplicationContainerClientImpl extends AbstractSocketHandler implements Ap
 			}
 		}
 	}
+	
+	/**
+	 * Gives the streamed message to the {@link StreamingMessageHandler} streaming back whatever it 
+	 * writes as the reply. Reply is aborted if handler fails or does not support streamed messages.
+	 */
+	private class StreamProcessor implements Runnable {
+		private final long requestId;
+		
+		private final ChunkedInputChannel message;
+		
+		private final SelectionKey selectionKey;
+		
+		/**
+		 * 
+		 * @param requestId
+		 * @param message
+		 * @param selectionKey
+		 */
+		StreamProcessor(long requestId, ChunkedInputChannel message, SelectionKey selectionKey){
+			this.requestId = requestId;
+			this.message = message;
+			this.selectionKey = selectionKey;
+		}
+		
+		/**
+		 * 
+		 */
+		@Override
+		public void run() {
+			ChunkedOutputChannel reply = new ChunkedOutputChannel(ApplicationContainerClientImpl.this, this.selectionKey, this.requestId);
+			try {
+				if (!(ApplicationContainerClientImpl.this.messageHandler instanceof StreamingMessageHandler)){
+					throw new UnsupportedOperationException(ApplicationContainerClientImpl.this.messageHandler.getClass().getName() + 
+							" does not support streamed messages");
+				}
+				((StreamingMessageHandler) ApplicationContainerClientImpl.this.messageHandler).handle(this.message, reply);
+				reply.close();
+			} 
+			catch (IOException | RuntimeException e) {
+				logger.error("Failed to process streamed message " + this.requestId, e);
+				try {
+					reply.abort(e.toString());
+				} 
+				catch (IOException ex) {
+					logger.warn("Failed to abort reply to streamed message " + this.requestId + ": " + ex.getMessage());
+				}
+			}
+			finally {
+				// discards whatever handler did not read
+				this.message.close();
+			}
+		}
+	}
 }
@@ -15,7 +15,11 @@
  */
 package oz.hadoop.yarn.api.net;
 
+import oz.hadoop.yarn.api.ContainerEvictionListener;
 import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.CreditListener;
+import oz.hadoop.yarn.api.ReplyEnvelope;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
 
 /**
  * Strategy for implementing ClientServers.
@@ -47,6 +51,31 @@ public interface ApplicationContainerServer extends SocketHandler {
 	 */
 	void registerReplyListener(ContainerReplyListener replyListener);
 	
+	/**
+	 * Registers {@link ReplyEnvelopeListener} to be given every reply together with the context 
+	 * of the request it replies to (see {@link ReplyEnvelope}). Streamed replies are not given to it.
+	 * 
+	 * @param replyEnvelopeListener
+	 */
+	void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener);
+	
+	/**
+	 * Registers {@link CreditListener} to be notified when the credit granted by 
+	 * any of the Application Containers or the budget of bytes in flight shared 
+	 * by all of them ran out and when it is replenished.
+	 * 
+	 * @param creditListener
+	 */
+	void registerCreditListener(CreditListener creditListener);
+	
+	/**
+	 * Registers {@link ContainerEvictionListener} to be notified when any of the 
+	 * Application Containers is evicted since it stopped responding.
+	 * 
+	 * @param evictionListener
+	 */
+	void registerEvictionListener(ContainerEvictionListener evictionListener);
+	
 	/**
 	 * 
 	 * @return
@@ -16,26 +16,39 @@
 package oz.hadoop.yarn.api.net;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.Assert;
 
+import oz.hadoop.yarn.api.ContainerEvictionListener;
 import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.CreditListener;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
 import oz.hadoop.yarn.api.utils.ByteBufferUtils;
 
 /**
@@ -46,7 +59,9 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 	
 	private final Log logger = LogFactory.getLog(ApplicationContainerServerImpl.class);
 	
-	private final ConcurrentHashMap<SelectionKey, ReplyPostProcessor> replyCallbackMap;
+	private final ConcurrentHashMap<Long, ReplyPostProcessor> replyCallbackMap;
+	
+	private final AtomicLong requestIdSequence;
 	
 	private final CountDownLatch expectedClientContainersMonitor;
 	
@@ -54,12 +69,28 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 	
 	private volatile ContainerReplyListener replyListener;
 	
-	private final Map<SelectionKey, ContainerDelegate> containerDelegates;
+	private volatile ReplyEnvelopeListener replyEnvelopeListener;
+	
+	private volatile ContainerEvictionListener evictionListener;
+	
+	private final Map<SelectionKey, AbstractContainerDelegate> containerDelegates;
+	
+	private final CreditGate creditBudget;
 	
 	private final boolean finite;
 	
 	private volatile SelectionKey masterSelectionKey;
 	
+	/*
+	 * Keyed by session token (see TransportSettings.getSessionResumeTimeoutMillis())
+	 */
+	private final Map<String, ContainerDelegateImpl> sessions;
+	
+	/*
+	 * Connections of Application Containers expected to resume their sessions
+	 */
+	private final Set<SelectionKey> resumingConnections;
+	
 	
 	/**
 	 * Will create an instance of this server using host name as 
@@ -96,13 +127,38 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 	 * 			additional process implemented as {@link Runnable} to be executed during disconnect
 	 */
 	public ApplicationContainerServerImpl(InetSocketAddress address, int expectedClientContainers, boolean finite, Runnable onDisconnectTask) {
-		super(address, true, onDisconnectTask);
+		this(address, expectedClientContainers, finite, onDisconnectTask, new TransportSettings());
+	}
+	
+	/**
+	 * Constructs this ClientServer with specified 'address' and {@link TransportSettings}.
+	 * The 'expectedClientContainers' represents the amount of expected 
+	 * {@link ApplicationContainerClientImpl}s to be connected
+	 * with this ClientServer. 
+	 * 
+	 * @param address
+	 * 			the address to bind to
+	 * @param expectedClientContainers
+	 * 			expected Application Containers
+	 * @param finite
+	 * 			whether the YARN application using finite or reusable Application Containers
+	 * @param onDisconnectProcess
+	 * 			additional process implemented as {@link Runnable} to be executed during disconnect
+	 * @param transportSettings
+	 * 			settings of the network layer (e.g., in-flight window of each {@link ContainerDelegate})
+	 */
+	public ApplicationContainerServerImpl(InetSocketAddress address, int expectedClientContainers, boolean finite, Runnable onDisconnectTask, TransportSettings transportSettings) {
+		super(address, true, onDisconnectTask, transportSettings);
 		Assert.isTrue(expectedClientContainers > 0, "'expectedClientContainers' must be > 0");
 		this.expectedClientContainers = expectedClientContainers;
-		this.replyCallbackMap = new ConcurrentHashMap<SelectionKey, ReplyPostProcessor>();
+		this.requestIdSequence = new AtomicLong();
+		this.replyCallbackMap = new ConcurrentHashMap<Long, ReplyPostProcessor>();
 		this.expectedClientContainersMonitor = new CountDownLatch(expectedClientContainers+1);
-		this.containerDelegates = new HashMap<SelectionKey, ContainerDelegate>();
+		this.containerDelegates = new ConcurrentHashMap<SelectionKey, AbstractContainerDelegate>();
+		this.creditBudget = new CreditGate(transportSettings.getInFlightBytesBudget(), transportSettings.isCreditFailFast());
 		this.finite = finite;
+		this.sessions = new ConcurrentHashMap<String, ContainerDelegateImpl>();
+		this.resumingConnections = Collections.newSetFromMap(new ConcurrentHashMap<SelectionKey, Boolean>());
 	}
 
 	
@@ -180,7 +236,15 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 				LockSupport.parkNanos(10000000);
 			}
 			else {
+				for (AbstractContainerDelegate containerDelegate : this.containerDelegates.values()) {
+					containerDelegate.discard();
+				}
 				this.containerDelegates.clear();
+				for (AbstractContainerDelegate containerDelegate : this.sessions.values()) {
+					// lost ones which did not resume
+					containerDelegate.discard();
+				}
+				this.sessions.clear();
 			}
 		}
 		for (int i = 0; i < this.expectedClientContainers; i++) {
@@ -196,6 +260,30 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 		this.replyListener = replyListener;
 	}
 	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener) {
+		this.replyEnvelopeListener = replyEnvelopeListener;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerCreditListener(CreditListener creditListener) {
+		this.creditBudget.setCreditListener(creditListener);
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerEvictionListener(ContainerEvictionListener evictionListener) {
+		this.evictionListener = evictionListener;
+	}
+	
 	/**
 	 * Will return the current view of all currently connected ContainerDelegates
 	 * 
@@ -209,16 +297,101 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 	 * Performs message exchange session (request/reply) with the client identified by the {@link SelectionKey}.
 	 * Message data is contained in 'buffer' parameter. 
 	 * 
-	 * The actual exchange happens asynchronously, so the return type is {@link Future} and returns immediately.
+	 * The actual exchange happens asynchronously and this method returns immediately. Each request is 
+	 * assigned a unique id which is carried by the request and reply frames, allowing several requests 
+	 * to be in flight on the same connection (see {@link TransportSettings#getInFlightWindow()}).
 	 * 
 	 * @param selectionKey
 	 * @param buffer
 	 * @return
 	 */
 	void process(SelectionKey selectionKey,  ByteBuffer buffer, ReplyPostProcessor replyPostProcessor) {
-		Assert.isNull(this.replyCallbackMap.putIfAbsent(selectionKey, replyPostProcessor), 
-				"Unprocessed callback remains attached to the SelectionKey. This must be a bug. Please report!");
-		this.doWrite(selectionKey, buffer);
+		long requestId = this.requestIdSequence.incrementAndGet();
+		this.replyCallbackMap.put(requestId, replyPostProcessor);
+		replyPostProcessor.onSent(requestId);
+		try {
+			if (!selectionKey.isValid()){
+				throw new CancelledKeyException();
+			}
+			this.doWrite(selectionKey, requestId, buffer);
+		} 
+		catch (CancelledKeyException e) {
+			/*
+			 * Application Container disconnected or was evicted after the request was accepted, 
+			 * so unless already done by onDisconnect(..), the request must be failed here.
+			 */
+			if (this.replyCallbackMap.remove(requestId) != null){
+				replyPostProcessor.postFailure(new IOException("Connection to Application Container was closed before request " + requestId + " was sent"));
+			}
+		}
+	}
+	
+	/**
+	 * Performs message exchange session (request/reply) with the client identified by the {@link SelectionKey}
+	 * where both request and reply are streamed in chunks (see {@link TransportSettings#getStreamChunkSize()}), 
+	 * so neither has to fit in memory. 
+	 * 
+	 * Request is read from the 'data' channel by one of the threads of this server, while the calling thread 
+	 * writes the reply into the 'replyChannel' as it arrives and returns once it is complete. Since the reply 
+	 * could be produced while the request is still being streamed, it is important that both happen concurrently.
+	 * Streamed replies are not given to the {@link ContainerReplyListener}.
+	 * 
+	 * @param selectionKey
+	 * @param data
+	 * @param replyChannel
+	 * @throws IOException
+	 * 		if either channel fails, connection is closed or the reply was aborted by the client
+	 */
+	void process(final SelectionKey selectionKey, final ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+		final long requestId = this.requestIdSequence.incrementAndGet();
+		final ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		final ChunkedInputChannel reply = this.newChunkedInputChannel(selectionKey);
+		connectionContext.addInboundStream(requestId, reply);
+		Future<?> sending = this.executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				connectionContext.getOutboundStreamLock().lock();
+				try {
+					ApplicationContainerServerImpl.this.stream(selectionKey, requestId, data);
+				} 
+				catch (IOException | RuntimeException e) {
+					// reply will never come
+					reply.fail(e instanceof IOException ? (IOException) e : new IOException("Failed to stream request " + requestId, e));
+					throw e;
+				}
+				finally {
+					connectionContext.getOutboundStreamLock().unlock();
+				}
+				return null;
+			}
+		});
+		if (!selectionKey.isValid()){
+			reply.fail(new IOException("Connection was closed before the stream was complete"));
+		}
+		try {
+			reply.transferTo(replyChannel);
+			sending.get();
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the streamed message to be sent");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to stream request " + requestId, e.getCause());
+		}
+		finally {
+			// stops streaming the request if the reply failed
+			sending.cancel(true);
+			reply.close();
+			connectionContext.removeInboundStream(requestId);
+		}
+		if (logger.isDebugEnabled()){
+			logger.debug("Streamed reply for request " + requestId + " received from " + ((SocketChannel)selectionKey.channel()).getRemoteAddress());
+		}
+		this.onReplied(selectionKey);
 	}
 	
 	/**
@@ -238,7 +411,98 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 			this.closeChannel(this.rootChannel);
 		}
 		else {
-			this.containerDelegates.remove(selectionKey);
+			AbstractContainerDelegate containerDelegate = this.containerDelegates.remove(selectionKey);
+			if (containerDelegate != null){
+				containerDelegate.discard();
+				this.removeSession(containerDelegate);
+				this.failInFlightRequests(containerDelegate, new IOException("Connection to Application Container " + 
+						containerDelegate.getHost() + " was closed before the reply was received"));
+			}
+		}
+	}
+	
+	/**
+	 * Evicts the Application Container which stopped responding, failing the requests which were 
+	 * in flight to it, so they would not wait for the replies which will never come. 
+	 * Unlike the disconnect, eviction does not invoke the 'onDisconnectTask' since the application 
+	 * continues with the remaining Application Containers. 
+	 * Application Master which stopped responding is disconnected as usual.
+	 */
+	@Override
+	boolean onHeartbeatTimeout(SelectionKey selectionKey) {
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.remove(selectionKey);
+		if (containerDelegate == null){
+			return false;
+		}
+		// must be closed before in-flight requests are collected (see process(..))
+		this.closeChannel(selectionKey.channel());
+		((ConnectionContext) selectionKey.attachment()).release();
+		containerDelegate.discard();
+		this.removeSession(containerDelegate);
+		this.failInFlightRequests(containerDelegate, new IOException("Application Container " + containerDelegate.getHost() + 
+				" was evicted since it did not respond within " + this.getTransportSettings().getHeartbeatTimeoutMillis() + " milliseconds"));
+		logger.warn("Evicted Application Container " + containerDelegate.getHost() + ". Remaining Application Containers: " + this.containerDelegates.size());
+		ContainerEvictionListener evictionListener = this.evictionListener;
+		if (evictionListener != null){
+			evictionListener.onEviction(containerDelegate.getHost());
+		}
+		return true;
+	}
+	
+	/**
+	 * Unless session resume is disabled (see {@link TransportSettings#getSessionResumeTimeoutMillis()}), 
+	 * detaches the {@link ContainerDelegate} of the Application Container which lost its connection, failing 
+	 * the requests which were in flight, while the new ones wait for the Application Container to reconnect 
+	 * and resume its session (see {@link #onSession(SelectionKey, String)}). Unless resumed in time, it is 
+	 * discarded the same way as if the Application Container disconnected.
+	 */
+	@Override
+	boolean onConnectionLost(SelectionKey selectionKey) {
+		if (this.resumingConnections.remove(selectionKey)){
+			// reconnected, but never resumed its session
+			this.closeChannel(selectionKey.channel());
+			((ConnectionContext) selectionKey.attachment()).release();
+			return true;
+		}
+		long sessionResumeTimeout = this.getTransportSettings().getSessionResumeTimeoutMillis();
+		AbstractContainerDelegate lostDelegate = this.containerDelegates.get(selectionKey);
+		if (sessionResumeTimeout == 0 || !(lostDelegate instanceof ContainerDelegateImpl) || 
+				((ContainerDelegateImpl) lostDelegate).getSessionToken() == null || !this.rootChannel.isOpen()){
+			return false;
+		}
+		final ContainerDelegateImpl containerDelegate = (ContainerDelegateImpl) lostDelegate;
+		containerDelegate.detach();
+		this.containerDelegates.remove(selectionKey);
+		// must be closed before in-flight requests are collected (see process(..))
+		this.closeChannel(selectionKey.channel());
+		((ConnectionContext) selectionKey.attachment()).release();
+		this.failInFlightRequests(containerDelegate, new IOException("Connection to Application Container " + 
+				containerDelegate.getHost() + " was lost before the reply was received"));
+		logger.warn("Lost connection to Application Container with session " + containerDelegate.getSessionToken() + 
+				". Waiting " + sessionResumeTimeout + " milliseconds for it to resume its session.");
+		this.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ApplicationContainerServerImpl.this.expireSession(containerDelegate);
+			}
+		}, sessionResumeTimeout);
+		return true;
+	}
+	
+	/**
+	 * Records the session of the new Application Container or resumes the one of the reconnected Application Container. 
+	 * Since the connection is read as soon as it is registered, session may arrive before the connection is identified 
+	 * as either, so it is kept with the connection (see {@link #doAccept(SelectionKey)}).
+	 */
+	@Override
+	void onSession(SelectionKey selectionKey, String sessionToken) {
+		((ConnectionContext) selectionKey.attachment()).setSessionToken(sessionToken);
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.get(selectionKey);
+		if (containerDelegate != null){
+			this.addSession(selectionKey, (ContainerDelegateImpl) containerDelegate);
+		}
+		else if (this.resumingConnections.contains(selectionKey)){
+			this.resumeSession(selectionKey);
 		}
 	}
 	
@@ -256,6 +520,7 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 		channel.configureBlocking(false);
 		channel.socket().bind(this.address);
 		channel.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.registerMetrics();
 
 		if (logger.isInfoEnabled()){
 			logger.info("Bound to " + channel.getLocalAddress());
@@ -270,7 +535,19 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 		ServerSocketChannel serverChannel = (ServerSocketChannel) selectionKey.channel();
 		SocketChannel channel = serverChannel.accept();
 		
-		if (this.expectedClientContainersMonitor.getCount() == 0){
+		if (this.expectedClientContainersMonitor.getCount() == 0 && this.isAwaitingSessionResume()){
+			channel.configureBlocking(false);
+			SelectionKey clientSelectionKey = this.registerConnection(channel, SelectionKey.OP_READ, this.newConnectionContext());
+			this.registerConnectionMetrics(clientSelectionKey);
+			if (logger.isInfoEnabled()){
+	        	logger.info("Accepted conection request from: " + channel.socket().getRemoteSocketAddress() + ", expecting it to resume its session");
+	        }
+			this.resumingConnections.add(clientSelectionKey);
+			if (((ConnectionContext) clientSelectionKey.attachment()).getSessionToken() != null){
+				this.resumeSession(clientSelectionKey);
+			}
+		}
+		else if (this.expectedClientContainersMonitor.getCount() == 0){
 			logger.warn("Refusing connection from " + channel.getRemoteAddress() + ", since " + 
 					this.expectedClientContainers + " ApplicationContainerClients " +
 					"identified by 'expectedClientContainers' already connected.");
@@ -278,51 +555,236 @@ class ApplicationContainerServerImpl extends AbstractSocketHandler implements Ap
 		}
 		else {
 			channel.configureBlocking(false);
-	        SelectionKey clientSelectionKey = channel.register(this.selector, SelectionKey.OP_READ);
+	        SelectionKey clientSelectionKey = this.registerConnection(channel, SelectionKey.OP_READ, this.newConnectionContext());
+	        this.registerConnectionMetrics(clientSelectionKey);
 	        if (logger.isInfoEnabled()){
 	        	logger.info("Accepted conection request from: " + channel.socket().getRemoteSocketAddress());
 	        }
 	        if (this.masterSelectionKey != null){
-	        	this.containerDelegates.put(clientSelectionKey, new ContainerDelegateImpl(clientSelectionKey, this));
+	        	AbstractContainerDelegate containerDelegate = new ContainerDelegateImpl(clientSelectionKey, this);
+	        	this.containerDelegates.put(clientSelectionKey, containerDelegate);
+	        	long[] grantedCredit = ((ConnectionContext) clientSelectionKey.attachment()).getGrantedCredit();
+	        	if (grantedCredit != null){
+	        		containerDelegate.grantCredit((int) grantedCredit[0], grantedCredit[1]);
+	        	}
+	        	if (((ConnectionContext) clientSelectionKey.attachment()).getSessionToken() != null){
+	        		this.addSession(clientSelectionKey, (ContainerDelegateImpl) containerDelegate);
+	        	}
 	        }
 	        else {
 	        	this.masterSelectionKey = clientSelectionKey;
-	        	this.masterSelectionKey.attach(true);
 	        }
 			this.expectedClientContainersMonitor.countDown();
 		}
 	}
 	
 	/**
-	 * Unlike the client side the read on the server will happen using receiving thread.
+	 * Unlike the client side the read on the server will happen using receiving thread
+	 * (one of the I/O threads, see {@link TransportSettings#getIoThreads()}).
+	 * Reply is given to the {@link ReplyEnvelopeListener} and {@link ReplyPostProcessor} as read-only view of the 
+	 * received data which is released once they return, while {@link ContainerReplyListener} which may keep 
+	 * the reply gets the copy of its data. {@link ReplyHeader} is only split from the data when the frame 
+	 * is marked with {@link AbstractSocketHandler#REPLY_HEADER_FLAG}.
 	 */
 	@Override
-	void read(SelectionKey selectionKey, ByteBuffer replyBuffer) throws IOException {
-		ReplyPostProcessor replyCallbackHandler = ((ReplyPostProcessor)this.replyCallbackMap.remove(selectionKey));
+	void read(SelectionKey selectionKey, long requestId, int flags, PooledByteBuffer reply) throws IOException {
+		ReplyPostProcessor replyCallbackHandler = this.replyCallbackMap.remove(requestId);
 		if (logger.isDebugEnabled()){
-			logger.debug("Reply received from " + ((SocketChannel)selectionKey.channel()).getRemoteAddress());
+			logger.debug("Reply for request " + requestId + " received from " + ((SocketChannel)selectionKey.channel()).getRemoteAddress());
 		}
-		if (this.replyListener != null){
-			this.replyListener.onReply(replyBuffer);
+		try {
+			ByteBuffer replyView = reply.asReadOnlyBuffer();
+			boolean headed = (flags & REPLY_HEADER_FLAG) != 0;
+			ByteBuffer replyHeader = headed ? ReplyHeader.header(replyView) : null;
+			ByteBuffer data = headed ? ReplyHeader.data(replyView) : replyView;
+			if (this.replyListener != null){
+				this.replyListener.onReply(ByteBufferUtils.copy(data));
+			}
+			ReplyEnvelopeListener replyEnvelopeListener = this.replyEnvelopeListener;
+			if (replyEnvelopeListener != null && replyCallbackHandler != null){
+				replyEnvelopeListener.onReply(replyCallbackHandler.newReplyEnvelope(replyHeader, data.duplicate()));
+			}
+			if (replyCallbackHandler != null){
+				replyCallbackHandler.postReply(replyHeader, data.duplicate());
+			}
+			else {
+				logger.warn("Received reply for unknown request " + requestId + ". Discarding.");
+			}
+		} 
+		finally {
+			reply.release();
 		}
-		replyCallbackHandler.postProcess(replyBuffer);
-		
-		if (this.finite) {
-			selectionKey.cancel();
-			this.closeChannel(selectionKey.channel());
-			this.onDisconnect(selectionKey);
+		this.onReplied(selectionKey);
+	}
+	
+	/**
+	 * Replaces the credit of the {@link ContainerDelegate} of the Application Container 
+	 * identified by the {@link SelectionKey}. Credit granted by Application Master is ignored.
+	 * Since the connection is read as soon as it is registered, credit may arrive before its 
+	 * {@link ContainerDelegate} is created, so it is kept with the connection (see {@link #doAccept(SelectionKey)}).
+	 */
+	@Override
+	void onCreditGrant(SelectionKey selectionKey, int messages, long bytes) {
+		((ConnectionContext) selectionKey.attachment()).setGrantedCredit(messages, bytes);
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.get(selectionKey);
+		if (containerDelegate != null){
+			containerDelegate.grantCredit(messages, bytes);
 		}
 	}
 	
+	/**
+	 * Returns the budget of bytes in flight shared by all {@link ContainerDelegate}s.
+	 */
+	CreditGate getCreditBudget() {
+		return this.creditBudget;
+	}
+	
 	/**
 	 * 
 	 */
-	void doWrite(SelectionKey selectionKey, ByteBuffer buffer) {
-		ByteBuffer message = ByteBufferUtils.merge(ByteBuffer.allocate(4).putInt(buffer.limit() + 4), buffer);
-		message.flip();
-
-		selectionKey.attach(message);
-		selectionKey.interestOps(SelectionKey.OP_WRITE);
+	void doWrite(SelectionKey selectionKey, long requestId, ByteBuffer buffer) {
+		this.writeFrame(selectionKey, requestId, buffer);
+	}
+	
+	/**
+	 * Sends the request read from 'data' as a sequence of chunks, aborting it if 'data' fails.
+	 */
+	private void stream(SelectionKey selectionKey, long requestId, ReadableByteChannel data) throws IOException {
+		ChunkedOutputChannel request = new ChunkedOutputChannel(this, selectionKey, requestId);
+		try {
+			request.transferFrom(data);
+			request.close();
+		} 
+		catch (IOException | RuntimeException e) {
+			if (selectionKey.isValid()){
+				request.abort(e.toString());
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private void addSession(SelectionKey selectionKey, ContainerDelegateImpl containerDelegate) {
+		String sessionToken = ((ConnectionContext) selectionKey.attachment()).getSessionToken();
+		if (this.getTransportSettings().getSessionResumeTimeoutMillis() > 0 && containerDelegate.getSessionToken() == null){
+			containerDelegate.setSessionToken(sessionToken);
+			this.sessions.put(sessionToken, containerDelegate);
+			this.confirmSession(selectionKey, sessionToken);
+		}
+	}
+	
+	/**
+	 * Re-attaches the {@link ContainerDelegate} of the session identified by the token received over the 
+	 * connection of the reconnected Application Container, refusing such connection if session is unknown 
+	 * or expired. May be attempted by both {@link #doAccept(SelectionKey)} and {@link #onSession(SelectionKey, String)}, 
+	 * but only performed once.
+	 */
+	private void resumeSession(SelectionKey selectionKey) {
+		if (!this.resumingConnections.remove(selectionKey)){
+			return;
+		}
+		ConnectionContext connectionContext = (ConnectionContext) selectionKey.attachment();
+		ContainerDelegateImpl containerDelegate = this.sessions.get(connectionContext.getSessionToken());
+		if (containerDelegate != null && containerDelegate.isDetached()){
+			this.containerDelegates.put(selectionKey, containerDelegate);
+			long[] grantedCredit = connectionContext.getGrantedCredit();
+			if (grantedCredit != null){
+				containerDelegate.grantCredit((int) grantedCredit[0], grantedCredit[1]);
+			}
+			if (containerDelegate.attach(selectionKey)){
+				this.confirmSession(selectionKey, connectionContext.getSessionToken());
+				if (logger.isInfoEnabled()){
+					logger.info("Application Container with session " + connectionContext.getSessionToken() + " resumed its session from: " + 
+							((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress());
+				}
+				return;
+			}
+			this.containerDelegates.remove(selectionKey);
+		}
+		logger.warn("Refusing connection from " + ((SocketChannel) selectionKey.channel()).socket().getRemoteSocketAddress() + 
+				" since its session " + connectionContext.getSessionToken() + " is unknown or expired");
+		this.closeChannel(selectionKey.channel());
+		connectionContext.release();
+	}
+	
+	/**
+	 * Lets the Application Container know that it may resume its session if it looses the connection.
+	 */
+	private void confirmSession(SelectionKey selectionKey, String sessionToken) {
+		try {
+			this.writeFrame(selectionKey, SESSION_FRAME_ID, ByteBuffer.wrap(sessionToken.getBytes(StandardCharsets.UTF_8)));
+		} 
+		catch (CancelledKeyException e) {
+			logger.warn("Connection was closed before the session " + sessionToken + " was confirmed");
+		}
+	}
+	
+	/**
+	 * Discards the {@link ContainerDelegate} of the Application Container which did not resume its session in time,
+	 * invoking the 'onDisconnectTask' the same way it is invoked when Application Container disconnects.
+	 */
+	private void expireSession(ContainerDelegateImpl containerDelegate) {
+		if (containerDelegate.discardIfDetached()){
+			this.removeSession(containerDelegate);
+			logger.warn("Application Container with session " + containerDelegate.getSessionToken() + " did not resume its session in time");
+			if (this.onDisconnectTask != null){
+				// may block (e.g., shutting down), so must not hold up the selector thread
+				this.executor.execute(this.onDisconnectTask);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private void removeSession(AbstractContainerDelegate containerDelegate) {
+		if (containerDelegate instanceof ContainerDelegateImpl && ((ContainerDelegateImpl) containerDelegate).getSessionToken() != null){
+			this.sessions.remove(((ContainerDelegateImpl) containerDelegate).getSessionToken());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private boolean isAwaitingSessionResume() {
+		for (ContainerDelegateImpl containerDelegate : this.sessions.values()) {
+			if (containerDelegate.isDetached()){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Fails requests which were sent through the 'containerDelegate', but were not yet replied to.
+	 */
+	private void failInFlightRequests(ContainerDelegate containerDelegate, IOException cause) {
+		Iterator<Map.Entry<Long, ReplyPostProcessor>> replyCallbacks = this.replyCallbackMap.entrySet().iterator();
+		while (replyCallbacks.hasNext()){
+			Map.Entry<Long, ReplyPostProcessor> replyCallback = replyCallbacks.next();
+			ReplyPostProcessor replyPostProcessor = replyCallback.getValue();
+			if (replyPostProcessor.getContainerDelegate() == containerDelegate && this.replyCallbackMap.remove(replyCallback.getKey(), replyPostProcessor)){
+				try {
+					replyPostProcessor.postFailure(cause);
+				} 
+				catch (Exception e) {
+					logger.error("Failure while failing request " + replyCallback.getKey(), e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * In finite mode Application Container is disconnected once it replied.
+	 */
+	private void onReplied(SelectionKey selectionKey) {
+		if (this.finite) {
+			selectionKey.cancel();
+			this.closeChannel(selectionKey.channel());
+			this.onDisconnect(selectionKey);
+		}
 	}
 	
 	/**
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Implementation of {@link ApplicationContainerClient} on top of NIO.2 asynchronous channels 
+ * (see {@link AbstractAsyncSocketHandler}) which connects to the {@link AsyncApplicationContainerServer}.
+ * I/O is performed by a single thread of the {@link java.nio.channels.AsynchronousChannelGroup}, while
+ * messages are processed one at a time in the order they were received by a dedicated thread.
+ * Otherwise it behaves the same way as {@link ApplicationContainerClientImpl}.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class AsyncApplicationContainerClient extends AbstractAsyncSocketHandler implements ApplicationContainerClient {
+	
+	private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+	
+	private final Log logger = LogFactory.getLog(AsyncApplicationContainerClient.class);
+	
+	private final ApplicationContainerMessageHandler messageHandler;
+	
+	/*
+	 * Messages are processed one at a time in the order they were received, 
+	 * while the ones that arrived ahead of time are queued.
+	 */
+	private final ExecutorService messageProcessingExecutor;
+	
+	private volatile AsyncConnection connection;
+	
+	private volatile boolean stopping;
+	
+	/**
+	 * Creates an instance of ApplicationContainerClient for a provided address
+	 * of the running server (see {@link AsyncApplicationContainerServer})
+	 * 
+	 * @param address
+	 * @param messageHandler
+	 * @param onDisconnectTask
+	 */
+	public AsyncApplicationContainerClient(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler, Runnable onDisconnectTask){
+		this(address, messageHandler, onDisconnectTask, new TransportSettings());
+	}
+	
+	/**
+	 * Creates an instance of ApplicationContainerClient for a provided address
+	 * of the running server (see {@link AsyncApplicationContainerServer}) using 
+	 * provided {@link TransportSettings}.
+	 * 
+	 * @param address
+	 * @param messageHandler
+	 * @param onDisconnectTask
+	 * @param transportSettings
+	 */
+	public AsyncApplicationContainerClient(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler, 
+			Runnable onDisconnectTask, TransportSettings transportSettings){
+		super(address, 1, onDisconnectTask, transportSettings);
+		this.messageHandler = messageHandler;
+		this.messageProcessingExecutor = transportSettings.getExecutorFactory().newBoundedExecutor(this.getClass().getSimpleName() + "-message", 
+				transportSettings.getContainerParallelism());
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void stop(boolean force) {
+		this.stopping = true;
+		AsyncConnection connection = this.connection;
+		if (connection != null){
+			connection.close();
+		}
+		this.close();
+		this.awaitShutdown();
+	}
+	
+	/**
+	 * Not running from the moment it is being stopped, so the server could rely on it once disconnected.
+	 */
+	@Override
+	public boolean isRunning() {
+		return !this.stopping && super.isRunning();
+	}
+	
+	/**
+	 * May be invoked by any thread (e.g., the one processing the message).
+	 */
+	@Override
+	public void grantCredit(int messages, long bytes) {
+		Assert.isTrue(messages >= 0 && bytes >= 0, "'messages' and 'bytes' must be >= 0");
+		AsyncConnection connection = this.connection;
+		Assert.state(connection != null, "ApplicationContainerClient is not connected");
+		connection.writeCreditGrant(messages, bytes);
+	}
+	
+	/**
+	 * Connects to the server blocking until connected. 
+	 */
+	@Override
+	InetSocketAddress init() throws IOException {
+		AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(this.channelGroup);
+		Future<Void> connected = channel.connect(this.address);
+		try {
+			connected.get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			channel.close();
+			throw new IllegalStateException("Interrupted while connecting to ClientServer at: " + this.address);
+		}
+		catch (ExecutionException | TimeoutException e) {
+			channel.close();
+			throw new IllegalStateException("Failed to connect to ClientServer at: " + this.address, e);
+		}
+		AsyncConnection connection = new AsyncConnection(this, channel, this.address);
+		this.connection = connection;
+		connection.startReading();
+		if (this.transportSettings.getCreditMessages() > 0 || this.transportSettings.getCreditBytes() > 0){
+			connection.writeCreditGrant(this.transportSettings.getCreditMessages(), this.transportSettings.getCreditBytes());
+		}
+		if (logger.isInfoEnabled()){
+			logger.info("Connected to " + this.address);
+		}
+		return (InetSocketAddress) channel.getLocalAddress();
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	void onMessage(AsyncConnection connection, long requestId, int flags, PooledByteBuffer message) {
+		try {
+			this.messageProcessingExecutor.execute(new MessageProcessor(connection, requestId, message));
+		} 
+		catch (RejectedExecutionException e) {
+			message.release();
+			logger.warn("Message " + requestId + " was rejected since client is shutting down");
+		}
+	}
+	
+	/**
+	 * Invoked once connection was closed by the server.
+	 */
+	@Override
+	void onDisconnect(AsyncConnection connection) {
+		if (logger.isDebugEnabled()){
+			logger.debug(AsyncApplicationContainerClient.class.getSimpleName() + " - Connection closed by: " + this.address);
+		}
+		this.close();
+		if (this.onDisconnectTask != null){
+			this.onDisconnectTask.run();
+		}
+	}
+	
+	/**
+	 * Interrupts the message being processed discarding the queued ones.
+	 */
+	private void close() {
+		this.messageProcessingExecutor.shutdownNow();
+		this.shutdown();
+	}
+	
+	/**
+	 * Gives read-only view of the received message to the {@link ApplicationContainerMessageHandler}.
+	 * Since reply may share data with the message (e.g., echo), message is released only 
+	 * after the reply is written.
+	 */
+	private class MessageProcessor implements Runnable {
+		private final AsyncConnection connection;
+		
+		private final long requestId;
+		
+		private final PooledByteBuffer message;
+		
+		/**
+		 * 
+		 * @param connection
+		 * @param requestId
+		 * @param message
+		 */
+		MessageProcessor(AsyncConnection connection, long requestId, PooledByteBuffer message){
+			this.connection = connection;
+			this.requestId = requestId;
+			this.message = message;
+		}
+		
+		/**
+		 * 
+		 */
+		@Override
+		public void run() {
+			ApplicationContainerMessageHandler messageHandler = AsyncApplicationContainerClient.this.messageHandler;
+			ByteBuffer replyHeader = null;
+			ByteBuffer replyBuffer;
+			try {
+				if (messageHandler instanceof ReplyHeaderWritingMessageHandler){
+					replyHeader = ByteBuffer.allocate(ReplyHeader.LENGTH);
+					replyBuffer = ((ReplyHeaderWritingMessageHandler) messageHandler).handle(this.message.asReadOnlyBuffer(), replyHeader);
+					replyHeader.flip();
+				}
+				else {
+					replyBuffer = messageHandler.handle(this.message.asReadOnlyBuffer());
+				}
+			} 
+			catch (RuntimeException e) {
+				this.message.release();
+				throw e;
+			}
+			// from this point on the message is released once the reply is written or connection is closed
+			if (!this.connection.write(this.requestId, 
+					replyHeader == null ? 0 : AbstractSocketHandler.REPLY_HEADER_FLAG, replyHeader, replyBuffer, this.message)){
+				// may happen when server kills connection before receiving a reply
+				logger.warn("Connection was closed. No reply will be sent");
+			}
+		}
+	}
+}
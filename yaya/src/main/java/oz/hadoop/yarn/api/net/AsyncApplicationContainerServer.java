@@ -0,0 +1,519 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import oz.hadoop.yarn.api.ContainerEvictionListener;
+import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.CreditListener;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
+import oz.hadoop.yarn.api.utils.ByteBufferUtils;
+
+/**
+ * Implementation of {@link ApplicationContainerServer} on top of NIO.2 asynchronous channels 
+ * (see {@link AbstractAsyncSocketHandler}). Connections are accepted and served by the threads of the 
+ * {@link java.nio.channels.AsynchronousChannelGroup} (see {@link TransportSettings#getIoThreads()}), which 
+ * also give the replies to the {@link ReplyPostProcessor}s. Otherwise it behaves the same way as 
+ * {@link ApplicationContainerServerImpl}.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class AsyncApplicationContainerServer extends AbstractAsyncSocketHandler implements ApplicationContainerServer {
+	
+	private final Log logger = LogFactory.getLog(AsyncApplicationContainerServer.class);
+	
+	private final int expectedClientContainers;
+	
+	private final boolean finite;
+	
+	private final CountDownLatch expectedClientContainersMonitor;
+	
+	private final Map<AsyncConnection, AbstractContainerDelegate> containerDelegates;
+	
+	private final ConcurrentHashMap<Long, ReplyPostProcessor> replyCallbackMap;
+	
+	private final AtomicLong requestIdSequence;
+	
+	private final CreditGate creditBudget;
+	
+	private final Set<AsyncConnection> connections;
+	
+	private volatile AsynchronousServerSocketChannel serverChannel;
+	
+	private volatile AsyncConnection masterConnection;
+	
+	private volatile ContainerReplyListener replyListener;
+	
+	private volatile ReplyEnvelopeListener replyEnvelopeListener;
+	
+	/**
+	 * Constructs this ClientServer with specified 'address'.
+	 * The 'expectedClientContainers' represents the amount of expected
+	 * {@link AsyncApplicationContainerClient}s to be connected
+	 * with this ClientServer.
+	 * 
+	 * @param address
+	 * 			the address to bind to
+	 * @param expectedClientContainers
+	 * 			expected Application Containers
+	 * @param finite
+	 * 			whether the YARN application using finite or reusable Application Containers
+	 * @param onDisconnectTask
+	 * 			additional process implemented as {@link Runnable} to be executed during disconnect
+	 */
+	public AsyncApplicationContainerServer(InetSocketAddress address, int expectedClientContainers, boolean finite, Runnable onDisconnectTask) {
+		this(address, expectedClientContainers, finite, onDisconnectTask, new TransportSettings());
+	}
+	
+	/**
+	 * Constructs this ClientServer with specified 'address' and {@link TransportSettings}.
+	 * The 'expectedClientContainers' represents the amount of expected
+	 * {@link AsyncApplicationContainerClient}s to be connected
+	 * with this ClientServer.
+	 * 
+	 * @param address
+	 * 			the address to bind to
+	 * @param expectedClientContainers
+	 * 			expected Application Containers
+	 * @param finite
+	 * 			whether the YARN application using finite or reusable Application Containers
+	 * @param onDisconnectTask
+	 * 			additional process implemented as {@link Runnable} to be executed during disconnect
+	 * @param transportSettings
+	 * 			settings of the network layer (see {@link AbstractAsyncSocketHandler} for the ones which apply)
+	 */
+	public AsyncApplicationContainerServer(InetSocketAddress address, int expectedClientContainers, boolean finite, Runnable onDisconnectTask, 
+			TransportSettings transportSettings) {
+		super(address, transportSettings.getIoThreads(), onDisconnectTask, transportSettings);
+		Assert.isTrue(expectedClientContainers > 0, "'expectedClientContainers' must be > 0");
+		this.expectedClientContainers = expectedClientContainers;
+		this.finite = finite;
+		this.expectedClientContainersMonitor = new CountDownLatch(expectedClientContainers+1);
+		this.containerDelegates = new ConcurrentHashMap<AsyncConnection, AbstractContainerDelegate>();
+		this.replyCallbackMap = new ConcurrentHashMap<Long, ReplyPostProcessor>();
+		this.requestIdSequence = new AtomicLong();
+		this.creditBudget = new CreditGate(transportSettings.getInFlightBytesBudget(), transportSettings.isCreditFailFast());
+		this.connections = Collections.newSetFromMap(new ConcurrentHashMap<AsyncConnection, Boolean>());
+	}
+	
+	/**
+	 * Will stop this server, closing all the remaining connection to Application Container 
+	 * clients waiting if necessary (see {@link ApplicationContainerServerImpl#preStop(boolean)}).
+	 * 
+	 * @param force
+	 * 		boolean flag indicating if this application should be terminated immediately or 
+	 * 		should it shut down gracefully allowing currently running Application Container 
+	 * 		processes to finish.
+	 */
+	@Override
+	public void stop(boolean force) {
+		this.preStop(force);
+		for (AsyncConnection connection : new ArrayList<>(this.connections)) {
+			if (connection != this.masterConnection && connection.close()){
+				this.connections.remove(connection);
+			}
+		}
+		if (this.masterConnection == null){
+			// nobody to wait for
+			this.shutdown();
+		}
+		/*
+		 * Once containers terminate, AM will close its client at which point
+		 * this server is shut down (see onDisconnect(..)).
+		 */
+		this.awaitShutdown();
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public boolean isRunning() {
+		return this.containerDelegates.size() == this.expectedClientContainers;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public boolean awaitAllClients(long timeOutInSeconds) {
+		try {
+			return this.expectedClientContainersMonitor.await(timeOutInSeconds, TimeUnit.SECONDS);
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for all Application Containers to report");
+		}
+		return false;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public ContainerDelegate[] getContainerDelegates() {
+		return this.containerDelegates.values().toArray(new ContainerDelegate[]{});
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerReplyListener(ContainerReplyListener replyListener) {
+		this.replyListener = replyListener;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener) {
+		this.replyEnvelopeListener = replyEnvelopeListener;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerCreditListener(CreditListener creditListener) {
+		this.creditBudget.setCreditListener(creditListener);
+	}
+	
+	/**
+	 * Heartbeats do not apply to this transport, so Application Containers are never evicted 
+	 * and the listener is never invoked.
+	 */
+	@Override
+	public void registerEvictionListener(ContainerEvictionListener evictionListener) {
+		// noop
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public int liveContainers() {
+		return this.containerDelegates.size();
+	}
+	
+	/**
+	 * Binds to the address of this server and initiates the first accept.
+	 */
+	@Override
+	InetSocketAddress init() throws IOException {
+		AsynchronousServerSocketChannel serverChannel = AsynchronousServerSocketChannel.open(this.channelGroup);
+		serverChannel.bind(this.address);
+		this.serverChannel = serverChannel;
+		this.accept();
+		InetSocketAddress localAddress = (InetSocketAddress) serverChannel.getLocalAddress();
+		if (logger.isInfoEnabled()){
+			logger.info("Bound to " + localAddress);
+		}
+		return localAddress;
+	}
+	
+	/**
+	 * Reply is given to the {@link ReplyEnvelopeListener} and {@link ReplyPostProcessor} as read-only view of the 
+	 * received data which is released once they return, while {@link ContainerReplyListener} which may keep 
+	 * the reply gets the copy of its data. {@link ReplyHeader} is only split from the data when the frame 
+	 * is marked with {@link AbstractSocketHandler#REPLY_HEADER_FLAG}.
+	 */
+	@Override
+	void onMessage(AsyncConnection connection, long requestId, int flags, PooledByteBuffer reply) {
+		ReplyPostProcessor replyCallbackHandler = this.replyCallbackMap.remove(requestId);
+		if (logger.isDebugEnabled()){
+			logger.debug("Reply for request " + requestId + " received from " + connection.getRemoteAddress());
+		}
+		try {
+			ByteBuffer replyView = reply.asReadOnlyBuffer();
+			boolean headed = (flags & AbstractSocketHandler.REPLY_HEADER_FLAG) != 0;
+			ByteBuffer replyHeader = headed ? ReplyHeader.header(replyView) : null;
+			ByteBuffer data = headed ? ReplyHeader.data(replyView) : replyView;
+			if (this.replyListener != null){
+				this.replyListener.onReply(ByteBufferUtils.copy(data));
+			}
+			ReplyEnvelopeListener replyEnvelopeListener = this.replyEnvelopeListener;
+			if (replyEnvelopeListener != null && replyCallbackHandler != null){
+				replyEnvelopeListener.onReply(replyCallbackHandler.newReplyEnvelope(replyHeader, data.duplicate()));
+			}
+			if (replyCallbackHandler != null){
+				replyCallbackHandler.postReply(replyHeader, data.duplicate());
+			}
+			else {
+				logger.warn("Received reply for unknown request " + requestId + ". Discarding.");
+			}
+		} 
+		finally {
+			reply.release();
+		}
+		this.onReplied(connection);
+	}
+	
+	/**
+	 * Replaces the credit of the {@link ContainerDelegate} of the Application Container 
+	 * identified by the 'connection'. Credit granted by Application Master is ignored.
+	 */
+	@Override
+	void onCreditGrant(AsyncConnection connection, int messages, long bytes) {
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.get(connection);
+		if (containerDelegate != null){
+			containerDelegate.grantCredit(messages, bytes);
+		}
+	}
+	
+	/**
+	 * Once Application Master disconnects this server is shut down, otherwise the {@link ContainerDelegate} 
+	 * of the disconnected Application Container is removed and requests it did not reply to are failed.
+	 */
+	@Override
+	void onDisconnect(AsyncConnection connection) {
+		this.connections.remove(connection);
+		if (logger.isDebugEnabled()){
+			logger.debug(AsyncApplicationContainerServer.class.getSimpleName() + " - Connection closed by: " + connection.getRemoteAddress());
+		}
+		if (connection == this.masterConnection){
+			this.preStop(true);
+			this.shutdown();
+		}
+		else {
+			this.discard(connection);
+		}
+		if (this.onDisconnectTask != null){
+			this.onDisconnectTask.run();
+		}
+	}
+	
+	/**
+	 * Performs message exchange session (request/reply) with the client of the 'connection' 
+	 * the same way {@link ApplicationContainerServerImpl} does.
+	 */
+	private void process(AsyncConnection connection, ByteBuffer buffer, ReplyPostProcessor replyPostProcessor) {
+		long requestId = this.requestIdSequence.incrementAndGet();
+		this.replyCallbackMap.put(requestId, replyPostProcessor);
+		replyPostProcessor.onSent(requestId);
+		if (!connection.write(requestId, buffer, null)){
+			/*
+			 * Application Container disconnected after the request was accepted, 
+			 * so unless already done by onDisconnect(..), the request must be failed here.
+			 */
+			if (this.replyCallbackMap.remove(requestId) != null){
+				replyPostProcessor.postFailure(new IOException("Connection to Application Container was closed before request " + requestId + " was sent"));
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private void accept() {
+		this.serverChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+			@Override
+			public void completed(AsynchronousSocketChannel channel, Void attachment) {
+				AsyncApplicationContainerServer.this.accept();
+				try {
+					AsyncApplicationContainerServer.this.doAccept(channel);
+				} 
+				catch (IOException e) {
+					logger.error("Failed to accept connection", e);
+					try {
+						channel.close();
+					} 
+					catch (IOException ex) {
+						// ignore
+					}
+				}
+			}
+
+			@Override
+			public void failed(Throwable cause, Void attachment) {
+				if (AsyncApplicationContainerServer.this.serverChannel.isOpen()){
+					logger.error("Failed to accept connection", cause);
+					AsyncApplicationContainerServer.this.accept();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * The first client to connect is the one of Application Master.
+	 */
+	private synchronized void doAccept(AsynchronousSocketChannel channel) throws IOException {
+		InetSocketAddress remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+		if (this.expectedClientContainersMonitor.getCount() == 0){
+			logger.warn("Refusing connection from " + remoteAddress + ", since " + 
+					this.expectedClientContainers + " ApplicationContainerClients " +
+					"identified by 'expectedClientContainers' already connected.");
+			channel.close();
+			return;
+		}
+		AsyncConnection connection = new AsyncConnection(this, channel, remoteAddress);
+		this.connections.add(connection);
+		if (logger.isInfoEnabled()){
+			logger.info("Accepted conection request from: " + remoteAddress);
+		}
+		if (this.masterConnection != null){
+			this.containerDelegates.put(connection, new AsyncContainerDelegate(connection));
+		}
+		else {
+			this.masterConnection = connection;
+		}
+		// credit may follow right away, so delegate must exist by then
+		connection.startReading();
+		this.expectedClientContainersMonitor.countDown();
+	}
+	
+	/**
+	 * In finite mode Application Container is disconnected once it replied.
+	 */
+	private void onReplied(AsyncConnection connection) {
+		if (this.finite && connection.close()) {
+			this.connections.remove(connection);
+			this.discard(connection);
+		}
+	}
+	
+	/**
+	 * Removes the {@link ContainerDelegate} of the disconnected Application Container failing
+	 * requests it did not reply to.
+	 */
+	private void discard(AsyncConnection connection) {
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.remove(connection);
+		if (containerDelegate != null){
+			containerDelegate.discard();
+			IOException cause = new IOException("Application Container " + connection.getRemoteAddress() + " disconnected before replying");
+			Iterator<Map.Entry<Long, ReplyPostProcessor>> replyCallbacks = this.replyCallbackMap.entrySet().iterator();
+			while (replyCallbacks.hasNext()){
+				Map.Entry<Long, ReplyPostProcessor> replyCallback = replyCallbacks.next();
+				ReplyPostProcessor replyPostProcessor = replyCallback.getValue();
+				if (replyPostProcessor.getContainerDelegate() == containerDelegate && this.replyCallbackMap.remove(replyCallback.getKey(), replyPostProcessor)){
+					try {
+						replyPostProcessor.postFailure(cause);
+					} 
+					catch (Exception e) {
+						logger.error("Failure while failing request " + replyCallback.getKey(), e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Same as {@link ApplicationContainerServerImpl#preStop(boolean)}
+	 */
+	private void preStop(boolean force) {
+		// Need to make a copy so we can remove entries without affecting the global map so it could be cleaned at the end
+		Map<AsyncConnection, ContainerDelegate> cDelegates = new HashMap<>(this.containerDelegates);
+		boolean working = cDelegates.size() > 0;
+		while (working) {
+			Iterator<AsyncConnection> containerConnections = cDelegates.keySet().iterator();
+			while (containerConnections.hasNext()){
+				AsyncConnection connection = containerConnections.next();
+				ContainerDelegate containerDelegate = cDelegates.get(connection);
+				containerDelegate.suspend();
+				if (!force){
+					if (containerDelegate.available() || !connection.isOpen()){
+						containerConnections.remove();
+					}
+				}
+				else {
+					containerConnections.remove();
+				}
+			}
+			working = cDelegates.size() > 0;
+			if (working){
+				if (logger.isTraceEnabled()){
+					logger.trace("Waiting for remaining " + cDelegates.size() + " containers to finish");
+				}
+				LockSupport.parkNanos(10000000);
+			}
+			else {
+				for (AbstractContainerDelegate containerDelegate : this.containerDelegates.values()) {
+					containerDelegate.discard();
+				}
+				this.containerDelegates.clear();
+			}
+		}
+		for (int i = 0; i < this.expectedClientContainers; i++) {
+			this.expectedClientContainersMonitor.countDown();
+		}
+	}
+	
+	/**
+	 * {@link ContainerDelegate} of the asynchronous connection.
+	 */
+	private class AsyncContainerDelegate extends AbstractContainerDelegate {
+		private final AsyncConnection connection;
+		
+		/**
+		 * 
+		 * @param connection
+		 */
+		AsyncContainerDelegate(AsyncConnection connection) {
+			super(AsyncApplicationContainerServer.this.transportSettings.getInFlightWindow(), AsyncApplicationContainerServer.this.creditBudget);
+			this.connection = connection;
+		}
+		
+		/**
+		 * 
+		 */
+		@Override
+		public InetSocketAddress getHost() {
+			return this.connection.getRemoteAddress();
+		}
+		
+		/**
+		 * 
+		 */
+		@Override
+		void doProcess(ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
+			AsyncApplicationContainerServer.this.process(this.connection, data, replyPostProcessor);
+		}
+		
+		/**
+		 * Streamed messages do not apply to this transport.
+		 */
+		@Override
+		void doProcess(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+			throw new UnsupportedOperationException("Streamed messages are not supported by " + AsyncApplicationContainerServer.class.getSimpleName());
+		}
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Connection of the {@link AbstractAsyncSocketHandler} which reads and writes the frames 
+ * (see {@link AbstractSocketHandler#FRAME_HEADER_SIZE}) through the {@link AsynchronousSocketChannel}.
+ * 
+ * There is always a single read outstanding, which completion decodes the received frames (see {@link FrameDecoder})
+ * and initiates the next read. Since channel allows only a single write to be outstanding as well, frames 
+ * written by any thread are queued and written by whichever thread completed the previous write, several frames
+ * at a time using gathering write.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class AsyncConnection implements FrameDecoder.FrameHandler {
+	
+	/*
+	 * Upper bound of frames (two buffers each) written by a single gathering write
+	 */
+	private static final int MAX_GATHERED_FRAMES = 64;
+	
+	private static final int READ_BUFFER_SIZE = 65536;
+	
+	private final Log logger = LogFactory.getLog(AsyncConnection.class);
+	
+	private final AbstractAsyncSocketHandler socketHandler;
+	
+	private final AsynchronousSocketChannel channel;
+	
+	private final InetSocketAddress remoteAddress;
+	
+	private final FrameDecoder frameDecoder;
+	
+	private final ByteBuffer readBuffer;
+	
+	private final Queue<PendingFrame> pendingFrames;
+	
+	private final AtomicBoolean writing;
+	
+	private final AtomicBoolean closed;
+	
+	private final CompletionHandler<Integer, Void> readHandler;
+	
+	private final CompletionHandler<Long, PendingFrame[]> writeHandler;
+	
+	/**
+	 * 
+	 * @param socketHandler
+	 * @param channel
+	 * @param remoteAddress
+	 */
+	AsyncConnection(AbstractAsyncSocketHandler socketHandler, AsynchronousSocketChannel channel, InetSocketAddress remoteAddress) {
+		this.socketHandler = socketHandler;
+		this.channel = channel;
+		this.remoteAddress = remoteAddress;
+		this.frameDecoder = new FrameDecoder(socketHandler.getBufferPool());
+		this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		this.pendingFrames = new ConcurrentLinkedQueue<>();
+		this.writing = new AtomicBoolean();
+		this.closed = new AtomicBoolean();
+		this.readHandler = new ReadHandler();
+		this.writeHandler = new WriteHandler();
+	}
+	
+	/**
+	 * Returns the address of the other side of this connection.
+	 */
+	InetSocketAddress getRemoteAddress() {
+		return this.remoteAddress;
+	}
+	
+	/**
+	 * 
+	 */
+	boolean isOpen() {
+		return !this.closed.get();
+	}
+	
+	/**
+	 * Initiates the first read. Must be invoked once.
+	 */
+	void startReading() {
+		this.read();
+	}
+	
+	/**
+	 * Will frame the 'payload' with the header carrying 'requestId' and queue it for writing the same way
+	 * {@link AbstractSocketHandler#writeFrame(java.nio.channels.SelectionKey, long, ByteBuffer, PooledByteBuffer)} does.
+	 * May be invoked by any thread. The 'payload' must not be modified until it is written, after which 
+	 * the 'retainedBuffer' (if any) is released.
+	 * 
+	 * @return 'false' if this connection is closed, in which case the 'retainedBuffer' is released right away
+	 */
+	boolean write(long requestId, ByteBuffer payload, PooledByteBuffer retainedBuffer) {
+		return this.write(requestId, 0, null, payload, retainedBuffer);
+	}
+	
+	/**
+	 * Same as {@link #write(long, ByteBuffer, PooledByteBuffer)} while the frame is marked with 'flags' and carries 
+	 * the 'prefix' (e.g., {@link ReplyHeader} marked with {@link AbstractSocketHandler#REPLY_HEADER_FLAG}) in front 
+	 * of the 'payload'. The 'prefix' is written together with the frame header, so the 'payload' is never copied.
+	 * 
+	 * @return 'false' if this connection is closed, in which case the 'retainedBuffer' is released right away
+	 */
+	boolean write(long requestId, int flags, ByteBuffer prefix, ByteBuffer payload, PooledByteBuffer retainedBuffer) {
+		if (this.closed.get()){
+			release(retainedBuffer);
+			return false;
+		}
+		ByteBuffer frameBody = payload == null ? ByteBuffer.allocate(0) : payload.duplicate();
+		if (frameBody.position() != 0){
+			frameBody.flip();
+		}
+		int prefixSize = prefix == null ? 0 : prefix.remaining();
+		if (prefixSize + frameBody.remaining() > AbstractSocketHandler.MAX_FRAME_PAYLOAD_SIZE){
+			release(retainedBuffer);
+			AbstractSocketHandler.checkPayloadSize(prefixSize + frameBody.remaining());
+		}
+		ByteBuffer header = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE + prefixSize);
+		header.putInt(AbstractSocketHandler.frameLength(prefixSize + frameBody.remaining(), flags));
+		header.putLong(requestId);
+		if (prefix != null){
+			header.put(prefix.duplicate());
+		}
+		header.flip();
+		this.pendingFrames.add(new PendingFrame(header, frameBody, retainedBuffer));
+		if (this.closed.get()){
+			// closed concurrently, so frame may never be written
+			this.discardPendingFrames();
+			return false;
+		}
+		this.flush();
+		return true;
+	}
+	
+	/**
+	 * Sends the credit granted to the other side of this connection (see {@link AbstractSocketHandler#CREDIT_FRAME_ID}).
+	 */
+	boolean writeCreditGrant(int messages, long bytes) {
+		String credit = messages + ":" + bytes;
+		return this.write(AbstractSocketHandler.CREDIT_FRAME_ID, ByteBuffer.wrap(credit.getBytes(StandardCharsets.UTF_8)), null);
+	}
+	
+	/**
+	 * Closes this connection discarding the frames which were not yet written.
+	 * 
+	 * @return 'true' if it was closed by this invocation
+	 */
+	boolean close() {
+		if (this.closed.compareAndSet(false, true)){
+			try {
+				this.channel.close();
+			} 
+			catch (IOException e) {
+				logger.warn("Failure closing channel", e);
+			}
+			catch (ShutdownChannelGroupException e) {
+				// channel is closed, while its pending read can no longer be completed since the group was shut down concurrently
+			}
+			this.discardPendingFrames();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Handles the decoded frame. Messages are given to the {@link AbstractAsyncSocketHandler}, 
+	 * while the only control frame honored is the credit grant (see {@link AbstractSocketHandler#CREDIT_FRAME_ID}).
+	 */
+	@Override
+	public void onFrame(long requestId, int flags, PooledByteBuffer payload) throws IOException {
+		if ((flags & ~AbstractSocketHandler.REPLY_HEADER_FLAG) != 0){
+			payload.release();
+			throw new IOException("Received frame with flags " + Integer.toHexString(flags) + " which were never negotiated");
+		}
+		if (requestId > 0){
+			this.socketHandler.onMessage(this, requestId, flags, payload);
+		}
+		else if (requestId == AbstractSocketHandler.CREDIT_FRAME_ID){
+			String credit = StandardCharsets.UTF_8.decode(payload.asReadOnlyBuffer()).toString();
+			payload.release();
+			String[] values = credit.split(":");
+			this.socketHandler.onCreditGrant(this, Integer.parseInt(values[0]), Long.parseLong(values[1]));
+		}
+		else {
+			payload.release();
+			if (logger.isDebugEnabled()){
+				logger.debug("Ignoring control frame " + requestId + " from " + this.remoteAddress);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "AsyncConnection:[" + this.remoteAddress + "]";
+	}
+	
+	/**
+	 * 
+	 */
+	private void read() {
+		try {
+			this.channel.read(this.readBuffer, null, this.readHandler);
+		} 
+		catch (RuntimeException e) {
+			// e.g., channel group was shut down
+			this.onLost(e);
+		}
+	}
+	
+	/**
+	 * Writes the pending frames unless the write is already outstanding, in which case 
+	 * they will be written once it completes.
+	 */
+	private void flush() {
+		while (!this.pendingFrames.isEmpty() && this.writing.compareAndSet(false, true)){
+			List<PendingFrame> frames = new ArrayList<>();
+			PendingFrame frame;
+			while (frames.size() < MAX_GATHERED_FRAMES && (frame = this.pendingFrames.poll()) != null){
+				frames.add(frame);
+			}
+			if (frames.isEmpty()){
+				// taken by concurrent flush
+				this.writing.set(false);
+			}
+			else {
+				this.write(frames.toArray(new PendingFrame[frames.size()]));
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private void write(PendingFrame[] frames) {
+		ByteBuffer[] buffers = new ByteBuffer[frames.length * 2];
+		for (int i = 0; i < frames.length; i++) {
+			buffers[i * 2] = frames[i].header;
+			buffers[i * 2 + 1] = frames[i].body;
+		}
+		int offset = 0;
+		while (offset < buffers.length && !buffers[offset].hasRemaining()){
+			offset++;
+		}
+		try {
+			this.channel.write(buffers, offset, buffers.length - offset, 0, TimeUnit.MILLISECONDS, frames, this.writeHandler);
+		} 
+		catch (RuntimeException e) {
+			this.writeHandler.failed(e, frames);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private void discardPendingFrames() {
+		PendingFrame frame;
+		while ((frame = this.pendingFrames.poll()) != null){
+			release(frame.retainedBuffer);
+		}
+	}
+	
+	/**
+	 * Invoked once the connection failed or was closed by the other side. 
+	 * Ignored if it was closed by this side.
+	 */
+	private void onLost(Throwable cause) {
+		if (this.close()){
+			if (cause != null && logger.isDebugEnabled()){
+				logger.debug("Connection to " + this.remoteAddress + " failed", cause);
+			}
+			this.socketHandler.onDisconnect(this);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private static void release(PooledByteBuffer buffer) {
+		if (buffer != null){
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private class ReadHandler implements CompletionHandler<Integer, Void> {
+		@Override
+		public void completed(Integer result, Void attachment) {
+			if (result < 0){
+				AsyncConnection.this.onLost(null);
+				return;
+			}
+			ByteBuffer readBuffer = AsyncConnection.this.readBuffer;
+			readBuffer.flip();
+			try {
+				AsyncConnection.this.frameDecoder.decode(readBuffer, AsyncConnection.this);
+			} 
+			catch (IOException | RuntimeException e) {
+				logger.error("Failed to process data received from " + AsyncConnection.this.remoteAddress + ". Closing connection.", e);
+				AsyncConnection.this.onLost(e);
+				return;
+			}
+			readBuffer.clear();
+			if (AsyncConnection.this.isOpen()){
+				AsyncConnection.this.read();
+			}
+		}
+
+		@Override
+		public void failed(Throwable cause, Void attachment) {
+			AsyncConnection.this.onLost(cause);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private class WriteHandler implements CompletionHandler<Long, PendingFrame[]> {
+		@Override
+		public void completed(Long result, PendingFrame[] frames) {
+			PendingFrame lastFrame = frames[frames.length - 1];
+			if (lastFrame.header.hasRemaining() || lastFrame.body.hasRemaining()){
+				// partial write
+				AsyncConnection.this.write(frames);
+			}
+			else {
+				for (PendingFrame frame : frames) {
+					release(frame.retainedBuffer);
+				}
+				AsyncConnection.this.writing.set(false);
+				AsyncConnection.this.flush();
+			}
+		}
+
+		@Override
+		public void failed(Throwable cause, PendingFrame[] frames) {
+			for (PendingFrame frame : frames) {
+				release(frame.retainedBuffer);
+			}
+			AsyncConnection.this.onLost(cause);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private static class PendingFrame {
+		private final ByteBuffer header;
+		
+		private final ByteBuffer body;
+		
+		private final PooledByteBuffer retainedBuffer;
+		
+		/**
+		 * 
+		 * @param header
+		 * @param body
+		 * @param retainedBuffer
+		 */
+		PendingFrame(ByteBuffer header, ByteBuffer body, PooledByteBuffer retainedBuffer) {
+			this.header = header;
+			this.body = body;
+			this.retainedBuffer = retainedBuffer;
+		}
+	}
+}
@@ -16,75 +16,330 @@
 package oz.hadoop.yarn.api.net;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
 
 /**
- * Internal utility class used by Socket handlers ({@link ApplicationContainerServer} & {@link ApplicationContainerClient}) 
- * in this package to manage pools of {@link ByteBuffer} essentially allowing used {@link ByteBuffer}s to be reused 
+ * Internal utility class used by Socket handlers ({@link ApplicationContainerServer} & {@link ApplicationContainerClient})
+ * in this package to manage pools of {@link ByteBuffer} essentially allowing used {@link ByteBuffer}s to be reused
  * instead of reallocating memory.
- * 
+ *
+ * Buffers are pooled in power-of-two size classes (starting with {@link #MIN_BUFFER_SIZE}), so the request for
+ * a buffer is satisfied by the buffer of the smallest class which could fit it. The total size of the idle buffers
+ * retained by the pool never exceeds the budget. When released buffer does not fit into the budget, idle buffers
+ * of the smaller classes are trimmed to make room for it and if that is not possible the buffer is discarded, so
+ * releasing a small buffer never evicts a larger one. Buffers which are larger then the budget are never pooled.
+ *
+ * Buffers which were not allocated by this pool are discarded upon release. Since the pool keeps no references to
+ * the buffers it gave out, ownership is established by the amount of outstanding buffers of the same size class,
+ * so the foreign buffer is only recognized as such when no buffer of its size class is outstanding.
+ *
  * @author Oleg Zhurakousky
  *
  */
 class ByteBufferPool {
-	
+
 	private final Log logger = LogFactory.getLog(ByteBufferPool.class);
-	
-	private static final int DEF_SIZE = 1048576; // 1MB
-	
-	private static final int BUFFER_COUNT = 10;
-	
-	private final BlockingQueue<ByteBuffer> bufferQueue;
-	
-	private final int initialBufferSize;
+
+	static final int MIN_BUFFER_SIZE = 1024;
+
+	static final long DEFAULT_BUDGET = 64 * 1048576; // 64MB
+
+	private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+	private static final int MAX_SIZE_SHIFT = 30; // 1GB
+
+	private final List<Queue<ByteBuffer>> sizeClasses;
+
+	private final long budget;
+
+	private final boolean direct;
+
+	private final AtomicLong pooledBytes;
+
+	private final AtomicLong hits;
+
+	private final AtomicLong misses;
+
+	private final AtomicLong outstanding;
+
+	private final AtomicLongArray outstandingBySizeClass;
+
+	private final AtomicLong trimmed;
 
 	/**
-	 * 
+	 * Creates pool of heap buffers with default budget.
 	 */
 	public ByteBufferPool(){
-		this(DEF_SIZE, BUFFER_COUNT);
+		this(DEFAULT_BUDGET, false);
 	}
-	
+
 	/**
-	 * 
-	 * @param initialBufferSize
-	 * @param bufferCount
+	 *
+	 * @param budget
+	 * 		maximum amount of bytes retained by idle buffers of this pool
+	 * @param direct
+	 * 		whether buffers should be allocated off-heap (see {@link ByteBuffer#allocateDirect(int)})
 	 */
-	public ByteBufferPool(int initialBufferSize, int bufferCount){
-		this.initialBufferSize = initialBufferSize;
-		this.bufferQueue = new ArrayBlockingQueue<>(bufferCount);
-	}	
-	
+	public ByteBufferPool(long budget, boolean direct){
+		Assert.isTrue(budget >= 0, "'budget' must be >= 0");
+		this.budget = budget;
+		this.direct = direct;
+		this.sizeClasses = new ArrayList<>(MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1);
+		for (int i = MIN_SIZE_SHIFT; i <= MAX_SIZE_SHIFT; i++) {
+			this.sizeClasses.add(new ConcurrentLinkedQueue<ByteBuffer>());
+		}
+		this.pooledBytes = new AtomicLong();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.outstanding = new AtomicLong();
+		// last slot is for the buffers which are never pooled
+		this.outstandingBySizeClass = new AtomicLongArray(this.sizeClasses.size() + 1);
+		this.trimmed = new AtomicLong();
+	}
+
 	/**
-	 * Will return the first available {@link ByteBuffer} from the pool
-	 * or new one
+	 * Will return the {@link ByteBuffer} which could fit the 'size' amount of bytes.
+	 * The returned buffer is positioned at 0 and its limit is set to 'size' while
+	 * its capacity could be greater.
+	 *
+	 * @param size
 	 */
-	public ByteBuffer poll() {
-		ByteBuffer buffer = this.bufferQueue.poll();
-		if (buffer == null){
-			if (logger.isDebugEnabled()){
-				logger.debug("Creating new buffer with capacity: " + this.initialBufferSize);
+	public ByteBuffer allocate(int size) {
+		Assert.isTrue(size >= 0, "'size' must be >= 0");
+		this.outstanding.incrementAndGet();
+		int sizeClass = sizeClassOf(size);
+		ByteBuffer buffer = null;
+		if (sizeClass >= 0 && capacityOf(sizeClass) <= this.budget){
+			buffer = this.sizeClasses.get(sizeClass).poll();
+			if (buffer != null){
+				this.pooledBytes.addAndGet(-buffer.capacity());
+				this.hits.incrementAndGet();
+				if (logger.isTraceEnabled()){
+					logger.trace("Polled buffer with capacity: " + buffer.capacity());
+				}
+			}
+			else {
+				buffer = this.newBuffer(capacityOf(sizeClass));
 			}
-			buffer = ByteBuffer.allocate(this.initialBufferSize);
 		}
 		else {
-			logger.trace("Polled buffer");
+			// will never be pooled, so no need to round it up
+			buffer = this.newBuffer(size);
 		}
+		this.outstandingBySizeClass.incrementAndGet(this.ownershipSlotOf(buffer));
 		buffer.clear();
+		buffer.limit(size);
 		return buffer;
 	}
-	
+
 	/**
-	 * Will release buffer to a common pool or discard if queue is full.
-	 * 
+	 * Will release buffer to the pool or discard it if it does not fit into
+	 * the budget or was not allocated by this pool (see class javadoc).
+	 *
 	 * @param buffer
 	 */
 	public void release(ByteBuffer buffer){
-		logger.trace("Releasing buffer");
-		this.bufferQueue.offer(buffer);
+		int capacity = buffer.capacity();
+		if (!this.disown(buffer)){
+			logger.warn("Discarding buffer with capacity: " + capacity + " since it was not allocated by " + this);
+			return;
+		}
+		this.outstanding.decrementAndGet();
+		int sizeClass = this.ownershipSlotOf(buffer);
+		if (sizeClass < this.sizeClasses.size() && this.reserve(sizeClass)){
+			logger.trace("Releasing buffer");
+			this.sizeClasses.get(sizeClass).offer(buffer);
+		}
+		else if (logger.isTraceEnabled()){
+			logger.trace("Discarding buffer with capacity: " + capacity);
+		}
+	}
+
+	/**
+	 * Discards idle buffers (largest first) until the total size of the idle
+	 * buffers retained by this pool is at or below 'targetBytes'.
+	 *
+	 * @param targetBytes
+	 */
+	public void trim(long targetBytes) {
+		while (this.pooledBytes.get() > targetBytes && this.trimLargest(this.sizeClasses.size())){
+			// keep trimming
+		}
+	}
+
+	/**
+	 * Returns the amount of requests which were satisfied by the pooled buffer.
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Returns the amount of requests which resulted in allocation of the new buffer.
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Returns the amount of buffers which were given out and not yet released.
+	 */
+	public long getOutstanding() {
+		return this.outstanding.get();
+	}
+
+	/**
+	 * Returns the amount of buffers which were discarded to stay within the budget.
+	 */
+	public long getTrimmed() {
+		return this.trimmed.get();
+	}
+
+	/**
+	 * Returns the total size of the idle buffers retained by this pool.
+	 */
+	public long getPooledBytes() {
+		return this.pooledBytes.get();
+	}
+
+	/**
+	 *
+	 */
+	public long getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 *
+	 */
+	public boolean isDirect() {
+		return this.direct;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "ByteBufferPool:[direct=" + this.direct + ", budget=" + this.budget + ", pooledBytes=" + this.pooledBytes.get() +
+				", hits=" + this.hits.get() + ", misses=" + this.misses.get() + ", outstanding=" + this.outstanding.get() +
+				", trimmed=" + this.trimmed.get() + "]";
+	}
+
+	/**
+	 * Reserves room for the buffer of a given size class within the budget
+	 * trimming idle buffers of smaller classes if necessary.
+	 */
+	private boolean reserve(int sizeClass) {
+		int capacity = capacityOf(sizeClass);
+		if (capacity > this.budget){
+			return false;
+		}
+		while (true) {
+			long pooled = this.pooledBytes.get();
+			if (pooled + capacity <= this.budget){
+				if (this.pooledBytes.compareAndSet(pooled, pooled + capacity)){
+					return true;
+				}
+			}
+			else if (!this.trimLargest(sizeClass)){
+				// the released buffer is the one to go
+				this.trimmed.incrementAndGet();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Decrements the amount of outstanding buffers of the same size class as 'buffer'.
+	 *
+	 * @return 'false' if there was none, meaning that 'buffer' was not allocated by this pool
+	 */
+	private boolean disown(ByteBuffer buffer) {
+		if (buffer.isDirect() != this.direct || buffer.isReadOnly()){
+			return false;
+		}
+		int slot = this.ownershipSlotOf(buffer);
+		while (true) {
+			long count = this.outstandingBySizeClass.get(slot);
+			if (count <= 0){
+				return false;
+			}
+			if (this.outstandingBySizeClass.compareAndSet(slot, count, count - 1)){
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the size class of the buffer which could be pooled or the slot
+	 * past the last size class for the buffer which is never pooled.
+	 */
+	private int ownershipSlotOf(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (Integer.bitCount(capacity) == 1 && capacity >= MIN_BUFFER_SIZE && capacity <= this.budget){
+			int sizeClass = sizeClassOf(capacity);
+			if (sizeClass >= 0){
+				return sizeClass;
+			}
+		}
+		return this.sizeClasses.size();
+	}
+
+	/**
+	 * Discards a single idle buffer of the largest available class
+	 * smaller then 'sizeClassLimit'.
+	 *
+	 * @return 'false' if there was nothing to discard
+	 */
+	private boolean trimLargest(int sizeClassLimit) {
+		for (int i = sizeClassLimit - 1; i >= 0; i--) {
+			ByteBuffer buffer = this.sizeClasses.get(i).poll();
+			if (buffer != null){
+				this.pooledBytes.addAndGet(-buffer.capacity());
+				this.trimmed.incrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 */
+	private ByteBuffer newBuffer(int capacity) {
+		this.misses.incrementAndGet();
+		if (logger.isDebugEnabled()){
+			logger.debug("Creating new " + (this.direct ? "direct" : "heap") + " buffer with capacity: " + capacity);
+		}
+		return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Returns the index of the smallest size class which could fit 'size'
+	 * or -1 if it is larger then the largest size class.
+	 */
+	private static int sizeClassOf(int size) {
+		if (size <= MIN_BUFFER_SIZE){
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return shift > MAX_SIZE_SHIFT ? -1 : shift - MIN_SIZE_SHIFT;
+	}
+
+	/**
+	 *
+	 */
+	private static int capacityOf(int sizeClass) {
+		return 1 << (sizeClass + MIN_SIZE_SHIFT);
 	}
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link ReadableByteChannel} over the chunks of the streamed message (see {@link ChunkedOutputChannel}) which
+ * are offered by the selector thread as they arrive and are read by the thread processing the message.
+ * Chunks are the read-only views of the received frames, so they are not copied until read.
+ *
+ * Once the amount of queued bytes reaches the high watermark, the selector thread stops reading from the
+ * connection (see {@link #offer(PooledByteBuffer)}) until the reader drains the queue down to half of it,
+ * at which point 'onDrained' callback is invoked to resume reading. This way the message is never
+ * buffered in its entirety regardless of its size.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class ChunkedInputChannel implements ReadableByteChannel {
+
+	private final Deque<PooledByteBuffer> chunks;
+
+	private final long highWatermark;
+
+	private final Runnable onDrained;
+
+	/*
+	 * Amount of bytes of the first chunk which were already read
+	 */
+	private int headOffset;
+
+	private long queuedBytes;
+
+	/*
+	 * Set when the producer was told that this channel is full
+	 */
+	private boolean full;
+
+	private boolean completed;
+
+	private IOException failure;
+
+	private boolean open;
+
+	/**
+	 *
+	 * @param highWatermark
+	 * 		amount of queued bytes at which this channel is full
+	 * @param onDrained
+	 * 		callback invoked by the reader once the full channel is drained down to half of the 'highWatermark'
+	 */
+	ChunkedInputChannel(long highWatermark, Runnable onDrained) {
+		this.chunks = new ArrayDeque<>();
+		this.highWatermark = highWatermark;
+		this.onDrained = onDrained;
+		this.open = true;
+	}
+
+	/**
+	 * Queues the chunk taking over the reference to it. Chunk is released immediately if this
+	 * channel was closed by the reader.
+	 *
+	 * @return 'true' if this channel is full and producer should stop until 'onDrained' callback is invoked.
+	 */
+	synchronized boolean offer(PooledByteBuffer chunk) {
+		int length = chunk.asReadOnlyBuffer().remaining();
+		if (!this.open || this.completed || this.failure != null || length == 0){
+			chunk.release();
+			return false;
+		}
+		this.chunks.offer(chunk);
+		this.queuedBytes += length;
+		this.notifyAll();
+		if (this.queuedBytes >= this.highWatermark){
+			this.full = true;
+		}
+		return this.full;
+	}
+
+	/**
+	 * Signals that all chunks of the message were received, so the reader would reach the
+	 * end of stream once queued chunks are read.
+	 */
+	synchronized void complete() {
+		this.completed = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Signals that the message will never be complete (e.g., sender aborted the stream or connection was closed).
+	 * Reader will get the 'failure' once queued chunks are read.
+	 */
+	synchronized void fail(IOException failure) {
+		if (!this.completed && this.failure == null){
+			this.failure = failure;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns 'true' if producer was told this channel is full and it was not drained yet.
+	 */
+	synchronized boolean isFull() {
+		return this.full;
+	}
+
+	/**
+	 * Blocks until data is available.
+	 */
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		int count = 0;
+		boolean drained;
+		synchronized (this) {
+			if (!this.awaitChunk()){
+				return -1;
+			}
+			while (destination.hasRemaining() && !this.chunks.isEmpty()){
+				PooledByteBuffer chunk = this.chunks.peek();
+				ByteBuffer data = chunk.asReadOnlyBuffer();
+				data.position(this.headOffset);
+				int length = Math.min(data.remaining(), destination.remaining());
+				data.limit(data.position() + length);
+				destination.put(data);
+				count += length;
+				this.headOffset += length;
+				if (this.headOffset == data.capacity()){
+					this.chunks.poll().release();
+					this.headOffset = 0;
+				}
+			}
+			drained = this.consumed(count);
+		}
+		if (drained){
+			this.onDrained.run();
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the entire remainder of the message to the 'target' channel as it arrives without
+	 * copying it into an intermediate buffer.
+	 *
+	 * @return amount of bytes transferred
+	 */
+	long transferTo(WritableByteChannel target) throws IOException {
+		long transferred = 0;
+		PooledByteBuffer chunk;
+		while ((chunk = this.take()) != null){
+			try {
+				ByteBuffer data = chunk.asReadOnlyBuffer();
+				while (data.hasRemaining()){
+					transferred += target.write(data);
+				}
+			}
+			finally {
+				chunk.release();
+			}
+		}
+		return transferred;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public synchronized boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Closes this channel discarding queued and subsequently offered chunks.
+	 */
+	@Override
+	public void close() {
+		boolean drained;
+		synchronized (this) {
+			this.open = false;
+			PooledByteBuffer chunk;
+			while ((chunk = this.chunks.poll()) != null){
+				chunk.release();
+			}
+			this.headOffset = 0;
+			drained = this.consumed(this.queuedBytes);
+			this.notifyAll();
+		}
+		if (drained){
+			this.onDrained.run();
+		}
+	}
+
+	/**
+	 * Removes the first chunk (or its unread remainder) from the queue.
+	 *
+	 * @return chunk which must be released by the caller or null if the end of stream was reached.
+	 */
+	private PooledByteBuffer take() throws IOException {
+		PooledByteBuffer chunk;
+		boolean drained;
+		synchronized (this) {
+			if (!this.awaitChunk()){
+				return null;
+			}
+			chunk = this.chunks.poll();
+			int length = chunk.asReadOnlyBuffer().remaining();
+			if (this.headOffset > 0){
+				PooledByteBuffer remainder = chunk.slice(this.headOffset, length - this.headOffset);
+				chunk.release();
+				chunk = remainder;
+				length -= this.headOffset;
+				this.headOffset = 0;
+			}
+			drained = this.consumed(length);
+		}
+		if (drained){
+			this.onDrained.run();
+		}
+		return chunk;
+	}
+
+	/**
+	 * Waits until chunk is available. Must be invoked while holding the lock.
+	 *
+	 * @return 'true' if chunk is available, 'false' if the end of stream was reached.
+	 */
+	private boolean awaitChunk() throws IOException {
+		while (this.open && this.chunks.isEmpty() && !this.completed && this.failure == null){
+			try {
+				this.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the next chunk of the streamed message");
+			}
+		}
+		if (!this.open){
+			throw new ClosedChannelException();
+		}
+		if (this.chunks.isEmpty()){
+			if (this.failure != null){
+				throw this.failure;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Must be invoked while holding the lock.
+	 *
+	 * @return 'true' if the full channel was drained enough for the producer to resume.
+	 */
+	private boolean consumed(long length) {
+		this.queuedBytes -= length;
+		if (this.full && this.queuedBytes <= this.highWatermark / 2){
+			this.full = false;
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link WritableByteChannel} which sends the message of arbitrary size as a sequence of chunk frames
+ * (see {@link AbstractSocketHandler#CHUNK_FLAG}) which share the request id of the message.
+ * The payload of every chunk frame starts with the chunk type followed by the data ({@link #DATA_CHUNK}),
+ * nothing ({@link #END_CHUNK}) or the reason the stream was aborted ({@link #ABORT_CHUNK}).
+ * The receiving side exposes the chunks as {@link ChunkedInputChannel}.
+ *
+ * Data is copied into chunk buffers obtained from the {@link ByteBufferPool} and the writer blocks once
+ * the amount of chunks which were sent, but not yet written to the socket, reaches
+ * {@link TransportSettings#getStreamBufferedChunks()}, so the memory used by the stream is bounded.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class ChunkedOutputChannel implements WritableByteChannel {
+
+	static final byte DATA_CHUNK = 0;
+
+	static final byte END_CHUNK = 1;
+
+	static final byte ABORT_CHUNK = 2;
+
+	private final AbstractSocketHandler socketHandler;
+
+	private final SelectionKey selectionKey;
+
+	private final long requestId;
+
+	private final ByteBufferPool bufferPool;
+
+	private final int chunkSize;
+
+	private final Semaphore chunksInFlight;
+
+	private ByteBuffer chunk;
+
+	private boolean open;
+
+	/**
+	 *
+	 * @param socketHandler
+	 * @param selectionKey
+	 * 		connection to stream the message to
+	 * @param requestId
+	 * 		request id of the message
+	 */
+	ChunkedOutputChannel(AbstractSocketHandler socketHandler, SelectionKey selectionKey, long requestId) {
+		this.socketHandler = socketHandler;
+		this.selectionKey = selectionKey;
+		this.requestId = requestId;
+		this.bufferPool = socketHandler.getBufferPool();
+		this.chunkSize = socketHandler.getTransportSettings().getStreamChunkSize();
+		this.chunksInFlight = new Semaphore(socketHandler.getTransportSettings().getStreamBufferedChunks());
+		this.open = true;
+	}
+
+	/**
+	 * Blocks if too many chunks are waiting to be written to the socket.
+	 */
+	@Override
+	public synchronized int write(ByteBuffer source) throws IOException {
+		this.ensureOpen();
+		int written = 0;
+		while (source.hasRemaining()){
+			ByteBuffer currentChunk = this.currentChunk();
+			int length = Math.min(source.remaining(), currentChunk.remaining());
+			ByteBuffer data = source.duplicate();
+			data.limit(data.position() + length);
+			currentChunk.put(data);
+			source.position(source.position() + length);
+			written += length;
+			if (!currentChunk.hasRemaining()){
+				this.sendChunk();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Reads the 'source' channel until its end directly into the chunk buffers.
+	 *
+	 * @return amount of bytes transferred
+	 */
+	synchronized long transferFrom(ReadableByteChannel source) throws IOException {
+		this.ensureOpen();
+		long transferred = 0;
+		int count;
+		while ((count = source.read(this.currentChunk())) >= 0){
+			transferred += count;
+			if (!this.chunk.hasRemaining()){
+				this.sendChunk();
+			}
+		}
+		return transferred;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public synchronized boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Sends the remaining data followed by the end of stream.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.open){
+			if (this.chunk != null && this.chunk.position() > 1){
+				this.sendChunk();
+			}
+			this.open = false;
+			this.releaseChunk();
+			this.sendControlChunk(END_CHUNK, "");
+		}
+	}
+
+	/**
+	 * Closes this channel discarding the data which was not sent yet and signaling
+	 * the receiver that the message will never be complete.
+	 *
+	 * @param reason
+	 */
+	synchronized void abort(String reason) throws IOException {
+		if (this.open){
+			this.open = false;
+			this.releaseChunk();
+			this.sendControlChunk(ABORT_CHUNK, reason == null ? "" : reason);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private ByteBuffer currentChunk() {
+		if (this.chunk == null){
+			this.chunk = this.bufferPool.allocate(this.chunkSize);
+			this.chunk.put(DATA_CHUNK);
+		}
+		return this.chunk;
+	}
+
+	/**
+	 * Chunk is released (and the permit is returned) once written or once the connection is closed.
+	 */
+	private void sendChunk() throws IOException {
+		try {
+			this.chunksInFlight.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			// chunk is kept, so the stream could still be aborted (see abort(..))
+			throw new InterruptedIOException("Interrupted while waiting for the chunks of the streamed message to be written");
+		}
+		ByteBuffer sentChunk = this.chunk;
+		this.chunk = null;
+		sentChunk.flip();
+		PooledByteBuffer retainedChunk = new PooledByteBuffer(sentChunk, this.bufferPool) {
+			@Override
+			boolean release() {
+				boolean released = super.release();
+				if (released){
+					ChunkedOutputChannel.this.chunksInFlight.release();
+				}
+				return released;
+			}
+		};
+		try {
+			this.socketHandler.writeFrame(this.selectionKey, this.requestId, AbstractSocketHandler.CHUNK_FLAG, sentChunk, retainedChunk);
+		}
+		catch (CancelledKeyException e) {
+			// chunk was already released by the socket handler
+			this.open = false;
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void sendControlChunk(byte chunkType, String content) throws IOException {
+		byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer controlChunk = ByteBuffer.allocate(1 + contentBytes.length);
+		controlChunk.put(chunkType);
+		controlChunk.put(contentBytes);
+		controlChunk.flip();
+		try {
+			this.socketHandler.writeFrame(this.selectionKey, this.requestId, AbstractSocketHandler.CHUNK_FLAG, controlChunk, null);
+		}
+		catch (CancelledKeyException e) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void releaseChunk() {
+		if (this.chunk != null){
+			this.bufferPool.release(this.chunk);
+			this.chunk = null;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void ensureOpen() throws ClosedChannelException {
+		if (!this.open){
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+
+import oz.hadoop.yarn.api.YayaConstants;
+
+/**
+ * Strategy for compressing payloads of the frames exchanged between {@link ApplicationContainerServer}
+ * and {@link ApplicationContainerClient}.
+ *
+ * Codecs are configured by name (or fully qualified class name of the implementation with default constructor)
+ * using {@link YayaConstants#COMPRESSION_CODECS} and the codec used by each connection is chosen during the
+ * handshake as the first codec offered by the client which is also available to the server.
+ * Implementations must be thread-safe since the same instance is used by all connections.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface CompressionCodec {
+
+	/**
+	 * Returns the name which identifies this codec during the handshake.
+	 * Must be the same on both sides of the connection.
+	 */
+	String getName();
+
+	/**
+	 * Compresses 'length' bytes of the 'source' starting at 'sourceOffset' into 'target'
+	 * starting at 'targetOffset'.
+	 *
+	 * @return the length of the compressed data or -1 if it does not fit into 'maxLength' bytes,
+	 * 		in which case the content of the 'target' is undefined.
+	 */
+	int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int maxLength);
+
+	/**
+	 * Decompresses 'length' bytes of the 'source' starting at 'sourceOffset' into 'target' starting at 'targetOffset'.
+	 *
+	 * @param originalLength
+	 * 		the length of the data before it was compressed
+	 * @throws IOException
+	 * 		if 'source' is not a valid compressed data
+	 */
+	void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int originalLength) throws IOException;
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the {@link CompressionCodec} used by the socket handler (see {@link SocketHandler#getCompressionStats()})
+ * allowing to see whether compression pays off (e.g., compression ratio vs. time spent compressing).
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class CompressionStats {
+
+	private final String codecName;
+
+	private final AtomicLong compressedFrames = new AtomicLong();
+
+	private final AtomicLong incompressibleFrames = new AtomicLong();
+
+	private final AtomicLong bytesBeforeCompression = new AtomicLong();
+
+	private final AtomicLong bytesAfterCompression = new AtomicLong();
+
+	private final AtomicLong compressionNanos = new AtomicLong();
+
+	private final AtomicLong decompressedFrames = new AtomicLong();
+
+	private final AtomicLong decompressionNanos = new AtomicLong();
+
+	/**
+	 *
+	 * @param codecName
+	 */
+	CompressionStats(String codecName) {
+		this.codecName = codecName;
+	}
+
+	/**
+	 *
+	 */
+	public String getCodecName() {
+		return this.codecName;
+	}
+
+	/**
+	 * Returns the amount of frames sent compressed.
+	 */
+	public long getCompressedFrames() {
+		return this.compressedFrames.get();
+	}
+
+	/**
+	 * Returns the amount of frames which were sent uncompressed since compression did not reduce their size.
+	 */
+	public long getIncompressibleFrames() {
+		return this.incompressibleFrames.get();
+	}
+
+	/**
+	 * Returns the total size of the payloads of the compressed frames before compression.
+	 */
+	public long getBytesBeforeCompression() {
+		return this.bytesBeforeCompression.get();
+	}
+
+	/**
+	 * Returns the total size of the payloads of the compressed frames after compression.
+	 */
+	public long getBytesAfterCompression() {
+		return this.bytesAfterCompression.get();
+	}
+
+	/**
+	 * Returns the ratio of the size of the compressed payloads before and after compression
+	 * (e.g., 4.0 means payloads were 4 times smaller on the wire), or 0 if nothing was compressed yet.
+	 */
+	public double getCompressionRatio() {
+		long after = this.bytesAfterCompression.get();
+		return after == 0 ? 0 : (double) this.bytesBeforeCompression.get() / after;
+	}
+
+	/**
+	 * Returns the total time spent compressing (including frames which turned out to be incompressible).
+	 */
+	public long getCompressionNanos() {
+		return this.compressionNanos.get();
+	}
+
+	/**
+	 * Returns the amount of received frames which were decompressed.
+	 */
+	public long getDecompressedFrames() {
+		return this.decompressedFrames.get();
+	}
+
+	/**
+	 * Returns the total time spent decompressing.
+	 */
+	public long getDecompressionNanos() {
+		return this.decompressionNanos.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "CompressionStats:[codec=" + this.codecName + ", compressedFrames=" + this.compressedFrames.get() +
+				", incompressibleFrames=" + this.incompressibleFrames.get() + ", compressionRatio=" + String.format("%.2f", this.getCompressionRatio()) +
+				", compressionNanos=" + this.compressionNanos.get() + ", decompressedFrames=" + this.decompressedFrames.get() +
+				", decompressionNanos=" + this.decompressionNanos.get() + "]";
+	}
+
+	/**
+	 *
+	 */
+	void recordCompression(int originalLength, int compressedLength, long nanos) {
+		this.compressedFrames.incrementAndGet();
+		this.bytesBeforeCompression.addAndGet(originalLength);
+		this.bytesAfterCompression.addAndGet(compressedLength);
+		this.compressionNanos.addAndGet(nanos);
+	}
+
+	/**
+	 *
+	 */
+	void recordIncompressible(long nanos) {
+		this.incompressibleFrames.incrementAndGet();
+		this.compressionNanos.addAndGet(nanos);
+	}
+
+	/**
+	 *
+	 */
+	void recordDecompression(long nanos) {
+		this.decompressedFrames.incrementAndGet();
+		this.decompressionNanos.addAndGet(nanos);
+	}
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-connection state which is attached to the {@link SelectionKey} of every
+ * socket connection managed by {@link AbstractSocketHandler}.
+ *
+ * Outbound frames are queued by any thread as arrays of {@link ByteBuffer}s (e.g., header and payload)
+ * and are drained by the listener thread using gathering writes, so header and payload are
+ * never merged into a single buffer. Frames which could not be written completely (e.g., socket send buffer is full)
+ * remain pending until the next write event. Frame could also carry the {@link PooledByteBuffer} which
+ * is released once the frame is completely written (e.g., reply which shares data with the request).
+ * When batching is enabled small messages are accumulated by the {@link FrameBatcher} and queued as a single 
+ * batch frame once it is full or the write is performed. Frames are always queued in the order they were sent.
+ * Streamed messages which are being received are tracked by their request id (see {@link ChunkedInputChannel}).
+ * Once shared memory is negotiated (see {@link SharedMemoryChannel}) frames queued after the switch frame
+ * are written into the shared memory instead of the socket, while the socket only carries the wake up frames.
+ * Traffic of the connection is recorded by its {@link ConnectionMetrics}.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class ConnectionContext {
+
+	private static final int MAX_GATHERED_BUFFERS = 64;
+
+	private final Queue<OutboundFrame> outboundFrames;
+
+	/*
+	 * Frames which buffers are currently being written. Only accessed by the listener thread.
+	 */
+	private final Queue<OutboundFrame> writingFrames;
+
+	/*
+	 * Buffers currently being written. Only accessed by the listener thread.
+	 */
+	private final ByteBuffer[] pendingBuffers;
+
+	private int pendingBufferCount;
+
+	/*
+	 * Set when the write of queued frames has been scheduled with the selector loop 
+	 * which owns this connection, so frames queued in the meantime do not need to schedule it again.
+	 */
+	private final AtomicBoolean writeScheduled;
+
+	/*
+	 * Only accessed by the listener thread
+	 */
+	private final FrameDecoder frameDecoder;
+
+	/*
+	 * Null if batching is disabled
+	 */
+	private final FrameBatcher frameBatcher;
+
+	/*
+	 * Set once compression codec is negotiated
+	 */
+	private volatile FrameCompressor frameCompressor;
+
+	/*
+	 * Keyed by request id. Streams expecting a reply are registered by the sending thread.
+	 */
+	private final Map<Long, ChunkedInputChannel> inboundStreams;
+
+	/*
+	 * Set while one of the inbound streams is full. Only accessed by the listener thread.
+	 */
+	private boolean readSuspended;
+
+	/*
+	 * Streams are sent one at a time, so the receiver never has to hold on to 
+	 * more then one incomplete stream in order to complete the other.
+	 */
+	private final Lock outboundStreamLock;
+
+	/*
+	 * Set once shared memory is negotiated
+	 */
+	private volatile SharedMemoryChannel sharedMemoryChannel;
+
+	/*
+	 * Set once the switch frame was written, so the remaining frames are written into the shared memory.
+	 * Only accessed by the listener thread.
+	 */
+	private boolean sharedMemoryOutbound;
+
+	/*
+	 * Set while the switch frame is among the buffers being written, so frames which follow it 
+	 * are not written to the socket. Only accessed by the listener thread.
+	 */
+	private boolean switchPending;
+
+	/*
+	 * Wake up frame for the other side of the shared memory. Only accessed by the listener thread.
+	 */
+	private final ByteBuffer doorbell;
+
+	private boolean doorbellRequested;
+
+	/*
+	 * Last credit granted by the other side as {messages, bytes} or null if none was granted.
+	 */
+	private volatile long[] grantedCredit;
+
+	/*
+	 * Time (see System.nanoTime()) when data was last received from the other side. 
+	 * Only accessed by the listener thread.
+	 */
+	private long lastReceived;
+
+	/*
+	 * Token of the session of the Application Container on the other side (see AbstractSocketHandler.SESSION_FRAME_ID)
+	 */
+	private volatile String sessionToken;
+
+	private final ConnectionMetrics metrics;
+
+	/**
+	 *
+	 * @param frameDecoder
+	 */
+	ConnectionContext(FrameDecoder frameDecoder) {
+		this(frameDecoder, null, new ConnectionMetrics(null));
+	}
+
+	/**
+	 *
+	 * @param frameDecoder
+	 * @param frameBatcher
+	 * 		could be null if batching is disabled
+	 * @param metrics
+	 */
+	ConnectionContext(FrameDecoder frameDecoder, FrameBatcher frameBatcher, ConnectionMetrics metrics) {
+		this.frameDecoder = frameDecoder;
+		this.frameBatcher = frameBatcher;
+		this.metrics = metrics;
+		this.outboundFrames = new ConcurrentLinkedQueue<>();
+		this.writingFrames = new ArrayDeque<>();
+		this.writeScheduled = new AtomicBoolean();
+		this.pendingBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+		this.inboundStreams = new ConcurrentHashMap<>();
+		this.outboundStreamLock = new ReentrantLock();
+		this.doorbell = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		this.doorbell.putInt(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		// position is at the limit, so there is nothing to write until requested
+		this.doorbell.putLong(AbstractSocketHandler.SHARED_MEMORY_FRAME_ID);
+		this.lastReceived = System.nanoTime();
+	}
+
+	/**
+	 * Queues buffers which constitute a single frame for writing. Buffers of the
+	 * same frame are always written in order and never interleaved with buffers of other frames.
+	 * May be invoked by any thread.
+	 *
+	 * @param frameBuffers
+	 */
+	void enqueue(ByteBuffer... frameBuffers) {
+		this.enqueue(null, frameBuffers);
+	}
+
+	/**
+	 * Same as {@link #enqueue(ByteBuffer...)} while also taking over the reference to the
+	 * 'retainedBuffer' which is released once the frame is completely written or
+	 * the connection is closed.
+	 *
+	 * @param retainedBuffer
+	 * @param frameBuffers
+	 */
+	void enqueue(PooledByteBuffer retainedBuffer, ByteBuffer... frameBuffers) {
+		if (frameBuffers.length > MAX_GATHERED_BUFFERS){
+			throw new IllegalArgumentException("Frame can not consist of more then " + MAX_GATHERED_BUFFERS + " buffers");
+		}
+		this.offer(new OutboundFrame(frameBuffers, retainedBuffer, false));
+	}
+
+	/**
+	 * Queues the frame which is the last one written to the socket, while the frames queued after 
+	 * it are written into the shared memory (see {@link #setSharedMemoryChannel(SharedMemoryChannel)}).
+	 * May be invoked by any thread.
+	 *
+	 * @param switchFrame
+	 */
+	void enqueueSharedMemorySwitch(ByteBuffer switchFrame) {
+		this.offer(new OutboundFrame(new ByteBuffer[]{switchFrame}, null, true));
+	}
+
+	/**
+	 * Returns 'true' if message with the given payload size should be batched (see {@link #batch(long, ByteBuffer)}).
+	 */
+	boolean canBatch(int payloadSize) {
+		return this.frameBatcher != null && this.frameBatcher.canBatch(payloadSize);
+	}
+
+	/**
+	 * Copies the framed message into the current batch. If message does not fit, the current 
+	 * batch is queued for writing and the new one is started. May be invoked by any thread.
+	 *
+	 * @param requestId
+	 * @param flags
+	 * @param prefix
+	 * 		copied in front of the 'payload' (could be null)
+	 * @param payload
+	 * @return 'true' if the batch was queued for writing
+	 */
+	boolean batch(long requestId, int flags, ByteBuffer prefix, ByteBuffer payload) {
+		synchronized (this.frameBatcher) {
+			boolean sealed = false;
+			if (!this.frameBatcher.hasRoom((prefix == null ? 0 : prefix.remaining()) + payload.remaining())){
+				sealed = this.sealBatch();
+			}
+			this.frameBatcher.add(requestId, flags, prefix, payload);
+			return sealed;
+		}
+	}
+
+	/**
+	 * Queues the current batch (if any) for writing. May be invoked by any thread.
+	 *
+	 * @return 'true' if the batch was queued
+	 */
+	boolean sealBatch() {
+		if (this.frameBatcher != null){
+			synchronized (this.frameBatcher) {
+				PooledByteBuffer sealedBatch = this.frameBatcher.seal();
+				if (sealedBatch != null){
+					// recorded first, so the frame is never written before it is recorded as queued
+					this.metrics.recordFrameQueued();
+					this.outboundFrames.offer(new OutboundFrame(new ByteBuffer[]{sealedBatch.asReadOnlyBuffer()}, sealedBatch, false));
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Marks this connection as having its write scheduled.
+	 *
+	 * @return 'true' if the caller is responsible for scheduling the write, 'false' if it
+	 * 		has already been scheduled and queued frames will be written without caller's intervention.
+	 */
+	boolean markWriteScheduled() {
+		return this.writeScheduled.compareAndSet(false, true);
+	}
+
+	/**
+	 * Clears the mark set by {@link #markWriteScheduled()} once all queued frames were written.
+	 * Must only be invoked by the listener thread.
+	 */
+	void clearWriteScheduled() {
+		this.writeScheduled.set(false);
+	}
+
+	/**
+	 * Returns 'true' if there are frames (or batched messages) awaiting to be written.
+	 */
+	boolean hasPendingWrites() {
+		return this.pendingBufferCount > 0 || !this.outboundFrames.isEmpty() || 
+				(this.frameBatcher != null && this.frameBatcher.hasBatchedMessages()) ||
+				this.doorbellRequested || this.doorbell.hasRemaining();
+	}
+
+	/**
+	 * Returns 'true' if the remaining frames can not be written until the other side of the shared memory 
+	 * makes room for them and wakes this side up. Must only be invoked by the listener thread.
+	 */
+	boolean isAwaitingSharedMemory() {
+		return this.sharedMemoryOutbound && this.pendingBufferCount > 0 && 
+				!this.doorbellRequested && !this.doorbell.hasRemaining();
+	}
+
+	/**
+	 * Requests the wake up frame to be written to the socket once it is at the frame boundary. 
+	 * Must only be invoked by the listener thread which then must perform the write.
+	 */
+	void requestDoorbell() {
+		this.doorbellRequested = true;
+	}
+
+	/**
+	 * Writes as many of the queued frames as the channel (or the shared memory, once switched) would accept.
+	 * Must only be invoked by the listener thread.
+	 *
+	 * @param channel
+	 * @return 'true' if all queued frames were written, 'false' if the channel could not accept
+	 * 		all the data and the remaining data must be written on the next write event 
+	 * 		(or once woken up by the other side of the shared memory, see {@link #isAwaitingSharedMemory()}).
+	 */
+	boolean flush(GatheringByteChannel channel) throws IOException {
+		if (!this.flushDoorbell(channel)){
+			return false;
+		}
+		while (true) {
+			OutboundFrame frame;
+			while (!this.switchPending && this.pendingBufferCount < MAX_GATHERED_BUFFERS &&
+					this.pendingBufferCount + this.nextFrameSize() <= MAX_GATHERED_BUFFERS &&
+					(frame = this.outboundFrames.poll()) != null){
+				for (ByteBuffer frameBuffer : frame.buffers) {
+					this.pendingBuffers[this.pendingBufferCount++] = frameBuffer;
+				}
+				this.writingFrames.offer(frame);
+				this.switchPending = frame.sharedMemorySwitch;
+			}
+			if (this.pendingBufferCount == 0){
+				return this.flushDoorbell(channel);
+			}
+
+			if (this.sharedMemoryOutbound){
+				SharedMemoryRing ring = this.sharedMemoryChannel.getOutboundRing();
+				long written = ring.write(this.pendingBuffers, 0, this.pendingBufferCount);
+				this.metrics.recordBytesOut(written);
+				if (written > 0 && ring.unparkConsumer()){
+					this.doorbellRequested = true;
+				}
+			}
+			else {
+				this.metrics.recordBytesOut(channel.write(this.pendingBuffers, 0, this.pendingBufferCount));
+			}
+
+			int written = 0;
+			while (written < this.pendingBufferCount && !this.pendingBuffers[written].hasRemaining()){
+				written++;
+			}
+			if (written > 0){
+				System.arraycopy(this.pendingBuffers, written, this.pendingBuffers, 0, this.pendingBufferCount - written);
+				for (int i = this.pendingBufferCount - written; i < this.pendingBufferCount; i++) {
+					this.pendingBuffers[i] = null;
+				}
+				this.pendingBufferCount -= written;
+				this.releaseWrittenFrames();
+			}
+			if (this.pendingBufferCount > 0){
+				if (this.sharedMemoryOutbound){
+					if (!this.sharedMemoryChannel.getOutboundRing().parkProducer()){
+						// room became available
+						continue;
+					}
+					this.flushDoorbell(channel);
+				}
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Returns {@link SharedMemoryChannel} negotiated for this connection or null if frames are only written to the socket.
+	 */
+	SharedMemoryChannel getSharedMemoryChannel() {
+		return this.sharedMemoryChannel;
+	}
+
+	/**
+	 * Sets {@link SharedMemoryChannel} negotiated for this connection. Frames are written into it once the 
+	 * switch frame is written (see {@link #enqueueSharedMemorySwitch(ByteBuffer)}). 
+	 */
+	void setSharedMemoryChannel(SharedMemoryChannel sharedMemoryChannel) {
+		this.sharedMemoryChannel = sharedMemoryChannel;
+	}
+
+	/**
+	 * Returns {@link FrameCompressor} negotiated for this connection or null if frames are not compressed.
+	 */
+	FrameCompressor getFrameCompressor() {
+		return this.frameCompressor;
+	}
+
+	/**
+	 *
+	 */
+	void setFrameCompressor(FrameCompressor frameCompressor) {
+		this.frameCompressor = frameCompressor;
+	}
+
+	/**
+	 * Returns the last credit granted by the other side of this connection as {messages, bytes} 
+	 * or null if none was granted (see {@link AbstractSocketHandler#CREDIT_FRAME_ID}).
+	 */
+	long[] getGrantedCredit() {
+		return this.grantedCredit;
+	}
+
+	/**
+	 *
+	 */
+	void setGrantedCredit(int messages, long bytes) {
+		this.grantedCredit = new long[]{messages, bytes};
+	}
+
+	/**
+	 * Returns the token of the session of the Application Container on the other side of this connection 
+	 * or null if none was received.
+	 */
+	String getSessionToken() {
+		return this.sessionToken;
+	}
+
+	/**
+	 *
+	 */
+	void setSessionToken(String sessionToken) {
+		this.sessionToken = sessionToken;
+	}
+
+	/**
+	 * Returns the time (see {@link System#nanoTime()}) when data was last received from the other side
+	 * of this connection. Must only be invoked by the listener thread.
+	 */
+	long getLastReceived() {
+		return this.lastReceived;
+	}
+
+	/**
+	 * Must only be invoked by the listener thread.
+	 */
+	void setLastReceived(long lastReceived) {
+		this.lastReceived = lastReceived;
+	}
+
+	/**
+	 * Returns {@link ChunkedInputChannel} of the streamed message identified by 'requestId' or null 
+	 * if it is not being received.
+	 */
+	ChunkedInputChannel getInboundStream(long requestId) {
+		return this.inboundStreams.get(requestId);
+	}
+
+	/**
+	 * Registers {@link ChunkedInputChannel} to receive the streamed message identified by 'requestId'. 
+	 * May be invoked by any thread.
+	 */
+	void addInboundStream(long requestId, ChunkedInputChannel inboundStream) {
+		this.inboundStreams.put(requestId, inboundStream);
+	}
+
+	/**
+	 * May be invoked by any thread.
+	 */
+	void removeInboundStream(long requestId) {
+		this.inboundStreams.remove(requestId);
+	}
+
+	/**
+	 * Returns 'true' if any of the inbound streams is full (see {@link ChunkedInputChannel#offer(PooledByteBuffer)}).
+	 */
+	boolean hasFullInboundStream() {
+		for (ChunkedInputChannel inboundStream : this.inboundStreams.values()) {
+			if (inboundStream.isFull()){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns 'true' if reading from this connection is suspended. Must only be invoked by the listener thread.
+	 */
+	boolean isReadSuspended() {
+		return this.readSuspended;
+	}
+
+	/**
+	 * Must only be invoked by the listener thread.
+	 */
+	void setReadSuspended(boolean readSuspended) {
+		this.readSuspended = readSuspended;
+	}
+
+	/**
+	 * Returns 'true' if the socket of this connection must not be read while reading is suspended. 
+	 * Once frames are received through the shared memory, the socket only carries the wake up frames 
+	 * which must still be received, since they may signal the room to write.
+	 * Must only be invoked by the listener thread.
+	 */
+	boolean isSocketReadSuspended() {
+		SharedMemoryChannel sharedMemoryChannel = this.sharedMemoryChannel;
+		return this.readSuspended && (sharedMemoryChannel == null || !sharedMemoryChannel.isInboundActive());
+	}
+
+	/**
+	 * Returns the lock which must be held while sending the streamed message.
+	 */
+	Lock getOutboundStreamLock() {
+		return this.outboundStreamLock;
+	}
+
+	/**
+	 * Returns {@link FrameDecoder} which holds the state of the inbound frames of this connection.
+	 */
+	FrameDecoder getFrameDecoder() {
+		return this.frameDecoder;
+	}
+
+	/**
+	 * Releases resources held by this connection. Must be invoked once connection is closed.
+	 */
+	void release() {
+		this.frameDecoder.release();
+		for (ChunkedInputChannel inboundStream : this.inboundStreams.values()) {
+			inboundStream.fail(new IOException("Connection was closed before the stream was complete"));
+		}
+		this.inboundStreams.clear();
+		SharedMemoryChannel sharedMemoryChannel = this.sharedMemoryChannel;
+		if (sharedMemoryChannel != null){
+			sharedMemoryChannel.release();
+		}
+		if (this.frameBatcher != null){
+			this.frameBatcher.release();
+		}
+		OutboundFrame frame;
+		while ((frame = this.writingFrames.poll()) != null){
+			frame.release();
+			this.metrics.recordFrameDiscarded();
+		}
+		while ((frame = this.outboundFrames.poll()) != null){
+			frame.release();
+			this.metrics.recordFrameDiscarded();
+		}
+		this.metrics.close();
+	}
+
+	/**
+	 * Returns {@link ConnectionMetrics} of this connection.
+	 */
+	ConnectionMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Writes the wake up frame to the socket if requested. Since the socket carries frames until the switch frame
+	 * is written, the wake up frame is only started at the frame boundary, while once started it is always completed 
+	 * before any other frame.
+	 *
+	 * @return 'true' if wake up frame was written or was not requested
+	 */
+	private boolean flushDoorbell(GatheringByteChannel channel) throws IOException {
+		if (this.doorbellRequested && !this.doorbell.hasRemaining() && (this.sharedMemoryOutbound || this.pendingBufferCount == 0)){
+			this.doorbell.rewind();
+			this.doorbellRequested = false;
+		}
+		while (this.doorbell.hasRemaining()){
+			int written = channel.write(this.doorbell);
+			if (written == 0){
+				return false;
+			}
+			this.metrics.recordBytesOut(written);
+		}
+		return true;
+	}
+
+	/**
+	 * Queues the frame for writing, preserving the order with batched messages.
+	 */
+	private void offer(OutboundFrame frame) {
+		this.metrics.recordFrameQueued();
+		if (this.frameBatcher != null){
+			synchronized (this.frameBatcher) {
+				// messages batched so far must be written first
+				this.sealBatch();
+				this.outboundFrames.offer(frame);
+			}
+		}
+		else {
+			this.outboundFrames.offer(frame);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private int nextFrameSize() {
+		OutboundFrame nextFrame = this.outboundFrames.peek();
+		return nextFrame == null ? 0 : nextFrame.buffers.length;
+	}
+
+	/**
+	 * Since buffers are written in order, the frame is written once its last buffer is.
+	 */
+	private void releaseWrittenFrames() {
+		OutboundFrame frame;
+		while ((frame = this.writingFrames.peek()) != null && !frame.buffers[frame.buffers.length - 1].hasRemaining()){
+			this.writingFrames.poll();
+			frame.release();
+			this.metrics.recordFrameOut(frame.size);
+			if (frame.sharedMemorySwitch){
+				this.sharedMemoryOutbound = true;
+				this.switchPending = false;
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static class OutboundFrame {
+		private final ByteBuffer[] buffers;
+
+		private final PooledByteBuffer retainedBuffer;
+
+		/*
+		 * Frames which follow this one are written into the shared memory
+		 */
+		private final boolean sharedMemorySwitch;
+
+		private final int size;
+
+		OutboundFrame(ByteBuffer[] buffers, PooledByteBuffer retainedBuffer, boolean sharedMemorySwitch) {
+			this.buffers = buffers;
+			this.retainedBuffer = retainedBuffer;
+			this.sharedMemorySwitch = sharedMemorySwitch;
+			int size = 0;
+			for (ByteBuffer buffer : buffers) {
+				size += buffer.remaining();
+			}
+			this.size = size;
+		}
+
+		void release() {
+			if (this.retainedBuffer != null){
+				this.retainedBuffer.release();
+			}
+		}
+	}
+}
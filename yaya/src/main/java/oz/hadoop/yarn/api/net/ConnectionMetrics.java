@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Metrics of a single connection which are kept by its {@link ConnectionContext}. Every value recorded 
+ * is also recorded by the parent {@link TransportMetrics} (if any), so the aggregate is always up to date 
+ * without having to iterate over connections. Recording is lock-free and does not allocate, 
+ * so it could be performed on the hot path.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class ConnectionMetrics implements ConnectionMetricsMXBean {
+
+	private final Log logger = LogFactory.getLog(ConnectionMetrics.class);
+
+	/*
+	 * Null if these are the aggregate metrics
+	 */
+	private final TransportMetrics parent;
+
+	private final AtomicLong bytesIn;
+
+	private final AtomicLong bytesOut;
+
+	private final AtomicLong framesIn;
+
+	private final AtomicLong framesOut;
+
+	private final Histogram frameSizeIn;
+
+	private final Histogram frameSizeOut;
+
+	private final Histogram readyWaitNanos;
+
+	private final AtomicInteger writeQueueDepth;
+
+	private final Histogram writeQueueDepthDistribution;
+
+	private final AtomicReference<ObjectName> objectName;
+
+	private final AtomicBoolean closed;
+
+	/**
+	 *
+	 * @param parent
+	 * 		could be null if these metrics are not aggregated
+	 */
+	ConnectionMetrics(TransportMetrics parent) {
+		this.parent = parent;
+		this.bytesIn = new AtomicLong();
+		this.bytesOut = new AtomicLong();
+		this.framesIn = new AtomicLong();
+		this.framesOut = new AtomicLong();
+		this.frameSizeIn = new Histogram();
+		this.frameSizeOut = new Histogram();
+		this.readyWaitNanos = new Histogram();
+		this.writeQueueDepth = new AtomicInteger();
+		this.writeQueueDepthDistribution = new Histogram();
+		this.objectName = new AtomicReference<>();
+		this.closed = new AtomicBoolean();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getBytesIn() {
+		return this.bytesIn.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getBytesOut() {
+		return this.bytesOut.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getFramesIn() {
+		return this.framesIn.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getFramesOut() {
+		return this.framesOut.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public HistogramSnapshot getFrameSizeIn() {
+		return this.frameSizeIn.snapshot();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public HistogramSnapshot getFrameSizeOut() {
+		return this.frameSizeOut.snapshot();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public HistogramSnapshot getReadyWaitNanos() {
+		return this.readyWaitNanos.snapshot();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int getWriteQueueDepth() {
+		return this.writeQueueDepth.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public HistogramSnapshot getWriteQueueDepthDistribution() {
+		return this.writeQueueDepthDistribution.snapshot();
+	}
+
+	/**
+	 * Records the bytes read from the socket (or the shared memory).
+	 */
+	void recordBytesIn(long bytes) {
+		this.bytesIn.addAndGet(bytes);
+		if (this.parent != null){
+			this.parent.recordBytesIn(bytes);
+		}
+	}
+
+	/**
+	 * Records the bytes written to the socket (or the shared memory).
+	 */
+	void recordBytesOut(long bytes) {
+		this.bytesOut.addAndGet(bytes);
+		if (this.parent != null){
+			this.parent.recordBytesOut(bytes);
+		}
+	}
+
+	/**
+	 * Records the received frame.
+	 */
+	void recordFrameIn(int frameSize) {
+		this.framesIn.incrementAndGet();
+		this.frameSizeIn.record(frameSize);
+		if (this.parent != null){
+			this.parent.recordFrameIn(frameSize);
+		}
+	}
+
+	/**
+	 * Records the frame which was queued (see {@link #recordFrameOut(int)}).
+	 */
+	void recordFrameQueued() {
+		this.writeQueueDepthDistribution.record(this.writeQueueDepth.incrementAndGet());
+		if (this.parent != null){
+			this.parent.recordFrameQueued();
+		}
+	}
+
+	/**
+	 * Records the queued frame which was completely written.
+	 */
+	void recordFrameOut(int frameSize) {
+		this.writeQueueDepth.decrementAndGet();
+		this.framesOut.incrementAndGet();
+		this.frameSizeOut.record(frameSize);
+		if (this.parent != null){
+			this.parent.recordFrameOut(frameSize);
+		}
+	}
+
+	/**
+	 * Records the queued frame which was discarded since connection was closed before it was written.
+	 */
+	void recordFrameDiscarded() {
+		this.writeQueueDepth.decrementAndGet();
+		if (this.parent != null){
+			this.parent.recordFrameDiscarded();
+		}
+	}
+
+	/**
+	 * Records nanoseconds which passed since the socket was reported ready until it was processed.
+	 */
+	void recordReadyWait(long nanos) {
+		this.readyWaitNanos.record(nanos);
+		if (this.parent != null){
+			this.parent.recordReadyWait(nanos);
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBeanServer under 'objectName' until they are closed 
+	 * (see {@link #close()}). Failure to register is not fatal.
+	 */
+	void register(ObjectName objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName.set(objectName);
+		} 
+		catch (JMException e) {
+			logger.warn("Failed to register " + objectName + " with MBeanServer: " + e.getMessage());
+		}
+		// could have been closed while registering
+		if (this.closed.get()){
+			this.unregister();
+		}
+	}
+
+	/**
+	 * Returns the name these metrics are registered under or null if they are not registered.
+	 */
+	ObjectName getObjectName() {
+		return this.objectName.get();
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBeanServer if they were registered.
+	 */
+	void unregister() {
+		ObjectName objectName = this.objectName.getAndSet(null);
+		if (objectName != null){
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} 
+			catch (JMException e) {
+				logger.warn("Failed to unregister " + objectName + " from MBeanServer: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Must be invoked once the connection is closed. Values recorded so far remain in the aggregate.
+	 */
+	void close() {
+		if (this.closed.compareAndSet(false, true)){
+			if (this.parent != null){
+				this.parent.onConnectionClosed(this);
+			}
+			this.unregister();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getSimpleName() + ":[bytesIn=" + this.bytesIn.get() + ", bytesOut=" + this.bytesOut.get() + 
+				", framesIn=" + this.framesIn.get() + ", framesOut=" + this.framesOut.get() + ", writeQueueDepth=" + this.writeQueueDepth.get() + "]";
+	}
+}
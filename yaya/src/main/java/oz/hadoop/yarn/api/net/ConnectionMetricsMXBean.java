@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+/**
+ * Metrics of a single connection of the socket handler exposed via JMX 
+ * (see {@link TransportMetricsMXBean} for the aggregate of all connections).
+ * Counters are cumulative for as long as the connection is open.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ConnectionMetricsMXBean {
+
+	/**
+	 * Returns the amount of bytes received (including frame headers).
+	 */
+	long getBytesIn();
+
+	/**
+	 * Returns the amount of bytes sent (including frame headers).
+	 */
+	long getBytesOut();
+
+	/**
+	 * Returns the amount of frames received. Batch frame counts as one (see {@link TransportSettings#getBatchMaxSize()}).
+	 */
+	long getFramesIn();
+
+	/**
+	 * Returns the amount of frames completely written. Batch frame counts as one.
+	 */
+	long getFramesOut();
+
+	/**
+	 * Returns the distribution of the sizes of the received frames (including the header) as they 
+	 * were on the wire (e.g., compressed).
+	 */
+	HistogramSnapshot getFrameSizeIn();
+
+	/**
+	 * Returns the distribution of the sizes of the written frames (including the header) as they 
+	 * were on the wire (e.g., compressed).
+	 */
+	HistogramSnapshot getFrameSizeOut();
+
+	/**
+	 * Returns the distribution of nanoseconds which passed since the selector reported the socket 
+	 * ready until the selector loop started processing it.
+	 */
+	HistogramSnapshot getReadyWaitNanos();
+
+	/**
+	 * Returns the amount of frames which are queued, but not yet completely written.
+	 */
+	int getWriteQueueDepth();
+
+	/**
+	 * Returns the distribution of the write queue depth observed every time a frame is queued.
+	 */
+	HistogramSnapshot getWriteQueueDepthDistribution();
+}
@@ -15,8 +15,12 @@
  */
 package oz.hadoop.yarn.api.net;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 
@@ -38,15 +42,48 @@ public interface ContainerDelegate {
 	 */
 	void process(ByteBuffer data, ReplyPostProcessor replyPostProcessor);
 	
+	/**
+	 * Allows data of arbitrary size (e.g., larger than memory) to be sent for processing to the 
+	 * Application Container represented by this ContainerDelegate. Data is streamed in chunks 
+	 * as it is read from the 'data' channel, while the reply is written into the 'replyChannel' 
+	 * as it arrives. Blocks until the reply is complete.
+	 * Application Container must support streamed messages (see {@link StreamingMessageHandler}).
+	 * 
+	 * @param data
+	 * @param replyChannel
+	 * @throws IOException
+	 * 		if either channel fails, connection is closed or Application Container failed to process the data
+	 */
+	void process(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException;
+	
 	/**
 	 * 
 	 */
 	void suspend();
 	
 	/**
+	 * Returns 'true' if there are no requests in flight for this ContainerDelegate.
 	 * 
 	 * @return
 	 */
 	boolean available();
+	
+	/**
+	 * Returns the maximum amount of requests which could be in flight for this ContainerDelegate.
+	 * Once the window is full, calls to {@link #process(ByteBuffer, ReplyPostProcessor)} will block 
+	 * until one of the replies is received.
+	 * 
+	 * @return
+	 */
+	int inFlightWindow();
+	
+	/**
+	 * Returns 'false' once the Application Container represented by this ContainerDelegate 
+	 * disconnected or was evicted since it stopped responding (see {@link TransportSettings#getHeartbeatTimeoutMillis()}), 
+	 * after which its process methods fail with {@link RejectedExecutionException}.
+	 * 
+	 * @return
+	 */
+	boolean isLive();
 
 }
\ No newline at end of file
@@ -15,14 +15,13 @@
  */
 package oz.hadoop.yarn.api.net;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.Semaphore;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import java.nio.channels.WritableByteChannel;
 
 import oz.hadoop.yarn.api.YarnApplication;
 
@@ -35,18 +34,18 @@ import oz.hadoop.yarn.api.YarnApplication;
  * 
  * @author Oleg Zhurakousky
  */
-class ContainerDelegateImpl implements ContainerDelegate {
-	private final Log logger = LogFactory.getLog(ContainerDelegateImpl.class);
+class ContainerDelegateImpl extends AbstractContainerDelegate {
 	
-	private final SelectionKey selectionKey;
+	/*
+	 * Replaced once Application Container resumes its session over the new connection
+	 */
+	private volatile SelectionKey selectionKey;
 	
 	private final ApplicationContainerServerImpl clientServer;
 	
-	private final Semaphore executionGovernor;
+	private volatile InetSocketAddress applicationContainerAddress;
 	
-	private final InetSocketAddress applicationContainerAddress;
-	
-	private volatile boolean suspended;
+	private volatile String sessionToken;
 	
 	/**
 	 * 
@@ -54,15 +53,10 @@ class ContainerDelegateImpl implements ContainerDelegate {
 	 * @param clientServer
 	 */
 	ContainerDelegateImpl(SelectionKey selectionKey, ApplicationContainerServerImpl clientServer){
+		super(clientServer.getTransportSettings().getInFlightWindow(), clientServer.getCreditBudget());
 		this.selectionKey = selectionKey;
 		this.clientServer = clientServer;
-		this.executionGovernor = new Semaphore(1);
-		try {
-			this.applicationContainerAddress = (InetSocketAddress) ((SocketChannel)this.selectionKey.channel()).getLocalAddress();
-		} 
-		catch (Exception e) {
-			throw new IllegalArgumentException("Failed to get Applicatioin Container's address", e);
-		}
+		this.applicationContainerAddress = addressOf(selectionKey);
 	}
 	
 	/* (non-Javadoc)
@@ -73,55 +67,57 @@ class ContainerDelegateImpl implements ContainerDelegate {
 		return this.applicationContainerAddress;
 	}
 	
-	/* (non-Javadoc)
-	 * @see oz.hadoop.yarn.api.net.ContainerDelegate#exchange(java.nio.ByteBuffer)
+	/**
+	 * Returns the token of the session of the Application Container or null if it does not reconnect 
+	 * (see {@link TransportSettings#getReconnectAttempts()}).
 	 */
-	@Override
-	public void process(ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
-		try {
-			if (!this.suspended){
-				this.executionGovernor.acquire(); 
-				replyPostProcessor.setContainerDelegate(this);
-				this.clientServer.process(selectionKey, data, replyPostProcessor);
-			}
-			else {
-				logger.warn("This ContainerDelegate is suspended due to its imenent shutdown. No more processes would be accepted");
-			}
-		} 
-		catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-			logger.error("Interrupted while waiting for aquiring execution permit for " + this);
-		}
+	String getSessionToken() {
+		return this.sessionToken;
 	}
 	
 	/**
 	 * 
 	 */
-	public void release() {
-		this.executionGovernor.release();
+	void setSessionToken(String sessionToken) {
+		this.sessionToken = sessionToken;
 	}
 	
 	/**
+	 * Re-attaches this ContainerDelegate to the connection over which the Application Container resumed its session.
 	 * 
+	 * @return 'false' if it is too late since this ContainerDelegate was discarded
 	 */
-	@Override
-	public boolean available() {
-		return this.executionGovernor.availablePermits() == 1;
+	boolean attach(SelectionKey selectionKey) {
+		this.selectionKey = selectionKey;
+		this.applicationContainerAddress = addressOf(selectionKey);
+		return this.attach();
 	}
 	
 	/**
 	 * 
 	 */
 	@Override
-	public String toString(){
-		return "CD:[" + this.getHost().getAddress().getHostAddress() + "]"; 
+	void doProcess(ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
+		this.clientServer.process(this.selectionKey, data, replyPostProcessor);
 	}
-
+	
 	/**
 	 * 
 	 */
 	@Override
-	public void suspend() {
-		this.suspended = true;
+	void doProcess(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+		this.clientServer.process(this.selectionKey, data, replyChannel);
+	}
+	
+	/**
+	 * Application Container is identified by the remote address of its connection.
+	 */
+	private static InetSocketAddress addressOf(SelectionKey selectionKey) {
+		try {
+			return (InetSocketAddress) ((SocketChannel) selectionKey.channel()).getRemoteAddress();
+		} 
+		catch (Exception e) {
+			throw new IllegalArgumentException("Failed to get Applicatioin Container's address", e);
+		}
 	}
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import oz.hadoop.yarn.api.CreditExhaustedException;
+import oz.hadoop.yarn.api.CreditListener;
+
+/**
+ * Governs the amount of messages and bytes in flight. Each {@link AbstractContainerDelegate} has its own 
+ * gate with the credit granted by its Application Container (see {@link ApplicationContainerClient#grantCredit(int, long)}),
+ * which is chained to the gate of the {@link ApplicationContainerServer} representing the budget of bytes in flight
+ * shared by all Application Containers (see {@link TransportSettings#getInFlightBytesBudget()}). 
+ * Credit is taken when message is submitted and returned once its reply is received, while the submitting 
+ * thread either waits for it or fails fast (see {@link TransportSettings#isCreditFailFast()}).
+ * 
+ * Limit of 0 means unlimited. Message larger than the byte limit is only let through once nothing else is in flight.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class CreditGate {
+	
+	private final Log logger = LogFactory.getLog(CreditGate.class);
+	
+	private final CreditGate budget;
+	
+	private final ContainerDelegate containerDelegate;
+	
+	private final boolean failFast;
+	
+	private volatile CreditListener creditListener;
+	
+	private int messageLimit;
+	
+	private long byteLimit;
+	
+	private int messages;
+	
+	private long bytes;
+	
+	/*
+	 * Portion of the above which was also taken from the budget, 
+	 * so it could be returned once this gate is closed. 
+	 */
+	private int budgetedMessages;
+	
+	private long budgetedBytes;
+	
+	private boolean exhausted;
+	
+	private boolean closed;
+	
+	/**
+	 * Creates the gate representing the budget of bytes in flight shared by all Application Containers.
+	 * 
+	 * @param byteLimit
+	 * @param failFast
+	 */
+	CreditGate(long byteLimit, boolean failFast) {
+		this.budget = null;
+		this.containerDelegate = null;
+		this.byteLimit = byteLimit;
+		this.failFast = failFast;
+	}
+	
+	/**
+	 * Creates the gate of the individual Application Container which is unlimited until 
+	 * its credit is granted (see {@link #grant(int, long)}).
+	 * 
+	 * @param containerDelegate
+	 * @param budget
+	 */
+	CreditGate(ContainerDelegate containerDelegate, CreditGate budget) {
+		this.budget = budget;
+		this.containerDelegate = containerDelegate;
+		this.failFast = budget.failFast;
+	}
+	
+	/**
+	 * Registers {@link CreditListener} with the budget, so it is notified by every gate chained to it.
+	 */
+	void setCreditListener(CreditListener creditListener) {
+		this.creditListener = creditListener;
+	}
+	
+	/**
+	 * Replaces the credit of this gate. Lowering it does not affect messages already in flight, 
+	 * while the new ones are held back until the amount in flight drops below the new credit. 
+	 */
+	void grant(int messageLimit, long byteLimit) {
+		boolean replenished;
+		synchronized (this) {
+			this.messageLimit = messageLimit;
+			this.byteLimit = byteLimit;
+			replenished = this.replenish();
+		}
+		if (logger.isDebugEnabled()){
+			logger.debug("Credit of " + this.getContainerAddress() + " was set to " + messageLimit + " messages and " + byteLimit + " bytes");
+		}
+		if (replenished){
+			this.onReplenished();
+		}
+	}
+	
+	/**
+	 * Takes credit for a single message of 'size' bytes from this gate and the budget it is chained to.
+	 * 
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting for the credit
+	 * @throws CreditExhaustedException
+	 * 		if credit ran out and this gate fails fast
+	 * @throws RejectedExecutionException
+	 * 		if this gate was closed (e.g., Application Container disconnected) 
+	 */
+	void acquire(long size) throws InterruptedException {
+		this.doAcquire(size);
+		if (this.budget != null){
+			try {
+				this.budget.acquire(size);
+			} 
+			catch (InterruptedException | RuntimeException e) {
+				this.doRelease(1, size);
+				throw e;
+			}
+			boolean closed;
+			synchronized (this) {
+				closed = this.closed;
+				if (!closed){
+					this.budgetedMessages++;
+					this.budgetedBytes += size;
+				}
+			}
+			if (closed){
+				this.budget.release(size);
+				throw new RejectedExecutionException("Connection to " + this.getContainerAddress() + " was closed");
+			}
+		}
+	}
+	
+	/**
+	 * Returns credit taken for a single message of 'size' bytes (see {@link #acquire(long)}).
+	 */
+	void release(long size) {
+		if (this.budget != null){
+			synchronized (this) {
+				if (this.closed){
+					// already returned to the budget
+					return;
+				}
+				this.budgetedMessages--;
+				this.budgetedBytes -= size;
+			}
+		}
+		this.doRelease(1, size);
+		if (this.budget != null){
+			this.budget.release(size);
+		}
+	}
+	
+	/**
+	 * Closes this gate returning the credit of messages which will never be replied to 
+	 * back to the budget, while failing the threads waiting for the credit.
+	 */
+	void close() {
+		int budgetedMessages;
+		long budgetedBytes;
+		synchronized (this) {
+			if (this.closed){
+				return;
+			}
+			this.closed = true;
+			budgetedMessages = this.budgetedMessages;
+			budgetedBytes = this.budgetedBytes;
+			this.notifyAll();
+		}
+		if (this.budget != null && budgetedMessages > 0){
+			this.budget.doRelease(budgetedMessages, budgetedBytes);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public synchronized String toString() {
+		return "CreditGate:[" + (this.containerDelegate == null ? "budget" : this.getContainerAddress()) + ", messages=" + 
+				this.messages + "/" + this.messageLimit + ", bytes=" + this.bytes + "/" + this.byteLimit + "]";
+	}
+	
+	/**
+	 * 
+	 */
+	private void doAcquire(long size) throws InterruptedException {
+		boolean exhausted = false;
+		synchronized (this) {
+			this.assertOpen();
+			if (!this.hasCredit(size)){
+				exhausted = !this.exhausted;
+				this.exhausted = true;
+			}
+			else {
+				this.take(size);
+				return;
+			}
+		}
+		if (exhausted){
+			CreditListener creditListener = this.getCreditListener();
+			if (creditListener != null){
+				creditListener.onCreditExhausted(this.getContainerAddress());
+			}
+		}
+		if (this.failFast){
+			throw new CreditExhaustedException("Credit of " + this + " ran out");
+		}
+		synchronized (this) {
+			while (!this.hasCredit(size)){
+				this.assertOpen();
+				this.wait();
+			}
+			this.assertOpen();
+			this.take(size);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private void doRelease(int messages, long bytes) {
+		boolean replenished;
+		synchronized (this) {
+			this.messages -= messages;
+			this.bytes -= bytes;
+			replenished = this.replenish();
+		}
+		if (replenished){
+			this.onReplenished();
+		}
+	}
+	
+	/**
+	 * Must be invoked while holding the monitor of this gate.
+	 * 
+	 * @return 'true' if the credit was exhausted 
+	 */
+	private boolean replenish() {
+		this.notifyAll();
+		boolean replenished = this.exhausted && this.hasCredit(0);
+		if (replenished){
+			this.exhausted = false;
+		}
+		return replenished;
+	}
+	
+	/**
+	 * 
+	 */
+	private void onReplenished() {
+		CreditListener creditListener = this.getCreditListener();
+		if (creditListener != null){
+			creditListener.onCreditReplenished(this.getContainerAddress());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private boolean hasCredit(long size) {
+		return (this.messageLimit == 0 || this.messages < this.messageLimit) && 
+				(this.byteLimit == 0 || this.bytes == 0 || this.bytes + size <= this.byteLimit);
+	}
+	
+	/**
+	 * 
+	 */
+	private void take(long size) {
+		this.messages++;
+		this.bytes += size;
+	}
+	
+	/**
+	 * 
+	 */
+	private void assertOpen() {
+		if (this.closed){
+			throw new RejectedExecutionException("Connection to " + this.getContainerAddress() + " was closed");
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	private CreditListener getCreditListener() {
+		return this.budget == null ? this.creditListener : this.budget.creditListener;
+	}
+	
+	/**
+	 * 
+	 */
+	private InetSocketAddress getContainerAddress() {
+		return this.containerDelegate == null ? null : this.containerDelegate.getHost();
+	}
+}
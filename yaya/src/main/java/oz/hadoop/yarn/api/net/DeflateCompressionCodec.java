@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CompressionCodec} based on {@link Deflater}/{@link Inflater} producing raw deflate
+ * stream (no zlib header and checksum, since TCP already guards the data).
+ * Favors compression ratio over speed (see {@link LzCompressionCodec} for the opposite).
+ * Deflaters and Inflaters are cached per thread.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+
+	public static final String NAME = "deflate";
+
+	private final ThreadLocal<Deflater> deflaters;
+
+	private final ThreadLocal<Inflater> inflaters;
+
+	/**
+	 * Creates codec with {@link Deflater#BEST_SPEED} compression level.
+	 */
+	public DeflateCompressionCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 *
+	 * @param level
+	 * 		compression level (0-9)
+	 */
+	public DeflateCompressionCodec(final int level) {
+		this.deflaters = new ThreadLocal<Deflater>(){
+			@Override
+			protected Deflater initialValue() {
+				return new Deflater(level, true);
+			}
+		};
+		this.inflaters = new ThreadLocal<Inflater>(){
+			@Override
+			protected Inflater initialValue() {
+				return new Inflater(true);
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int maxLength) {
+		Deflater deflater = this.deflaters.get();
+		try {
+			deflater.setInput(source, sourceOffset, length);
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished() && compressedLength < maxLength){
+				compressedLength += deflater.deflate(target, targetOffset + compressedLength, maxLength - compressedLength);
+			}
+			return deflater.finished() ? compressedLength : -1;
+		}
+		finally {
+			deflater.reset();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int originalLength) throws IOException {
+		Inflater inflater = this.inflaters.get();
+		try {
+			inflater.setInput(source, sourceOffset, length);
+			int decompressedLength = 0;
+			while (decompressedLength < originalLength){
+				int count = inflater.inflate(target, targetOffset + decompressedLength, originalLength - decompressedLength);
+				if (count == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())){
+					throw new StreamCorruptedException("Compressed data is truncated");
+				}
+				decompressedLength += count;
+			}
+		}
+		catch (DataFormatException e) {
+			throw new StreamCorruptedException("Invalid compressed data: " + e.getMessage());
+		}
+		finally {
+			inflater.reset();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.util.concurrent.ExecutorService;
+
+import oz.hadoop.yarn.api.YayaConstants;
+
+/**
+ * Strategy for creating {@link ExecutorService}s which run the threads of the network layer (e.g., selector loops 
+ * and message processing), the processes launched by Application Containers and the Application Containers 
+ * of YARN emulator.
+ *
+ * Factory is configured by name (or fully qualified class name of the implementation with default constructor)
+ * using {@link YayaConstants#EXECUTOR_FACTORY}. Built-in factories are {@link PlatformThreadExecutorFactory#NAME} (default)
+ * and {@link VirtualThreadExecutorFactory#NAME}. Implementations must be thread-safe since the same instance is 
+ * used by all components of the application.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ExecutorFactory {
+
+	/**
+	 * Returns the name which identifies this factory.
+	 */
+	String getName();
+
+	/**
+	 * Creates {@link ExecutorService} which runs each task right away, creating the thread if none is available.
+	 * Tasks are typically long-running (e.g., selector loop).
+	 *
+	 * @param name
+	 * 		prefix of the names of the threads created by the returned {@link ExecutorService}
+	 */
+	ExecutorService newExecutor(String name);
+
+	/**
+	 * Creates {@link ExecutorService} which runs at most 'concurrency' tasks at a time in the order they were submitted
+	 * (e.g., messages processed by the Application Container, see {@link TransportSettings#getContainerParallelism()}).
+	 *
+	 * @param name
+	 * 		prefix of the names of the threads created by the returned {@link ExecutorService}
+	 * @param concurrency
+	 * 		maximum amount of tasks running at the same time
+	 */
+	ExecutorService newBoundedExecutor(String name, int concurrency);
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Packs small messages sent over the same connection into a single batch frame, so they are
+ * written with a single system call and unpacks them on the receiving side (see {@link #unbatch(PooledByteBuffer, FrameDecoder.FrameHandler)}).
+ *
+ * Batch frame carries {@link AbstractSocketHandler#BATCH_FRAME_ID} as its request id, while its payload consists of
+ * the regular frames (each with its own header), so every message retains its own request id and is
+ * processed individually by the receiving side.
+ *
+ * Messages are copied into the batch buffer obtained from the {@link ByteBufferPool}, which is returned
+ * to the pool once the sealed batch is written.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class FrameBatcher {
+
+	private final ByteBufferPool bufferPool;
+
+	private final int maxBatchSize;
+
+	private ByteBuffer batch;
+
+	private int batchedMessages;
+
+	/**
+	 *
+	 * @param bufferPool
+	 * @param maxBatchSize
+	 * 		maximum size of the batch frame (including its header)
+	 */
+	FrameBatcher(ByteBufferPool bufferPool, int maxBatchSize) {
+		if (maxBatchSize <= AbstractSocketHandler.FRAME_HEADER_SIZE * 2){
+			throw new IllegalArgumentException("'maxBatchSize' must be > " + AbstractSocketHandler.FRAME_HEADER_SIZE * 2);
+		}
+		this.bufferPool = bufferPool;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Returns 'true' if message with the given payload size could ever fit into the batch.
+	 * Larger messages must be sent in their own frame.
+	 */
+	boolean canBatch(int payloadSize) {
+		return AbstractSocketHandler.FRAME_HEADER_SIZE * 2 + payloadSize <= this.maxBatchSize;
+	}
+
+	/**
+	 * Returns 'true' if the message with the given payload size fits into the remainder
+	 * of the current batch.
+	 */
+	synchronized boolean hasRoom(int payloadSize) {
+		return this.batch == null || this.batch.remaining() >= AbstractSocketHandler.FRAME_HEADER_SIZE + payloadSize;
+	}
+
+	/**
+	 * Appends the framed message to the current batch starting the new one if necessary.
+	 * Message must fit (see {@link #hasRoom(int)}).
+	 *
+	 * @param requestId
+	 * @param flags
+	 * @param payload
+	 */
+	synchronized void add(long requestId, int flags, ByteBuffer payload) {
+		this.add(requestId, flags, null, payload);
+	}
+
+	/**
+	 * Same as {@link #add(long, int, ByteBuffer)} while the 'prefix' (could be null) is copied
+	 * in front of the 'payload'. Both must fit together.
+	 *
+	 * @param requestId
+	 * @param flags
+	 * @param prefix
+	 * @param payload
+	 */
+	synchronized void add(long requestId, int flags, ByteBuffer prefix, ByteBuffer payload) {
+		if (this.batch == null){
+			this.batch = this.bufferPool.allocate(this.maxBatchSize);
+			this.batch.position(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		}
+		int prefixSize = prefix == null ? 0 : prefix.remaining();
+		this.batch.putInt(AbstractSocketHandler.frameLength(prefixSize + payload.remaining(), flags));
+		this.batch.putLong(requestId);
+		if (prefix != null){
+			this.batch.put(prefix.duplicate());
+		}
+		this.batch.put(payload.duplicate());
+		this.batchedMessages++;
+	}
+
+	/**
+	 * Returns 'true' if there are messages in the current batch.
+	 */
+	synchronized boolean hasBatchedMessages() {
+		return this.batchedMessages > 0;
+	}
+
+	/**
+	 * Seals the current batch returning it as a complete batch frame which
+	 * must be released once written.
+	 *
+	 * @return batch frame or null if there was nothing batched.
+	 */
+	synchronized PooledByteBuffer seal() {
+		if (this.batchedMessages == 0){
+			return null;
+		}
+		ByteBuffer sealedBatch = this.batch;
+		sealedBatch.flip();
+		sealedBatch.putInt(0, sealedBatch.limit());
+		sealedBatch.putLong(4, AbstractSocketHandler.BATCH_FRAME_ID);
+		this.batch = null;
+		this.batchedMessages = 0;
+		return new PooledByteBuffer(sealedBatch, this.bufferPool);
+	}
+
+	/**
+	 * Releases the buffer of the current batch discarding the messages it contains.
+	 */
+	synchronized void release() {
+		if (this.batch != null){
+			this.bufferPool.release(this.batch);
+			this.batch = null;
+			this.batchedMessages = 0;
+		}
+	}
+
+	/**
+	 * Emits every message contained in the payload of the received batch frame to the {@link FrameDecoder.FrameHandler}.
+	 * Messages are given as slices of the batch buffer (see {@link PooledByteBuffer#slice(int, int)}), so the caller must
+	 * still release the 'batch' once this method returns.
+	 *
+	 * @param batch
+	 * @param frameHandler
+	 * @throws IOException
+	 * 		if batch is malformed or if thrown by the {@link FrameDecoder.FrameHandler}
+	 */
+	static void unbatch(PooledByteBuffer batch, FrameDecoder.FrameHandler frameHandler) throws IOException {
+		ByteBuffer messages = batch.asReadOnlyBuffer();
+		while (messages.hasRemaining()){
+			if (messages.remaining() < AbstractSocketHandler.FRAME_HEADER_SIZE){
+				throw new StreamCorruptedException("Truncated message header in batch frame");
+			}
+			int frameLength = messages.getInt();
+			int flags = frameLength & ~AbstractSocketHandler.FRAME_LENGTH_MASK;
+			int payloadLength = (frameLength & AbstractSocketHandler.FRAME_LENGTH_MASK) - AbstractSocketHandler.FRAME_HEADER_SIZE;
+			long requestId = messages.getLong();
+			if (payloadLength < 0 || payloadLength > messages.remaining()){
+				throw new StreamCorruptedException("Invalid message length in batch frame: " + payloadLength);
+			}
+			if (requestId == AbstractSocketHandler.BATCH_FRAME_ID){
+				throw new StreamCorruptedException("Batch frames can not be nested");
+			}
+			PooledByteBuffer message = batch.slice(messages.position(), payloadLength);
+			messages.position(messages.position() + payloadLength);
+			frameHandler.onFrame(requestId, flags, message);
+		}
+	}
+}
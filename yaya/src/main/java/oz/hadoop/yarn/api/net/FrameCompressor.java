@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Applies {@link CompressionCodec} to the frame payloads which are at or above the threshold,
+ * recording {@link CompressionStats}. Compressed payload is prefixed with the original length (int)
+ * and the frame carrying it is marked with {@link AbstractSocketHandler#COMPRESSED_FLAG}.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class FrameCompressor {
+
+	private final CompressionCodec codec;
+
+	private final int threshold;
+
+	private final ByteBufferPool bufferPool;
+
+	private final CompressionStats stats;
+
+	/**
+	 *
+	 * @param codec
+	 * @param threshold
+	 * 		minimum size of the payload to be compressed
+	 * @param bufferPool
+	 */
+	FrameCompressor(CompressionCodec codec, int threshold, ByteBufferPool bufferPool) {
+		this.codec = codec;
+		this.threshold = threshold;
+		this.bufferPool = bufferPool;
+		this.stats = new CompressionStats(codec.getName());
+	}
+
+	/**
+	 * Compresses the 'payload' (from its position to its limit) without modifying it.
+	 *
+	 * @param payload
+	 * @param retainedBuffer
+	 * 		buffer which holds the 'payload' (could be null). If compressed, it is released once the
+	 * 		compressed payload is released (e.g., written), otherwise it remains owned by the caller.
+	 * @return compressed payload or null if 'payload' is below the threshold or compression
+	 * 		would not reduce its size.
+	 */
+	PooledByteBuffer compress(ByteBuffer payload, PooledByteBuffer retainedBuffer) {
+		int length = payload.remaining();
+		if (!this.canCompress(length)){
+			return null;
+		}
+		long start = System.nanoTime();
+		byte[] source;
+		int sourceOffset;
+		if (payload.hasArray()){
+			source = payload.array();
+			sourceOffset = payload.arrayOffset() + payload.position();
+		}
+		else {
+			source = new byte[length];
+			payload.duplicate().get(source);
+			sourceOffset = 0;
+		}
+		// only worth it if it is smaller than the original
+		int maxLength = length - 4 - 1;
+		ByteBuffer compressed = this.bufferPool.allocate(length - 1);
+		byte[] target = compressed.hasArray() ? compressed.array() : new byte[length - 1];
+		int targetOffset = compressed.hasArray() ? compressed.arrayOffset() : 0;
+
+		int compressedLength = this.codec.compress(source, sourceOffset, length, target, targetOffset + 4, maxLength);
+		if (compressedLength < 0){
+			this.bufferPool.release(compressed);
+			this.stats.recordIncompressible(System.nanoTime() - start);
+			return null;
+		}
+		if (!compressed.hasArray()){
+			compressed.put(target, 0, compressedLength + 4);
+		}
+		compressed.putInt(0, length);
+		compressed.position(0);
+		compressed.limit(compressedLength + 4);
+		this.stats.recordCompression(length, compressedLength + 4, System.nanoTime() - start);
+		return new PooledByteBuffer(compressed, this.bufferPool, retainedBuffer);
+	}
+
+	/**
+	 * Returns 'true' if the payload of the given length is at or above the threshold, 
+	 * so {@link #compress(ByteBuffer, PooledByteBuffer)} attempts to compress it.
+	 */
+	boolean canCompress(int length) {
+		return length >= this.threshold && length > 4;
+	}
+
+	/**
+	 * Decompresses the payload of the frame marked with {@link AbstractSocketHandler#COMPRESSED_FLAG}.
+	 * The 'compressedPayload' remains owned by the caller.
+	 *
+	 * @return decompressed payload which must be released once done.
+	 * @throws IOException
+	 * 		if payload is not a valid compressed data
+	 */
+	PooledByteBuffer decompress(PooledByteBuffer compressedPayload) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer compressed = compressedPayload.asReadOnlyBuffer();
+		if (compressed.remaining() < 4){
+			throw new StreamCorruptedException("Compressed payload is too short");
+		}
+		int originalLength = compressed.getInt();
+		if (originalLength < 0){
+			throw new StreamCorruptedException("Invalid original length of compressed payload: " + originalLength);
+		}
+		byte[] source = new byte[compressed.remaining()];
+		compressed.get(source);
+
+		ByteBuffer decompressed = this.bufferPool.allocate(originalLength);
+		try {
+			if (decompressed.hasArray()){
+				this.codec.decompress(source, 0, source.length, decompressed.array(), decompressed.arrayOffset(), originalLength);
+			}
+			else {
+				byte[] target = new byte[originalLength];
+				this.codec.decompress(source, 0, source.length, target, 0, originalLength);
+				decompressed.put(target);
+				decompressed.flip();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			this.bufferPool.release(decompressed);
+			throw e;
+		}
+		this.stats.recordDecompression(System.nanoTime() - start);
+		return new PooledByteBuffer(decompressed, this.bufferPool);
+	}
+
+	/**
+	 *
+	 */
+	CompressionCodec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 *
+	 */
+	CompressionStats getStats() {
+		return this.stats;
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Decoder of length-prefixed frames (see {@link AbstractSocketHandler#FRAME_HEADER_SIZE}).
+ *
+ * Each connection has its own instance of the decoder since it keeps the state of partially received
+ * frames (including partially received header) between the reads. Every complete frame contained
+ * in the data passed to {@link #decode(ByteBuffer, FrameHandler)} is emitted to the {@link FrameHandler}.
+ *
+ * Frames which span several reads (e.g., large messages) are accumulated in the buffer obtained from
+ * the {@link ByteBufferPool} which is then handed over to the {@link FrameHandler} without copying
+ * (see {@link PooledByteBuffer}). Once the frame header has been received the remainder of such frame
+ * could be read directly into that buffer (see {@link #readBody(ReadableByteChannel, FrameHandler)}).
+ * Small frames which are fully contained in the input buffer are copied into the pooled buffer, since 
+ * input buffer is reused. Decoding is therefore not allocation-free: each emitted frame is wrapped into 
+ * a new {@link PooledByteBuffer}, which can not be recycled since handlers may hold on to it (e.g., until 
+ * the reply sharing data with the request is written), while pooled buffers themselves are reused.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class FrameDecoder {
+
+	private final ByteBufferPool bufferPool;
+
+	private final ByteBuffer headerBuffer;
+
+	private ByteBuffer bodyBuffer;
+
+	private long requestId;
+
+	private int flags;
+
+	private int bodyLength = -1;
+
+	/**
+	 *
+	 * @param bufferPool
+	 */
+	FrameDecoder(ByteBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		this.headerBuffer = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE);
+	}
+
+	/**
+	 * Decodes all complete frames available in the 'input' buffer (from its position to its limit),
+	 * emitting each frame to the provided {@link FrameHandler}. Remaining bytes of the incomplete
+	 * frame are retained until the next invocation.
+	 * Upon return the 'input' buffer is fully consumed.
+	 *
+	 * @param input
+	 * @param frameHandler
+	 * @throws IOException
+	 * 		if frame header is invalid or if thrown by the {@link FrameHandler}
+	 */
+	void decode(ByteBuffer input, FrameHandler frameHandler) throws IOException {
+		while (input.hasRemaining() || this.bodyLength == 0){
+			if (this.bodyLength < 0){
+				if (!this.decodeHeader(input)){
+					return;
+				}
+			}
+
+			if (this.bodyBuffer == null && input.remaining() >= this.bodyLength){
+				ByteBuffer body = this.bufferPool.allocate(this.bodyLength);
+				int limit = input.limit();
+				input.limit(input.position() + this.bodyLength);
+				body.put(input);
+				input.limit(limit);
+				body.flip();
+				long requestId = this.requestId;
+				int flags = this.flags;
+				this.reset();
+				frameHandler.onFrame(requestId, flags, new PooledByteBuffer(body, this.bufferPool));
+			}
+			else {
+				if (this.bodyBuffer == null){
+					this.bodyBuffer = this.bufferPool.allocate(this.bodyLength);
+				}
+				int length = Math.min(input.remaining(), this.bodyBuffer.remaining());
+				int limit = input.limit();
+				input.limit(input.position() + length);
+				this.bodyBuffer.put(input);
+				input.limit(limit);
+				this.emitBodyIfComplete(frameHandler);
+			}
+		}
+	}
+
+	/**
+	 * Reads the remainder of the frame body which is currently being accumulated directly from the
+	 * 'channel' into the body buffer (bypassing the input buffer), emitting the frame to the provided 
+	 * {@link FrameHandler} if it is complete. Must only be invoked if {@link #isAccumulatingBody()}
+	 * returns 'true'.
+	 *
+	 * @param channel
+	 * @param frameHandler
+	 * @return the result of the read from the channel
+	 * @throws IOException
+	 */
+	int readBody(ReadableByteChannel channel, FrameHandler frameHandler) throws IOException {
+		int count = channel.read(this.bodyBuffer);
+		if (count > 0){
+			this.emitBodyIfComplete(frameHandler);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns 'true' if this decoder is in the middle of accumulating the body of the frame
+	 * which did not fit into a single read.
+	 */
+	boolean isAccumulatingBody() {
+		return this.bodyBuffer != null;
+	}
+
+	/**
+	 * Returns 'true' if this decoder holds a partially received frame
+	 */
+	boolean hasPartialFrame() {
+		return this.bodyLength >= 0 || this.headerBuffer.position() > 0;
+	}
+
+	/**
+	 * Releases resources held by this decoder (e.g., when connection is closed).
+	 */
+	void release() {
+		if (this.bodyBuffer != null){
+			this.bufferPool.release(this.bodyBuffer);
+			this.bodyBuffer = null;
+		}
+		this.reset();
+	}
+
+	/**
+	 * Decodes frame header. Header is read directly from the input buffer
+	 * unless it was split between the reads.
+	 *
+	 * @return 'true' if header was decoded, 'false' if more data is needed
+	 */
+	private boolean decodeHeader(ByteBuffer input) throws IOException {
+		int frameLength;
+		if (this.headerBuffer.position() == 0 && input.remaining() >= AbstractSocketHandler.FRAME_HEADER_SIZE){
+			frameLength = input.getInt();
+			this.requestId = input.getLong();
+		}
+		else {
+			while (this.headerBuffer.hasRemaining() && input.hasRemaining()){
+				this.headerBuffer.put(input.get());
+			}
+			if (this.headerBuffer.hasRemaining()){
+				return false;
+			}
+			frameLength = this.headerBuffer.getInt(0);
+			this.requestId = this.headerBuffer.getLong(4);
+			this.headerBuffer.clear();
+		}
+		this.flags = frameLength & ~AbstractSocketHandler.FRAME_LENGTH_MASK;
+		frameLength &= AbstractSocketHandler.FRAME_LENGTH_MASK;
+		if (frameLength < AbstractSocketHandler.FRAME_HEADER_SIZE){
+			throw new StreamCorruptedException("Invalid frame length: " + frameLength);
+		}
+		this.bodyLength = frameLength - AbstractSocketHandler.FRAME_HEADER_SIZE;
+		return true;
+	}
+
+	/**
+	 * Hands the body buffer over to the {@link FrameHandler} once all its bytes were received.
+	 */
+	private void emitBodyIfComplete(FrameHandler frameHandler) throws IOException {
+		if (!this.bodyBuffer.hasRemaining()){
+			this.bodyBuffer.flip();
+			PooledByteBuffer body = new PooledByteBuffer(this.bodyBuffer, this.bufferPool);
+			long requestId = this.requestId;
+			int flags = this.flags;
+			this.bodyBuffer = null;
+			this.reset();
+			frameHandler.onFrame(requestId, flags, body);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void reset() {
+		this.bodyLength = -1;
+		this.requestId = 0;
+		this.flags = 0;
+	}
+
+	/**
+	 * Callback invoked for every decoded frame.
+	 */
+	interface FrameHandler {
+		/**
+		 *
+		 * @param requestId
+		 * 		request id carried by the frame header
+		 * @param flags
+		 * 		flags carried by the frame header (e.g., {@link AbstractSocketHandler#COMPRESSED_FLAG})
+		 * @param payload
+		 * 		frame's payload. Handler becomes the owner of the payload and 
+		 * 		must {@link PooledByteBuffer#release()} it once done.
+		 */
+		void onFrame(long requestId, int flags, PooledByteBuffer payload) throws IOException;
+	}
+}
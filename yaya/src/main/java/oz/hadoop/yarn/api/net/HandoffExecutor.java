@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * {@link Executor} which runs the tasks submitted by any number of threads in order on a fixed amount of dedicated 
+ * consumer threads (one at a time if there is only one). Tasks are handed over through the lock-free queue, while 
+ * consumer threads park once the queue is empty and are only unparked by the producer which finds them parked,
+ * so neither side takes a lock.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class HandoffExecutor implements Executor {
+
+	private final Log logger = LogFactory.getLog(HandoffExecutor.class);
+
+	private final ConcurrentLinkedQueue<Runnable> tasks;
+
+	private final Thread[] consumers;
+
+	/*
+	 * Consumers register here before they check the queue for the last time and park
+	 */
+	private final ConcurrentLinkedQueue<Thread> parkedConsumers;
+
+	private final String name;
+
+	private volatile boolean shutdown;
+
+	/**
+	 *
+	 * @param name
+	 * 		name of the consumer thread
+	 */
+	HandoffExecutor(String name) {
+		this(name, 1);
+	}
+
+	/**
+	 *
+	 * @param name
+	 * 		name of the consumer thread (followed by its index if there are more then one)
+	 * @param consumers
+	 * 		amount of consumer threads
+	 */
+	HandoffExecutor(String name, int consumers) {
+		Assert.isTrue(consumers > 0, "'consumers' must be > 0, was " + consumers);
+		this.name = name;
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.parkedConsumers = new ConcurrentLinkedQueue<>();
+		this.consumers = new Thread[consumers];
+		for (int i = 0; i < consumers; i++) {
+			this.consumers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					HandoffExecutor.this.consume();
+				}
+			}, consumers == 1 ? name : name + "-" + (i + 1));
+			this.consumers[i].setDaemon(true);
+		}
+	}
+
+	/**
+	 *
+	 */
+	void start() {
+		for (Thread consumer : this.consumers) {
+			consumer.start();
+		}
+	}
+
+	/**
+	 * May be invoked by any thread.
+	 *
+	 * @throws RejectedExecutionException
+	 * 		if this executor was shut down
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (this.shutdown){
+			throw new RejectedExecutionException("Executor " + this.name + " was shut down");
+		}
+		this.tasks.offer(task);
+		if (this.shutdown && this.tasks.remove(task)){
+			// consumers may have exited already
+			throw new RejectedExecutionException("Executor " + this.name + " was shut down");
+		}
+		/*
+		 * Since the task is queued before the parked consumers are polled, while each consumer registers
+		 * itself before checking the queue, either it will see the task or this thread will see the consumer.
+		 */
+		Thread parkedConsumer = this.parkedConsumers.poll();
+		if (parkedConsumer != null){
+			LockSupport.unpark(parkedConsumer);
+		}
+	}
+
+	/**
+	 * Lets the queued tasks run, while rejecting new ones.
+	 */
+	void shutdown() {
+		this.shutdown = true;
+		// consumers exit once the queue is empty
+		for (Thread consumer : this.consumers) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Interrupts the running tasks discarding the queued ones.
+	 *
+	 * @return tasks which never ran
+	 */
+	List<Runnable> shutdownNow() {
+		this.shutdown = true;
+		List<Runnable> discardedTasks = this.drain();
+		for (Thread consumer : this.consumers) {
+			if (Thread.currentThread() != consumer){
+				consumer.interrupt();
+			}
+			LockSupport.unpark(consumer);
+		}
+		return discardedTasks;
+	}
+
+	/**
+	 *
+	 */
+	private void consume() {
+		Thread consumer = Thread.currentThread();
+		while (true) {
+			Runnable task = this.tasks.poll();
+			if (task != null){
+				try {
+					task.run();
+				}
+				catch (RuntimeException e) {
+					logger.error("Task failed in " + consumer.getName(), e);
+				}
+			}
+			else if (this.shutdown){
+				break;
+			}
+			else {
+				this.parkedConsumers.offer(consumer);
+				if (this.tasks.isEmpty() && !this.shutdown){
+					LockSupport.park(this);
+				}
+				/*
+				 * Unless it was unparked by the producer, which already removed it. Stray unpark 
+				 * only makes the next park return right away.
+				 */
+				this.parkedConsumers.remove(consumer);
+				// interrupt was only meant for the running task
+				Thread.interrupted();
+			}
+		}
+		// tasks which raced with the shut down are never run
+		for (Runnable task : this.drain()) {
+			if (task instanceof Future){
+				((Future<?>) task).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private List<Runnable> drain() {
+		List<Runnable> drainedTasks = new ArrayList<>();
+		Runnable task;
+		while ((task = this.tasks.poll()) != null){
+			drainedTasks.add(task);
+		}
+		return drainedTasks;
+	}
+}
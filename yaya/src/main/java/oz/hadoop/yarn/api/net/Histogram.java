@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values (e.g., sizes, nanoseconds) which counts them in power-of-two buckets, 
+ * so recording a value is a handful of atomic updates without locks or allocation, while percentiles are 
+ * only accurate within a factor of 2 (see {@link #snapshot()}). Values recorded concurrently by different
+ * threads are never lost, while the snapshot taken in the meantime may not reflect all of them.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class Histogram {
+
+	/*
+	 * Bucket 0 counts zeros, while bucket i counts values in [2^(i-1), 2^i)
+	 */
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets;
+
+	private final AtomicLong count;
+
+	private final AtomicLong sum;
+
+	private final AtomicLong max;
+
+	/**
+	 *
+	 */
+	Histogram() {
+		this.buckets = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records the value. Negative values are recorded as 0. May be invoked by any thread.
+	 */
+	void record(long value) {
+		if (value < 0){
+			value = 0;
+		}
+		this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = this.max.get()) && !this.max.compareAndSet(currentMax, value)){
+			// retry
+		}
+	}
+
+	/**
+	 * Returns {@link HistogramSnapshot} of the values recorded so far. Percentiles are the upper bounds of
+	 * the buckets they fall into (never more then the maximum value). Not meant for the hot path.
+	 */
+	HistogramSnapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.buckets.get(i);
+			total += counts[i];
+		}
+		long max = this.max.get();
+		long sum = this.sum.get();
+		return new HistogramSnapshot(total, total == 0 ? 0 : (double) sum / total, max, 
+				percentile(counts, total, max, 0.5), percentile(counts, total, max, 0.9), 
+				percentile(counts, total, max, 0.99), percentile(counts, total, max, 0.999));
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return this.snapshot().toString();
+	}
+
+	/**
+	 *
+	 */
+	private static long percentile(long[] counts, long total, long max, double percentile) {
+		if (total == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank){
+				// (1L << 63) - 1 is Long.MAX_VALUE
+				long upperBound = i == 0 ? 0 : (1L << i) - 1;
+				return Math.min(upperBound, max);
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+/**
+ * Immutable snapshot of the histogram kept by the transport metrics (see {@link TransportMetricsMXBean}), 
+ * which is exposed via JMX as composite data. Percentiles are approximate, since values are counted in 
+ * power-of-two buckets (e.g., p99 of 1000 means that 99% of values were less then 1024).
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class HistogramSnapshot {
+
+	private final long count;
+
+	private final double mean;
+
+	private final long max;
+
+	private final long p50;
+
+	private final long p90;
+
+	private final long p99;
+
+	private final long p999;
+
+	/**
+	 *
+	 */
+	HistogramSnapshot(long count, double mean, long max, long p50, long p90, long p99, long p999) {
+		this.count = count;
+		this.mean = mean;
+		this.max = max;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+	}
+
+	/**
+	 * Returns the amount of recorded values.
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 *
+	 */
+	public double getMean() {
+		return this.mean;
+	}
+
+	/**
+	 *
+	 */
+	public long getMax() {
+		return this.max;
+	}
+
+	/**
+	 *
+	 */
+	public long getP50() {
+		return this.p50;
+	}
+
+	/**
+	 *
+	 */
+	public long getP90() {
+		return this.p90;
+	}
+
+	/**
+	 *
+	 */
+	public long getP99() {
+		return this.p99;
+	}
+
+	/**
+	 *
+	 */
+	public long getP999() {
+		return this.p999;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "HistogramSnapshot:[count=" + this.count + ", mean=" + String.format("%.1f", this.mean) + ", p50=" + this.p50 + 
+				", p90=" + this.p90 + ", p99=" + this.p99 + ", p999=" + this.p999 + ", max=" + this.max + "]";
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Implementation of {@link ApplicationContainerClient} which connects to the {@link InProcessApplicationContainerServer}
+ * running in the same JVM. Messages handed over by the server are processed one at a time in the order they were
+ * received by the dedicated thread (see {@link HandoffExecutor}), which hands the replies back to the server.
+ * Otherwise it behaves the same way as {@link ApplicationContainerClientImpl}.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class InProcessApplicationContainerClient implements ApplicationContainerClient {
+
+	private final Log logger = LogFactory.getLog(InProcessApplicationContainerClient.class);
+
+	private final InetSocketAddress address;
+
+	private final ApplicationContainerMessageHandler messageHandler;
+
+	private final Runnable onDisconnectTask;
+
+	private final TransportSettings transportSettings;
+
+	private final HandoffExecutor messageProcessingExecutor;
+
+	private final CountDownLatch lifeCycleLatch;
+
+	private final AtomicBoolean closed;
+
+	private volatile InProcessConnection connection;
+
+	/**
+	 * Creates an instance of ApplicationContainerClient for a provided address
+	 * of the running server (see {@link InProcessApplicationContainerServer})
+	 *
+	 * @param address
+	 * @param messageHandler
+	 * @param onDisconnectTask
+	 */
+	public InProcessApplicationContainerClient(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler, Runnable onDisconnectTask){
+		this(address, messageHandler, onDisconnectTask, new TransportSettings());
+	}
+
+	/**
+	 * Creates an instance of ApplicationContainerClient for a provided address
+	 * of the running server (see {@link InProcessApplicationContainerServer}).
+	 * Accepts {@link TransportSettings} the same way {@link ApplicationContainerClientImpl} does,
+	 * while only the credit applies to the client side of the in-process connection.
+	 *
+	 * @param address
+	 * @param messageHandler
+	 * @param onDisconnectTask
+	 * @param transportSettings
+	 */
+	public InProcessApplicationContainerClient(InetSocketAddress address, ApplicationContainerMessageHandler messageHandler,
+			Runnable onDisconnectTask, TransportSettings transportSettings){
+		this.address = address;
+		this.messageHandler = messageHandler;
+		this.onDisconnectTask = onDisconnectTask;
+		this.transportSettings = transportSettings;
+		this.messageProcessingExecutor = new HandoffExecutor("InProcessApplicationContainerClient", transportSettings.getContainerParallelism());
+		this.lifeCycleLatch = new CountDownLatch(1);
+		this.closed = new AtomicBoolean();
+	}
+
+	/**
+	 * Connects to the server registered under the address of this client.
+	 *
+	 * @return address which identifies this side of the connection
+	 */
+	@Override
+	public synchronized InetSocketAddress start() {
+		if (this.connection == null && !this.closed.get()){
+			InProcessApplicationContainerServer server = InProcessApplicationContainerServer.lookup(this.address);
+			if (server == null){
+				throw new IllegalStateException("Failed to connect to ClientServer at: " + this.address);
+			}
+			this.messageProcessingExecutor.start();
+			InProcessConnection connection = server.accept(this);
+			if (connection == null){
+				// same as if server closed the socket right after accepting it
+				this.onDisconnect();
+				return this.address;
+			}
+			this.connection = connection;
+			if (this.transportSettings.getCreditMessages() > 0 || this.transportSettings.getCreditBytes() > 0){
+				this.grantCredit(this.transportSettings.getCreditMessages(), this.transportSettings.getCreditBytes());
+			}
+			if (logger.isInfoEnabled()){
+				logger.info("Connected to " + this.address);
+			}
+		}
+		return this.connection == null ? this.address : this.connection.getClientAddress();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void stop(boolean force) {
+		InProcessConnection connection = this.connection;
+		if (connection != null){
+			connection.closeByClient();
+		}
+		this.close();
+		this.awaitShutdown();
+	}
+
+	/**
+	 * May be invoked by any thread (e.g., the one processing the message).
+	 */
+	@Override
+	public void grantCredit(int messages, long bytes) {
+		Assert.isTrue(messages >= 0 && bytes >= 0, "'messages' and 'bytes' must be >= 0");
+		InProcessConnection connection = this.connection;
+		Assert.state(connection != null, "ApplicationContainerClient is not connected");
+		if (connection.isOpen()){
+			connection.getServer().onCreditGrant(connection, messages, bytes);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean isRunning() {
+		return !this.closed.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void awaitShutdown() {
+		try {
+			this.lifeCycleLatch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for shutdown");
+		}
+	}
+
+	/**
+	 * Messages are never compressed, so always empty.
+	 */
+	@Override
+	public Map<String, CompressionStats> getCompressionStats() {
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Queues the message to be processed and replied to. May be invoked by any thread.
+	 */
+	void onMessage(final InProcessConnection connection, final ByteBuffer message, final ReplyPostProcessor replyPostProcessor) {
+		try {
+			this.messageProcessingExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					ApplicationContainerMessageHandler messageHandler = InProcessApplicationContainerClient.this.messageHandler;
+					ByteBuffer replyHeader = null;
+					ByteBuffer reply;
+					if (messageHandler instanceof ReplyHeaderWritingMessageHandler){
+						replyHeader = ByteBuffer.allocate(ReplyHeader.LENGTH);
+						reply = ((ReplyHeaderWritingMessageHandler) messageHandler).handle(message, replyHeader);
+						replyHeader.flip();
+					}
+					else {
+						reply = messageHandler.handle(message);
+					}
+					if (connection.isOpen()){
+						connection.getServer().onReply(connection, replyHeader, reply, replyPostProcessor);
+					}
+					else {
+						// may happen when server kills connection before receiving a reply
+						logger.warn("Connection was closed. No reply will be sent");
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			logger.warn("Message was rejected since client is shutting down");
+		}
+	}
+
+	/**
+	 * Queues the streamed message to be processed in order with other messages (see {@link StreamingMessageHandler}).
+	 *
+	 * @return {@link Future} which completes once the reply is complete
+	 * @throws IOException
+	 * 		if client is shutting down
+	 */
+	Future<?> onStream(InProcessConnection connection, final ReadableByteChannel message, final WritableByteChannel reply) throws IOException {
+		FutureTask<Void> processing = new FutureTask<>(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				ApplicationContainerMessageHandler messageHandler = InProcessApplicationContainerClient.this.messageHandler;
+				try {
+					if (!(messageHandler instanceof StreamingMessageHandler)){
+						throw new UnsupportedOperationException(messageHandler.getClass().getName() + " does not support streamed messages");
+					}
+					((StreamingMessageHandler) messageHandler).handle(message, reply);
+				}
+				catch (IOException | RuntimeException e) {
+					logger.error("Failed to process streamed message", e);
+					throw e;
+				}
+				finally {
+					message.close();
+					reply.close();
+				}
+				return null;
+			}
+		});
+		try {
+			this.messageProcessingExecutor.execute(processing);
+		}
+		catch (RejectedExecutionException e) {
+			throw new IOException("Streamed message was rejected since client is shutting down");
+		}
+		return processing;
+	}
+
+	/**
+	 * Invoked once connection was closed by the server.
+	 */
+	void onDisconnect() {
+		if (logger.isDebugEnabled()){
+			logger.debug(InProcessApplicationContainerClient.class.getSimpleName() + " - Connection closed by: " + this.address);
+		}
+		this.close();
+		if (this.onDisconnectTask != null){
+			this.onDisconnectTask.run();
+		}
+	}
+
+	/**
+	 * Interrupts the message being processed discarding the queued ones.
+	 */
+	private void close() {
+		if (this.closed.compareAndSet(false, true)){
+			for (Runnable task : this.messageProcessingExecutor.shutdownNow()) {
+				if (task instanceof Future){
+					((Future<?>) task).cancel(false);
+				}
+			}
+			this.lifeCycleLatch.countDown();
+		}
+	}
+}
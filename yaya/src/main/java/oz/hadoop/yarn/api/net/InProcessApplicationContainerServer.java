@@ -0,0 +1,657 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import oz.hadoop.yarn.api.ContainerEvictionListener;
+import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.CreditListener;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
+import oz.hadoop.yarn.api.utils.ByteBufferUtils;
+
+/**
+ * Implementation of {@link ApplicationContainerServer} for Application Containers which run in the same JVM
+ * as the client (e.g., YARN emulator). Instead of being framed and written to the socket, messages are handed
+ * over to the {@link InProcessApplicationContainerClient} as read-only views of the original {@link ByteBuffer}s
+ * through the lock-free queue (see {@link HandoffExecutor}), while replies are handed back the same way to
+ * the thread of this server which gives them to the {@link ReplyPostProcessor}s. Since nothing is copied,
+ * data given to the {@link ContainerDelegate} must not be modified until the reply is received.
+ *
+ * Server is not bound to any socket. Instead it is registered under the address with the port
+ * unique within the JVM, which clients use to find it (see {@link #lookup(InetSocketAddress)}).
+ * Otherwise it behaves the same way as {@link ApplicationContainerServerImpl}.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class InProcessApplicationContainerServer implements ApplicationContainerServer {
+
+	private static final Log logger = LogFactory.getLog(InProcessApplicationContainerServer.class);
+
+	/*
+	 * Servers started in this JVM keyed by their port
+	 */
+	private static final ConcurrentHashMap<Integer, InProcessApplicationContainerServer> servers = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger portSequence = new AtomicInteger();
+
+	private final InetAddress host;
+
+	private final int expectedClientContainers;
+
+	private final boolean finite;
+
+	private final Runnable onDisconnectTask;
+
+	private final TransportSettings transportSettings;
+
+	private final CountDownLatch expectedClientContainersMonitor;
+
+	private final CountDownLatch lifeCycleLatch;
+
+	private final Map<InProcessConnection, AbstractContainerDelegate> containerDelegates;
+
+	private final CreditGate creditBudget;
+
+	private final Set<InProcessConnection> connections;
+
+	/*
+	 * Delivers replies and disconnects, the way the I/O thread does for the socket
+	 */
+	private final HandoffExecutor replyExecutor;
+
+	private volatile InProcessConnection masterConnection;
+
+	private volatile ContainerReplyListener replyListener;
+
+	private volatile ReplyEnvelopeListener replyEnvelopeListener;
+
+	/*
+	 * Requests are not correlated by id, which only identifies them to the ReplyEnvelopeListener
+	 */
+	private final AtomicLong requestIdSequence;
+
+	private volatile InetSocketAddress address;
+
+	/**
+	 * Constructs this ClientServer with specified 'address' (only its host is used).
+	 * The 'expectedClientContainers' represents the amount of expected
+	 * {@link InProcessApplicationContainerClient}s to be connected
+	 * with this ClientServer.
+	 *
+	 * @param address
+	 * 			the address which host is used to identify this server
+	 * @param expectedClientContainers
+	 * 			expected Application Containers
+	 * @param finite
+	 * 			whether the YARN application using finite or reusable Application Containers
+	 * @param onDisconnectTask
+	 * 			additional process implemented as {@link Runnable} to be executed during disconnect
+	 */
+	public InProcessApplicationContainerServer(InetSocketAddress address, int expectedClientContainers, boolean finite, Runnable onDisconnectTask) {
+		this(address, expectedClientContainers, finite, onDisconnectTask, new TransportSettings());
+	}
+
+	/**
+	 * Constructs this ClientServer with specified 'address' (only its host is used) and {@link TransportSettings}.
+	 * The 'expectedClientContainers' represents the amount of expected
+	 * {@link InProcessApplicationContainerClient}s to be connected
+	 * with this ClientServer.
+	 *
+	 * @param address
+	 * 			the address which host is used to identify this server
+	 * @param expectedClientContainers
+	 * 			expected Application Containers
+	 * @param finite
+	 * 			whether the YARN application using finite or reusable Application Containers
+	 * @param onDisconnectTask
+	 * 			additional process implemented as {@link Runnable} to be executed during disconnect
+	 * @param transportSettings
+	 * 			only the in-flight window of each {@link ContainerDelegate} applies to in-process connections
+	 */
+	public InProcessApplicationContainerServer(InetSocketAddress address, int expectedClientContainers, boolean finite, Runnable onDisconnectTask,
+			TransportSettings transportSettings) {
+		Assert.notNull(address, "'address' must not be null");
+		Assert.isTrue(expectedClientContainers > 0, "'expectedClientContainers' must be > 0");
+		Assert.notNull(transportSettings, "'transportSettings' must not be null");
+		this.host = address.getAddress() == null ? InetAddress.getLoopbackAddress() : address.getAddress();
+		this.expectedClientContainers = expectedClientContainers;
+		this.finite = finite;
+		this.onDisconnectTask = onDisconnectTask;
+		this.transportSettings = transportSettings;
+		this.expectedClientContainersMonitor = new CountDownLatch(expectedClientContainers+1);
+		this.lifeCycleLatch = new CountDownLatch(1);
+		this.containerDelegates = new ConcurrentHashMap<InProcessConnection, AbstractContainerDelegate>();
+		this.creditBudget = new CreditGate(transportSettings.getInFlightBytesBudget(), transportSettings.isCreditFailFast());
+		this.connections = Collections.newSetFromMap(new ConcurrentHashMap<InProcessConnection, Boolean>());
+		this.replyExecutor = new HandoffExecutor("InProcessApplicationContainerServer");
+		this.requestIdSequence = new AtomicLong();
+	}
+
+	/**
+	 * Registers this server under the address with the port unique within the JVM.
+	 */
+	@Override
+	public synchronized InetSocketAddress start() {
+		if (this.address == null){
+			int port;
+			do {
+				port = nextPort();
+			}
+			while (servers.putIfAbsent(port, this) != null);
+			this.address = new InetSocketAddress(this.host, port);
+			this.replyExecutor.start();
+			if (logger.isInfoEnabled()){
+				logger.info("Bound to in-process address " + this.address);
+			}
+		}
+		return this.address;
+	}
+
+	/**
+	 * Will stop this server, closing all the remaining connection to Application Container
+	 * clients waiting if necessary (see {@link ApplicationContainerServerImpl#preStop(boolean)}).
+	 *
+	 * @param force
+	 * 		boolean flag indicating if this application should be terminated immediately or
+	 * 		should it shut down gracefully allowing currently running Application Container
+	 * 		processes to finish.
+	 */
+	@Override
+	public void stop(boolean force) {
+		this.preStop(force);
+		for (InProcessConnection connection : new ArrayList<>(this.connections)) {
+			if (connection != this.masterConnection && connection.closeByServer()){
+				this.connections.remove(connection);
+			}
+		}
+		if (this.masterConnection == null){
+			// nobody to wait for
+			this.close();
+		}
+		/*
+		 * Once containers terminate, AM will close its client at which point
+		 * this server is shut down (see onDisconnect(..)).
+		 */
+		this.awaitShutdown();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean isRunning() {
+		return this.containerDelegates.size() == this.expectedClientContainers;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void awaitShutdown() {
+		try {
+			this.lifeCycleLatch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for shutdown");
+		}
+	}
+
+	/**
+	 * Messages are never compressed, so always empty.
+	 */
+	@Override
+	public Map<String, CompressionStats> getCompressionStats() {
+		return Collections.emptyMap();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean awaitAllClients(long timeOutInSeconds) {
+		try {
+			return this.expectedClientContainersMonitor.await(timeOutInSeconds, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for all Application Containers to report");
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public ContainerDelegate[] getContainerDelegates() {
+		return this.containerDelegates.values().toArray(new ContainerDelegate[]{});
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void registerReplyListener(ContainerReplyListener replyListener) {
+		this.replyListener = replyListener;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void registerReplyEnvelopeListener(ReplyEnvelopeListener replyEnvelopeListener) {
+		this.replyEnvelopeListener = replyEnvelopeListener;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void registerCreditListener(CreditListener creditListener) {
+		this.creditBudget.setCreditListener(creditListener);
+	}
+
+	/**
+	 * Application Containers in the same JVM are never evicted, so the listener is never invoked.
+	 */
+	@Override
+	public void registerEvictionListener(ContainerEvictionListener evictionListener) {
+		// noop
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int liveContainers() {
+		return this.containerDelegates.size();
+	}
+
+	/**
+	 * Returns the server registered under the 'address' (see {@link #start()}) or null if there is no such server.
+	 */
+	static InProcessApplicationContainerServer lookup(InetSocketAddress address) {
+		return servers.get(address.getPort());
+	}
+
+	/**
+	 * Connects the 'client' to this server, unless all expected clients are already connected.
+	 * The first client to connect is the one of Application Master.
+	 *
+	 * @return connection or null if it was refused
+	 */
+	synchronized InProcessConnection accept(InProcessApplicationContainerClient client) {
+		if (this.expectedClientContainersMonitor.getCount() == 0 || this.lifeCycleLatch.getCount() == 0){
+			logger.warn("Refusing in-process connection, since " + this.expectedClientContainers + " ApplicationContainerClients " +
+					"identified by 'expectedClientContainers' already connected.");
+			return null;
+		}
+		InProcessConnection connection = new InProcessConnection(this, client, new InetSocketAddress(this.host, nextPort()));
+		this.connections.add(connection);
+		if (this.masterConnection != null){
+			this.containerDelegates.put(connection, new InProcessContainerDelegate(connection));
+		}
+		else {
+			this.masterConnection = connection;
+		}
+		if (logger.isInfoEnabled()){
+			logger.info("Accepted in-process connection from: " + connection.getClientAddress());
+		}
+		this.expectedClientContainersMonitor.countDown();
+		return connection;
+	}
+
+	/**
+	 * Replaces the credit of the {@link ContainerDelegate} of the Application Container 
+	 * identified by the 'connection' (see {@link ApplicationContainerClient#grantCredit(int, long)}).
+	 * Credit granted by Application Master is ignored.
+	 */
+	void onCreditGrant(InProcessConnection connection, int messages, long bytes) {
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.get(connection);
+		if (containerDelegate != null){
+			containerDelegate.grantCredit(messages, bytes);
+		}
+	}
+
+	/**
+	 * Hands the reply over to the thread of this server which gives it to the {@link ContainerReplyListener}
+	 * (as copy) and {@link ReplyPostProcessor} (as read-only view). May be invoked by any thread.
+	 * 
+	 * @param connection
+	 * @param replyHeader
+	 * 		{@link ReplyHeader} written separately from the 'reply' (see {@link ReplyHeaderWritingMessageHandler}) 
+	 * 		or null if the reply has no header
+	 * @param reply
+	 * @param replyPostProcessor
+	 */
+	void onReply(final InProcessConnection connection, ByteBuffer replyHeader, ByteBuffer reply, final ReplyPostProcessor replyPostProcessor) {
+		final ByteBuffer headerView = replyHeader == null ? null : replyHeader.asReadOnlyBuffer();
+		final ByteBuffer dataView = asMessage(reply);
+		try {
+			this.replyExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					ContainerReplyListener replyListener = InProcessApplicationContainerServer.this.replyListener;
+					if (replyListener != null){
+						replyListener.onReply(ByteBufferUtils.copy(dataView));
+					}
+					ReplyEnvelopeListener replyEnvelopeListener = InProcessApplicationContainerServer.this.replyEnvelopeListener;
+					if (replyEnvelopeListener != null){
+						replyEnvelopeListener.onReply(replyPostProcessor.newReplyEnvelope(headerView, dataView.duplicate()));
+					}
+					replyPostProcessor.postReply(headerView, dataView.duplicate());
+					InProcessApplicationContainerServer.this.onReplied(connection);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			logger.warn("Reply from " + connection.getClientAddress() + " was discarded since server is shut down");
+		}
+	}
+
+	/**
+	 * Invoked once connection was closed by the client. Delivered by the thread of this server after
+	 * replies which were sent before, the same way the socket would.
+	 */
+	void onDisconnect(final InProcessConnection connection) {
+		try {
+			this.replyExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					InProcessApplicationContainerServer.this.connections.remove(connection);
+					if (logger.isDebugEnabled()){
+						logger.debug(InProcessApplicationContainerServer.class.getSimpleName() + " - Connection closed by: " + connection.getClientAddress());
+					}
+					if (connection == InProcessApplicationContainerServer.this.masterConnection){
+						InProcessApplicationContainerServer.this.preStop(true);
+						InProcessApplicationContainerServer.this.close();
+					}
+					else {
+						InProcessApplicationContainerServer.this.discard(connection);
+					}
+					if (InProcessApplicationContainerServer.this.onDisconnectTask != null){
+						InProcessApplicationContainerServer.this.onDisconnectTask.run();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// already shut down
+		}
+	}
+
+	/**
+	 * Hands the request over to the client of the connection.
+	 */
+	private void process(InProcessConnection connection, ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
+		if (!connection.isOpen()){
+			throw new IllegalStateException("Connection to " + connection.getClientAddress() + " is closed");
+		}
+		replyPostProcessor.onSent(this.requestIdSequence.incrementAndGet());
+		connection.getClient().onMessage(connection, asMessage(data), replyPostProcessor);
+	}
+
+	/**
+	 * Gives both channels to the {@link StreamingMessageHandler} of the client which reads the request directly from
+	 * 'data' and writes the reply directly into the 'replyChannel', while the calling thread waits for it to finish.
+	 * Channels are given as views, so closing them does not close the original channels.
+	 */
+	private void process(InProcessConnection connection, ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+		if (!connection.isOpen()){
+			throw new IOException("Connection was closed before the stream was complete");
+		}
+		Future<?> processing = connection.getClient().onStream(connection, view(data), view(replyChannel));
+		try {
+			processing.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			processing.cancel(true);
+			throw new InterruptedIOException("Interrupted while waiting for the streamed message to be processed");
+		}
+		catch (CancellationException e) {
+			throw new IOException("Connection was closed before the stream was complete");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to process streamed message", e.getCause());
+		}
+		if (logger.isDebugEnabled()){
+			logger.debug("Streamed reply received from " + connection.getClientAddress());
+		}
+		this.onReplied(connection);
+	}
+
+	/**
+	 * In finite mode Application Container is disconnected once it replied.
+	 */
+	private void onReplied(InProcessConnection connection) {
+		if (this.finite && connection.closeByServer()) {
+			this.connections.remove(connection);
+			this.discard(connection);
+		}
+	}
+
+	/**
+	 * Removes the {@link ContainerDelegate} of the disconnected Application Container.
+	 */
+	private void discard(InProcessConnection connection) {
+		AbstractContainerDelegate containerDelegate = this.containerDelegates.remove(connection);
+		if (containerDelegate != null){
+			containerDelegate.discard();
+		}
+	}
+
+	/**
+	 * Same as {@link ApplicationContainerServerImpl#preStop(boolean)}
+	 */
+	private void preStop(boolean force) {
+		// Need to make a copy so we can remove entries without affecting the global map so it could be cleaned at the end
+		Map<InProcessConnection, ContainerDelegate> cDelegates = new HashMap<>(this.containerDelegates);
+		boolean working = cDelegates.size() > 0;
+		while (working) {
+			Iterator<InProcessConnection> containerConnections = cDelegates.keySet().iterator();
+			while (containerConnections.hasNext()){
+				InProcessConnection connection = containerConnections.next();
+				ContainerDelegate containerDelegate = cDelegates.get(connection);
+				containerDelegate.suspend();
+				if (!force){
+					if (containerDelegate.available() || !connection.isOpen()){
+						containerConnections.remove();
+					}
+				}
+				else {
+					containerConnections.remove();
+				}
+			}
+			working = cDelegates.size() > 0;
+			if (working){
+				if (logger.isTraceEnabled()){
+					logger.trace("Waiting for remaining " + cDelegates.size() + " containers to finish");
+				}
+				LockSupport.parkNanos(10000000);
+			}
+			else {
+				for (AbstractContainerDelegate containerDelegate : this.containerDelegates.values()) {
+					containerDelegate.discard();
+				}
+				this.containerDelegates.clear();
+			}
+		}
+		for (int i = 0; i < this.expectedClientContainers; i++) {
+			this.expectedClientContainersMonitor.countDown();
+		}
+	}
+
+	/**
+	 * Unregisters this server letting the queued replies to be delivered.
+	 */
+	private synchronized void close() {
+		if (this.lifeCycleLatch.getCount() > 0){
+			if (this.address != null){
+				servers.remove(this.address.getPort(), this);
+			}
+			this.replyExecutor.shutdown();
+			this.lifeCycleLatch.countDown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static int nextPort() {
+		return (portSequence.getAndIncrement() & Integer.MAX_VALUE) % 65535 + 1;
+	}
+
+	/**
+	 * Same as written to the socket (see {@link AbstractSocketHandler#writeFrame(java.nio.channels.SelectionKey, long, ByteBuffer)}).
+	 */
+	private static ByteBuffer asMessage(ByteBuffer buffer) {
+		ByteBuffer message = buffer == null ? ByteBuffer.allocate(0) : buffer.asReadOnlyBuffer();
+		if (message.position() != 0){
+			message.flip();
+		}
+		return message;
+	}
+
+	/**
+	 *
+	 */
+	private static ReadableByteChannel view(final ReadableByteChannel channel) {
+		return new ReadableByteChannel() {
+			private volatile boolean open = true;
+
+			@Override
+			public int read(ByteBuffer destination) throws IOException {
+				if (!this.open){
+					throw new ClosedChannelException();
+				}
+				return channel.read(destination);
+			}
+
+			@Override
+			public boolean isOpen() {
+				return this.open;
+			}
+
+			@Override
+			public void close() {
+				this.open = false;
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	private static WritableByteChannel view(final WritableByteChannel channel) {
+		return new WritableByteChannel() {
+			private volatile boolean open = true;
+
+			@Override
+			public int write(ByteBuffer source) throws IOException {
+				if (!this.open){
+					throw new ClosedChannelException();
+				}
+				return channel.write(source);
+			}
+
+			@Override
+			public boolean isOpen() {
+				return this.open;
+			}
+
+			@Override
+			public void close() {
+				this.open = false;
+			}
+		};
+	}
+
+	/**
+	 * {@link ContainerDelegate} of the in-process connection.
+	 */
+	private class InProcessContainerDelegate extends AbstractContainerDelegate {
+		private final InProcessConnection connection;
+
+		/**
+		 *
+		 * @param connection
+		 */
+		InProcessContainerDelegate(InProcessConnection connection) {
+			super(InProcessApplicationContainerServer.this.transportSettings.getInFlightWindow(), InProcessApplicationContainerServer.this.creditBudget);
+			this.connection = connection;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public InetSocketAddress getHost() {
+			return this.connection.getClientAddress();
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		void doProcess(ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
+			InProcessApplicationContainerServer.this.process(this.connection, data, replyPostProcessor);
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		void doProcess(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+			InProcessApplicationContainerServer.this.process(this.connection, data, replyChannel);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection between {@link InProcessApplicationContainerServer} and {@link InProcessApplicationContainerClient}
+ * which reside in the same JVM. Either side may close it, while the other side is notified the same way
+ * it would be if the socket was closed by its peer.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class InProcessConnection {
+
+	private final InProcessApplicationContainerServer server;
+
+	private final InProcessApplicationContainerClient client;
+
+	private final InetSocketAddress clientAddress;
+
+	private final AtomicBoolean open;
+
+	/**
+	 *
+	 * @param server
+	 * @param client
+	 * @param clientAddress
+	 * 		address which identifies the client side of this connection
+	 */
+	InProcessConnection(InProcessApplicationContainerServer server, InProcessApplicationContainerClient client, InetSocketAddress clientAddress) {
+		this.server = server;
+		this.client = client;
+		this.clientAddress = clientAddress;
+		this.open = new AtomicBoolean(true);
+	}
+
+	/**
+	 *
+	 */
+	InProcessApplicationContainerServer getServer() {
+		return this.server;
+	}
+
+	/**
+	 *
+	 */
+	InProcessApplicationContainerClient getClient() {
+		return this.client;
+	}
+
+	/**
+	 *
+	 */
+	InetSocketAddress getClientAddress() {
+		return this.clientAddress;
+	}
+
+	/**
+	 *
+	 */
+	boolean isOpen() {
+		return this.open.get();
+	}
+
+	/**
+	 * Closes this connection on behalf of the server, notifying the client.
+	 *
+	 * @return 'true' if connection was closed by this invocation
+	 */
+	boolean closeByServer() {
+		if (this.open.compareAndSet(true, false)){
+			this.client.onDisconnect();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Closes this connection on behalf of the client, notifying the server.
+	 *
+	 * @return 'true' if connection was closed by this invocation
+	 */
+	boolean closeByClient() {
+		if (this.open.compareAndSet(true, false)){
+			this.server.onDisconnect(this);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "InProcessConnection:[" + this.clientAddress + (this.isOpen() ? "" : ", closed") + "]";
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * Fast {@link CompressionCodec} of the LZ77 family which favors speed over compression ratio.
+ *
+ * Compressed data is a sequence of blocks each starting with a token byte which carries the length
+ * of the literals (high 4 bits) and the length of the match (low 4 bits, minus {@link #MIN_MATCH}).
+ * Lengths of 15 are continued in the following bytes (each adding up to 255). Token is followed by the
+ * literals and (unless it is the last block) by the 2 byte (little-endian) offset of the match
+ * within the last 64KB of the decompressed data. Matches are found using the hash table of 4 byte sequences
+ * without any further search, which is what keeps it fast.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class LzCompressionCodec implements CompressionCodec {
+
+	public static final String NAME = "lz";
+
+	private static final int MIN_MATCH = 4;
+
+	private static final int MAX_OFFSET = 65535;
+
+	private static final int HASH_LOG = 12;
+
+	private static final ThreadLocal<int[]> HASH_TABLES = new ThreadLocal<int[]>(){
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << HASH_LOG];
+		}
+	};
+
+	/**
+	 *
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int maxLength) {
+		int sourceEnd = sourceOffset + length;
+		int targetEnd = targetOffset + maxLength;
+		int t = targetOffset;
+		int anchor = sourceOffset;
+		int s = sourceOffset;
+		// positions are stored relative to 'sourceOffset' + 1, so 0 means empty
+		int[] hashTable = HASH_TABLES.get();
+		Arrays.fill(hashTable, 0);
+		while (s + MIN_MATCH <= sourceEnd){
+			int sequence = readInt(source, s);
+			int hash = hash(sequence);
+			int match = sourceOffset + hashTable[hash] - 1;
+			hashTable[hash] = s - sourceOffset + 1;
+			if (match >= sourceOffset && s - match <= MAX_OFFSET && readInt(source, match) == sequence){
+				int matchLength = MIN_MATCH;
+				while (s + matchLength < sourceEnd && source[match + matchLength] == source[s + matchLength]){
+					matchLength++;
+				}
+				t = writeBlock(source, anchor, s - anchor, s - match, matchLength, target, t, targetEnd);
+				if (t < 0){
+					return -1;
+				}
+				s += matchLength;
+				anchor = s;
+			}
+			else {
+				s++;
+			}
+		}
+		// last block consists of the remaining literals only
+		t = writeBlock(source, anchor, sourceEnd - anchor, 0, 0, target, t, targetEnd);
+		return t < 0 ? -1 : t - targetOffset;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int originalLength) throws IOException {
+		int sourceEnd = sourceOffset + length;
+		int targetEnd = targetOffset + originalLength;
+		int s = sourceOffset;
+		int t = targetOffset;
+		try {
+			while (s < sourceEnd){
+				int token = source[s++] & 0xFF;
+				int literalLength = token >>> 4;
+				if (literalLength == 15){
+					int b;
+					do {
+						b = source[checkAvailable(s++, sourceEnd)] & 0xFF;
+						literalLength += b;
+					}
+					while (b == 255);
+				}
+				if (literalLength > sourceEnd - s || literalLength > targetEnd - t){
+					throw new StreamCorruptedException("Invalid literal length: " + literalLength);
+				}
+				System.arraycopy(source, s, target, t, literalLength);
+				s += literalLength;
+				t += literalLength;
+				if (s == sourceEnd){
+					break;
+				}
+
+				checkAvailable(s + 1, sourceEnd);
+				int offset = (source[s] & 0xFF) | (source[s + 1] & 0xFF) << 8;
+				s += 2;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15){
+					int b;
+					do {
+						b = source[checkAvailable(s++, sourceEnd)] & 0xFF;
+						matchLength += b;
+					}
+					while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				int match = t - offset;
+				if (offset == 0 || match < targetOffset || matchLength > targetEnd - t){
+					throw new StreamCorruptedException("Invalid match (offset: " + offset + ", length: " + matchLength + ")");
+				}
+				// may overlap, so must be copied byte by byte
+				for (int i = 0; i < matchLength; i++) {
+					target[t++] = target[match++];
+				}
+			}
+		}
+		catch (IndexOutOfBoundsException e) {
+			throw new StreamCorruptedException("Compressed data is truncated");
+		}
+		if (t != targetEnd){
+			throw new StreamCorruptedException("Decompressed length " + (t - targetOffset) + " does not match original length " + originalLength);
+		}
+	}
+
+	/**
+	 * Returns 'position' if it is within the compressed data.
+	 */
+	private static int checkAvailable(int position, int sourceEnd) {
+		if (position >= sourceEnd){
+			throw new IndexOutOfBoundsException();
+		}
+		return position;
+	}
+
+	/**
+	 * Writes the block returning position in 'target' after it or -1 if it does not fit.
+	 */
+	private static int writeBlock(byte[] source, int literalOffset, int literalLength, int matchOffset, int matchLength,
+			byte[] target, int t, int targetEnd) {
+		// token + length continuation + literals
+		if (t + 1 + literalLength / 255 + 1 + literalLength > targetEnd){
+			return -1;
+		}
+		int tokenPosition = t++;
+		int token;
+		if (literalLength >= 15){
+			token = 15 << 4;
+			t = writeLengthContinuation(literalLength - 15, target, t);
+		}
+		else {
+			token = literalLength << 4;
+		}
+		System.arraycopy(source, literalOffset, target, t, literalLength);
+		t += literalLength;
+		if (matchLength > 0){
+			// offset + length continuation
+			if (t + 2 + matchLength / 255 + 1 > targetEnd){
+				return -1;
+			}
+			target[t++] = (byte) matchOffset;
+			target[t++] = (byte) (matchOffset >>> 8);
+			int length = matchLength - MIN_MATCH;
+			if (length >= 15){
+				token |= 15;
+				t = writeLengthContinuation(length - 15, target, t);
+			}
+			else {
+				token |= length;
+			}
+		}
+		target[tokenPosition] = (byte) token;
+		return t;
+	}
+
+	/**
+	 *
+	 */
+	private static int writeLengthContinuation(int length, byte[] target, int t) {
+		while (length >= 255){
+			target[t++] = (byte) 255;
+			length -= 255;
+		}
+		target[t++] = (byte) length;
+		return t;
+	}
+
+	/**
+	 *
+	 */
+	private static int readInt(byte[] source, int offset) {
+		return (source[offset] & 0xFF) | (source[offset + 1] & 0xFF) << 8 |
+				(source[offset + 2] & 0xFF) << 16 | (source[offset + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 *
+	 */
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
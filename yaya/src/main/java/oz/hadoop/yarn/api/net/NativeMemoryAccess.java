@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import sun.misc.Unsafe;
+
+/**
+ * Volatile and CAS access to the native memory of direct buffers (e.g., header of the {@link SharedMemoryRing}), 
+ * which {@link ByteBuffer} does not provide on Java 7 and 8. 
+ * 
+ * Backed by {@link Unsafe} on purpose: the positions and parked flags of the ring are shared with the other 
+ * process through the mapped file, so they need ordered writes for the consumer to never see the data before 
+ * the position that publishes it, and CAS for only one side to ever unpark the other. {@link ByteBuffer} and 
+ * {@link java.nio.MappedByteBuffer} give neither, while VarHandle (which would replace this class) requires 
+ * Java 9. The compiler reports the use of proprietary API for this class and it is the only class in the 
+ * project which is allowed to have such warnings. If {@link Unsafe} is not available {@link #isSupported()} 
+ * returns 'false' and none of the other methods may be invoked.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class NativeMemoryAccess {
+	
+	private static final Unsafe unsafe;
+	
+	private static final long addressFieldOffset;
+	
+	static {
+		Unsafe theUnsafe = null;
+		long offset = -1;
+		try {
+			Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			theUnsafe = (Unsafe) unsafeField.get(null);
+			offset = theUnsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		} 
+		catch (Throwable e) {
+			// e.g., class is not there or access to it is denied
+			theUnsafe = null;
+		}
+		unsafe = theUnsafe;
+		addressFieldOffset = offset;
+	}
+	
+	/**
+	 * Returns 'true' if native memory can be accessed in this JVM.
+	 */
+	static boolean isSupported() {
+		return unsafe != null;
+	}
+	
+	/**
+	 * Returns the address of the native memory of the direct 'buffer' (ignoring its position).
+	 */
+	static long addressOf(ByteBuffer buffer) {
+		return unsafe.getLong(buffer, addressFieldOffset);
+	}
+	
+	/**
+	 * 
+	 */
+	static long getLongVolatile(long address) {
+		return unsafe.getLongVolatile(null, address);
+	}
+	
+	/**
+	 * 
+	 */
+	static void putLongVolatile(long address, long value) {
+		unsafe.putLongVolatile(null, address, value);
+	}
+	
+	/**
+	 * 
+	 */
+	static int getIntVolatile(long address) {
+		return unsafe.getIntVolatile(null, address);
+	}
+	
+	/**
+	 * 
+	 */
+	static void putIntVolatile(long address, int value) {
+		unsafe.putIntVolatile(null, address, value);
+	}
+	
+	/**
+	 * 
+	 */
+	static boolean compareAndSwapInt(long address, int expected, int value) {
+		return unsafe.compareAndSwapInt(null, address, expected, value);
+	}
+}
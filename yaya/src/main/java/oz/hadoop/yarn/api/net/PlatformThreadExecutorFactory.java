@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ExecutorFactory} which runs tasks on platform (OS) threads. Threads are cached, so
+ * each concurrently running task still takes its own thread with its own stack.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class PlatformThreadExecutorFactory implements ExecutorFactory {
+
+	public static final String NAME = "platform";
+
+	/**
+	 * 
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public ExecutorService newExecutor(String name) {
+		return Executors.newCachedThreadPool(new NamedThreadFactory(name));
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public ExecutorService newBoundedExecutor(String name, int concurrency) {
+		return Executors.newFixedThreadPool(concurrency, new NamedThreadFactory(name));
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return NAME;
+	}
+
+	/**
+	 * Names threads after the component they serve, so they could be told apart in thread dumps.
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+		
+		private final AtomicInteger threadCount = new AtomicInteger();
+		
+		private final String prefix;
+		
+		/**
+		 * 
+		 * @param prefix
+		 */
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = this.threadFactory.newThread(task);
+			thread.setName(this.prefix + "-" + this.threadCount.incrementAndGet());
+			return thread;
+		}
+	}
+}
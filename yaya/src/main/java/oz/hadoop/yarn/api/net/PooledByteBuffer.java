@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted wrapper over the {@link ByteBuffer} which holds the payload of the received frame.
+ *
+ * Instead of copying received messages, handlers are given the read-only view of the
+ * underlying buffer (see {@link #asReadOnlyBuffer()}) while the buffer itself is returned
+ * to the {@link ByteBufferPool} once its reference count drops to 0. Every party which
+ * needs to hold on to the buffer beyond the scope it was given must {@link #retain()} it and
+ * {@link #release()} it once done.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class PooledByteBuffer {
+
+	private final ByteBuffer buffer;
+
+	private final ByteBufferPool bufferPool;
+
+	private final PooledByteBuffer parent;
+
+	private final AtomicInteger referenceCount;
+
+	/**
+	 * Creates an instance with reference count of 1.
+	 *
+	 * @param buffer
+	 * 		buffer positioned at the beginning of the payload with its limit set at the end of it
+	 * @param bufferPool
+	 * 		pool to return the buffer to once it is released. Could be null if buffer
+	 * 		was not obtained from the pool.
+	 */
+	PooledByteBuffer(ByteBuffer buffer, ByteBufferPool bufferPool) {
+		this(buffer, bufferPool, null);
+	}
+
+	/**
+	 * Creates an instance with reference count of 1 which retains the 'parent' (if any) until it is released.
+	 *
+	 * @param buffer
+	 * @param bufferPool
+	 * 		could be null if buffer was not obtained from the pool (e.g., slice).
+	 * @param parent
+	 * 		instance this one was derived from (e.g., compressed payload derived from the original one)
+	 */
+	PooledByteBuffer(ByteBuffer buffer, ByteBufferPool bufferPool, PooledByteBuffer parent) {
+		this.buffer = buffer;
+		this.bufferPool = bufferPool;
+		this.parent = parent;
+		this.referenceCount = new AtomicInteger(1);
+	}
+
+	/**
+	 * Returns read-only view of the payload. Since view is sliced, its position is 0
+	 * and its capacity is equal to the size of the payload.
+	 * The view must not be used after this buffer is released.
+	 */
+	ByteBuffer asReadOnlyBuffer() {
+		return this.buffer.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the size of the payload.
+	 */
+	int size() {
+		return this.buffer.remaining();
+	}
+
+	/**
+	 * Returns the region of the payload (relative to its beginning) as a separately released
+	 * instance which shares the underlying buffer with this one. This instance is retained
+	 * until the returned one is released (e.g., messages contained in the batch, see {@link FrameBatcher}).
+	 *
+	 * @param offset
+	 * @param length
+	 */
+	PooledByteBuffer slice(int offset, int length) {
+		ByteBuffer region = this.buffer.duplicate();
+		region.position(this.buffer.position() + offset);
+		region.limit(region.position() + length);
+		this.retain();
+		return new PooledByteBuffer(region, null, this);
+	}
+
+	/**
+	 * Increments reference count.
+	 */
+	PooledByteBuffer retain() {
+		int count;
+		do {
+			count = this.referenceCount.get();
+			if (count <= 0){
+				throw new IllegalStateException("Buffer was already released");
+			}
+		}
+		while (!this.referenceCount.compareAndSet(count, count + 1));
+		return this;
+	}
+
+	/**
+	 * Decrements reference count returning the underlying buffer to the pool
+	 * (and releasing the instance it was derived from) when it reaches 0.
+	 *
+	 * @return 'true' if reference count reached 0
+	 */
+	boolean release() {
+		int count = this.referenceCount.decrementAndGet();
+		if (count == 0){
+			if (this.bufferPool != null){
+				this.bufferPool.release(this.buffer);
+			}
+			if (this.parent != null){
+				this.parent.release();
+			}
+			return true;
+		}
+		else if (count < 0){
+			throw new IllegalStateException("Buffer was already released");
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 */
+	int referenceCount() {
+		return this.referenceCount.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "PooledByteBuffer:[buffer=" + this.buffer + ", referenceCount=" + this.referenceCount.get() + "]";
+	}
+}
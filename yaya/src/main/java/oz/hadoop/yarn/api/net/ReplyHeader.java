@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary status header which the Application Container writes in front of every reply produced by 
+ * {@link oz.hadoop.yarn.api.ApplicationContainerProcessor}. Header is {@link #LENGTH} bytes long:
+ * <pre>
+ * byte - status ({@link #SUCCESS} or {@link #FAILURE})
+ * int  - id of the Application Container
+ * long - nanoseconds the Application Container spent processing the request
+ * </pre>
+ * Successful reply carries the data produced by the processor after the header, while failed one 
+ * carries the stack trace of the failure (UTF-8). Presence of the header is never guessed from the reply, 
+ * instead the frame carrying the reply is marked with {@link AbstractSocketHandler#REPLY_HEADER_FLAG}, 
+ * while the replies without it (e.g., streamed) are given to the methods of this class as 'null' header.
+ * Header is read in place without copying the reply, while position of the reply is never changed. 
+ * 
+ * INTERNAL API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public final class ReplyHeader {
+
+	public static final byte SUCCESS = 0;
+
+	public static final byte FAILURE = 1;
+
+	public static final int LENGTH = 1 + 4 + 8;
+
+	private static final int CONTAINER_ID_OFFSET = 1;
+
+	private static final int PROCESSING_TIME_OFFSET = 5;
+
+	private ReplyHeader() {}
+
+	/**
+	 * Allocates the reply with room for 'dataLength' bytes following the header which is written 
+	 * in place. Returned buffer is positioned right after the header.
+	 */
+	public static ByteBuffer allocate(int dataLength, byte status, int containerId, long processingTimeNanos) {
+		ByteBuffer reply = ByteBuffer.allocate(LENGTH + dataLength);
+		write(reply, status, containerId, processingTimeNanos);
+		return reply;
+	}
+
+	/**
+	 * Writes the header into the 'target' at its current position, so it could be sent in front 
+	 * of the data without copying the data (see {@link ReplyHeaderWritingMessageHandler}).
+	 */
+	public static void write(ByteBuffer target, byte status, int containerId, long processingTimeNanos) {
+		target.put(status);
+		target.putInt(containerId);
+		target.putLong(processingTimeNanos);
+	}
+
+	/**
+	 * Returns 'true' if the 'replyHeader' signifies the failure of the Application Container to process the request.
+	 * Replies without the header ('null') are successful.
+	 */
+	public static boolean isFailure(ByteBuffer replyHeader) {
+		return replyHeader != null && replyHeader.get(replyHeader.position()) == FAILURE;
+	}
+
+	/**
+	 * Returns the id of the Application Container which produced the reply or -1 if it has no header ('null').
+	 */
+	public static int getContainerId(ByteBuffer replyHeader) {
+		return replyHeader == null ? -1 : replyHeader.getInt(replyHeader.position() + CONTAINER_ID_OFFSET);
+	}
+
+	/**
+	 * Returns nanoseconds the Application Container spent processing the request or -1 if the reply has no header ('null').
+	 */
+	public static long getProcessingTimeNanos(ByteBuffer replyHeader) {
+		return replyHeader == null ? -1 : replyHeader.getLong(replyHeader.position() + PROCESSING_TIME_OFFSET);
+	}
+
+	/**
+	 * Returns the view of the header the 'reply' starts with.
+	 */
+	public static ByteBuffer header(ByteBuffer reply) {
+		ByteBuffer header = reply.duplicate();
+		header.limit(header.position() + LENGTH);
+		return header.slice();
+	}
+
+	/**
+	 * Returns the view of the data which follows the header the 'reply' starts with.
+	 */
+	public static ByteBuffer data(ByteBuffer reply) {
+		ByteBuffer data = reply.duplicate();
+		data.position(data.position() + LENGTH);
+		return data.slice();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ApplicationContainerMessageHandler} which writes the {@link ReplyHeader} of the reply separately 
+ * from its data, so the transport sends the header in front of the data without copying the data 
+ * (e.g., echo of the received message).
+ * 
+ * INTERNAL API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface ReplyHeaderWritingMessageHandler extends ApplicationContainerMessageHandler {
+
+	/**
+	 * Handles the message writing the {@link ReplyHeader} of the reply into the 'replyHeader'
+	 * (see {@link ReplyHeader#write(ByteBuffer, byte, int, long)}), which has {@link ReplyHeader#LENGTH} 
+	 * bytes remaining.
+	 * 
+	 * @param messageBuffer
+	 * @param replyHeader
+	 * @return data of the reply which follows the header, never null
+	 */
+	ByteBuffer handle(ByteBuffer messageBuffer, ByteBuffer replyHeader);
+}
@@ -15,26 +15,83 @@
  */
 package oz.hadoop.yarn.api.net;
 
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import oz.hadoop.yarn.api.ReplyEnvelope;
+
 /**
  * @author Oleg Zhurakousky
  *
  */
 public abstract class ReplyPostProcessor {
 	
+	private final Log logger = LogFactory.getLog(ReplyPostProcessor.class);
+	
 	private volatile ContainerDelegate containerDelegate;
 	
+	private volatile long size;
+	
+	private final Object tag;
+	
+	private final long submittedNanos;
+	
+	private volatile long requestId;
+	
+	private volatile long sentNanos;
+	
+	private volatile boolean failedReply;
+	
 	/**
+	 * 
+	 */
+	public ReplyPostProcessor() {
+		this(null, System.nanoTime());
+	}
+	
+	/**
+	 * 
+	 * @param tag
+	 * 		user-supplied object which identifies the request (see {@link ReplyEnvelope#getTag()})
+	 * @param submittedNanos
+	 * 		time (see {@link System#nanoTime()}) the request was submitted, which may precede the creation 
+	 * 		of this instance (e.g., while waiting for the available Application Container)
+	 */
+	public ReplyPostProcessor(Object tag, long submittedNanos) {
+		this.tag = tag;
+		this.submittedNanos = submittedNanos;
+	}
+	
+	/**
+	 * Returns the tag supplied with the request or null if none was supplied.
+	 */
+	public Object getTag() {
+		return this.tag;
+	}
+	
+	/**
+	 * Returns the id assigned to the request once it was sent (see {@link ReplyEnvelope#getRequestId()})
+	 * or 0 if it was not sent (e.g., {@link ContainerDelegate} was suspended).
+	 */
+	public long getRequestId() {
+		return this.requestId;
+	}
+	
+	/**
+	 * Execution permit and credit of the request are returned before the reply is given to 
+	 * {@link #doProcess(ByteBuffer)}, so they are available again by the time anyone learns about the reply.
 	 * 
 	 * @param replyBuffer
 	 */
 	public void postProcess(ByteBuffer replyBuffer) {
 		try {
-			this.doProcess(replyBuffer);
+			this.release();
 		} 
 		finally {
-			this.release();
+			this.doProcess(replyBuffer);
 		}
 	}
 	
@@ -44,18 +101,94 @@ public abstract class ReplyPostProcessor {
 	 */
 	public abstract void doProcess(ByteBuffer replyBuffer);
 	
+	/**
+	 * Returns 'true' if the reply given to {@link #doProcess(ByteBuffer)} signifies the failure of the 
+	 * Application Container to process the request, in which case it contains the stack trace of the failure.
+	 */
+	public boolean isFailedReply() {
+		return this.failedReply;
+	}
+	
+	/**
+	 * Invoked instead of {@link #doProcess(ByteBuffer)} when the reply will never be received 
+	 * (e.g., Application Container was evicted, see {@link TransportSettings#getHeartbeatTimeoutMillis()}).
+	 * Only logs the failure by default.
+	 * 
+	 * @param cause
+	 */
+	public void doFail(Exception cause) {
+		logger.warn("Reply will never be received: " + cause.getMessage());
+	}
+	
+	/**
+	 * Invoked by the server with the received reply which data is given to {@link #postProcess(ByteBuffer)}.
+	 * 
+	 * @param replyHeader
+	 * 		{@link ReplyHeader} of the reply or 'null' if it was sent without one
+	 * @param data
+	 */
+	void postReply(ByteBuffer replyHeader, ByteBuffer data) {
+		this.failedReply = ReplyHeader.isFailure(replyHeader);
+		this.postProcess(data);
+	}
+	
+	/**
+	 * 
+	 * @param cause
+	 */
+	void postFailure(Exception cause) {
+		try {
+			this.release();
+		} 
+		finally {
+			this.doFail(cause);
+		}
+	}
+	
 	/**
 	 * 
 	 * @param containerDelegate
+	 * @param size
+	 * 		size of the message which credit is returned once the reply is received
 	 */
-	void setContainerDelegate(ContainerDelegate containerDelegate) {
+	void setContainerDelegate(ContainerDelegate containerDelegate, long size) {
+		this.size = size;
 		this.containerDelegate = containerDelegate;
 	}
 	
+	/**
+	 * 
+	 */
+	ContainerDelegate getContainerDelegate() {
+		return this.containerDelegate;
+	}
+	
+	/**
+	 * Invoked by the server once the request was assigned its id and is about to be sent.
+	 */
+	void onSent(long requestId) {
+		this.requestId = requestId;
+		this.sentNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Creates {@link ReplyEnvelope} of the reply to the request this instance was created for.
+	 * 
+	 * @param replyHeader
+	 * 		{@link ReplyHeader} of the reply or 'null' if it was sent without one
+	 * @param data
+	 */
+	ReplyEnvelope newReplyEnvelope(ByteBuffer replyHeader, ByteBuffer data) {
+		InetSocketAddress containerAddress = this.containerDelegate.getHost();
+		return new ReplyEnvelope(this.requestId, this.tag, containerAddress, ReplyHeader.getContainerId(replyHeader), !ReplyHeader.isFailure(replyHeader), 
+				this.sentNanos - this.submittedNanos, System.nanoTime() - this.sentNanos, ReplyHeader.getProcessingTimeNanos(replyHeader), 
+				data);
+	}
+	
 	/**
 	 * 
 	 */
 	private void release(){
-		((ContainerDelegateImpl)this.containerDelegate).release();
+		((AbstractContainerDelegate)this.containerDelegate).release(this.size);
 	}
 }
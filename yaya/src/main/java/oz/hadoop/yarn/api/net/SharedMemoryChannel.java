@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Pair of {@link SharedMemoryRing}s (one per direction) residing in the memory-mapped file which
+ * carry the frames of the connection whose both ends are on the same host (see {@link TransportSettings#getSharedMemoryRingSize()}),
+ * so the frame is copied into and out of the shared memory instead of going through the socket.
+ * 
+ * The file is created by the server side of the connection which sends its path and the random token written 
+ * into its header to the client over the socket. Client verifies the token to ensure it actually shares the file 
+ * with the server (e.g., it is not on another host with the same path). The file is deleted once both sides mapped it, 
+ * while its memory is released once both sides unmapped it.
+ * 
+ * The socket remains open. It detects disconnects and carries the wake up frames for the parked side of
+ * either ring, since the selector thread can only wait for the socket.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class SharedMemoryChannel {
+	
+	private static final Log logger = LogFactory.getLog(SharedMemoryChannel.class);
+	
+	private static final int MAGIC = 0x59415941;
+	
+	private static final int FILE_HEADER_SIZE = 64;
+	
+	private static final SecureRandom random = new SecureRandom();
+	
+	private final File file;
+	
+	private final long token;
+	
+	private final SharedMemoryRing inboundRing;
+	
+	private final SharedMemoryRing outboundRing;
+	
+	/*
+	 * Holds the state of the partially read frames of the inbound ring. Only accessed by the listener thread.
+	 */
+	private final FrameDecoder frameDecoder;
+	
+	/*
+	 * Only accessed by the listener thread
+	 */
+	private boolean inboundActive;
+	
+	/**
+	 * 
+	 */
+	private SharedMemoryChannel(File file, long token, MappedByteBuffer mappedBuffer, boolean server, ByteBufferPool bufferPool) {
+		this.file = file;
+		this.token = token;
+		int capacity = mappedBuffer.getInt(4);
+		// first ring carries frames from server to client
+		mappedBuffer.position(FILE_HEADER_SIZE);
+		SharedMemoryRing serverRing = new SharedMemoryRing(mappedBuffer, capacity);
+		mappedBuffer.position(FILE_HEADER_SIZE + SharedMemoryRing.HEADER_SIZE + capacity);
+		SharedMemoryRing clientRing = new SharedMemoryRing(mappedBuffer, capacity);
+		this.outboundRing = server ? serverRing : clientRing;
+		this.inboundRing = server ? clientRing : serverRing;
+		this.frameDecoder = new FrameDecoder(bufferPool);
+	}
+	
+	/**
+	 * Creates the file with both rings in the 'directory'. Invoked by the server side of the connection.
+	 * 
+	 * @param directory
+	 * @param ringCapacity
+	 * 		capacity of each ring (power of 2)
+	 * @param bufferPool
+	 * 		pool to receive frames into
+	 */
+	static SharedMemoryChannel create(File directory, int ringCapacity, ByteBufferPool bufferPool) throws IOException {
+		long token = random.nextLong();
+		File file = File.createTempFile("yaya-", ".ring", directory);
+		file.deleteOnExit();
+		try {
+			MappedByteBuffer mappedBuffer = map(file, fileSize(ringCapacity));
+			mappedBuffer.putInt(0, MAGIC);
+			mappedBuffer.putInt(4, ringCapacity);
+			mappedBuffer.putLong(8, token);
+			mappedBuffer.position(FILE_HEADER_SIZE);
+			SharedMemoryRing.initialize(mappedBuffer);
+			mappedBuffer.position(FILE_HEADER_SIZE + SharedMemoryRing.HEADER_SIZE + ringCapacity);
+			SharedMemoryRing.initialize(mappedBuffer);
+			return new SharedMemoryChannel(file, token, mappedBuffer, true, bufferPool);
+		} 
+		catch (IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Opens the file created by the server side of the connection (see {@link #create(File, int, ByteBufferPool)}). 
+	 * Invoked by the client side of the connection.
+	 * 
+	 * @param path
+	 * @param token
+	 * 		token received from the server
+	 * @param bufferPool
+	 * 		pool to receive frames into
+	 * @throws IOException
+	 * 		if file could not be mapped or it is not the one created by the server
+	 */
+	static SharedMemoryChannel open(String path, long token, ByteBufferPool bufferPool) throws IOException {
+		File file = new File(path);
+		long length = file.length();
+		if (length <= FILE_HEADER_SIZE){
+			throw new IOException("Shared memory file " + path + " does not exist or is incomplete");
+		}
+		MappedByteBuffer mappedBuffer = map(file, length);
+		int ringCapacity = mappedBuffer.getInt(4);
+		if (mappedBuffer.getInt(0) != MAGIC || mappedBuffer.getLong(8) != token || 
+				ringCapacity <= 0 || fileSize(ringCapacity) != length){
+			throw new IOException("Shared memory file " + path + " was not created by the server");
+		}
+		return new SharedMemoryChannel(file, token, mappedBuffer, false, bufferPool);
+	}
+	
+	/**
+	 * 
+	 */
+	String getPath() {
+		return this.file.getAbsolutePath();
+	}
+	
+	/**
+	 * 
+	 */
+	long getToken() {
+		return this.token;
+	}
+	
+	/**
+	 * Returns the ring this side of the connection writes frames into.
+	 */
+	SharedMemoryRing getOutboundRing() {
+		return this.outboundRing;
+	}
+	
+	/**
+	 * Returns the ring this side of the connection reads frames from.
+	 */
+	SharedMemoryRing getInboundRing() {
+		return this.inboundRing;
+	}
+	
+	/**
+	 * Returns {@link FrameDecoder} which holds the state of the frames read from the inbound ring.
+	 */
+	FrameDecoder getFrameDecoder() {
+		return this.frameDecoder;
+	}
+	
+	/**
+	 * Returns 'true' once the other side started writing frames into the inbound ring. 
+	 * Must only be invoked by the listener thread.
+	 */
+	boolean isInboundActive() {
+		return this.inboundActive;
+	}
+	
+	/**
+	 * Must only be invoked by the listener thread.
+	 */
+	void activateInbound() {
+		this.inboundActive = true;
+	}
+	
+	/**
+	 * Deletes the file once both sides mapped it. Memory remains shared until it is unmapped.
+	 */
+	void unlink() {
+		if (this.file.exists() && !this.file.delete()){
+			logger.warn("Failed to delete shared memory file " + this.file);
+		}
+	}
+	
+	/**
+	 * Releases resources held by this channel (including the file, if the other side never mapped it). 
+	 * Memory is unmapped once this channel is garbage collected. Must be invoked once connection is closed.
+	 */
+	void release() {
+		this.unlink();
+		this.frameDecoder.release();
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return "SharedMemoryChannel:[" + this.file + ", ringCapacity=" + this.outboundRing.getCapacity() + "]";
+	}
+	
+	/**
+	 * 
+	 */
+	private static long fileSize(int ringCapacity) {
+		return FILE_HEADER_SIZE + 2 * ((long) SharedMemoryRing.HEADER_SIZE + ringCapacity);
+	}
+	
+	/**
+	 * Mapping remains valid after the file is closed.
+	 */
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+}
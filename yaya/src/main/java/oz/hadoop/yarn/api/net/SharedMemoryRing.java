@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single producer, single consumer ring of bytes which resides in the region of the memory-mapped 
+ * file shared by two processes (or two connections of the same process), see {@link SharedMemoryChannel}.
+ * 
+ * The region starts with the header which holds the positions (total amount of bytes written and read) 
+ * followed by the data. Each position is only ever updated by its owner (producer or consumer), so the 
+ * ring requires no locking. Data is published by updating the write position after the data is copied 
+ * and is consumed by updating the read position after the data is read. Header fields are accessed 
+ * with volatile semantics (see {@link NativeMemoryAccess}), while each of them occupies its own cache line.
+ * 
+ * Since the side which found the ring empty (consumer) or full (producer) can not wait on memory, 
+ * it parks itself by raising its flag in the header, so the other side knows that it has to be woken
+ * up (see {@link #unparkConsumer()} and {@link #unparkProducer(int)}). Flags are raised and lowered 
+ * with CAS, so every park is matched by exactly one wake up.
+ * 
+ * NOT A PUBLIC API
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+class SharedMemoryRing {
+	
+	static final int HEADER_SIZE = 256;
+	
+	private static final int WRITE_POSITION_OFFSET = 0;
+	
+	private static final int READ_POSITION_OFFSET = 64;
+	
+	private static final int CONSUMER_PARKED_OFFSET = 128;
+	
+	private static final int PRODUCER_PARKED_OFFSET = 192;
+	
+	private final long headerAddress;
+	
+	private final int capacity;
+	
+	private final int mask;
+	
+	/*
+	 * Only accessed by the producer
+	 */
+	private final ByteBuffer writeView;
+	
+	/*
+	 * Only accessed by the consumer
+	 */
+	private final ByteBuffer readView;
+	
+	/*
+	 * Local copies of the positions owned by this side of the ring
+	 */
+	private long writePosition;
+	
+	private long readPosition;
+	
+	/**
+	 * 
+	 * @param region
+	 * 		direct buffer of {@link #HEADER_SIZE} + 'capacity' bytes starting at its position
+	 * @param capacity
+	 * 		power of 2
+	 */
+	SharedMemoryRing(ByteBuffer region, int capacity) {
+		ByteBuffer ringRegion = region.slice();
+		this.headerAddress = NativeMemoryAccess.addressOf(ringRegion);
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		ringRegion.position(HEADER_SIZE);
+		ringRegion.limit(HEADER_SIZE + capacity);
+		ByteBuffer data = ringRegion.slice();
+		this.writeView = data.duplicate();
+		this.readView = data.duplicate();
+		this.writePosition = NativeMemoryAccess.getLongVolatile(this.headerAddress + WRITE_POSITION_OFFSET);
+		this.readPosition = NativeMemoryAccess.getLongVolatile(this.headerAddress + READ_POSITION_OFFSET);
+	}
+	
+	/**
+	 * Returns 'true' if memory of the shared rings can be accessed in this JVM.
+	 */
+	static boolean isSupported() {
+		return NativeMemoryAccess.isSupported();
+	}
+	
+	/**
+	 * Initializes the header of the new ring residing in the 'region' (from its position). 
+	 * Consumer starts parked, so the first write wakes it up.
+	 */
+	static void initialize(ByteBuffer region) {
+		// header is accessed in the native byte order, so it is not written through the buffer
+		long headerAddress = NativeMemoryAccess.addressOf(region) + region.position();
+		NativeMemoryAccess.putLongVolatile(headerAddress + WRITE_POSITION_OFFSET, 0);
+		NativeMemoryAccess.putLongVolatile(headerAddress + READ_POSITION_OFFSET, 0);
+		NativeMemoryAccess.putIntVolatile(headerAddress + CONSUMER_PARKED_OFFSET, 1);
+		NativeMemoryAccess.putIntVolatile(headerAddress + PRODUCER_PARKED_OFFSET, 0);
+	}
+	
+	/**
+	 * Copies as many bytes from the 'sources' as the ring has room for and publishes them.
+	 * Must only be invoked by the producer.
+	 * 
+	 * @return amount of bytes written (0 if ring is full)
+	 */
+	long write(ByteBuffer[] sources, int offset, int length) {
+		long free = this.capacity - (this.writePosition - NativeMemoryAccess.getLongVolatile(this.headerAddress + READ_POSITION_OFFSET));
+		long written = 0;
+		for (int i = offset; i < offset + length && free > 0; i++) {
+			ByteBuffer source = sources[i];
+			while (source.hasRemaining() && free > 0){
+				int index = (int) (this.writePosition & this.mask);
+				int count = (int) Math.min(Math.min(source.remaining(), free), this.capacity - index);
+				this.writeView.clear();
+				this.writeView.position(index);
+				this.writeView.limit(index + count);
+				int sourceLimit = source.limit();
+				source.limit(source.position() + count);
+				this.writeView.put(source);
+				source.limit(sourceLimit);
+				this.writePosition += count;
+				written += count;
+				free -= count;
+			}
+		}
+		if (written > 0){
+			// volatile, since it must be visible before the consumer's flag is checked (see unparkConsumer())
+			NativeMemoryAccess.putLongVolatile(this.headerAddress + WRITE_POSITION_OFFSET, this.writePosition);
+		}
+		return written;
+	}
+	
+	/**
+	 * Parks the producer which found the ring full. Must only be invoked by the producer.
+	 * 
+	 * @return 'true' if producer is parked and will be woken up by the consumer, 'false' if 
+	 * 		room became available in the meantime and producer should continue writing.
+	 */
+	boolean parkProducer() {
+		NativeMemoryAccess.putIntVolatile(this.headerAddress + PRODUCER_PARKED_OFFSET, 1);
+		if (this.writePosition - NativeMemoryAccess.getLongVolatile(this.headerAddress + READ_POSITION_OFFSET) < this.capacity){
+			return !this.unpark(PRODUCER_PARKED_OFFSET);
+		}
+		return true;
+	}
+	
+	/**
+	 * Must be invoked by the producer after writing.
+	 * 
+	 * @return 'true' if consumer was parked and must be woken up by the caller.
+	 */
+	boolean unparkConsumer() {
+		return this.unpark(CONSUMER_PARKED_OFFSET);
+	}
+	
+	/**
+	 * Returns the view of the contiguous region of the unread data which is no longer then 'maxLength'. 
+	 * The view is valid until the next invocation and the data must be marked as consumed once read 
+	 * (see {@link #consumed(int)}). Must only be invoked by the consumer.
+	 * 
+	 * @return the view or null if the ring is empty
+	 */
+	ByteBuffer readable(int maxLength) {
+		long available = NativeMemoryAccess.getLongVolatile(this.headerAddress + WRITE_POSITION_OFFSET) - this.readPosition;
+		if (available == 0){
+			return null;
+		}
+		int index = (int) (this.readPosition & this.mask);
+		int count = (int) Math.min(Math.min(available, maxLength), this.capacity - index);
+		this.readView.clear();
+		this.readView.position(index);
+		this.readView.limit(index + count);
+		return this.readView;
+	}
+	
+	/**
+	 * Frees 'length' bytes read from the view returned by {@link #readable(int)}.
+	 * Must only be invoked by the consumer.
+	 * 
+	 * @return 'true' if producer was parked and must be woken up by the caller.
+	 */
+	boolean consumed(int length) {
+		this.readPosition += length;
+		// volatile, since it must be visible before the producer's flag is checked
+		NativeMemoryAccess.putLongVolatile(this.headerAddress + READ_POSITION_OFFSET, this.readPosition);
+		return this.unpark(PRODUCER_PARKED_OFFSET);
+	}
+	
+	/**
+	 * Parks the consumer which found the ring empty. Must only be invoked by the consumer.
+	 * 
+	 * @return 'true' if consumer is parked and will be woken up by the producer, 'false' if 
+	 * 		data became available in the meantime and consumer should continue reading.
+	 */
+	boolean parkConsumer() {
+		NativeMemoryAccess.putIntVolatile(this.headerAddress + CONSUMER_PARKED_OFFSET, 1);
+		if (NativeMemoryAccess.getLongVolatile(this.headerAddress + WRITE_POSITION_OFFSET) != this.readPosition){
+			return !this.unpark(CONSUMER_PARKED_OFFSET);
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 */
+	int getCapacity() {
+		return this.capacity;
+	}
+	
+	/**
+	 * Lowers the flag if it is raised.
+	 * 
+	 * @return 'true' if the flag was lowered by this invocation
+	 */
+	private boolean unpark(int flagOffset) {
+		long flagAddress = this.headerAddress + flagOffset;
+		return NativeMemoryAccess.getIntVolatile(flagAddress) == 1 && NativeMemoryAccess.compareAndSwapInt(flagAddress, 1, 0);
+	}
+}
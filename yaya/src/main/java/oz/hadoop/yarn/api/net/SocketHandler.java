@@ -16,6 +16,7 @@
 package oz.hadoop.yarn.api.net;
 
 import java.net.InetSocketAddress;
+import java.util.Map;
 
 /**
  * @author Oleg Zhurakousky
@@ -46,4 +47,10 @@ public interface SocketHandler {
 	 * ApplicationContainerClient has been shut down
 	 */
 	public abstract void awaitShutdown();
+	
+	/**
+	 * Returns statistics of every configured {@link CompressionCodec} keyed by codec name.
+	 * Empty if compression is disabled.
+	 */
+	Map<String, CompressionStats> getCompressionStats();
 }
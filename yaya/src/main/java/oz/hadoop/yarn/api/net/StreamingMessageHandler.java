@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ApplicationContainerMessageHandler} which is also capable of handling streamed messages 
+ * (see {@link ContainerDelegate#process(ReadableByteChannel, WritableByteChannel)}) without 
+ * holding them in memory.
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface StreamingMessageHandler extends ApplicationContainerMessageHandler {
+
+	/**
+	 * Handles the message which is read from the 'message' channel as it arrives, while the data written
+	 * to the 'reply' channel is streamed back as the reply. Reply is complete once this method returns, while
+	 * the exception aborts it.
+	 * 
+	 * @param message
+	 * @param reply
+	 * @throws IOException
+	 */
+	void handle(ReadableByteChannel message, WritableByteChannel reply) throws IOException;
+}
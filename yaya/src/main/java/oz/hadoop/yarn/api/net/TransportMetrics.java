@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Aggregate metrics of the socket handler (see {@link TransportMetricsMXBean}) which also creates 
+ * {@link ConnectionMetrics} of its connections. Once registered (see {@link #register(String, SocketAddress)}) 
+ * the metrics of the connections are registered as well, under the name of the handler qualified by 
+ * the remote address of the connection, and are all unregistered together with the aggregate.
+ *
+ * NOT A PUBLIC API
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+class TransportMetrics extends ConnectionMetrics implements TransportMetricsMXBean {
+
+	static final String DOMAIN = "oz.hadoop.yarn.api.net";
+
+	private final Log logger = LogFactory.getLog(TransportMetrics.class);
+
+	private final ByteBufferPool bufferPool;
+
+	private final Histogram selectorLoopIterationNanos;
+
+	private final AtomicInteger connections;
+
+	private final Set<ConnectionMetrics> registeredConnections;
+
+	/**
+	 *
+	 * @param bufferPool
+	 */
+	TransportMetrics(ByteBufferPool bufferPool) {
+		super(null);
+		this.bufferPool = bufferPool;
+		this.selectorLoopIterationNanos = new Histogram();
+		this.connections = new AtomicInteger();
+		this.registeredConnections = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionMetrics, Boolean>());
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int getConnections() {
+		return this.connections.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public HistogramSnapshot getSelectorLoopIterationNanos() {
+		return this.selectorLoopIterationNanos.snapshot();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getBufferPoolHits() {
+		return this.bufferPool.getHits();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getBufferPoolMisses() {
+		return this.bufferPool.getMisses();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getBufferPoolOutstanding() {
+		return this.bufferPool.getOutstanding();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public long getBufferPoolPooledBytes() {
+		return this.bufferPool.getPooledBytes();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public double getBufferPoolUtilization() {
+		long budget = this.bufferPool.getBudget();
+		return budget == 0 ? 0 : (double) this.bufferPool.getPooledBytes() / budget;
+	}
+
+	/**
+	 * Creates metrics of the new connection which must be closed once the connection is closed.
+	 */
+	ConnectionMetrics newConnectionMetrics() {
+		this.connections.incrementAndGet();
+		return new ConnectionMetrics(this);
+	}
+
+	/**
+	 * Records nanoseconds the selector loop spent processing the sockets selected in a single iteration.
+	 */
+	void recordSelectorLoopIteration(long nanos) {
+		this.selectorLoopIterationNanos.record(nanos);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBeanServer under the name identifying the handler 
+	 * by its type (e.g., ApplicationContainerServerImpl) and the local address.
+	 */
+	void register(String type, SocketAddress localAddress) {
+		try {
+			this.register(new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(String.valueOf(localAddress))));
+		} 
+		catch (MalformedObjectNameException e) {
+			logger.warn("Failed to register metrics of " + type + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Registers metrics of the connection under the name of these metrics qualified by 'remoteAddress'. 
+	 * Ignored unless these metrics are registered.
+	 */
+	void registerConnection(ConnectionMetrics connectionMetrics, SocketAddress remoteAddress) {
+		ObjectName objectName = this.getObjectName();
+		if (objectName != null){
+			try {
+				this.registeredConnections.add(connectionMetrics);
+				connectionMetrics.register(new ObjectName(objectName + ",connection=" + ObjectName.quote(String.valueOf(remoteAddress))));
+			} 
+			catch (MalformedObjectNameException e) {
+				logger.warn("Failed to register metrics of connection with " + remoteAddress + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Unregisters these metrics together with the metrics of the connections which are still open.
+	 */
+	@Override
+	void unregister() {
+		for (ConnectionMetrics connectionMetrics : this.registeredConnections) {
+			connectionMetrics.unregister();
+		}
+		this.registeredConnections.clear();
+		super.unregister();
+	}
+
+	/**
+	 *
+	 */
+	void onConnectionClosed(ConnectionMetrics connectionMetrics) {
+		this.connections.decrementAndGet();
+		this.registeredConnections.remove(connectionMetrics);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return super.toString() + "[connections=" + this.connections.get() + ", selectorLoopIterationNanos=" + 
+				this.selectorLoopIterationNanos + "]";
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+/**
+ * Aggregate metrics of all connections of the socket handler (e.g., {@link ApplicationContainerServerImpl} or 
+ * {@link ApplicationContainerClientImpl}) exposed via JMX together with the metrics of its selector loops 
+ * and its {@link ByteBufferPool}. Registered under the "oz.hadoop.yarn.api.net" domain for as long as 
+ * the handler is running, while each connection registers its own {@link ConnectionMetricsMXBean}.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public interface TransportMetricsMXBean extends ConnectionMetricsMXBean {
+
+	/**
+	 * Returns the amount of currently open connections.
+	 */
+	int getConnections();
+
+	/**
+	 * Returns the distribution of nanoseconds the selector loops spent processing the sockets 
+	 * selected in a single iteration.
+	 */
+	HistogramSnapshot getSelectorLoopIterationNanos();
+
+	/**
+	 * Returns the amount of buffer requests satisfied by the pooled buffers.
+	 */
+	long getBufferPoolHits();
+
+	/**
+	 * Returns the amount of buffer requests which required allocation.
+	 */
+	long getBufferPoolMisses();
+
+	/**
+	 * Returns the amount of buffers which were taken from the pool and not yet returned.
+	 */
+	long getBufferPoolOutstanding();
+
+	/**
+	 * Returns the total size of the idle buffers retained by the pool.
+	 */
+	long getBufferPoolPooledBytes();
+
+	/**
+	 * Returns the share of the pool's budget occupied by the idle buffers (0.0 - 1.0).
+	 */
+	double getBufferPoolUtilization();
+}
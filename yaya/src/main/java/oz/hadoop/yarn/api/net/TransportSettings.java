@@ -0,0 +1,555 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.io.File;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import oz.hadoop.yarn.api.ContainerEvictionListener;
+import oz.hadoop.yarn.api.CreditExhaustedException;
+import oz.hadoop.yarn.api.CreditListener;
+import oz.hadoop.yarn.api.YayaConstants;
+
+/**
+ * Immutable holder of the settings which govern the behavior of the network layer
+ * ({@link ApplicationContainerServer} and {@link ApplicationContainerClient}).
+ *
+ * Settings are read from the application specification using keys defined in {@link YayaConstants}
+ * and since the same specification is delivered to Application Containers both ends of the
+ * connection are always configured consistently. Missing keys result in default values.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class TransportSettings {
+
+	private final Log logger = LogFactory.getLog(TransportSettings.class);
+
+	private static final int DEFAULT_IN_FLIGHT_WINDOW = 1;
+
+	private static final int DEFAULT_IO_THREADS = 1;
+
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+	private static final int DEFAULT_STREAM_CHUNK_SIZE = 65536;
+
+	private static final int DEFAULT_STREAM_BUFFERED_CHUNKS = 8;
+
+	private static final int DEFAULT_SHARED_MEMORY_RING_SIZE = 1024 * 1024;
+
+	private static final int MIN_SHARED_MEMORY_RING_SIZE = 4096;
+
+	private static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 5000;
+
+	private static final long DEFAULT_HEARTBEAT_TIMEOUT_MILLIS = 30000;
+
+	private static final long DEFAULT_RECONNECT_BACKOFF_MILLIS = 100;
+
+	private static final long DEFAULT_SESSION_RESUME_TIMEOUT_MILLIS = 30000;
+
+	private final int containerParallelism;
+
+	private final int inFlightWindow;
+
+	private final long bufferPoolBudget;
+
+	private final boolean bufferPoolDirect;
+
+	private final int ioThreads;
+
+	private final boolean selectorBusySpin;
+
+	private final int batchMaxSize;
+
+	private final long batchLingerMicros;
+
+	private final List<String> compressionCodecs;
+
+	private final int compressionThreshold;
+
+	private final int streamChunkSize;
+
+	private final int streamBufferedChunks;
+
+	private final int sharedMemoryRingSize;
+
+	private final String sharedMemoryDirectory;
+
+	private final boolean inProcessTransport;
+
+	private final boolean asyncTransport;
+
+	private final int creditMessages;
+
+	private final long creditBytes;
+
+	private final long inFlightBytesBudget;
+
+	private final boolean creditFailFast;
+
+	private final long heartbeatIntervalMillis;
+
+	private final long heartbeatTimeoutMillis;
+
+	private final int reconnectAttempts;
+
+	private final long reconnectBackoffMillis;
+
+	private final long sessionResumeTimeoutMillis;
+
+	private final ExecutorFactory executorFactory;
+
+	/**
+	 * Creates an instance of TransportSettings with default values.
+	 */
+	public TransportSettings() {
+		this(Collections.<String, Object>emptyMap());
+	}
+
+	/**
+	 * Creates an instance of TransportSettings from the application specification.
+	 *
+	 * @param specification
+	 */
+	@SuppressWarnings("unchecked")
+	public TransportSettings(Map<String, Object> specification) {
+		Assert.notNull(specification, "'specification' must not be null");
+		Object containerSpecification = specification.get(YayaConstants.CONTAINER_SPEC);
+		int virtualCores = containerSpecification instanceof Map ? 
+				getInt((Map<String, Object>) containerSpecification, YayaConstants.VIRTUAL_CORES, 1) : 1;
+		int containerParallelism = getInt(specification, YayaConstants.CONTAINER_PARALLELISM, virtualCores);
+		Assert.isTrue(containerParallelism > 0, "'" + YayaConstants.CONTAINER_PARALLELISM + "' must be > 0, was " + containerParallelism);
+		if (containerSpecification instanceof Map && isProcessLaunching((Map<String, Object>) containerSpecification)){
+			if (specification.get(YayaConstants.CONTAINER_PARALLELISM) != null && containerParallelism > 1){
+				logger.warn("Ignoring '" + YayaConstants.CONTAINER_PARALLELISM + "' of " + containerParallelism + 
+						" since command or forked Java process is launched by a single processor of Application Container");
+			}
+			containerParallelism = 1;
+		}
+		this.containerParallelism = containerParallelism;
+		this.inFlightWindow = getInt(specification, YayaConstants.IN_FLIGHT_WINDOW, Math.max(DEFAULT_IN_FLIGHT_WINDOW, this.containerParallelism));
+		Assert.isTrue(this.inFlightWindow > 0, "'" + YayaConstants.IN_FLIGHT_WINDOW + "' must be > 0, was " + this.inFlightWindow);
+		this.bufferPoolBudget = getLong(specification, YayaConstants.BUFFER_POOL_BUDGET, ByteBufferPool.DEFAULT_BUDGET);
+		Assert.isTrue(this.bufferPoolBudget >= 0, "'" + YayaConstants.BUFFER_POOL_BUDGET + "' must be >= 0, was " + this.bufferPoolBudget);
+		this.bufferPoolDirect = getBoolean(specification, YayaConstants.BUFFER_POOL_DIRECT, false);
+		this.ioThreads = getInt(specification, YayaConstants.IO_THREADS, DEFAULT_IO_THREADS);
+		Assert.isTrue(this.ioThreads > 0, "'" + YayaConstants.IO_THREADS + "' must be > 0, was " + this.ioThreads);
+		this.selectorBusySpin = getBoolean(specification, YayaConstants.SELECTOR_BUSY_SPIN, false);
+		this.batchMaxSize = getInt(specification, YayaConstants.BATCH_MAX_SIZE, 0);
+		Assert.isTrue(this.batchMaxSize == 0 || this.batchMaxSize > AbstractSocketHandler.FRAME_HEADER_SIZE * 2, 
+				"'" + YayaConstants.BATCH_MAX_SIZE + "' must be 0 (disabled) or > " + AbstractSocketHandler.FRAME_HEADER_SIZE * 2 + ", was " + this.batchMaxSize);
+		this.batchLingerMicros = getLong(specification, YayaConstants.BATCH_LINGER_MICROS, 0);
+		Assert.isTrue(this.batchLingerMicros >= 0, "'" + YayaConstants.BATCH_LINGER_MICROS + "' must be >= 0, was " + this.batchLingerMicros);
+		this.compressionCodecs = getList(specification, YayaConstants.COMPRESSION_CODECS);
+		this.compressionThreshold = getInt(specification, YayaConstants.COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD);
+		Assert.isTrue(this.compressionThreshold >= 0, "'" + YayaConstants.COMPRESSION_THRESHOLD + "' must be >= 0, was " + this.compressionThreshold);
+		this.streamChunkSize = getInt(specification, YayaConstants.STREAM_CHUNK_SIZE, DEFAULT_STREAM_CHUNK_SIZE);
+		Assert.isTrue(this.streamChunkSize > 1, "'" + YayaConstants.STREAM_CHUNK_SIZE + "' must be > 1, was " + this.streamChunkSize);
+		this.streamBufferedChunks = getInt(specification, YayaConstants.STREAM_BUFFERED_CHUNKS, DEFAULT_STREAM_BUFFERED_CHUNKS);
+		Assert.isTrue(this.streamBufferedChunks > 0, "'" + YayaConstants.STREAM_BUFFERED_CHUNKS + "' must be > 0, was " + this.streamBufferedChunks);
+		this.sharedMemoryRingSize = getInt(specification, YayaConstants.SHARED_MEMORY_RING_SIZE, DEFAULT_SHARED_MEMORY_RING_SIZE);
+		Assert.isTrue(this.sharedMemoryRingSize == 0 || (this.sharedMemoryRingSize >= MIN_SHARED_MEMORY_RING_SIZE && Integer.bitCount(this.sharedMemoryRingSize) == 1), 
+				"'" + YayaConstants.SHARED_MEMORY_RING_SIZE + "' must be 0 (disabled) or power of 2 >= " + MIN_SHARED_MEMORY_RING_SIZE + ", was " + this.sharedMemoryRingSize);
+		Object sharedMemoryDirectory = specification.get(YayaConstants.SHARED_MEMORY_DIRECTORY);
+		this.sharedMemoryDirectory = sharedMemoryDirectory == null ? getDefaultSharedMemoryDirectory() : sharedMemoryDirectory.toString();
+		this.asyncTransport = getBoolean(specification, YayaConstants.ASYNC_TRANSPORT, false);
+		this.inProcessTransport = getBoolean(specification, YayaConstants.YARN_EMULATOR, false) && 
+				getBoolean(specification, YayaConstants.IN_PROCESS_TRANSPORT, !this.asyncTransport);
+		this.creditMessages = getInt(specification, YayaConstants.CREDIT_MESSAGES, 0);
+		Assert.isTrue(this.creditMessages >= 0, "'" + YayaConstants.CREDIT_MESSAGES + "' must be >= 0, was " + this.creditMessages);
+		this.creditBytes = getLong(specification, YayaConstants.CREDIT_BYTES, 0);
+		Assert.isTrue(this.creditBytes >= 0, "'" + YayaConstants.CREDIT_BYTES + "' must be >= 0, was " + this.creditBytes);
+		this.inFlightBytesBudget = getLong(specification, YayaConstants.IN_FLIGHT_BYTES_BUDGET, 0);
+		Assert.isTrue(this.inFlightBytesBudget >= 0, "'" + YayaConstants.IN_FLIGHT_BYTES_BUDGET + "' must be >= 0, was " + this.inFlightBytesBudget);
+		this.creditFailFast = getBoolean(specification, YayaConstants.CREDIT_FAIL_FAST, false);
+		this.heartbeatIntervalMillis = getLong(specification, YayaConstants.HEARTBEAT_INTERVAL_MILLIS, DEFAULT_HEARTBEAT_INTERVAL_MILLIS);
+		Assert.isTrue(this.heartbeatIntervalMillis >= 0, "'" + YayaConstants.HEARTBEAT_INTERVAL_MILLIS + "' must be >= 0, was " + this.heartbeatIntervalMillis);
+		this.heartbeatTimeoutMillis = getLong(specification, YayaConstants.HEARTBEAT_TIMEOUT_MILLIS, 
+				Math.max(DEFAULT_HEARTBEAT_TIMEOUT_MILLIS, this.heartbeatIntervalMillis * 3));
+		Assert.isTrue(this.heartbeatIntervalMillis == 0 || this.heartbeatTimeoutMillis > this.heartbeatIntervalMillis, 
+				"'" + YayaConstants.HEARTBEAT_TIMEOUT_MILLIS + "' must be > '" + YayaConstants.HEARTBEAT_INTERVAL_MILLIS + "', was " + this.heartbeatTimeoutMillis);
+		this.reconnectAttempts = getInt(specification, YayaConstants.RECONNECT_ATTEMPTS, 0);
+		Assert.isTrue(this.reconnectAttempts >= 0, "'" + YayaConstants.RECONNECT_ATTEMPTS + "' must be >= 0, was " + this.reconnectAttempts);
+		this.reconnectBackoffMillis = getLong(specification, YayaConstants.RECONNECT_BACKOFF_MILLIS, DEFAULT_RECONNECT_BACKOFF_MILLIS);
+		Assert.isTrue(this.reconnectBackoffMillis > 0, "'" + YayaConstants.RECONNECT_BACKOFF_MILLIS + "' must be > 0, was " + this.reconnectBackoffMillis);
+		this.sessionResumeTimeoutMillis = getLong(specification, YayaConstants.SESSION_RESUME_TIMEOUT_MILLIS, 
+				this.reconnectAttempts > 0 ? DEFAULT_SESSION_RESUME_TIMEOUT_MILLIS : 0);
+		Assert.isTrue(this.sessionResumeTimeoutMillis >= 0, "'" + YayaConstants.SESSION_RESUME_TIMEOUT_MILLIS + "' must be >= 0, was " + this.sessionResumeTimeoutMillis);
+		Object executorFactory = specification.get(YayaConstants.EXECUTOR_FACTORY);
+		this.executorFactory = this.createExecutorFactory(executorFactory == null ? PlatformThreadExecutorFactory.NAME : executorFactory.toString().trim());
+	}
+
+	/**
+	 * Returns the amount of messages each Application Container processes concurrently, each with its own instance 
+	 * of {@link oz.hadoop.yarn.api.ApplicationContainerProcessor}, so a single Application Container with many cores 
+	 * could do the work of as many single-core Application Containers. Defaults to the amount of virtual cores 
+	 * of Application Container, while it is always 1 for Application Container which launches the command or 
+	 * forked Java process, so no message waits behind the one being processed by its single launcher.
+	 */
+	public int getContainerParallelism() {
+		return this.containerParallelism;
+	}
+
+	/**
+	 * Returns the maximum amount of requests which could be in flight
+	 * (sent, but not yet replied to) for each {@link ContainerDelegate}. Defaults to 
+	 * the parallelism of Application Container (see {@link #getContainerParallelism()}), 
+	 * so none of its processing threads stays idle.
+	 */
+	public int getInFlightWindow() {
+		return this.inFlightWindow;
+	}
+
+	/**
+	 * Returns the maximum amount of bytes retained by the idle buffers of the buffer pool
+	 * used to receive messages.
+	 */
+	public long getBufferPoolBudget() {
+		return this.bufferPoolBudget;
+	}
+
+	/**
+	 * Returns 'true' if buffers used to receive messages should be allocated off-heap.
+	 */
+	public boolean isBufferPoolDirect() {
+		return this.bufferPoolDirect;
+	}
+
+	/**
+	 * Returns the amount of threads (each with its own selector) which perform I/O on the connections
+	 * accepted by the {@link ApplicationContainerServer}. Connections are spread across these threads while
+	 * each connection is always served by the same thread. Connections are accepted by a separate thread.
+	 */
+	public int getIoThreads() {
+		return this.ioThreads;
+	}
+
+	/**
+	 * Returns 'true' if selector threads should continuously poll their selectors (see {@link Selector#selectNow()})
+	 * instead of blocking until I/O or task is available. Reduces latency at the cost of fully
+	 * occupying a CPU core per selector thread, so only suitable for latency-critical deployments.
+	 */
+	public boolean isSelectorBusySpin() {
+		return this.selectorBusySpin;
+	}
+
+	/**
+	 * Returns the maximum size (in bytes) of the frame into which small messages are packed
+	 * before being written, or 0 if batching is disabled (default). Messages which do not fit into 
+	 * the batch are sent in their own frame. Replies are correlated with requests individually
+	 * regardless of batching.
+	 */
+	public int getBatchMaxSize() {
+		return this.batchMaxSize;
+	}
+
+	/**
+	 * Returns the maximum amount of microseconds the batched message would wait for other messages
+	 * to join the batch before it is written. With 0 (default) batch is written as soon as the 
+	 * selector thread gets to it, so messages are only batched when they are sent faster then written.
+	 * Only applies if batching is enabled (see {@link #getBatchMaxSize()}).
+	 */
+	public long getBatchLingerMicros() {
+		return this.batchLingerMicros;
+	}
+
+	/**
+	 * Returns names of the {@link CompressionCodec}s (in the order of preference) which could be used
+	 * to compress frame payloads. Built-in codecs are {@link DeflateCompressionCodec#NAME} and 
+	 * {@link LzCompressionCodec#NAME}, while custom codecs are identified by the fully qualified name of 
+	 * their class. The codec used by each connection is negotiated during the handshake.
+	 * Empty (default) if compression is disabled.
+	 */
+	public List<String> getCompressionCodecs() {
+		return this.compressionCodecs;
+	}
+
+	/**
+	 * Returns the minimum size of the payload (in bytes) to be compressed.
+	 * Smaller payloads are not worth the time spent compressing them.
+	 */
+	public int getCompressionThreshold() {
+		return this.compressionThreshold;
+	}
+
+	/**
+	 * Returns the size of the chunk frames (in bytes) in which streamed messages 
+	 * (see {@link ContainerDelegate#process(java.nio.channels.ReadableByteChannel, java.nio.channels.WritableByteChannel)}) 
+	 * are sent.
+	 */
+	public int getStreamChunkSize() {
+		return this.streamChunkSize;
+	}
+
+	/**
+	 * Returns the maximum amount of chunks of each streamed message which could be buffered by either side 
+	 * (sent, but not yet written to the socket or received, but not yet read). Together with the chunk size
+	 * it bounds the memory used by the stream regardless of the size of the message.
+	 */
+	public int getStreamBufferedChunks() {
+		return this.streamBufferedChunks;
+	}
+
+	/**
+	 * Returns the size (in bytes) of each of the two rings in the shared memory which carry the frames of the connection
+	 * instead of the socket when both of its ends are on the same host (e.g., Application Container on the same node as the
+	 * client or YARN emulator), or 0 if shared memory is disabled. Ring size must be the power of 2, while messages which 
+	 * do not fit into the ring are passed through it in parts.
+	 */
+	public int getSharedMemoryRingSize() {
+		return this.sharedMemoryRingSize;
+	}
+
+	/**
+	 * Returns the directory where shared memory files are created. Defaults to '/dev/shm' if it exists
+	 * (so the shared memory is never written to disk), otherwise to the temporary directory. 
+	 */
+	public String getSharedMemoryDirectory() {
+		return this.sharedMemoryDirectory;
+	}
+
+	/**
+	 * Returns 'true' if the Application Master and Application Containers running in the same JVM 
+	 * (YARN emulator) exchange messages by handing them over to each other directly instead of 
+	 * going through the socket (see {@link InProcessApplicationContainerServer}). Enabled by default 
+	 * in YARN emulator, while it can be disabled to exercise the socket transport.
+	 */
+	public boolean isInProcessTransport() {
+		return this.inProcessTransport;
+	}
+
+	/**
+	 * Returns 'true' if messages are exchanged through NIO.2 asynchronous channels (see {@link AsyncApplicationContainerServer}) 
+	 * instead of the selector loops. Only messages and credit grants are exchanged by such transport, while batching, 
+	 * compression, shared memory, streamed messages, heartbeats and session resume do not apply. 
+	 * Selected through {@link oz.hadoop.yarn.api.YarnAssembly}, it also disables the in-process transport 
+	 * unless it is enabled explicitly (see {@link #isInProcessTransport()}).
+	 */
+	public boolean isAsyncTransport() {
+		return this.asyncTransport;
+	}
+
+	/**
+	 * Returns the amount of messages the Application Container grants to the Application Master to 
+	 * have in flight at any given time, or 0 if only the in-flight window of the Application Master applies 
+	 * (see {@link #getInFlightWindow()}). Granted once connected, while Application Container may grant 
+	 * different credit at any time (see {@link ApplicationContainerClient#grantCredit(int, long)}).
+	 */
+	public int getCreditMessages() {
+		return this.creditMessages;
+	}
+
+	/**
+	 * Returns the amount of bytes of messages the Application Container grants to the Application Master to 
+	 * have in flight at any given time, or 0 if unlimited. Message larger than the credit is only sent once
+	 * nothing else is in flight.
+	 */
+	public long getCreditBytes() {
+		return this.creditBytes;
+	}
+
+	/**
+	 * Returns the amount of bytes of messages the Application Master may have in flight to all of its 
+	 * Application Containers at any given time, or 0 if unlimited. Bytes are counted from submission until 
+	 * the reply is received, so this bounds the memory taken by the messages which were not yet written 
+	 * or replied to regardless of how fast they are submitted.
+	 */
+	public long getInFlightBytesBudget() {
+		return this.inFlightBytesBudget;
+	}
+
+	/**
+	 * Returns 'true' if submissions must fail with {@link CreditExhaustedException} once the credit ran out
+	 * instead of waiting for it to be replenished (see {@link CreditListener}).
+	 */
+	public boolean isCreditFailFast() {
+		return this.creditFailFast;
+	}
+
+	/**
+	 * Returns the interval at which each end of the connection sends heartbeat frames to its peer, 
+	 * or 0 if heartbeats are disabled. Heartbeats are not used by the in-process transport 
+	 * (see {@link #isInProcessTransport()}).
+	 */
+	public long getHeartbeatIntervalMillis() {
+		return this.heartbeatIntervalMillis;
+	}
+
+	/**
+	 * Returns the time after which the peer is considered dead if nothing (including heartbeats) was 
+	 * received from it. Application Master evicts such Application Container failing its in-flight requests 
+	 * (see {@link ContainerEvictionListener}), while Application Container shuts itself down.
+	 */
+	public long getHeartbeatTimeoutMillis() {
+		return this.heartbeatTimeoutMillis;
+	}
+
+	/**
+	 * Returns the amount of times Application Container attempts to reconnect once its connection 
+	 * to the Application Master was lost, or 0 if it shuts down right away. Attempts are separated 
+	 * by the backoff which doubles with every attempt (see {@link #getReconnectBackoffMillis()}).
+	 */
+	public int getReconnectAttempts() {
+		return this.reconnectAttempts;
+	}
+
+	/**
+	 * Returns the time to wait before the first attempt to reconnect (see {@link #getReconnectAttempts()}).
+	 */
+	public long getReconnectBackoffMillis() {
+		return this.reconnectBackoffMillis;
+	}
+
+	/**
+	 * Returns the time Application Master keeps the {@link ContainerDelegate} of the Application Container 
+	 * which lost its connection, so the Application Container could reconnect and resume its session, 
+	 * or 0 if lost Application Container is never waited for. Defaults to 30 seconds if Application 
+	 * Containers reconnect (see {@link #getReconnectAttempts()}), otherwise to 0.
+	 */
+	public long getSessionResumeTimeoutMillis() {
+		return this.sessionResumeTimeoutMillis;
+	}
+
+	/**
+	 * Returns the {@link ExecutorFactory} which creates threads of the network layer, processes launched by 
+	 * Application Containers and Application Containers of YARN emulator. Defaults to {@link PlatformThreadExecutorFactory}, 
+	 * while {@link VirtualThreadExecutorFactory} falls back to it if virtual threads are not supported by the JDK, 
+	 * so the same specification could be used by Application Containers running on older JDKs.
+	 */
+	public ExecutorFactory getExecutorFactory() {
+		return this.executorFactory;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString(){
+		return "TransportSettings:[containerParallelism=" + this.containerParallelism + ", inFlightWindow=" + this.inFlightWindow + 
+				", bufferPoolBudget=" + this.bufferPoolBudget +
+				", bufferPoolDirect=" + this.bufferPoolDirect + ", ioThreads=" + this.ioThreads + 
+				", selectorBusySpin=" + this.selectorBusySpin + ", batchMaxSize=" + this.batchMaxSize + 
+				", batchLingerMicros=" + this.batchLingerMicros + ", compressionCodecs=" + this.compressionCodecs + 
+				", compressionThreshold=" + this.compressionThreshold + ", streamChunkSize=" + this.streamChunkSize + 
+				", streamBufferedChunks=" + this.streamBufferedChunks + ", sharedMemoryRingSize=" + this.sharedMemoryRingSize + 
+				", sharedMemoryDirectory=" + this.sharedMemoryDirectory + ", inProcessTransport=" + this.inProcessTransport + 
+				", asyncTransport=" + this.asyncTransport + 
+				", creditMessages=" + this.creditMessages + ", creditBytes=" + this.creditBytes + 
+				", inFlightBytesBudget=" + this.inFlightBytesBudget + ", creditFailFast=" + this.creditFailFast + 
+				", heartbeatIntervalMillis=" + this.heartbeatIntervalMillis + ", heartbeatTimeoutMillis=" + this.heartbeatTimeoutMillis + 
+				", reconnectAttempts=" + this.reconnectAttempts + ", reconnectBackoffMillis=" + this.reconnectBackoffMillis + 
+				", sessionResumeTimeoutMillis=" + this.sessionResumeTimeoutMillis + ", executorFactory=" + this.executorFactory.getName() + "]";
+	}
+
+	/**
+	 * Returns 'true' if Application Container launches the command or forked Java process 
+	 * for the messages it receives (see {@link YayaConstants#COMMAND} and {@link YayaConstants#CONTAINER_ARG}).
+	 */
+	private static boolean isProcessLaunching(Map<String, Object> containerSpecification) {
+		Object command = containerSpecification.get(YayaConstants.COMMAND);
+		return (command != null && StringUtils.hasText(command.toString())) || containerSpecification.get(YayaConstants.CONTAINER_ARG) != null;
+	}
+
+	/**
+	 * Values may come as Strings or any type of Number (e.g., Long after JSON round trip)
+	 */
+	private static int getInt(Map<String, Object> specification, String key, int defaultValue) {
+		Object value = specification.get(key);
+		return value == null ? defaultValue : Integer.parseInt(value.toString());
+	}
+
+	/**
+	 *
+	 */
+	private static long getLong(Map<String, Object> specification, String key, long defaultValue) {
+		Object value = specification.get(key);
+		return value == null ? defaultValue : Long.parseLong(value.toString());
+	}
+
+	/**
+	 *
+	 */
+	private static boolean getBoolean(Map<String, Object> specification, String key, boolean defaultValue) {
+		Object value = specification.get(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.toString());
+	}
+
+	/**
+	 *
+	 */
+	private ExecutorFactory createExecutorFactory(String executorFactoryName) {
+		if (PlatformThreadExecutorFactory.NAME.equals(executorFactoryName)){
+			return new PlatformThreadExecutorFactory();
+		}
+		else if (VirtualThreadExecutorFactory.NAME.equals(executorFactoryName)){
+			if (VirtualThreadExecutorFactory.isSupported()){
+				return new VirtualThreadExecutorFactory();
+			}
+			logger.warn("Virtual threads are not supported by JDK " + System.getProperty("java.version") + ". Falling back to platform threads.");
+			return new PlatformThreadExecutorFactory();
+		}
+		try {
+			Class<?> executorFactoryClass = Class.forName(executorFactoryName, true, Thread.currentThread().getContextClassLoader());
+			Assert.isAssignable(ExecutorFactory.class, executorFactoryClass);
+			return (ExecutorFactory) executorFactoryClass.getDeclaredConstructor().newInstance();
+		} 
+		catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Failed to create ExecutorFactory '" + executorFactoryName + "'", e);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static String getDefaultSharedMemoryDirectory() {
+		File sharedMemoryDirectory = new File("/dev/shm");
+		if (sharedMemoryDirectory.isDirectory() && sharedMemoryDirectory.canWrite()){
+			return sharedMemoryDirectory.getAbsolutePath();
+		}
+		return System.getProperty("java.io.tmpdir");
+	}
+
+	/**
+	 * Values may come as comma-delimited String or as a Collection
+	 */
+	private static List<String> getList(Map<String, Object> specification, String key) {
+		Object value = specification.get(key);
+		List<String> values = new ArrayList<>();
+		if (value instanceof Collection){
+			for (Object element : (Collection<?>) value) {
+				values.add(element.toString().trim());
+			}
+		}
+		else if (value != null){
+			for (String element : StringUtils.commaDelimitedListToStringArray(value.toString())) {
+				if (StringUtils.hasText(element)){
+					values.add(element.trim());
+				}
+			}
+		}
+		return Collections.unmodifiableList(values);
+	}
+}
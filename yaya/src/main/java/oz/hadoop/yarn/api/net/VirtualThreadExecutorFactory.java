@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link ExecutorFactory} which runs each task on its own virtual thread (JDK 21+), so blocked tasks 
+ * (e.g., selector loop waiting for I/O or Application Container waiting for its process) do not hold 
+ * on to the platform threads. Allows large amount of Application Containers to be emulated in a single JVM.
+ * Virtual threads are created reflectively, so this class could be loaded by any JDK, while it could 
+ * only be instantiated if virtual threads are supported (see {@link #isSupported()}).
+ * 
+ * Busy-spinning selector loops (see {@link TransportSettings#isSelectorBusySpin()}) never yield the 
+ * carrier thread, so they should not be combined with this factory.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class VirtualThreadExecutorFactory implements ExecutorFactory {
+
+	public static final String NAME = "virtual";
+
+	private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+	private static final boolean SUPPORTED = checkSupported();
+
+	private final Method name;
+
+	private final Method factory;
+
+	/**
+	 * 
+	 * @throws IllegalStateException
+	 * 		if virtual threads are not supported by this JDK
+	 */
+	public VirtualThreadExecutorFactory() {
+		if (!isSupported()){
+			throw new IllegalStateException("Virtual threads are not supported by JDK " + System.getProperty("java.version"));
+		}
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			this.name = builderClass.getMethod("name", String.class, long.class);
+			this.factory = builderClass.getMethod("factory");
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Virtual threads are not supported by JDK " + System.getProperty("java.version"), e);
+		}
+	}
+
+	/**
+	 * Returns 'true' if virtual threads are supported by this JDK.
+	 */
+	public static boolean isSupported() {
+		return SUPPORTED;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public ExecutorService newExecutor(String name) {
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, this.newThreadFactory(name));
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Failed to create virtual thread executor", e);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public ExecutorService newBoundedExecutor(String name, int concurrency) {
+		return Executors.newFixedThreadPool(concurrency, this.newThreadFactory(name));
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return NAME;
+	}
+
+	/**
+	 * Equivalent of Thread.ofVirtual().name(name + "-", 1).factory()
+	 */
+	private ThreadFactory newThreadFactory(String name) {
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = this.name.invoke(builder, name + "-", 1L);
+			return (ThreadFactory) this.factory.invoke(builder);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Failed to create virtual thread factory", e);
+		}
+	}
+
+	/**
+	 * Virtual threads are present, but disabled in JDK 19 and 20 unless preview features are enabled.
+	 */
+	private static boolean checkSupported() {
+		if (OF_VIRTUAL == null || NEW_THREAD_PER_TASK_EXECUTOR == null){
+			return false;
+		}
+		try {
+			OF_VIRTUAL.invoke(null);
+			return true;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 
+	 */
+	private static Method findMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+		try {
+			return clazz.getMethod(name, parameterTypes);
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
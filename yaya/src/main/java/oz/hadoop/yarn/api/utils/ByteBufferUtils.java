@@ -15,7 +15,9 @@
  */
 package oz.hadoop.yarn.api.utils;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 import org.apache.commons.collections.BufferOverflowException;
 
@@ -60,6 +62,44 @@ public class ByteBufferUtils {
 		}
 	}
 
+	/**
+	 * Reads the 'source' channel until its end into a single buffer which is 
+	 * expanded (doubled) as necessary.
+	 * 
+	 * @param source
+	 * @return flipped buffer containing all of the data read from 'source'
+	 */
+	public static ByteBuffer readFully(ReadableByteChannel source) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (source.read(buffer) >= 0){
+			if (!buffer.hasRemaining()){
+				if (buffer.capacity() >= threshold){
+					throw new BufferOverflowException("Buffer can no longer be expended. Maximum allowed size is " + threshold + " bytes.");
+				}
+				ByteBuffer expanded = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() * 2, threshold));
+				buffer.flip();
+				expanded.put(buffer);
+				buffer = expanded;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Copies the remaining bytes of the 'source' (without changing its position) into a new 
+	 * heap buffer which is independent of the 'source' (e.g., pooled buffer which is about to be released).
+	 * 
+	 * @param source
+	 * @return flipped copy of the 'source'
+	 */
+	public static ByteBuffer copy(ByteBuffer source) {
+		ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+		copy.put(source.duplicate());
+		copy.flip();
+		return copy;
+	}
+
 	/**
 	 * 
 	 */
@@ -23,10 +23,18 @@ import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.junit.Test;
 
+import oz.hadoop.yarn.api.net.ExecutorFactory;
+import oz.hadoop.yarn.api.net.PlatformThreadExecutorFactory;
+import oz.hadoop.yarn.api.net.TransportSettings;
+import oz.hadoop.yarn.api.net.VirtualThreadExecutorFactory;
 import oz.hadoop.yarn.api.utils.PrimitiveImmutableTypeMap;
 
 /**
@@ -233,6 +241,102 @@ public class YarnAssemblyTests {
 		assertEquals(DslTestApplicationContainer.class.getName(), containerSpecMap.getString(YayaConstants.CONTAINER_IMPL));
 	}
 	
+	@Test
+	public void validateAsyncTransportSelection() {
+		ApplicationMasterSpecBuilder<DataProcessor> applicationMasterBuilder = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).withApplicationMaster();
+		
+		YarnApplication<DataProcessor> yarnApplication = applicationMasterBuilder.memory(1024).asyncTransport(true).build("my-application");
+		
+		PrimitiveImmutableTypeMap specMap = (PrimitiveImmutableTypeMap) yarnApplication.getApplicationSpecification();
+		assertTrue(specMap.getBoolean(YayaConstants.ASYNC_TRANSPORT));
+		assertEquals(1024, specMap.getInt(YayaConstants.MEMORY));
+		TransportSettings transportSettings = new TransportSettings(specMap);
+		assertTrue(transportSettings.isAsyncTransport());
+		// selected explicitly, so it takes over the YARN emulator
+		assertFalse(transportSettings.isInProcessTransport());
+		
+		yarnApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).withApplicationMaster().build("my-application");
+		transportSettings = new TransportSettings(yarnApplication.getApplicationSpecification());
+		assertFalse(transportSettings.isAsyncTransport());
+		assertTrue(transportSettings.isInProcessTransport());
+	}
+	
+	@Test
+	public void validateContainerParallelismDefaultsToVirtualCores() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).
+				virtualCores(4).
+				withApplicationMaster().build("my-application");
+		TransportSettings transportSettings = new TransportSettings(yarnApplication.getApplicationSpecification());
+		assertEquals(4, transportSettings.getContainerParallelism());
+		assertEquals(4, transportSettings.getInFlightWindow());
+		
+		yarnApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).
+				virtualCores(4).
+				withApplicationMaster().containerParallelism(2).build("my-application");
+		transportSettings = new TransportSettings(yarnApplication.getApplicationSpecification());
+		assertEquals(2, transportSettings.getContainerParallelism());
+		
+		transportSettings = new TransportSettings(new HashMap<String, Object>());
+		assertEquals(1, transportSettings.getContainerParallelism());
+		assertEquals(1, transportSettings.getInFlightWindow());
+		
+		YarnApplication<Void> commandApplication = YarnAssembly.forApplicationContainer("date").
+				virtualCores(4).
+				withApplicationMaster().containerParallelism(2).build("my-application");
+		transportSettings = new TransportSettings(commandApplication.getApplicationSpecification());
+		assertEquals(1, transportSettings.getContainerParallelism());
+		assertEquals(1, transportSettings.getInFlightWindow());
+		
+		commandApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class, ByteBuffer.wrap("hello".getBytes())).
+				virtualCores(4).
+				withApplicationMaster().build("my-application");
+		transportSettings = new TransportSettings(commandApplication.getApplicationSpecification());
+		assertEquals(1, transportSettings.getContainerParallelism());
+		assertEquals(1, transportSettings.getInFlightWindow());
+	}
+	
+	@Test
+	public void validateExecutorFactorySelection() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).
+				withApplicationMaster().executorFactory(VirtualThreadExecutorFactory.NAME).build("my-application");
+		
+		PrimitiveImmutableTypeMap specMap = (PrimitiveImmutableTypeMap) yarnApplication.getApplicationSpecification();
+		assertEquals(VirtualThreadExecutorFactory.NAME, specMap.getString(YayaConstants.EXECUTOR_FACTORY));
+		ExecutorFactory executorFactory = new TransportSettings(specMap).getExecutorFactory();
+		// falls back to platform threads on JDKs without virtual threads
+		if (VirtualThreadExecutorFactory.isSupported()){
+			assertTrue(executorFactory instanceof VirtualThreadExecutorFactory);
+		}
+		else {
+			assertTrue(executorFactory instanceof PlatformThreadExecutorFactory);
+		}
+		ExecutorService executor = executorFactory.newExecutor("foo");
+		assertTrue(executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return Thread.currentThread().getName();
+			}
+		}).get().startsWith("foo-"));
+		executor.shutdown();
+		
+		yarnApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).withApplicationMaster().build("my-application");
+		assertTrue(new TransportSettings(yarnApplication.getApplicationSpecification()).getExecutorFactory() instanceof PlatformThreadExecutorFactory);
+		
+		yarnApplication = YarnAssembly.forApplicationContainer(DslTestApplicationContainer.class).
+				withApplicationMaster().executorFactory(PlatformThreadExecutorFactory.class.getName()).build("my-application");
+		assertTrue(new TransportSettings(yarnApplication.getApplicationSpecification()).getExecutorFactory() instanceof PlatformThreadExecutorFactory);
+		
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.EXECUTOR_FACTORY, "foo");
+		try {
+			new TransportSettings(specification);
+			fail();
+		} 
+		catch (IllegalArgumentException e) {
+			// ignore
+		}
+	}
+	
 	@Test
 	public void validateJavaBasedContainerWithArgumentsAndShell() {
 		YarnConfiguration yarnConfig = new YarnConfiguration();
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import oz.hadoop.yarn.api.CreditExhaustedException;
+import oz.hadoop.yarn.api.ReplyFuture;
+import oz.hadoop.yarn.api.net.ApplicationContainerServer;
+import oz.hadoop.yarn.api.net.ContainerDelegate;
+import oz.hadoop.yarn.api.net.ReplyPostProcessor;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class DataProcessorImplTests {
+
+	@Test(timeout=10000)
+	public void validateBroadcastFailureIsGivenToFutureWhileRestIsStillSent() throws Exception {
+		ContainerDelegate exhaustedDelegate = this.delegate("192.168.19.10");
+		doThrow(new CreditExhaustedException("Credit ran out")).doNothing().when(exhaustedDelegate).process(any(ByteBuffer.class), any(ReplyPostProcessor.class));
+		ContainerDelegate delegate = this.delegate("192.168.19.11");
+		ApplicationContainerServer clientServer = mock(ApplicationContainerServer.class);
+		when(clientServer.getContainerDelegates()).thenReturn(new ContainerDelegate[]{exhaustedDelegate, delegate});
+		DataProcessorImpl dataProcessor = new DataProcessorImpl(clientServer);
+		
+		Future<Integer> broadcast = dataProcessor.broadcast(ByteBuffer.wrap("Reference data".getBytes()));
+		verify(delegate).process(any(ByteBuffer.class), any(ReplyPostProcessor.class));
+		try {
+			broadcast.get(5, TimeUnit.SECONDS);
+			fail();
+		} 
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof CreditExhaustedException);
+		}
+		
+		// slot is idle again, so the exhausted Application Container is given the data once its credit is replenished
+		dataProcessor.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), "192\\.168\\.19\\.10");
+		verify(exhaustedDelegate, times(2)).process(any(ByteBuffer.class), any(ReplyPostProcessor.class));
+		dataProcessor.stop();
+	}
+	
+	@Test(timeout=10000)
+	public void validateSubmitAsyncFailsWhenDataWasNotSent() throws Exception {
+		// returns without sending, so the request is never assigned its id
+		ContainerDelegate delegate = this.delegate("192.168.19.10");
+		ApplicationContainerServer clientServer = mock(ApplicationContainerServer.class);
+		when(clientServer.getContainerDelegates()).thenReturn(new ContainerDelegate[]{delegate});
+		DataProcessorImpl dataProcessor = new DataProcessorImpl(clientServer);
+		
+		// the only in-flight slot is idle again every time, so none of the submissions waits for it
+		for (int i = 0; i < 3; i++) {
+			ReplyFuture replyFuture = dataProcessor.submitAsync(ByteBuffer.wrap("Hello Yarn!".getBytes()));
+			try {
+				replyFuture.get(5, TimeUnit.SECONDS);
+				fail();
+			} 
+			catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+		}
+		verify(delegate, times(3)).process(any(ByteBuffer.class), any(ReplyPostProcessor.class));
+		dataProcessor.stop();
+	}
+	
+	private ContainerDelegate delegate(String hostAddress) {
+		ContainerDelegate delegate = mock(ContainerDelegate.class);
+		when(delegate.getHost()).thenReturn(new InetSocketAddress(hostAddress, 12345));
+		when(delegate.isLive()).thenReturn(true);
+		when(delegate.inFlightWindow()).thenReturn(1);
+		return delegate;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import oz.hadoop.yarn.api.DataProcessor;
+import oz.hadoop.yarn.api.net.ApplicationContainerServer;
+import oz.hadoop.yarn.api.net.ContainerDelegate;
+import oz.hadoop.yarn.api.net.ReplyPostProcessor;
+
+/**
+ * Measures the throughput of {@link DataProcessor#process(ByteBuffer)} dispatching to the available 
+ * {@link ContainerDelegate} with 1 to 64 producer threads. Delegates reply as soon as they are given 
+ * the data, so the score is the cost of finding the available delegate and making it available again, 
+ * while producers have to wait for each other once there are more of them then 'containers'.
+ * <ul>
+ * <li>'dispatch' - to any of the delegates</li>
+ * <li>'dispatchToHost' - to the delegates of one of the {@link #HOSTS} hosts (see {@link DataProcessor#process(ByteBuffer, String)})</li>
+ * </ul>
+ * 
+ * Not a test. Run it as a java application (JMH):
+ * <pre>
+ * DispatchBenchmark [producer threads,...]
+ * </pre>
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DispatchBenchmark {
+	
+	public static final int HOSTS = 8;
+	
+	private static final String HOST_FILTER = "10\\.0\\.0\\.3";
+	
+	@Param({"8", "256"})
+	public int containers;
+	
+	private DataProcessorImpl dataProcessor;
+	
+	private ByteBuffer payload;
+	
+	public static void main(String[] args) throws RunnerException {
+		String[] producers = (args.length > 0 ? args[0] : "1,4,16,64").split(",");
+		for (String producerThreads : producers) {
+			Options options = new OptionsBuilder()
+				.include(DispatchBenchmark.class.getSimpleName())
+				.threads(Integer.parseInt(producerThreads.trim()))
+				.build();
+			new Runner(options).run();
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final ContainerDelegate[] containerDelegates = new ContainerDelegate[this.containers];
+		for (int i = 0; i < containerDelegates.length; i++) {
+			containerDelegates[i] = new ReplyingContainerDelegate(new InetSocketAddress("10.0.0." + (i % HOSTS), 10000 + i));
+		}
+		// only the delegates are needed
+		ApplicationContainerServer clientServer = (ApplicationContainerServer) Proxy.newProxyInstance(this.getClass().getClassLoader(), 
+				new Class<?>[]{ApplicationContainerServer.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return "getContainerDelegates".equals(method.getName()) ? containerDelegates : null;
+					}
+				});
+		this.dataProcessor = new DataProcessorImpl(clientServer);
+		this.payload = ByteBuffer.allocate(128);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.dataProcessor.stop();
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void dispatch() {
+		this.dataProcessor.process(this.payload);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void dispatchToHost() {
+		this.dataProcessor.process(this.payload, HOST_FILTER);
+	}
+	
+	/**
+	 * Replies to every message right away using the submitting thread.
+	 */
+	private static class ReplyingContainerDelegate implements ContainerDelegate {
+		private final InetSocketAddress address;
+		
+		ReplyingContainerDelegate(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		@Override
+		public InetSocketAddress getHost() {
+			return this.address;
+		}
+
+		@Override
+		public void process(ByteBuffer data, ReplyPostProcessor replyPostProcessor) {
+			replyPostProcessor.doProcess(data);
+		}
+
+		@Override
+		public void process(ReadableByteChannel data, WritableByteChannel replyChannel) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void suspend() {
+		}
+
+		@Override
+		public boolean available() {
+			return true;
+		}
+
+		@Override
+		public int inFlightWindow() {
+			return 1;
+		}
+
+		@Override
+		public boolean isLive() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import oz.hadoop.yarn.api.ApplicationContainerProcessor;
+import oz.hadoop.yarn.api.YayaConstants;
+import oz.hadoop.yarn.api.net.ApplicationContainerServer;
+import oz.hadoop.yarn.api.net.ContainerDelegate;
+import oz.hadoop.yarn.api.net.ExecutorFactory;
+import oz.hadoop.yarn.api.net.ReplyPostProcessor;
+import oz.hadoop.yarn.api.utils.ReflectionUtils;
+
+/**
+ * Measures the amount of platform threads and heap taken by YARN emulator running large amount of 
+ * Application Containers with each {@link ExecutorFactory} (see {@link YayaConstants#EXECUTOR_FACTORY}).
+ * Measured once every Application Container replied to a message, so all of its threads are running.
+ * Virtual threads are not counted as platform threads, while their stacks are part of the heap.
+ *
+ * Not a test. Run it as a java application:
+ * <pre>
+ * ExecutorFactoryFootprintBenchmark [containers] [executorFactory,...] [inProcessTransport]
+ * </pre>
+ * Socket transport is used unless 'inProcessTransport' is 'true', since it is the one which runs
+ * selector loops for each Application Container.
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class ExecutorFactoryFootprintBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int containers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		String[] executorFactories = (args.length > 1 ? args[1] : "platform,virtual").split(",");
+		boolean inProcessTransport = args.length > 2 ? Boolean.parseBoolean(args[2]) : false;
+
+		System.out.println("containers=" + containers + ", inProcessTransport=" + inProcessTransport + 
+				", java.version=" + System.getProperty("java.version"));
+		System.out.println("executorFactory\tthreads\tpeakThreads\theapMB\tlaunchMillis");
+		for (String executorFactory : executorFactories) {
+			run(containers, executorFactory.trim(), inProcessTransport);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	private static void run(int containers, String executorFactory, boolean inProcessTransport) throws Exception {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		long baselineHeap = memoryMXBean.getHeapMemoryUsage().getUsed();
+		int baselineThreads = threadMXBean.getThreadCount();
+		threadMXBean.resetPeakThreadCount();
+
+		Map<String, Object> applicationSpec = new HashMap<String, Object>();
+		applicationSpec.put(YayaConstants.YARN_EMULATOR, true);
+		applicationSpec.put(YayaConstants.IN_PROCESS_TRANSPORT, inProcessTransport);
+		applicationSpec.put(YayaConstants.EXECUTOR_FACTORY, executorFactory);
+		applicationSpec.put(YayaConstants.CLIENTS_JOIN_TIMEOUT, "300");
+		Map<String, Object> containerSpec = new HashMap<String, Object>();
+		containerSpec.put(YayaConstants.CONTAINER_IMPL, EchoContainer.class.getName());
+		containerSpec.put(YayaConstants.CONTAINER_COUNT, containers);
+		containerSpec.put(YayaConstants.PRIORITY, 0);
+		containerSpec.put(YayaConstants.VIRTUAL_CORES, 1);
+		containerSpec.put(YayaConstants.MEMORY, 256);
+		applicationSpec.put(YayaConstants.CONTAINER_SPEC, containerSpec);
+
+		long start = System.currentTimeMillis();
+		ApplicationMasterLauncher<Void> amLauncher = new ApplicationMasterLauncherEmulatorImpl<>(applicationSpec);
+		amLauncher.launch();
+		long launchMillis = System.currentTimeMillis() - start;
+		try {
+			ApplicationContainerServer clientServer = (ApplicationContainerServer) ReflectionUtils.getFieldAndMakeAccessible(amLauncher.getClass(), "clientServer").get(amLauncher);
+			ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+			final CountDownLatch replies = new CountDownLatch(containerDelegates.length);
+			for (ContainerDelegate containerDelegate : containerDelegates) {
+				containerDelegate.process(ByteBuffer.wrap("hello".getBytes()), new ReplyPostProcessor() {
+					@Override
+					public void doProcess(ByteBuffer replyBuffer) {
+						replies.countDown();
+					}
+				});
+			}
+			if (!replies.await(5, TimeUnit.MINUTES)){
+				throw new IllegalStateException("Timed out waiting for replies. Remaining: " + replies.getCount());
+			}
+			System.gc();
+			long heap = memoryMXBean.getHeapMemoryUsage().getUsed() - baselineHeap;
+			System.out.println(executorFactory + "\t\t" + (threadMXBean.getThreadCount() - baselineThreads) + "\t" + 
+					(threadMXBean.getPeakThreadCount() - baselineThreads) + "\t\t" + (heap / (1024 * 1024)) + "\t" + launchMillis);
+		}
+		finally {
+			amLauncher.shutDown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class EchoContainer implements ApplicationContainerProcessor {
+		@Override
+		public ByteBuffer process(ByteBuffer inputMessage) {
+			return inputMessage;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import oz.hadoop.yarn.api.core.HostAffinityIndex.HostGroup;
+import oz.hadoop.yarn.api.net.ContainerDelegate;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class HostAffinityIndexTests {
+
+	@Test
+	public void validateSlotsAreIndexedByHostAndInterleavedAcrossItsDelegates() throws Exception {
+		HostAffinityIndex index = new HostAffinityIndex(new ContainerDelegate[]{
+				this.delegate("192.168.19.10", true), this.delegate("192.168.19.11", true), this.delegate("192.168.19.10", true)}, 2);
+		
+		HostGroup firstHost = index.getHostGroup("192\\.168\\.19\\.10");
+		assertEquals(1, firstHost.hosts());
+		int[] expectedSlots = new int[]{0, 4, 1, 5};
+		for (int expectedSlot : expectedSlots) {
+			assertEquals(expectedSlot, firstHost.poll());
+			assertEquals(expectedSlot == 0 || expectedSlot == 1 ? 0 : 2, index.delegateIndex(expectedSlot));
+		}
+		assertEquals(-1, firstHost.poll());
+		
+		HostGroup secondHost = index.getHostGroup("\\.11$");
+		assertEquals(2, secondHost.poll());
+		assertEquals(3, secondHost.poll());
+		assertEquals(-1, secondHost.poll());
+		
+		index.offer(4);
+		assertEquals(-1, secondHost.poll());
+		assertEquals(4, index.getHostGroup(null).poll());
+	}
+	
+	@Test
+	public void validateHostGroupIsResolvedOncePerFilter() throws Exception {
+		HostAffinityIndex index = new HostAffinityIndex(new ContainerDelegate[]{
+				this.delegate("192.168.19.10", true), this.delegate("192.168.19.11", true)}, 1);
+		HostGroup hostGroup = index.getHostGroup("192\\.168\\.19\\.(1[0-5])");
+		assertEquals(2, hostGroup.hosts());
+		assertSame(hostGroup, index.getHostGroup("192\\.168\\.19\\.(1[0-5])"));
+		assertSame(index.getHostGroup(null), index.getHostGroup(""));
+		assertEquals(2, index.getHostGroup("").hosts());
+	}
+	
+	@Test
+	public void validateHostGroupWithoutMatchingHostHasNoLiveDelegate() throws Exception {
+		HostAffinityIndex index = new HostAffinityIndex(new ContainerDelegate[]{
+				this.delegate("192.168.19.10", true), this.delegate("192.168.19.11", false)}, 1);
+		HostGroup noHost = index.getHostGroup("10\\.0\\.0\\.1");
+		assertEquals(0, noHost.hosts());
+		assertEquals(-1, noHost.poll());
+		assertFalse(noHost.isAnyDelegateLive());
+		assertFalse(index.getHostGroup("192\\.168\\.19\\.11").isAnyDelegateLive());
+		assertTrue(index.getHostGroup("192\\.168\\.19\\.").isAnyDelegateLive());
+	}
+	
+	private ContainerDelegate delegate(String hostAddress, boolean live) {
+		ContainerDelegate delegate = mock(ContainerDelegate.class);
+		when(delegate.getHost()).thenReturn(new InetSocketAddress(hostAddress, 12345));
+		when(delegate.isLive()).thenReturn(live);
+		return delegate;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.core;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class IdleSlotQueueTests {
+	
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@After
+	public void after() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void validateSlotsAreTakenInOfferedOrder() throws Exception {
+		IdleSlotQueue idleSlots = new IdleSlotQueue(0, 2, 1);
+		assertEquals(0, idleSlots.poll());
+		assertEquals(2, idleSlots.poll());
+		assertEquals(1, idleSlots.poll());
+		assertEquals(-1, idleSlots.poll());
+		idleSlots.offer(2);
+		assertEquals(2, idleSlots.poll());
+		assertEquals(1, idleSlots.offers());
+	}
+	
+	@Test(timeout=10000)
+	public void validateWaitingThreadIsUnparkedByOffer() throws Exception {
+		final IdleSlotQueue idleSlots = new IdleSlotQueue(0);
+		assertEquals(0, idleSlots.poll());
+		Future<Integer> waiting = this.executor.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				int slot;
+				while ((slot = idleSlots.poll()) < 0){
+					IdleSlotQueue.awaitOffer(new IdleSlotQueue[]{idleSlots}, new long[]{idleSlots.offers()}, TimeUnit.SECONDS.toNanos(60));
+				}
+				return slot;
+			}
+		});
+		Thread.sleep(100);
+		assertFalse(waiting.isDone());
+		idleSlots.offer(0);
+		assertEquals(Integer.valueOf(0), waiting.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test(timeout=10000)
+	public void validateThreadWaitingOnSeveralQueuesIsUnparkedByOfferToAny() throws Exception {
+		final IdleSlotQueue[] queues = new IdleSlotQueue[]{new IdleSlotQueue(), new IdleSlotQueue()};
+		Future<Integer> waiting = this.executor.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				while (true){
+					long[] seenOffers = new long[]{queues[0].offers(), queues[1].offers()};
+					for (IdleSlotQueue queue : queues) {
+						int slot = queue.poll();
+						if (slot >= 0){
+							return slot;
+						}
+					}
+					IdleSlotQueue.awaitOffer(queues, seenOffers, TimeUnit.SECONDS.toNanos(60));
+				}
+			}
+		});
+		Thread.sleep(100);
+		assertFalse(waiting.isDone());
+		queues[1].offer(7);
+		assertEquals(Integer.valueOf(7), waiting.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test(timeout=10000)
+	public void validateMissedOfferIsNotAwaited() throws Exception {
+		IdleSlotQueue idleSlots = new IdleSlotQueue();
+		long seenOffers = idleSlots.offers();
+		idleSlots.offer(0);
+		long start = System.nanoTime();
+		IdleSlotQueue.awaitOffer(new IdleSlotQueue[]{idleSlots}, new long[]{seenOffers}, TimeUnit.SECONDS.toNanos(60));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+}
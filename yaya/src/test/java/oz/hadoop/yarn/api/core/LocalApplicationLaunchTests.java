@@ -18,12 +18,32 @@ package oz.hadoop.yarn.api.core;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
 
 import org.junit.Ignore;
@@ -33,6 +53,10 @@ import org.springframework.core.io.ClassPathResource;
 import oz.hadoop.yarn.api.ApplicationContainerProcessor;
 import oz.hadoop.yarn.api.DataProcessor;
 import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.ReplyCallback;
+import oz.hadoop.yarn.api.ReplyEnvelope;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
+import oz.hadoop.yarn.api.ReplyFuture;
 import oz.hadoop.yarn.api.YarnApplication;
 import oz.hadoop.yarn.api.YarnAssembly;
 
@@ -90,6 +114,361 @@ public class LocalApplicationLaunchTests {
 		assertFalse(yarnApplication.isRunning());
 	}
 	
+	@Test(timeout=60000)
+	public void validateWithReplyListenerOverAsyncTransport() throws Exception {
+		final AtomicInteger repliesCounter = new AtomicInteger();
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleEchoContainer.class).
+												containerCount(2).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													asyncTransport(true).
+													build("sample-yarn-application");
+		yarnApplication.registerReplyListener(new ContainerReplyListener() {
+			@Override
+			public void onReply(ByteBuffer replyData) {
+				repliesCounter.incrementAndGet();
+			}
+		});
+		
+		DataProcessor dataProcessor = yarnApplication.launch();
+	
+		assertEquals(2, dataProcessor.containers());
+		
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < dataProcessor.containers(); j++) {
+				dataProcessor.process(ByteBuffer.wrap(("Hello Yarn!-" + i).getBytes()));
+			}
+		}
+		assertTrue(yarnApplication.isRunning());
+		yarnApplication.shutDown();
+		assertEquals(repliesCounter.get(), dataProcessor.completedSinceStart());
+		assertFalse(yarnApplication.isRunning());
+	}
+	
+	@Test(timeout=60000)
+	public void validateWithReplyEnvelopeListener() throws Exception {
+		final Map<Object, String> replies = new ConcurrentHashMap<>();
+		final Set<InetSocketAddress> containerAddresses = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleEchoContainer.class).
+												containerCount(2).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		yarnApplication.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				assertTrue(replyEnvelope.isSuccess());
+				assertTrue(replyEnvelope.getContainerId() > 0);
+				assertTrue(replyEnvelope.getProcessingTimeNanos() >= 0);
+				byte[] replyBytes = new byte[replyEnvelope.getData().remaining()];
+				replyEnvelope.getData().get(replyBytes);
+				containerAddresses.add(replyEnvelope.getContainerAddress());
+				replies.put(replyEnvelope.getTag(), new String(replyBytes));
+			}
+		});
+		
+		DataProcessor dataProcessor = yarnApplication.launch();
+		for (int i = 0; i < 10; i++) {
+			dataProcessor.process(ByteBuffer.wrap(("Hello Yarn!-" + i).getBytes()), null, i);
+		}
+		yarnApplication.shutDown();
+		
+		assertEquals(10, replies.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("Hello Yarn!-" + i, replies.get(i));
+		}
+		assertFalse(containerAddresses.isEmpty());
+		assertTrue(containerAddresses.size() <= 2);
+	}
+	
+	@Test(timeout=60000)
+	public void validateBroadcastIsAcknowledgedByAllContainers() throws Exception {
+		final Set<Integer> containerIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		final Set<String> replies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleEchoContainer.class).
+												containerCount(3).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		yarnApplication.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				byte[] replyBytes = new byte[replyEnvelope.getData().remaining()];
+				replyEnvelope.getData().get(replyBytes);
+				replies.add(new String(replyBytes));
+				containerIds.add(replyEnvelope.getContainerId());
+			}
+		});
+		
+		DataProcessor dataProcessor = yarnApplication.launch();
+		Future<Integer> broadcast = dataProcessor.broadcast(ByteBuffer.wrap("Reference data".getBytes()));
+		assertEquals(Integer.valueOf(3), broadcast.get(10, TimeUnit.SECONDS));
+		assertTrue(broadcast.isDone());
+		assertEquals(3, containerIds.size());
+		assertEquals(Collections.singleton("Reference data"), replies);
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateProcessIsNotDispatchedToContainerBusyWithBroadcast() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(BroadcastGatedContainer.class).
+												containerCount(2).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		DataProcessor dataProcessor = yarnApplication.launch();
+		// container given the first probe is the one whose slot is taken next
+		for (int i = 0; i < 2; i++) {
+			dataProcessor.submitAsync(ByteBuffer.wrap(BroadcastGatedContainer.PROBE.getBytes())).get(10, TimeUnit.SECONDS);
+		}
+		// it holds on to the broadcast until the message is processed by the other one
+		Future<Integer> broadcast = dataProcessor.broadcast(ByteBuffer.wrap(BroadcastGatedContainer.BROADCAST.getBytes()));
+		assertEquals("Hello Yarn!", new String(this.toBytes(dataProcessor.submitAsync(ByteBuffer.wrap("Hello Yarn!".getBytes())).get(10, TimeUnit.SECONDS))));
+		assertEquals(Integer.valueOf(2), broadcast.get(10, TimeUnit.SECONDS));
+		assertTrue(BroadcastGatedContainer.opened.get());
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateFilteredProcessIsDispatchedOnlyToMatchingContainers() throws Exception {
+		final CountDownLatch repliesLatch = new CountDownLatch(4);
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleEchoContainer.class).
+												containerCount(2).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		yarnApplication.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				repliesLatch.countDown();
+			}
+		});
+		
+		DataProcessor dataProcessor = yarnApplication.launch();
+		for (int i = 0; i < 4; i++) {
+			dataProcessor.process(ByteBuffer.wrap(("Hello Yarn!-" + i).getBytes()), "^\\d+\\.");
+		}
+		assertTrue(repliesLatch.await(10, TimeUnit.SECONDS));
+		try {
+			dataProcessor.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), "^no-such-host$");
+			fail();
+		} 
+		catch (RejectedExecutionException e) {
+			assertTrue(e.getMessage().contains("^no-such-host$"));
+		}
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateSubmitAsyncCompletesWithReply() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleEchoContainer.class).
+												containerCount(2).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		DataProcessor dataProcessor = yarnApplication.launch();
+		ReplyFuture[] replyFutures = new ReplyFuture[4];
+		for (int i = 0; i < replyFutures.length; i++) {
+			replyFutures[i] = dataProcessor.submitAsync(ByteBuffer.wrap(("Hello Yarn!-" + i).getBytes()));
+		}
+		for (int i = 0; i < replyFutures.length; i++) {
+			assertEquals("Hello Yarn!-" + i, new String(this.toBytes(replyFutures[i].get(10, TimeUnit.SECONDS))));
+			assertTrue(replyFutures[i].isDone());
+		}
+		
+		ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+		final CountDownLatch callbackLatch = new CountDownLatch(2);
+		final Set<String> replies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final AtomicReference<Exception> failure = new AtomicReference<>();
+		ReplyCallback callback = new ReplyCallback() {
+			@Override
+			public void onReply(ByteBuffer reply) {
+				replies.add(new String(LocalApplicationLaunchTests.this.toBytes(reply)));
+				callbackLatch.countDown();
+			}
+			@Override
+			public void onFailure(Exception cause) {
+				failure.set(cause);
+				callbackLatch.countDown();
+			}
+		};
+		ReplyFuture replyFuture = dataProcessor.submitAsync(ByteBuffer.wrap("Hello Callback!".getBytes()), callbackExecutor);
+		replyFuture.addCallback(callback);
+		replyFuture.get(10, TimeUnit.SECONDS);
+		// registered after completion
+		replyFuture.addCallback(callback);
+		assertTrue(callbackLatch.await(10, TimeUnit.SECONDS));
+		if (failure.get() != null) {
+			fail("Callback received failure: " + failure.get());
+		}
+		assertEquals(Collections.singleton("Hello Callback!"), replies);
+		callbackExecutor.shutdown();
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateSubmitAsyncFailsWhenContainerFailsToProcess() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(FailingContainer.class).
+												containerCount(1).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		DataProcessor dataProcessor = yarnApplication.launch();
+		final AtomicReference<Exception> failure = new AtomicReference<>();
+		final CountDownLatch callbackLatch = new CountDownLatch(1);
+		ReplyFuture replyFuture = dataProcessor.submitAsync(ByteBuffer.wrap("Hello Yarn!".getBytes()));
+		replyFuture.addCallback(new ReplyCallback() {
+			@Override
+			public void onReply(ByteBuffer reply) {
+				callbackLatch.countDown();
+			}
+			@Override
+			public void onFailure(Exception cause) {
+				failure.set(cause);
+				callbackLatch.countDown();
+			}
+		});
+		try {
+			replyFuture.get(10, TimeUnit.SECONDS);
+			fail();
+		} 
+		catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("Intentional failure"));
+		}
+		assertTrue(callbackLatch.await(10, TimeUnit.SECONDS));
+		assertTrue(failure.get().getMessage().contains("Intentional failure"));
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateBroadcastFailsWhenContainerFailsToProcess() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(FailingContainer.class).
+												containerCount(2).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		DataProcessor dataProcessor = yarnApplication.launch();
+		Future<Integer> broadcast = dataProcessor.broadcast(ByteBuffer.wrap("Reference data".getBytes()));
+		try {
+			broadcast.get(10, TimeUnit.SECONDS);
+			fail();
+		} 
+		catch (ExecutionException e) {
+			assertTrue(e.getMessage().startsWith("2 of 2"));
+			assertTrue(e.getCause().getMessage().contains("Intentional failure"));
+		}
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateFailedReplyCarriesStackTrace() throws Exception {
+		final Map<Object, String> failures = new ConcurrentHashMap<>();
+		final AtomicInteger repliesCounter = new AtomicInteger();
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(FailingContainer.class).
+												containerCount(1).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		yarnApplication.registerReplyListener(new ContainerReplyListener() {
+			@Override
+			public void onReply(ByteBuffer replyData) {
+				repliesCounter.incrementAndGet();
+			}
+		});
+		yarnApplication.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				if (!replyEnvelope.isSuccess()){
+					byte[] replyBytes = new byte[replyEnvelope.getData().remaining()];
+					replyEnvelope.getData().get(replyBytes);
+					failures.put(replyEnvelope.getTag(), new String(replyBytes, StandardCharsets.UTF_8));
+				}
+			}
+		});
+		
+		DataProcessor dataProcessor = yarnApplication.launch();
+		for (int i = 0; i < 3; i++) {
+			dataProcessor.process(ByteBuffer.wrap(("Hello Yarn!-" + i).getBytes()), null, i);
+		}
+		yarnApplication.shutDown();
+		
+		assertEquals(3, repliesCounter.get());
+		assertEquals(3, failures.size());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(failures.get(i).contains("IllegalStateException: Intentional failure"));
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void validateStreamedReplyCarriesNoReplyHeader() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleEchoContainer.class).
+												containerCount(1).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		DataProcessor dataProcessor = yarnApplication.launch();
+		byte[] data = "hello".getBytes();
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		dataProcessor.process(Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(reply));
+		assertTrue(Arrays.equals(data, reply.toByteArray()));
+		// the same container still replies to the message which is not streamed
+		assertEquals("hello", new String(this.toBytes(dataProcessor.submitAsync(ByteBuffer.wrap(data)).get(10, TimeUnit.SECONDS))));
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateStreamedReplyIsAbortedWhenContainerFailsToProcess() throws Exception {
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(FailingContainer.class).
+												containerCount(1).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		DataProcessor dataProcessor = yarnApplication.launch();
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		try {
+			dataProcessor.process(Channels.newChannel(new ByteArrayInputStream("hello".getBytes())), Channels.newChannel(reply));
+			fail();
+		} 
+		catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, reply.size());
+		yarnApplication.shutDown();
+	}
+	
+	@Test(timeout=60000)
+	public void validateMessagesAreProcessedConcurrentlyWithinContainer() throws Exception {
+		final Set<String> replies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(BarrierContainer.class).
+												containerCount(1).
+												virtualCores(4).
+												memory(512).withApplicationMaster().
+													maxAttempts(2).
+													build("sample-yarn-application");
+		yarnApplication.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				byte[] replyBytes = new byte[replyEnvelope.getData().remaining()];
+				replyEnvelope.getData().get(replyBytes);
+				replies.add(new String(replyBytes));
+			}
+		});
+		
+		DataProcessor dataProcessor = yarnApplication.launch();
+		for (int i = 0; i < 4; i++) {
+			dataProcessor.process(ByteBuffer.wrap(("Hello Yarn!-" + i).getBytes()));
+		}
+		yarnApplication.shutDown();
+		
+		// replies only go through once all 4 messages were at the barrier at the same time
+		assertEquals(4, replies.size());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(replies.contains("Hello Yarn!-" + i));
+		}
+		// each processing slot has its own instance
+		assertEquals(4, BarrierContainer.instances.get());
+	}
+	
 	@Test(timeout=60000)
 	public void validateLongLivedJavaContainerLaunch() throws Exception {
 		YarnApplication<DataProcessor> yarnApplication = YarnAssembly.forApplicationContainer(SimpleRandomDelayContainer.class).
@@ -334,6 +713,12 @@ public class LocalApplicationLaunchTests {
 		assertFalse(yarnApplication.isRunning());
 	}
 	
+	private byte[] toBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
 	/**
 	 * 
 	 */
@@ -359,6 +744,78 @@ public class LocalApplicationLaunchTests {
 		}
 	}
 	
+	/**
+	 * 
+	 */
+	public static class BroadcastGatedContainer implements ApplicationContainerProcessor {
+		private static final String PROBE = "Probe";
+		
+		private static final String BROADCAST = "Reference data";
+		
+		private static final AtomicReference<BroadcastGatedContainer> gatedContainer = new AtomicReference<>();
+		
+		private static final CountDownLatch processed = new CountDownLatch(1);
+		
+		private static final AtomicBoolean opened = new AtomicBoolean();
+		
+		@Override
+		public ByteBuffer process(ByteBuffer inputMessage) {
+			byte[] message = new byte[inputMessage.remaining()];
+			inputMessage.duplicate().get(message);
+			if (PROBE.equals(new String(message))){
+				gatedContainer.compareAndSet(null, this);
+			}
+			else if (BROADCAST.equals(new String(message))){
+				if (gatedContainer.get() == this){
+					try {
+						opened.set(processed.await(10, TimeUnit.SECONDS));
+					} 
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+			else {
+				processed.countDown();
+			}
+			return inputMessage;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public static class FailingContainer implements ApplicationContainerProcessor {
+		@Override
+		public ByteBuffer process(ByteBuffer inputMessage) {
+			throw new IllegalStateException("Intentional failure");
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public static class BarrierContainer implements ApplicationContainerProcessor {
+		private static final CyclicBarrier barrier = new CyclicBarrier(4);
+		
+		private static final AtomicInteger instances = new AtomicInteger();
+		
+		public BarrierContainer(){
+			instances.incrementAndGet();
+		}
+		
+		@Override
+		public ByteBuffer process(ByteBuffer inputMessage) {
+			try {
+				barrier.await(10, TimeUnit.SECONDS);
+			} 
+			catch (Exception e) {
+				throw new IllegalStateException("Messages were not processed concurrently", e);
+			}
+			return inputMessage;
+		}
+	}
+	
 	public static class InfiniteContainer implements ApplicationContainerProcessor {
 		@Override
 		public ByteBuffer process(ByteBuffer inputMessage) {
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class ByteBufferPoolTests {
+
+	@Test
+	public void validateSizeClasses() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		ByteBuffer buffer = bufferPool.allocate(10);
+		assertEquals(ByteBufferPool.MIN_BUFFER_SIZE, buffer.capacity());
+		assertEquals(10, buffer.limit());
+		assertEquals(0, buffer.position());
+
+		assertEquals(4096, bufferPool.allocate(4096).capacity());
+		assertEquals(8192, bufferPool.allocate(4097).capacity());
+		assertEquals(0, bufferPool.allocate(0).limit());
+		assertFalse(bufferPool.allocate(10).isDirect());
+	}
+
+	@Test
+	public void validateBufferReuseAndCounters() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		ByteBuffer buffer = bufferPool.allocate(3000);
+		assertEquals(1, bufferPool.getMisses());
+		assertEquals(1, bufferPool.getOutstanding());
+
+		bufferPool.release(buffer);
+		assertEquals(0, bufferPool.getOutstanding());
+		assertEquals(4096, bufferPool.getPooledBytes());
+
+		// same size class
+		ByteBuffer reused = bufferPool.allocate(2500);
+		assertSame(buffer, reused);
+		assertEquals(2500, reused.limit());
+		assertEquals(1, bufferPool.getHits());
+		assertEquals(0, bufferPool.getPooledBytes());
+
+		// different size class
+		assertNotSame(buffer, bufferPool.allocate(100));
+		assertEquals(2, bufferPool.getMisses());
+	}
+
+	@Test
+	public void validateBudgetIsEnforcedByTrimming() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool(8192, false);
+		ByteBuffer large = bufferPool.allocate(8192);
+		ByteBuffer small1 = bufferPool.allocate(1024);
+		ByteBuffer small2 = bufferPool.allocate(1024);
+
+		bufferPool.release(small1);
+		bufferPool.release(small2);
+		assertEquals(2048, bufferPool.getPooledBytes());
+
+		// small buffers must be trimmed to make room
+		bufferPool.release(large);
+		assertEquals(8192, bufferPool.getPooledBytes());
+		assertEquals(2, bufferPool.getTrimmed());
+
+		bufferPool.trim(0);
+		assertEquals(0, bufferPool.getPooledBytes());
+		assertEquals(3, bufferPool.getTrimmed());
+	}
+
+	@Test
+	public void validateSmallBufferDoesNotEvictLargerOne() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool(8192, false);
+		ByteBuffer large = bufferPool.allocate(8192);
+		ByteBuffer small = bufferPool.allocate(1024);
+
+		bufferPool.release(large);
+		// released buffer is discarded instead
+		bufferPool.release(small);
+		assertEquals(8192, bufferPool.getPooledBytes());
+		assertEquals(1, bufferPool.getTrimmed());
+		assertEquals(0, bufferPool.getOutstanding());
+		assertSame(large, bufferPool.allocate(8192));
+	}
+
+	@Test
+	public void validateBuffersLargerThenBudgetAreNotPooled() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool(4096, false);
+		ByteBuffer buffer = bufferPool.allocate(5000);
+		// not rounded up since it will never be pooled
+		assertEquals(5000, buffer.capacity());
+		bufferPool.release(buffer);
+		assertEquals(0, bufferPool.getPooledBytes());
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	@Test
+	public void validateForeignBuffersAreDiscarded() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool(1048576, true);
+		bufferPool.release(ByteBuffer.allocate(4096)); // heap buffer
+		bufferPool.release(ByteBuffer.allocateDirect(3000)); // not a size class
+		bufferPool.release(ByteBuffer.allocateDirect(4096)); // size class with nothing outstanding
+		assertEquals(0, bufferPool.getPooledBytes());
+		assertEquals(0, bufferPool.getOutstanding());
+
+		ByteBuffer buffer = bufferPool.allocate(2000);
+		assertTrue(buffer.isDirect());
+		assertEquals(1, bufferPool.getOutstanding());
+		bufferPool.release(ByteBuffer.allocateDirect(4096)); // different size class
+		assertEquals(0, bufferPool.getPooledBytes());
+		assertEquals(1, bufferPool.getOutstanding());
+
+		bufferPool.release(buffer);
+		assertEquals(2048, bufferPool.getPooledBytes());
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class ChunkedInputChannelTests {
+
+	@Test
+	public void validateChunksAreReadAcrossBoundaries() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		ChunkedInputChannel channel = new ChunkedInputChannel(1024, new CountingRunnable());
+		assertFalse(channel.offer(this.chunk(bufferPool, "Hello ")));
+		assertFalse(channel.offer(this.chunk(bufferPool, "Yarn")));
+		channel.complete();
+
+		ByteBuffer destination = ByteBuffer.allocate(4);
+		StringBuilder builder = new StringBuilder();
+		int count;
+		while ((count = channel.read(destination)) >= 0){
+			assertTrue(count > 0);
+			builder.append(new String(destination.array(), 0, destination.position()));
+			destination.clear();
+		}
+		assertEquals("Hello Yarn", builder.toString());
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	@Test
+	public void validateHighWatermarkAndDrainedCallback() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		CountingRunnable onDrained = new CountingRunnable();
+		ChunkedInputChannel channel = new ChunkedInputChannel(10, onDrained);
+		assertFalse(channel.offer(this.chunk(bufferPool, "12345")));
+		assertTrue(channel.offer(this.chunk(bufferPool, "67890")));
+		assertTrue(channel.isFull());
+
+		ByteBuffer destination = ByteBuffer.allocate(4);
+		channel.read(destination);
+		assertTrue(channel.isFull());
+		assertEquals(0, onDrained.count.get());
+		destination.clear();
+		channel.read(destination);
+		assertFalse(channel.isFull());
+		assertEquals(1, onDrained.count.get());
+		destination.clear();
+		channel.read(destination);
+		assertEquals(1, onDrained.count.get());
+		channel.close();
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	@Test
+	public void validateTransferToWritesRemainderOfPartiallyReadChunk() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		ChunkedInputChannel channel = new ChunkedInputChannel(1024, new CountingRunnable());
+		channel.offer(this.chunk(bufferPool, "Hello "));
+		channel.offer(this.chunk(bufferPool, "Yarn"));
+		channel.complete();
+		channel.read(ByteBuffer.allocate(2));
+
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		assertEquals(8, channel.transferTo(Channels.newChannel(target)));
+		assertEquals("llo Yarn", new String(target.toByteArray()));
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	@Test
+	public void validateFailureIsThrownAfterQueuedData() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		ChunkedInputChannel channel = new ChunkedInputChannel(1024, new CountingRunnable());
+		channel.offer(this.chunk(bufferPool, "Hello"));
+		channel.fail(new IOException("aborted"));
+		// chunks offered after the failure are discarded
+		assertFalse(channel.offer(this.chunk(bufferPool, "Yarn")));
+
+		ByteBuffer destination = ByteBuffer.allocate(16);
+		assertEquals(5, channel.read(destination));
+		try {
+			channel.read(destination);
+			fail();
+		}
+		catch (IOException e) {
+			assertEquals("aborted", e.getMessage());
+		}
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	@Test
+	public void validateCloseDiscardsQueuedChunks() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		CountingRunnable onDrained = new CountingRunnable();
+		ChunkedInputChannel channel = new ChunkedInputChannel(4, onDrained);
+		assertTrue(channel.offer(this.chunk(bufferPool, "Hello")));
+		channel.close();
+		assertFalse(channel.isOpen());
+		assertEquals(1, onDrained.count.get());
+		assertFalse(channel.offer(this.chunk(bufferPool, "Yarn")));
+		assertEquals(0, bufferPool.getOutstanding());
+		try {
+			channel.read(ByteBuffer.allocate(16));
+			fail();
+		}
+		catch (ClosedChannelException e) {
+			// expected
+		}
+	}
+
+	/**
+	 *
+	 */
+	private PooledByteBuffer chunk(ByteBufferPool bufferPool, String data) {
+		byte[] bytes = data.getBytes();
+		ByteBuffer buffer = bufferPool.allocate(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		return new PooledByteBuffer(buffer, bufferPool);
+	}
+
+	/**
+	 *
+	 */
+	private static class CountingRunnable implements Runnable {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void run() {
+			this.count.incrementAndGet();
+		}
+	}
+}
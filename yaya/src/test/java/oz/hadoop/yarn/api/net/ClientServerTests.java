@@ -19,31 +19,209 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import oz.hadoop.yarn.api.ContainerEvictionListener;
+import oz.hadoop.yarn.api.ContainerReplyListener;
+import oz.hadoop.yarn.api.CreditExhaustedException;
+import oz.hadoop.yarn.api.CreditListener;
+import oz.hadoop.yarn.api.ReplyEnvelope;
+import oz.hadoop.yarn.api.ReplyEnvelopeListener;
+import oz.hadoop.yarn.api.YayaConstants;
+
 /**
  * @author Oleg Zhurakousky
  *
  */
 public class ClientServerTests {
 	
+	@Test(timeout=60000)
+	public void validateStreamedRequestAndReplyLargerThanStreamWindow() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.STREAM_CHUNK_SIZE, 16 * 1024);
+		specification.put(YayaConstants.STREAM_BUFFERED_CHUNKS, 4);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new StreamingEchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, new TransportSettings(specification));
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		for (int i = 0; i < 2; i++) {
+			GeneratingChannel data = new GeneratingChannel(8 * 1024 * 1024 + 123);
+			ChecksumChannel reply = new ChecksumChannel();
+			containerDelegate.process(data, reply);
+			assertEquals(data.length, reply.length);
+			assertEquals(data.checksum.getValue(), reply.checksum.getValue());
+		}
+
+		// regular messages are still exchanged over the same connection
+		final AtomicReference<String> replyMessage = new AtomicReference<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer reply) {
+				byte[] replyBytes = new byte[reply.remaining()];
+				reply.get(replyBytes);
+				replyMessage.set(new String(replyBytes));
+				latch.countDown();
+			}
+		});
+		latch.await();
+		assertEquals("Hello Yarn!", replyMessage.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+
+	@Test(timeout=60000)
+	public void validateMessageLargerThanFrameIsRejectedWithoutTakingPermit() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class));
+		InetSocketAddress address = clientServer.start();
+
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		
+		// sparse file, so the message does not take memory
+		File file = File.createTempFile("large-message", ".bin");
+		file.deleteOnExit();
+		try (RandomAccessFile largeFile = new RandomAccessFile(file, "rw")) {
+			largeFile.setLength(AbstractSocketHandler.MAX_FRAME_PAYLOAD_SIZE + 1L);
+			ByteBuffer largeMessage = largeFile.getChannel().map(MapMode.READ_ONLY, 0, largeFile.length());
+			ReplyPostProcessor replyPostProcessor = mock(ReplyPostProcessor.class);
+			for (int i = 0; i < containerDelegate.inFlightWindow() + 1; i++) {
+				try {
+					containerDelegate.process(largeMessage, replyPostProcessor);
+					fail();
+				} 
+				catch (IllegalArgumentException e) {
+					assertTrue(e.getMessage().contains("exceeds the maximum"));
+				}
+			}
+		}
+		finally {
+			file.delete();
+		}
+		
+		// in-flight permit was not taken, so the regular message still goes through
+		final AtomicReference<String> replyMessage = new AtomicReference<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer reply) {
+				byte[] replyBytes = new byte[reply.remaining()];
+				reply.get(replyBytes);
+				replyMessage.set(new String(replyBytes));
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals("Hello Yarn!", replyMessage.get());
+		clientServer.stop(true);
+	}
+
+	@Test(timeout=60000)
+	public void validateStreamedReplyIsAbortedWhenHandlerFails() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.STREAM_CHUNK_SIZE, 16 * 1024);
+		specification.put(YayaConstants.STREAM_BUFFERED_CHUNKS, 4);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new FailingStreamingMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, new TransportSettings(specification));
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		for (int i = 0; i < 2; i++) {
+			ChecksumChannel reply = new ChecksumChannel();
+			try {
+				containerDelegate.process(new GeneratingChannel(4 * 1024 * 1024), reply);
+				fail();
+			}
+			catch (IOException e) {
+				assertTrue(e.getMessage().contains("Intentional failure"));
+			}
+		}
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+
 	@Test
 	@Ignore // need to fix to adjust for API changes
 	public void validateNetworkStackShutdownAndOnDisconnectListenerInvocationByClosingServer() throws Exception {
@@ -177,121 +355,828 @@ public class ClientServerTests {
 		assertFalse(clientServer.isRunning());
 	}
 	
-	@Test
-	@Ignore // need to fix to adjust for API changes
-	public void validateMoreThenExpectedClients() throws Exception {
-		for (int y = 0; y < 10; y++) {
-			int expectedClients = 2;
-			ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(expectedClients, false, mock(Runnable.class));
-			InetSocketAddress address = clientServer.start();
-			
-			for (int i = 0; i < 40; i++) {
-				ApplicationContainerClientImpl containerClientOne = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
-				containerClientOne.start();
+	@Test(timeout=10000)
+	public void validatePipelinedRequestsAreCorrelatedWithReplies() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 4);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
 			}
-			
-			clientServer.awaitAllClients(2);
-			
-			ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
-			
-			assertEquals(expectedClients, containerDelegates.length);
-			clientServer.stop(false);
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		assertEquals(4, containerDelegate.inFlightWindow());
+		
+		int messages = 100;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		for (int i = 0; i < messages; i++) {
+			final String message = "Hello-" + i;
+			containerDelegate.process(ByteBuffer.wrap(message.getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!message.equals(new String(replyBytes))){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
 		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
 	}
 	
-	@Test(timeout=5000)
-	@Ignore // need to fix to adjust for API changes
-	public void validateSimpleInterruction() throws Exception {
-		int expectedClients = 2;
+	@Test(timeout=10000)
+	public void validateReplyEnvelopeCarriesRequestContext() throws Exception {
 		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
-		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, expectedClients, false, mock(Runnable.class));
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings());
 		InetSocketAddress address = clientServer.start();
 		
-		for (int i = 0; i < expectedClients; i++) {
-			ApplicationContainerClientImpl containerClientOne = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
-			containerClientOne.start();
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new HeaderEchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		int messages = 10;
+		final CountDownLatch latch = new CountDownLatch(messages + 1);
+		final Map<Object, ReplyEnvelope> envelopes = new ConcurrentHashMap<>();
+		final Map<Object, String> replies = new ConcurrentHashMap<>();
+		clientServer.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				// data is only valid while the callback executes
+				byte[] replyBytes = new byte[replyEnvelope.getData().remaining()];
+				replyEnvelope.getData().get(replyBytes);
+				replies.put(replyEnvelope.getTag(), new String(replyBytes));
+				envelopes.put(replyEnvelope.getTag(), replyEnvelope);
+				latch.countDown();
+			}
+		});
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		InetSocketAddress containerAddress = containerDelegate.getHost();
+		assertFalse(address.equals(containerAddress));
+		// header of the message is echoed back as the header of the reply
+		for (int i = 0; i < messages; i++) {
+			byte[] data = ("Hello-" + i).getBytes();
+			ByteBuffer message = ReplyHeader.allocate(data.length, ReplyHeader.SUCCESS, 7, 1000 + i);
+			message.put(data);
+			message.flip();
+			final String expectedReply = "Hello-" + i;
+			containerDelegate.process(message, new ReplyPostProcessor(i, System.nanoTime()) {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					// header is not given to the ReplyPostProcessor
+					if (!expectedReply.equals(new String(replyBytes))){
+						replies.put("mismatch", new String(replyBytes));
+					}
+				}
+			});
 		}
+		ByteBuffer failure = ReplyHeader.allocate(5, ReplyHeader.FAILURE, 7, 0);
+		failure.put("boom!".getBytes());
+		failure.flip();
+		containerDelegate.process(failure, new ReplyPostProcessor("failure", System.nanoTime()) {
+			@Override
+			public void doProcess(ByteBuffer reply) {}
+		});
+		latch.await();
 		
-		clientServer.awaitAllClients(2);
+		Set<Long> requestIds = new HashSet<>();
+		for (int i = 0; i < messages; i++) {
+			ReplyEnvelope replyEnvelope = envelopes.get(i);
+			assertTrue(replyEnvelope.isSuccess());
+			assertTrue(replyEnvelope.getRequestId() > 0);
+			requestIds.add(replyEnvelope.getRequestId());
+			assertEquals(containerAddress, replyEnvelope.getContainerAddress());
+			assertTrue(replyEnvelope.getQueueTimeNanos() >= 0);
+			assertTrue(replyEnvelope.getServiceTimeNanos() > 0);
+			assertEquals(7, replyEnvelope.getContainerId());
+			assertEquals(1000 + i, replyEnvelope.getProcessingTimeNanos());
+			assertEquals("Hello-" + i, replies.get(i));
+		}
+		assertEquals(messages, requestIds.size());
+		assertFalse(envelopes.get("failure").isSuccess());
+		assertEquals("boom!", replies.get("failure"));
+		assertFalse(replies.containsKey("mismatch"));
 		
-		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=10000)
+	public void validateReplyGivenToReplyListenerOutlivesReceivedBuffer() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings());
+		InetSocketAddress address = clientServer.start();
 		
-		assertEquals(expectedClients, containerDelegates.length);
-		for (int i = 0; i < 2; i++) {
-			final int I = i;
-			for (final ContainerDelegate containerDelegate : containerDelegates) {
-				containerDelegate.process(ByteBuffer.wrap(new String("Hello" + i).getBytes()), new ReplyPostProcessor() {
-					@Override
-					public void doProcess(ByteBuffer reply) {
-						String replyString = new String(reply.array()).trim();
-						assertEquals("Hello" + I, replyString);
-					}
-				});
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		final List<ByteBuffer> replies = new CopyOnWriteArrayList<>();
+		clientServer.registerReplyListener(new ContainerReplyListener() {
+			@Override
+			public void onReply(ByteBuffer replyData) {
+				// kept past the callback
+				replies.add(replyData);
 			}
+		});
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		int messages = 20;
+		// sent one at a time, so the received buffers of the same size are recycled
+		for (int i = 0; i < messages; i++) {
+			final CountDownLatch latch = new CountDownLatch(1);
+			containerDelegate.process(ByteBuffer.wrap(String.format("Hello-%02d", i).getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					latch.countDown();
+				}
+			});
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
 		}
-		clientServer.stop(false);
-		clientServer.awaitShutdown();	
+		assertEquals(messages, replies.size());
+		for (int i = 0; i < messages; i++) {
+			ByteBuffer reply = replies.get(i);
+			byte[] replyBytes = new byte[reply.remaining()];
+			reply.get(replyBytes);
+			assertEquals(String.format("Hello-%02d", i), new String(replyBytes));
+		}
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
 	}
-
-	@Test(timeout=5000)
-	@Ignore // need to fix to adjust for API changes
-	public void validateMixedMessageSizeExchange() throws Exception {
-		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(1, false, mock(Runnable.class));
+	
+	@Test(timeout=10000)
+	public void validateSuspendedContainerDelegateRejectsData() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings());
 		InetSocketAddress address = clientServer.start();
-		StringBuffer buffer = new StringBuffer();
-		String s = "Hello World";
-		int size = 0;
-		while (size < 16384){
-			buffer.append(s);
-			size += s.length();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		containerDelegate.suspend();
+		try {
+			containerDelegate.process(ByteBuffer.wrap("Hello".getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {}
+			});
+			fail();
+		} 
+		catch (RejectedExecutionException e) {
+			// expected
 		}
-		buffer.append("\r\n");
-		String message = buffer.toString().substring(0, 16384);
+		assertTrue(containerDelegate.available());
+		clientServer.stop(true);
+	}
+	
+	@Test(timeout=10000)
+	public void validateReceivedMessageIsReleasedWhenReplyIsWrittenToClosedConnection() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings());
+		InetSocketAddress address = clientServer.start();
 		
-		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new SampleMessageHandler(), mock(Runnable.class));
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		final CountDownLatch processing = new CountDownLatch(1);
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler() {
+			@Override
+			public ByteBuffer handle(ByteBuffer messageBuffer) {
+				processing.countDown();
+				try {
+					disconnected.await();
+				} 
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return messageBuffer;
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+				disconnected.countDown();
+			}
+		});
 		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
 		
-		final ByteBuffer b1 = ByteBuffer.wrap(message.getBytes());
+		clientServer.getContainerDelegates()[0].process(ByteBuffer.wrap("Hello".getBytes()), new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer reply) {}
+		});
+		assertTrue(processing.await(5, TimeUnit.SECONDS));
+		assertTrue(containerClient.getBufferPool().getOutstanding() > 0);
+		// reply is written once the server closed the connection
+		clientServer.stop(true);
+		assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (containerClient.getBufferPool().getOutstanding() != 0 && System.currentTimeMillis() < deadline){
+			LockSupport.parkNanos(1000000);
+		}
+		assertEquals(0, containerClient.getBufferPool().getOutstanding());
+	}
+	
+	@Test(timeout=10000)
+	public void validateReplyWithoutReplyHeaderIsNotMistakenForHeadedOne() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings());
+		InetSocketAddress address = clientServer.start();
 		
-		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
 		
-		// Large message 
-		containerDelegates[0].process(b1, new ReplyPostProcessor() {
+		final AtomicReference<ReplyEnvelope> envelope = new AtomicReference<>();
+		clientServer.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
 			@Override
-			public void doProcess(ByteBuffer reply) {
-				int reportedMessageSize = reply.getInt(0); 
-				assertEquals(b1.limit(), reportedMessageSize);
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				envelope.set(replyEnvelope);
+			}
+		});
+		// data which looks like failed reply is echoed by the handler which writes no header
+		ByteBuffer message = ReplyHeader.allocate(5, ReplyHeader.FAILURE, 7, 0);
+		message.put("boom!".getBytes());
+		message.flip();
+		final byte[] messageBytes = Arrays.copyOf(message.array(), message.remaining());
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<byte[]> reply = new AtomicReference<>();
+		final AtomicReference<Boolean> failedReply = new AtomicReference<>();
+		clientServer.getContainerDelegates()[0].process(message, new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer replyBuffer) {
+				byte[] replyBytes = new byte[replyBuffer.remaining()];
+				replyBuffer.get(replyBytes);
+				reply.set(replyBytes);
+				failedReply.set(this.isFailedReply());
+				latch.countDown();
 			}
 		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(Arrays.equals(messageBytes, reply.get()));
+		assertFalse(failedReply.get());
+		assertTrue(envelope.get().isSuccess());
+		assertEquals(-1, envelope.get().getContainerId());
 		
-		// Small Message
-		final ByteBuffer b2 = ByteBuffer.wrap("Hello NIO\r\n".getBytes());
-		containerDelegates[0].process(b2, new ReplyPostProcessor() {
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=10000)
+	public void validateTransportMetricsAreRegisteredAsMBeans() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings());
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
 			@Override
-			public void doProcess(ByteBuffer reply) {
-				int reportedMessageSize = reply.getInt(0); 
-				assertEquals(b2.limit(), reportedMessageSize);
+			public void run() {
+				applicationMasterClient.stop(true);
 			}
 		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		int messages = 100;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		for (int i = 0; i < messages; i++) {
+			containerDelegate.process(ByteBuffer.wrap(("Hello-" + i).getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName serverName = clientServer.getTransportMetrics().getObjectName();
+		assertEquals("ApplicationContainerServerImpl", serverName.getKeyProperty("type"));
+		assertTrue(mBeanServer.isRegistered(serverName));
+		// aggregate and both connections
+		assertEquals(3, mBeanServer.queryNames(new ObjectName(serverName + ",*"), null).size());
+		assertEquals(2, mBeanServer.getAttribute(serverName, "Connections"));
+		assertTrue((Long) mBeanServer.getAttribute(serverName, "FramesIn") >= messages);
+		assertTrue((Long) mBeanServer.getAttribute(serverName, "FramesOut") >= messages);
+		assertTrue((Long) mBeanServer.getAttribute(serverName, "BytesIn") > 0);
+		assertTrue((Long) ((CompositeData) mBeanServer.getAttribute(serverName, "FrameSizeIn")).get("count") >= messages);
+		assertTrue((Long) ((CompositeData) mBeanServer.getAttribute(serverName, "ReadyWaitNanos")).get("count") > 0);
+		assertTrue((Long) ((CompositeData) mBeanServer.getAttribute(serverName, "SelectorLoopIterationNanos")).get("count") > 0);
+		assertTrue((Long) mBeanServer.getAttribute(serverName, "BufferPoolHits") + (Long) mBeanServer.getAttribute(serverName, "BufferPoolMisses") > 0);
+		
+		ObjectName clientName = containerClient.getTransportMetrics().getObjectName();
+		assertEquals("ApplicationContainerClientImpl", clientName.getKeyProperty("type"));
+		assertEquals(1, mBeanServer.getAttribute(clientName, "Connections"));
+		assertTrue((Long) mBeanServer.getAttribute(clientName, "FramesIn") >= messages);
+		
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+		assertTrue(mBeanServer.queryNames(new ObjectName(serverName + ",*"), null).isEmpty());
 	}
 	
 	@Test(timeout=30000)
-	@Ignore // need to fix to adjust for API changes
-	public void validateWithMixedMessageSizesAndCorrectResultMultiClient() throws Exception {
-		ExecutorService executor = Executors.newFixedThreadPool(20);
-		final int expectedClients = 40;
-		
+	public void validateConnectionsAreSpreadAcrossIoThreads() throws Exception {
+		int ioThreads = 4;
+		int containers = 8;
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 2);
+		specification.put(YayaConstants.IO_THREADS, ioThreads);
 		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
-		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, expectedClients, false, mock(Runnable.class));
-		InetSocketAddress actualServerAddress = clientServer.start();
-		for (int i = 0; i < expectedClients; i++) {
-			ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(actualServerAddress, new EchoMessageHandler(), mock(Runnable.class));
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, containers, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		final CountDownLatch containersDisconnected = new CountDownLatch(containers);
+		for (int i = 0; i < containers; i++) {
+			ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+				@Override
+				public void run() {
+					containersDisconnected.countDown();
+					if (containersDisconnected.getCount() == 0){
+						applicationMasterClient.stop(true);
+					}
+				}
+			});
 			containerClient.start();
 		}
+		assertTrue(clientServer.awaitAllClients(10));
 		
-		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
-		int iterations = 100;
-		final CountDownLatch latch = new CountDownLatch(containerDelegates.length * iterations);
+		int messagesPerContainer = 50;
+		final CountDownLatch latch = new CountDownLatch(messagesPerContainer * containers);
+		final AtomicInteger mismatches = new AtomicInteger();
+		final Set<String> ioThreadNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		for (int i = 0; i < messagesPerContainer; i++) {
+			for (ContainerDelegate containerDelegate : clientServer.getContainerDelegates()) {
+				final String message = "Hello-" + i + "-" + containerDelegate.hashCode();
+				containerDelegate.process(ByteBuffer.wrap(message.getBytes()), new ReplyPostProcessor() {
+					@Override
+					public void doProcess(ByteBuffer reply) {
+						ioThreadNames.add(Thread.currentThread().getName());
+						byte[] replyBytes = new byte[reply.remaining()];
+						reply.get(replyBytes);
+						if (!message.equals(new String(replyBytes))){
+							mismatches.incrementAndGet();
+						}
+						latch.countDown();
+					}
+				});
+			}
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		assertEquals(ioThreads, ioThreadNames.size());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=30000)
+	public void validateSequentialRoundTripsAreNotDelayedBySelectorTimeout() throws Exception {
+		this.doValidateSequentialRoundTrips(false);
+	}
+	
+	@Test(timeout=30000)
+	public void validateSequentialRoundTripsWithBusySpinningSelector() throws Exception {
+		this.doValidateSequentialRoundTrips(true);
+	}
+	
+	/**
+	 * Each round trip crosses selector threads 4 times, so if any of them waited for 
+	 * the select timeout instead of being woken up the total time would be way over the limit.
+	 */
+	private void doValidateSequentialRoundTrips(boolean busySpin) throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.SELECTOR_BUSY_SPIN, busySpin);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), transportSettings);
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		int roundTrips = 200;
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < roundTrips; i++) {
+			final CountDownLatch latch = new CountDownLatch(1);
+			containerDelegate.process(ByteBuffer.wrap(("Hello-" + i).getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					latch.countDown();
+				}
+			});
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("Took " + elapsed + " ms", elapsed < 2000);
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=30000)
+	public void validateBatchedRequestsAndRepliesAreCorrelated() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 64);
+		specification.put(YayaConstants.BATCH_MAX_SIZE, 1024);
+		specification.put(YayaConstants.BATCH_LINGER_MICROS, 500);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), transportSettings);
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		int messages = 2000;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		for (int i = 0; i < messages; i++) {
+			// every 100th message is too large to be batched
+			final byte[] message = i % 100 == 0 ? new byte[2048] : ("Hello-" + i).getBytes();
+			if (i % 100 == 0){
+				new Random().nextBytes(message);
+			}
+			containerDelegate.process(ByteBuffer.wrap(message), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!Arrays.equals(message, replyBytes)){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=30000)
+	public void validateMessagesLargerThanSharedMemoryRing() throws Exception {
+		this.doValidateSharedMemoryExchange(false);
+	}
+	
+	@Test(timeout=30000)
+	public void validateMessagesLargerThanSharedMemoryRingWithBusySpinningSelector() throws Exception {
+		this.doValidateSharedMemoryExchange(true);
+	}
+	
+	@Test(timeout=30000)
+	public void validateCompressionCodecIsNegotiatedAndApplied() throws Exception {
+		Map<String, Object> serverSpecification = new HashMap<>();
+		serverSpecification.put(YayaConstants.COMPRESSION_CODECS, "lz,deflate");
+		serverSpecification.put(YayaConstants.COMPRESSION_THRESHOLD, 512);
+		// frames are not compressed once they are exchanged through the shared memory
+		serverSpecification.put(YayaConstants.SHARED_MEMORY_RING_SIZE, 0);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(serverSpecification));
+		InetSocketAddress address = clientServer.start();
+
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		Map<String, Object> clientSpecification = new HashMap<>();
+		// server chooses the first codec offered by the client which it also supports
+		clientSpecification.put(YayaConstants.COMPRESSION_CODECS, Arrays.asList("deflate", "lz"));
+		clientSpecification.put(YayaConstants.COMPRESSION_THRESHOLD, 512);
+		clientSpecification.put(YayaConstants.SHARED_MEMORY_RING_SIZE, 0);
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, new TransportSettings(clientSpecification));
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		int messages = 200;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		for (int i = 0; i < messages; i++) {
+			StringBuilder builder = new StringBuilder();
+			while (builder.length() < 4096) {
+				builder.append("Hello Yarn Container " + i + "! ");
+			}
+			final byte[] message = builder.toString().getBytes();
+			containerDelegate.process(ByteBuffer.wrap(message), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!Arrays.equals(message, replyBytes)){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+
+		// messages sent before the handshake completes go uncompressed
+		CompressionStats serverStats = clientServer.getCompressionStats().get(DeflateCompressionCodec.NAME);
+		CompressionStats clientStats = containerClient.getCompressionStats().get(DeflateCompressionCodec.NAME);
+		assertTrue(serverStats.getCompressedFrames() > messages / 2);
+		assertTrue(clientStats.getCompressedFrames() > messages / 2);
+		assertEquals(serverStats.getCompressedFrames(), clientStats.getDecompressedFrames());
+		assertEquals(clientStats.getCompressedFrames(), serverStats.getDecompressedFrames());
+		assertTrue(serverStats.getCompressionRatio() > 1);
+		assertEquals(0, clientServer.getCompressionStats().get(LzCompressionCodec.NAME).getCompressedFrames());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+
+	@Test(timeout=30000)
+	public void validateReplyHeaderIsWrittenInFrontOfUncopiedAndCompressedReplies() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.COMPRESSION_CODECS, "deflate");
+		specification.put(YayaConstants.COMPRESSION_THRESHOLD, 512);
+		specification.put(YayaConstants.SHARED_MEMORY_RING_SIZE, 0);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new ReplyHeaderWritingEchoMessageHandler(7), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, new TransportSettings(specification));
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+
+		int messages = 100;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		clientServer.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				if (!replyEnvelope.isSuccess() || replyEnvelope.getContainerId() != 7){
+					mismatches.incrementAndGet();
+				}
+			}
+		});
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		for (int i = 0; i < messages; i++) {
+			StringBuilder builder = new StringBuilder();
+			// every other reply is above the compression threshold
+			while (builder.length() < (i % 2 == 0 ? 16 : 4096)) {
+				builder.append("Hello Yarn Container " + i + "! ");
+			}
+			final byte[] message = builder.toString().getBytes();
+			containerDelegate.process(ByteBuffer.wrap(message), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!Arrays.equals(message, replyBytes)){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		assertTrue(containerClient.getCompressionStats().get(DeflateCompressionCodec.NAME).getCompressedFrames() > 0);
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+
+	@Test(timeout=30000)
+	public void validateLargeAndSmallPipelinedMessagesAreWrittenCompletely() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 3);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		// large enough to never fit into the socket send buffer
+		final byte[] largeMessage = new byte[16 * 1024 * 1024];
+		new Random().nextBytes(largeMessage);
+		final CountDownLatch latch = new CountDownLatch(3);
+		final AtomicInteger mismatches = new AtomicInteger();
+		
+		for (final byte[] message : new byte[][]{"small-1".getBytes(), largeMessage, "small-2".getBytes()}) {
+			containerDelegate.process(ByteBuffer.wrap(message), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!Arrays.equals(message, replyBytes)){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test
+	@Ignore // need to fix to adjust for API changes
+	public void validateMoreThenExpectedClients() throws Exception {
+		for (int y = 0; y < 10; y++) {
+			int expectedClients = 2;
+			ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(expectedClients, false, mock(Runnable.class));
+			InetSocketAddress address = clientServer.start();
+			
+			for (int i = 0; i < 40; i++) {
+				ApplicationContainerClientImpl containerClientOne = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+				containerClientOne.start();
+			}
+			
+			clientServer.awaitAllClients(2);
+			
+			ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+			
+			assertEquals(expectedClients, containerDelegates.length);
+			clientServer.stop(false);
+		}
+	}
+	
+	@Test(timeout=5000)
+	@Ignore // need to fix to adjust for API changes
+	public void validateSimpleInterruction() throws Exception {
+		int expectedClients = 2;
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, expectedClients, false, mock(Runnable.class));
+		InetSocketAddress address = clientServer.start();
+		
+		for (int i = 0; i < expectedClients; i++) {
+			ApplicationContainerClientImpl containerClientOne = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+			containerClientOne.start();
+		}
+		
+		clientServer.awaitAllClients(2);
+		
+		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		
+		assertEquals(expectedClients, containerDelegates.length);
+		for (int i = 0; i < 2; i++) {
+			final int I = i;
+			for (final ContainerDelegate containerDelegate : containerDelegates) {
+				containerDelegate.process(ByteBuffer.wrap(new String("Hello" + i).getBytes()), new ReplyPostProcessor() {
+					@Override
+					public void doProcess(ByteBuffer reply) {
+						byte[] replyBytes = new byte[reply.remaining()];
+						reply.get(replyBytes);
+						String replyString = new String(replyBytes).trim();
+						assertEquals("Hello" + I, replyString);
+					}
+				});
+			}
+		}
+		clientServer.stop(false);
+		clientServer.awaitShutdown();	
+	}
+
+	@Test(timeout=5000)
+	@Ignore // need to fix to adjust for API changes
+	public void validateMixedMessageSizeExchange() throws Exception {
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(1, false, mock(Runnable.class));
+		InetSocketAddress address = clientServer.start();
+		StringBuffer buffer = new StringBuffer();
+		String s = "Hello World";
+		int size = 0;
+		while (size < 16384){
+			buffer.append(s);
+			size += s.length();
+		}
+		buffer.append("\r\n");
+		String message = buffer.toString().substring(0, 16384);
+		
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new SampleMessageHandler(), mock(Runnable.class));
+		containerClient.start();
+		
+		final ByteBuffer b1 = ByteBuffer.wrap(message.getBytes());
+		
+		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		
+		// Large message 
+		containerDelegates[0].process(b1, new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer reply) {
+				int reportedMessageSize = reply.getInt(0); 
+				assertEquals(b1.limit(), reportedMessageSize);
+			}
+		});
+		
+		// Small Message
+		final ByteBuffer b2 = ByteBuffer.wrap("Hello NIO\r\n".getBytes());
+		containerDelegates[0].process(b2, new ReplyPostProcessor() {
+			@Override
+			public void doProcess(ByteBuffer reply) {
+				int reportedMessageSize = reply.getInt(0); 
+				assertEquals(b2.limit(), reportedMessageSize);
+			}
+		});
+	}
+	
+	@Test(timeout=30000)
+	@Ignore // need to fix to adjust for API changes
+	public void validateWithMixedMessageSizesAndCorrectResultMultiClient() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		final int expectedClients = 40;
+		
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, expectedClients, false, mock(Runnable.class));
+		InetSocketAddress actualServerAddress = clientServer.start();
+		for (int i = 0; i < expectedClients; i++) {
+			ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(actualServerAddress, new EchoMessageHandler(), mock(Runnable.class));
+			containerClient.start();
+		}
+		
+		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		int iterations = 100;
+		final CountDownLatch latch = new CountDownLatch(containerDelegates.length * iterations);
 		final AtomicReference<Exception> error = new AtomicReference<>();
 		for (int i = 0; i < iterations; i++) {
 			for (final ContainerDelegate containerDelegate : containerDelegates) {
@@ -333,15 +1218,951 @@ public class ClientServerTests {
 		executor.shutdown();
 	}
 	
-	private static class EchoMessageHandler implements ApplicationContainerMessageHandler {
-		@Override
-		public ByteBuffer handle(ByteBuffer messageBuffer) {
-			return messageBuffer;
+	/**
+	 * 
+	 */
+	private void doValidateSharedMemoryExchange(boolean busySpin) throws Exception {
+		File sharedMemoryDirectory = Files.createTempDirectory("yaya-shm").toFile();
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.SHARED_MEMORY_RING_SIZE, 4096);
+		specification.put(YayaConstants.SHARED_MEMORY_DIRECTORY, sharedMemoryDirectory.getAbsolutePath());
+		specification.put(YayaConstants.SELECTOR_BUSY_SPIN, busySpin);
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 64);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), transportSettings);
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		int messages = 500;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		Random random = new Random();
+		for (int i = 0; i < messages; i++) {
+			// frames wrap around the ring and some of them do not fit into it at all
+			final byte[] message = new byte[random.nextInt(10000) + 1];
+			random.nextBytes(message);
+			containerDelegate.process(ByteBuffer.wrap(message), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!Arrays.equals(message, replyBytes)){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
 		}
-
-		@Override
-		public void onDisconnect() {
-			
+		latch.await();
+		assertEquals(0, mismatches.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+		// files are deleted once both sides mapped them
+		assertEquals(0, sharedMemoryDirectory.list().length);
+		sharedMemoryDirectory.delete();
+	}
+	
+	@Test(timeout=20000)
+	public void validateMessagesAreProcessedConcurrentlyUpToContainerParallelism() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.CONTAINER_PARALLELISM, 4);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), transportSettings);
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		BarrierMessageHandler messageHandler = new BarrierMessageHandler(4);
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, messageHandler, new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		assertEquals(4, containerDelegate.inFlightWindow());
+		this.processAndAwaitBarrierReplies(containerDelegate, 4);
+		assertEquals(4, messageHandler.maxConcurrency.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=20000)
+	public void validateInProcessMessagesAreProcessedConcurrentlyUpToContainerParallelism() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.CONTAINER_PARALLELISM, 4);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 1, false, mock(Runnable.class), transportSettings);
+		InetSocketAddress address = clientServer.start();
+		
+		final InProcessApplicationContainerClient applicationMasterClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		BarrierMessageHandler messageHandler = new BarrierMessageHandler(4);
+		InProcessApplicationContainerClient containerClient = new InProcessApplicationContainerClient(address, messageHandler, new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		this.processAndAwaitBarrierReplies(containerDelegate, 4);
+		assertEquals(4, messageHandler.maxConcurrency.get());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	/**
+	 * Each message is only replied to once all of them reached the barrier, so unless they 
+	 * are processed concurrently the replies would be failures.
+	 */
+	private void processAndAwaitBarrierReplies(ContainerDelegate containerDelegate, int messages) throws Exception {
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		for (int i = 0; i < messages; i++) {
+			final String message = "Hello-" + i;
+			containerDelegate.process(ByteBuffer.wrap(message.getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!message.equals(new String(replyBytes))){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, mismatches.get());
+	}
+	
+	@Test(timeout=10000)
+	public void validateInProcessPipelinedRequestsAreCorrelatedWithReplies() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 4);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+		
+		final InProcessApplicationContainerClient applicationMasterClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		InProcessApplicationContainerClient containerClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		assertEquals(4, containerDelegate.inFlightWindow());
+		
+		int messages = 1000;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		for (int i = 0; i < messages; i++) {
+			final String message = "Hello-" + i;
+			containerDelegate.process(ByteBuffer.wrap(message.getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!message.equals(new String(replyBytes))){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		assertTrue(containerDelegate.available());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+		assertFalse(containerClient.isRunning());
+		assertFalse(applicationMasterClient.isRunning());
+		assertNull(InProcessApplicationContainerServer.lookup(address));
+	}
+	
+	@Test(timeout=30000)
+	public void validateAsyncPipelinedRequestsAreCorrelatedWithReplies() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 4);
+		specification.put(YayaConstants.IO_THREADS, 2);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		AsyncApplicationContainerServer clientServer = new AsyncApplicationContainerServer(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		InetSocketAddress address = clientServer.start();
+		
+		final AsyncApplicationContainerClient applicationMasterClient = new AsyncApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		AsyncApplicationContainerClient containerClient = new AsyncApplicationContainerClient(address, new ReplyHeaderWritingEchoMessageHandler(7), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		assertEquals(4, containerDelegate.inFlightWindow());
+		
+		int messages = 1000;
+		final CountDownLatch latch = new CountDownLatch(messages);
+		final AtomicInteger mismatches = new AtomicInteger();
+		clientServer.registerReplyEnvelopeListener(new ReplyEnvelopeListener() {
+			@Override
+			public void onReply(ReplyEnvelope replyEnvelope) {
+				if (!replyEnvelope.isSuccess() || replyEnvelope.getContainerId() != 7){
+					mismatches.incrementAndGet();
+				}
+			}
+		});
+		for (int i = 0; i < messages; i++) {
+			// every 100th message spans many reads and writes
+			final String message = i % 100 == 0 ? new String(new char[1024 * 1024]).replace('\0', (char) ('a' + i % 26)) : "Hello-" + i;
+			containerDelegate.process(ByteBuffer.wrap(message.getBytes()), new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer reply) {
+					byte[] replyBytes = new byte[reply.remaining()];
+					reply.get(replyBytes);
+					if (!message.equals(new String(replyBytes))){
+						mismatches.incrementAndGet();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		latch.await();
+		assertEquals(0, mismatches.get());
+		// permit is released once the last reply post processor returns
+		while (!containerDelegate.available()){
+			LockSupport.parkNanos(1000000);
+		}
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+		assertFalse(containerClient.isRunning());
+		assertFalse(applicationMasterClient.isRunning());
+	}
+	
+	@Test(timeout=10000)
+	public void validateAsyncContainerDisconnectFailsInFlightRequests() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		Runnable onDisconnectTask = mock(Runnable.class);
+		AsyncApplicationContainerServer clientServer = new AsyncApplicationContainerServer(sa, 1, false, onDisconnectTask);
+		InetSocketAddress address = clientServer.start();
+		
+		final AsyncApplicationContainerClient applicationMasterClient = new AsyncApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		final CountDownLatch processingLatch = new CountDownLatch(1);
+		AsyncApplicationContainerClient containerClient = new AsyncApplicationContainerClient(address, new ApplicationContainerMessageHandler() {
+			@Override
+			public ByteBuffer handle(ByteBuffer messageBuffer) {
+				processingLatch.countDown();
+				LockSupport.park();
+				return messageBuffer;
+			}
+			
+			@Override
+			public void onDisconnect() {
+				// noop
+			}
+		}, mock(Runnable.class));
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		CountDownLatch replyLatch = new CountDownLatch(1);
+		CountDownLatch failureLatch = new CountDownLatch(1);
+		containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new FailureCountingReplyPostProcessor(replyLatch, failureLatch));
+		processingLatch.await();
+		containerClient.stop(true);
+		
+		assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, replyLatch.getCount());
+		assertEquals(0, clientServer.liveContainers());
+		assertFalse(containerDelegate.isLive());
+		verify(onDisconnectTask, timeout(5000)).run();
+		
+		applicationMasterClient.stop(true);
+		clientServer.awaitShutdown();
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=60000)
+	public void validateInProcessStreamedRequestAndReply() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 1, false, mock(Runnable.class));
+		InetSocketAddress address = clientServer.start();
+
+		final InProcessApplicationContainerClient applicationMasterClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		InProcessApplicationContainerClient containerClient = new InProcessApplicationContainerClient(address, new StreamingEchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		GeneratingChannel data = new GeneratingChannel(8 * 1024 * 1024 + 123);
+		ChecksumChannel reply = new ChecksumChannel();
+		containerDelegate.process(data, reply);
+		assertEquals(data.length, reply.length);
+		assertEquals(data.checksum.getValue(), reply.checksum.getValue());
+		assertTrue(containerDelegate.available());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=10000)
+	public void validateInProcessStreamedReplyFailureIsPropagated() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 1, false, mock(Runnable.class));
+		InetSocketAddress address = clientServer.start();
+
+		final InProcessApplicationContainerClient applicationMasterClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		InProcessApplicationContainerClient containerClient = new InProcessApplicationContainerClient(address, new FailingStreamingMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		});
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		try {
+			containerDelegate.process(new GeneratingChannel(4 * 1024), new ChecksumChannel());
+			fail();
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().contains("Intentional failure"));
+		}
+		assertTrue(containerDelegate.available());
+		clientServer.stop(true);
+		assertFalse(clientServer.isRunning());
+	}
+	
+	@Test(timeout=10000)
+	public void validateInProcessFiniteContainersAreDisconnectedOnceReplied() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		final CountDownLatch serverDisconnectLatch = new CountDownLatch(1);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 2, true, new Runnable() {
+			@Override
+			public void run() {
+				serverDisconnectLatch.countDown();
+			}
+		});
+		InetSocketAddress address = clientServer.start();
+
+		InProcessApplicationContainerClient applicationMasterClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		final CountDownLatch disconnectLatch = new CountDownLatch(2);
+		Runnable onDisconnectTaskClient = new Runnable() {
+			@Override
+			public void run() {
+				disconnectLatch.countDown();
+			}
+		};
+		InProcessApplicationContainerClient containerClientOne = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), onDisconnectTaskClient);
+		containerClientOne.start();
+		InProcessApplicationContainerClient containerClientTwo = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), onDisconnectTaskClient);
+		containerClientTwo.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		assertEquals(2, clientServer.liveContainers());
+
+		// all expected clients are connected
+		Runnable onRefusedTask = mock(Runnable.class);
+		InProcessApplicationContainerClient containerClientThree = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), onRefusedTask);
+		containerClientThree.start();
+		assertFalse(containerClientThree.isRunning());
+		verify(onRefusedTask, times(1)).run();
+		assertEquals(2, clientServer.liveContainers());
+
+		for (ContainerDelegate containerDelegate : clientServer.getContainerDelegates()) {
+			containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), mock(ReplyPostProcessor.class));
+		}
+		disconnectLatch.await();
+		assertFalse(containerClientOne.isRunning());
+		assertFalse(containerClientTwo.isRunning());
+		
+		applicationMasterClient.stop(false);
+		clientServer.awaitShutdown();
+		assertEquals(0, clientServer.liveContainers());
+		// only the disconnect of Application Master is initiated by the client
+		serverDisconnectLatch.await();
+	}
+	
+	@Test(timeout=5000)
+	public void validateInProcessClientFailsWithoutServer() throws Exception {
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 1, false, mock(Runnable.class));
+		InetSocketAddress address = clientServer.start();
+		clientServer.stop(false);
+		try {
+			new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class)).start();
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// ignore
+		}
+	}
+	
+	@Test(timeout=30000)
+	public void validateCreditGrantedByContainerIsEnforced() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, 4);
+		specification.put(YayaConstants.CREDIT_FAIL_FAST, true);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, mock(Runnable.class), new TransportSettings(specification));
+		LatchingCreditListener creditListener = new LatchingCreditListener();
+		clientServer.registerCreditListener(creditListener);
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		Map<String, Object> containerSpecification = new HashMap<>();
+		containerSpecification.put(YayaConstants.CREDIT_MESSAGES, 2);
+		GatedEchoMessageHandler messageHandler = new GatedEchoMessageHandler();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, messageHandler, new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, new TransportSettings(containerSpecification));
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		
+		// credit is granted ahead of any reply
+		final CountDownLatch replyLatch = new CountDownLatch(1);
+		containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new CountingReplyPostProcessor(replyLatch));
+		replyLatch.await();
+		while (!containerDelegate.available()){
+			// credit is returned right after the reply was processed
+			LockSupport.parkNanos(1000000);
+		}
+		
+		messageHandler.close();
+		final CountDownLatch blockedReplyLatch = new CountDownLatch(2);
+		containerDelegate.process(ByteBuffer.wrap("one".getBytes()), new CountingReplyPostProcessor(blockedReplyLatch));
+		containerDelegate.process(ByteBuffer.wrap("two".getBytes()), new CountingReplyPostProcessor(blockedReplyLatch));
+		try {
+			containerDelegate.process(ByteBuffer.wrap("three".getBytes()), new CountingReplyPostProcessor(blockedReplyLatch));
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+		assertTrue(creditListener.exhaustedLatch.await(0, TimeUnit.SECONDS));
+		assertEquals(containerDelegate.getHost(), creditListener.containerAddress.get());
+		
+		messageHandler.open();
+		blockedReplyLatch.await();
+		assertTrue(creditListener.replenishedLatch.await(5, TimeUnit.SECONDS));
+		clientServer.stop(true);
+	}
+	
+	@Test(timeout=30000)
+	public void validateInProcessInFlightBytesBudgetIsEnforced() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_BYTES_BUDGET, 1000);
+		specification.put(YayaConstants.CREDIT_FAIL_FAST, true);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		InProcessApplicationContainerServer clientServer = new InProcessApplicationContainerServer(sa, 2, false, mock(Runnable.class), new TransportSettings(specification));
+		LatchingCreditListener creditListener = new LatchingCreditListener();
+		clientServer.registerCreditListener(creditListener);
+		InetSocketAddress address = clientServer.start();
+		
+		final InProcessApplicationContainerClient applicationMasterClient = new InProcessApplicationContainerClient(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		GatedEchoMessageHandler messageHandler = new GatedEchoMessageHandler();
+		messageHandler.close();
+		Runnable onDisconnectTask = new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		};
+		new InProcessApplicationContainerClient(address, messageHandler, onDisconnectTask).start();
+		new InProcessApplicationContainerClient(address, messageHandler, onDisconnectTask).start();
+		assertTrue(clientServer.awaitAllClients(2));
+		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		
+		// budget is shared by both containers
+		final CountDownLatch replyLatch = new CountDownLatch(2);
+		containerDelegates[0].process(ByteBuffer.allocate(600), new CountingReplyPostProcessor(replyLatch));
+		try {
+			containerDelegates[1].process(ByteBuffer.allocate(600), new CountingReplyPostProcessor(replyLatch));
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+		assertTrue(creditListener.exhaustedLatch.await(0, TimeUnit.SECONDS));
+		assertNull(creditListener.containerAddress.get());
+		containerDelegates[1].process(ByteBuffer.allocate(400), new CountingReplyPostProcessor(replyLatch));
+		
+		messageHandler.open();
+		replyLatch.await();
+		assertTrue(creditListener.replenishedLatch.await(5, TimeUnit.SECONDS));
+		containerDelegates[1].process(ByteBuffer.allocate(1000), mock(ReplyPostProcessor.class));
+		clientServer.stop(true);
+	}
+	
+	@Test(timeout=30000)
+	public void validateUnresponsiveContainerIsEvictedWhileIdleOneIsKept() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.HEARTBEAT_INTERVAL_MILLIS, 100);
+		specification.put(YayaConstants.HEARTBEAT_TIMEOUT_MILLIS, 1000);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		Runnable onDisconnectTask = mock(Runnable.class);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 2, false, onDisconnectTask, transportSettings);
+		LatchingEvictionListener evictionListener = new LatchingEvictionListener();
+		clientServer.registerEvictionListener(evictionListener);
+		InetSocketAddress address = clientServer.start();
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class), transportSettings);
+		applicationMasterClient.start();
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		// connects, but never says anything (e.g., hung process)
+		SocketChannel deadContainer = SocketChannel.open(address);
+		assertTrue(clientServer.awaitAllClients(2));
+		
+		CountDownLatch replyLatch = new CountDownLatch(1);
+		CountDownLatch failureLatch = new CountDownLatch(1);
+		for (ContainerDelegate containerDelegate : clientServer.getContainerDelegates()) {
+			containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new FailureCountingReplyPostProcessor(replyLatch, failureLatch));
+		}
+		assertTrue(evictionListener.evictionLatch.await(10, TimeUnit.SECONDS));
+		// in-flight request is failed before the eviction is announced
+		assertTrue(failureLatch.await(0, TimeUnit.SECONDS));
+		replyLatch.await();
+		assertEquals(1, clientServer.liveContainers());
+		ContainerDelegate liveContainerDelegate = clientServer.getContainerDelegates()[0];
+		assertTrue(liveContainerDelegate.isLive());
+		
+		// idle, but heartbeating container is never evicted
+		Thread.sleep(2000);
+		assertEquals(1, clientServer.liveContainers());
+		while (!liveContainerDelegate.available()){
+			// permit is returned right after the reply was processed
+			LockSupport.parkNanos(1000000);
+		}
+		CountDownLatch nextReplyLatch = new CountDownLatch(1);
+		liveContainerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new CountingReplyPostProcessor(nextReplyLatch));
+		nextReplyLatch.await();
+		verify(onDisconnectTask, times(0)).run();
+		
+		deadContainer.close();
+		clientServer.stop(true);
+	}
+	
+	@Test(timeout=30000)
+	public void validateContainerReconnectsAndResumesSession() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.RECONNECT_ATTEMPTS, 5);
+		specification.put(YayaConstants.RECONNECT_BACKOFF_MILLIS, 20);
+		// shared memory would bypass the proxy
+		specification.put(YayaConstants.SHARED_MEMORY_RING_SIZE, 0);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		Runnable onDisconnectTask = mock(Runnable.class);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, 1, false, onDisconnectTask, transportSettings);
+		InetSocketAddress address = clientServer.start();
+		ConnectionDroppingProxy proxy = new ConnectionDroppingProxy(address);
+		
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), mock(Runnable.class));
+		applicationMasterClient.start();
+		final CountDownLatch containerDisconnectLatch = new CountDownLatch(1);
+		ApplicationContainerClientImpl containerClient = new ApplicationContainerClientImpl(proxy.getAddress(), new EchoMessageHandler(), new Runnable() {
+			@Override
+			public void run() {
+				containerDisconnectLatch.countDown();
+				applicationMasterClient.stop(true);
+			}
+		}, transportSettings);
+		containerClient.start();
+		assertTrue(clientServer.awaitAllClients(2));
+		ContainerDelegate containerDelegate = clientServer.getContainerDelegates()[0];
+		CountDownLatch replyLatch = new CountDownLatch(1);
+		containerDelegate.process(ByteBuffer.wrap("Hello Yarn!".getBytes()), new CountingReplyPostProcessor(replyLatch));
+		replyLatch.await();
+		
+		proxy.dropConnections();
+		while (clientServer.liveContainers() != 0){
+			LockSupport.parkNanos(1000000);
+		}
+		// waits for the session to be resumed
+		CountDownLatch resumedReplyLatch = new CountDownLatch(1);
+		containerDelegate.process(ByteBuffer.wrap("Hello again!".getBytes()), new CountingReplyPostProcessor(resumedReplyLatch));
+		resumedReplyLatch.await();
+		assertEquals(1, clientServer.liveContainers());
+		assertTrue(containerDelegate == clientServer.getContainerDelegates()[0]);
+		assertTrue(containerClient.isRunning());
+		assertEquals(1, containerDisconnectLatch.getCount());
+		verify(onDisconnectTask, times(0)).run();
+		
+		clientServer.stop(true);
+		// server is gone, so attempts to reconnect are exhausted
+		assertTrue(containerDisconnectLatch.await(10, TimeUnit.SECONDS));
+		proxy.close();
+	}
+	
+	private static class EchoMessageHandler implements ApplicationContainerMessageHandler {
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer) {
+			return messageBuffer;
+		}
+
+		@Override
+		public void onDisconnect() {
+			
+		}
+	}
+	
+	/**
+	 * Echoes the message after moving its first {@link ReplyHeader#LENGTH} bytes into the header of the reply.
+	 */
+	private static class HeaderEchoMessageHandler extends EchoMessageHandler implements ReplyHeaderWritingMessageHandler {
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer, ByteBuffer replyHeader) {
+			ByteBuffer reply = messageBuffer.duplicate();
+			ByteBuffer header = reply.duplicate();
+			header.limit(header.position() + ReplyHeader.LENGTH);
+			replyHeader.put(header);
+			reply.position(reply.position() + ReplyHeader.LENGTH);
+			return reply.slice();
+		}
+	}
+	
+	private static class ReplyHeaderWritingEchoMessageHandler extends EchoMessageHandler implements ReplyHeaderWritingMessageHandler {
+		private final int containerId;
+		
+		ReplyHeaderWritingEchoMessageHandler(int containerId){
+			this.containerId = containerId;
+		}
+		
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer, ByteBuffer replyHeader) {
+			ReplyHeader.write(replyHeader, ReplyHeader.SUCCESS, this.containerId, 0);
+			return messageBuffer;
+		}
+	}
+	
+	private static class BarrierMessageHandler extends EchoMessageHandler {
+		private final CyclicBarrier barrier;
+		
+		private final AtomicInteger concurrency = new AtomicInteger();
+		
+		private final AtomicInteger maxConcurrency = new AtomicInteger();
+		
+		BarrierMessageHandler(int parties){
+			this.barrier = new CyclicBarrier(parties);
+		}
+		
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer) {
+			int current = this.concurrency.incrementAndGet();
+			int max;
+			while ((max = this.maxConcurrency.get()) < current && !this.maxConcurrency.compareAndSet(max, current));
+			try {
+				this.barrier.await(5, TimeUnit.SECONDS);
+				return messageBuffer;
+			} 
+			catch (Exception e) {
+				return ByteBuffer.wrap("FAILED".getBytes());
+			}
+			finally {
+				this.concurrency.decrementAndGet();
+			}
+		}
+	}
+	
+	private static class StreamingEchoMessageHandler extends EchoMessageHandler implements StreamingMessageHandler {
+		@Override
+		public void handle(ReadableByteChannel message, WritableByteChannel reply) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(7000);
+			while (message.read(buffer) >= 0){
+				buffer.flip();
+				while (buffer.hasRemaining()){
+					reply.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+	}
+	
+	private static class FailingStreamingMessageHandler extends EchoMessageHandler implements StreamingMessageHandler {
+		@Override
+		public void handle(ReadableByteChannel message, WritableByteChannel reply) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(1024);
+			while (buffer.hasRemaining()){
+				message.read(buffer);
+			}
+			buffer.flip();
+			reply.write(buffer);
+			throw new IOException("Intentional failure");
+		}
+	}
+	
+	/**
+	 * Produces deterministic data of the given length without holding it in memory.
+	 */
+	private static class GeneratingChannel implements ReadableByteChannel {
+		private final CRC32 checksum = new CRC32();
+		
+		private final long length;
+		
+		private long produced;
+		
+		GeneratingChannel(long length) {
+			this.length = length;
+		}
+		
+		@Override
+		public int read(ByteBuffer destination) {
+			if (this.produced == this.length){
+				return -1;
+			}
+			int count = (int) Math.min(destination.remaining(), this.length - this.produced);
+			for (int i = 0; i < count; i++) {
+				byte value = (byte) ((this.produced++ * 31) >> 3);
+				destination.put(value);
+				this.checksum.update(value);
+			}
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+	
+	private static class ChecksumChannel implements WritableByteChannel {
+		private final CRC32 checksum = new CRC32();
+		
+		private long length;
+		
+		@Override
+		public int write(ByteBuffer source) {
+			int count = source.remaining();
+			while (source.hasRemaining()){
+				this.checksum.update(source.get());
+			}
+			this.length += count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+	
+	private static class GatedEchoMessageHandler extends EchoMessageHandler {
+		private volatile CountDownLatch gate = new CountDownLatch(0);
+		
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer) {
+			try {
+				this.gate.await();
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return messageBuffer;
+		}
+		
+		void close() {
+			this.gate = new CountDownLatch(1);
+		}
+		
+		void open() {
+			this.gate.countDown();
+		}
+	}
+	
+	private static class CountingReplyPostProcessor extends ReplyPostProcessor {
+		private final CountDownLatch latch;
+		
+		CountingReplyPostProcessor(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void doProcess(ByteBuffer reply) {
+			this.latch.countDown();
+		}
+	}
+	
+	private static class FailureCountingReplyPostProcessor extends CountingReplyPostProcessor {
+		private final CountDownLatch failureLatch;
+		
+		FailureCountingReplyPostProcessor(CountDownLatch latch, CountDownLatch failureLatch) {
+			super(latch);
+			this.failureLatch = failureLatch;
+		}
+
+		@Override
+		public void doFail(Exception cause) {
+			this.failureLatch.countDown();
+		}
+	}
+	
+	private static class LatchingEvictionListener implements ContainerEvictionListener {
+		private final CountDownLatch evictionLatch = new CountDownLatch(1);
+		
+		@Override
+		public void onEviction(InetSocketAddress containerAddress) {
+			this.evictionLatch.countDown();
+		}
+	}
+	
+	/**
+	 * Forwards connections to the target address until they are dropped, simulating the network failure.
+	 */
+	private static class ConnectionDroppingProxy implements Runnable {
+		private final ServerSocket serverSocket;
+		
+		private final InetSocketAddress targetAddress;
+		
+		private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+		
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		
+		ConnectionDroppingProxy(InetSocketAddress targetAddress) throws IOException {
+			this.targetAddress = targetAddress;
+			this.serverSocket = new ServerSocket(0, 50, targetAddress.getAddress());
+			this.executor.execute(this);
+		}
+		
+		InetSocketAddress getAddress() {
+			return (InetSocketAddress) this.serverSocket.getLocalSocketAddress();
+		}
+		
+		void dropConnections() throws IOException {
+			for (Socket socket : this.sockets) {
+				socket.close();
+			}
+			this.sockets.clear();
+		}
+		
+		void close() throws IOException {
+			this.serverSocket.close();
+			this.dropConnections();
+			this.executor.shutdownNow();
+		}
+
+		@Override
+		public void run() {
+			while (!this.serverSocket.isClosed()){
+				try {
+					Socket socket = this.serverSocket.accept();
+					this.sockets.add(socket);
+					try {
+						Socket targetSocket = new Socket(this.targetAddress.getAddress(), this.targetAddress.getPort());
+						this.sockets.add(targetSocket);
+						this.pump(socket, targetSocket);
+						this.pump(targetSocket, socket);
+					} 
+					catch (IOException e) {
+						socket.close();
+					}
+				} 
+				catch (IOException e) {
+					// closed
+				}
+			}
+		}
+		
+		private void pump(final Socket from, final Socket to) {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					byte[] buffer = new byte[8192];
+					try {
+						InputStream in = from.getInputStream();
+						OutputStream out = to.getOutputStream();
+						int count;
+						while ((count = in.read(buffer)) >= 0){
+							out.write(buffer, 0, count);
+						}
+					} 
+					catch (IOException e) {
+						// dropped
+					}
+					finally {
+						try {
+							from.close();
+							to.close();
+						} 
+						catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	private static class LatchingCreditListener implements CreditListener {
+		private final CountDownLatch exhaustedLatch = new CountDownLatch(1);
+		
+		private final CountDownLatch replenishedLatch = new CountDownLatch(1);
+		
+		private final AtomicReference<InetSocketAddress> containerAddress = new AtomicReference<>();
+		
+		@Override
+		public void onCreditExhausted(InetSocketAddress containerAddress) {
+			this.containerAddress.set(containerAddress);
+			this.exhaustedLatch.countDown();
+		}
+
+		@Override
+		public void onCreditReplenished(InetSocketAddress containerAddress) {
+			this.replenishedLatch.countDown();
 		}
 	}
 	
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class CompressionCodecTests {
+
+	@Test
+	public void validateLzRoundTrip() throws Exception {
+		this.doValidateRoundTrip(new LzCompressionCodec());
+	}
+
+	@Test
+	public void validateDeflateRoundTrip() throws Exception {
+		this.doValidateRoundTrip(new DeflateCompressionCodec());
+	}
+
+	@Test
+	public void validateLzIncompressibleData() throws Exception {
+		this.doValidateIncompressibleData(new LzCompressionCodec());
+	}
+
+	@Test
+	public void validateDeflateIncompressibleData() throws Exception {
+		this.doValidateIncompressibleData(new DeflateCompressionCodec());
+	}
+
+	@Test
+	public void validateLzCorruptedDataIsRejected() throws Exception {
+		byte[] data = this.repetitiveData(4096);
+		LzCompressionCodec codec = new LzCompressionCodec();
+		byte[] compressed = new byte[data.length];
+		int compressedLength = codec.compress(data, 0, data.length, compressed, 0, compressed.length);
+		try {
+			codec.decompress(compressed, 0, compressedLength / 2, new byte[data.length], 0, data.length);
+			fail();
+		}
+		catch (StreamCorruptedException e) {
+			// expected
+		}
+		try {
+			codec.decompress(compressed, 0, compressedLength, new byte[data.length + 1], 0, data.length + 1);
+			fail();
+		}
+		catch (StreamCorruptedException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void validateFrameCompressorThresholdAndStats() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		FrameCompressor compressor = new FrameCompressor(new LzCompressionCodec(), 1024, bufferPool);
+		assertNull(compressor.compress(ByteBuffer.wrap(this.repetitiveData(1023)), null));
+
+		byte[] data = this.repetitiveData(8192);
+		ByteBuffer payload = ByteBuffer.wrap(data);
+		PooledByteBuffer compressed = compressor.compress(payload, null);
+		assertNotNull(compressed);
+		assertEquals(data.length, payload.remaining());
+		assertTrue(compressed.asReadOnlyBuffer().remaining() < data.length);
+
+		PooledByteBuffer decompressed = compressor.decompress(compressed);
+		compressed.release();
+		ByteBuffer result = decompressed.asReadOnlyBuffer();
+		byte[] resultBytes = new byte[result.remaining()];
+		result.get(resultBytes);
+		decompressed.release();
+		assertTrue(Arrays.equals(data, resultBytes));
+
+		byte[] random = new byte[2048];
+		new Random(7).nextBytes(random);
+		assertNull(compressor.compress(ByteBuffer.wrap(random), null));
+
+		CompressionStats stats = compressor.getStats();
+		assertEquals(LzCompressionCodec.NAME, stats.getCodecName());
+		assertEquals(1, stats.getCompressedFrames());
+		assertEquals(1, stats.getIncompressibleFrames());
+		assertEquals(1, stats.getDecompressedFrames());
+		assertEquals(data.length, stats.getBytesBeforeCompression());
+		assertTrue(stats.getCompressionRatio() > 1);
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	/**
+	 *
+	 */
+	private void doValidateRoundTrip(CompressionCodec codec) throws Exception {
+		Random random = new Random(11);
+		byte[][] samples = new byte[][]{new byte[0], "a".getBytes(), "abcdabcd".getBytes(),
+				this.repetitiveData(100000), new byte[70000], this.textLikeData(random, 20000)};
+		for (byte[] sample : samples) {
+			// offsets are deliberately non-zero
+			byte[] source = new byte[sample.length + 3];
+			System.arraycopy(sample, 0, source, 3, sample.length);
+			byte[] compressed = new byte[sample.length + 64];
+			int compressedLength = codec.compress(source, 3, sample.length, compressed, 5, compressed.length - 5);
+			assertTrue(compressedLength >= 0);
+
+			byte[] decompressed = new byte[sample.length + 2];
+			codec.decompress(compressed, 5, compressedLength, decompressed, 2, sample.length);
+			assertTrue(Arrays.equals(sample, Arrays.copyOfRange(decompressed, 2, decompressed.length)));
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void doValidateIncompressibleData(CompressionCodec codec) throws Exception {
+		byte[] data = new byte[4096];
+		new Random(3).nextBytes(data);
+		assertEquals(-1, codec.compress(data, 0, data.length, new byte[data.length], 0, data.length - 1));
+	}
+
+	/**
+	 *
+	 */
+	private byte[] repetitiveData(int length) {
+		byte[] data = new byte[length];
+		byte[] pattern = "Hello Yarn Container! ".getBytes();
+		for (int i = 0; i < length; i++) {
+			data[i] = pattern[i % pattern.length];
+		}
+		return data;
+	}
+
+	/**
+	 *
+	 */
+	private byte[] textLikeData(Random random, int length) {
+		String[] words = new String[]{"container", "yarn", "application", "master", "message", "reply", "id", "=", " "};
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < length) {
+			builder.append(words[random.nextInt(words.length)]);
+			builder.append(random.nextInt(100));
+		}
+		return builder.substring(0, length).getBytes();
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import oz.hadoop.yarn.api.CreditExhaustedException;
+import oz.hadoop.yarn.api.CreditListener;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class CreditGateTests {
+	
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@After
+	public void after() {
+		this.executor.shutdownNow();
+	}
+
+	@Test(timeout=10000)
+	public void validateBudgetBlocksUntilCreditIsReturned() throws Exception {
+		final CreditGate budget = new CreditGate(100, false);
+		budget.acquire(60);
+		Future<?> blocked = this.acquire(budget, 60);
+		try {
+			blocked.get(200, TimeUnit.MILLISECONDS);
+			fail();
+		} 
+		catch (TimeoutException e) {
+			// ignore
+		}
+		budget.release(60);
+		blocked.get();
+		// larger than budget, but nothing else is in flight
+		budget.release(60);
+		budget.acquire(1000);
+	}
+	
+	@Test(timeout=10000)
+	public void validateFailFastAndListenerNotification() throws Exception {
+		CreditGate budget = new CreditGate(100, true);
+		RecordingCreditListener creditListener = new RecordingCreditListener();
+		budget.setCreditListener(creditListener);
+		budget.acquire(100);
+		try {
+			budget.acquire(1);
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+		try {
+			budget.acquire(1);
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+		// notified once per exhaustion
+		assertEquals(1, creditListener.exhausted.get());
+		assertEquals(0, creditListener.replenished.get());
+		budget.release(100);
+		assertEquals(1, creditListener.replenished.get());
+		assertNull(creditListener.lastAddress.get());
+		budget.acquire(1);
+	}
+	
+	@Test(timeout=10000)
+	public void validateContainerCreditIsChainedToBudget() throws Exception {
+		CreditGate budget = new CreditGate(1000, true);
+		RecordingCreditListener creditListener = new RecordingCreditListener();
+		budget.setCreditListener(creditListener);
+		ContainerDelegate containerDelegate = mock(ContainerDelegate.class);
+		InetSocketAddress containerAddress = new InetSocketAddress("localhost", 1234);
+		when(containerDelegate.getHost()).thenReturn(containerAddress);
+		
+		CreditGate creditGate = new CreditGate(containerDelegate, budget);
+		// unlimited until granted
+		for (int i = 0; i < 5; i++) {
+			creditGate.acquire(10);
+		}
+		creditGate.grant(6, 0);
+		creditGate.acquire(10);
+		try {
+			creditGate.acquire(10);
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+		assertEquals(containerAddress, creditListener.lastAddress.get());
+		// credit of the container was returned, since budget was exhausted
+		CreditGate otherCreditGate = new CreditGate(containerDelegate, budget);
+		try {
+			otherCreditGate.acquire(950);
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+		assertNull(creditListener.lastAddress.get());
+		creditGate.release(10);
+		creditGate.acquire(10);
+		
+		// credit of the messages which will never be replied to is returned to the budget
+		creditGate.close();
+		otherCreditGate.acquire(940);
+		creditGate.release(10);
+		try {
+			creditGate.acquire(10);
+			fail();
+		} 
+		catch (RejectedExecutionException e) {
+			assertFalse(e instanceof CreditExhaustedException);
+		}
+		try {
+			otherCreditGate.acquire(100);
+			fail();
+		} 
+		catch (CreditExhaustedException e) {
+			// ignore
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void validateWaitingThreadsFailOnceClosed() throws Exception {
+		CreditGate budget = new CreditGate(0, false);
+		CreditGate creditGate = new CreditGate(mock(ContainerDelegate.class), budget);
+		creditGate.grant(1, 0);
+		creditGate.acquire(10);
+		Future<?> blocked = this.acquire(creditGate, 10);
+		Thread.sleep(100);
+		assertFalse(blocked.isDone());
+		creditGate.close();
+		try {
+			blocked.get();
+			fail();
+		} 
+		catch (Exception e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void validateLoweredCreditHoldsBackNewMessages() throws Exception {
+		CreditGate budget = new CreditGate(0, false);
+		RecordingCreditListener creditListener = new RecordingCreditListener();
+		budget.setCreditListener(creditListener);
+		CreditGate creditGate = new CreditGate(mock(ContainerDelegate.class), budget);
+		creditGate.grant(3, 0);
+		creditGate.acquire(1);
+		creditGate.acquire(1);
+		// overloaded
+		creditGate.grant(1, 0);
+		Future<?> blocked = this.acquire(creditGate, 1);
+		Thread.sleep(100);
+		assertFalse(blocked.isDone());
+		creditGate.release(1);
+		Thread.sleep(100);
+		assertFalse(blocked.isDone());
+		creditGate.release(1);
+		blocked.get();
+		assertEquals(1, creditListener.exhausted.get());
+		assertEquals(1, creditListener.replenished.get());
+	}
+	
+	private Future<?> acquire(final CreditGate creditGate, final long size) {
+		return this.executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				creditGate.acquire(size);
+				return null;
+			}
+		});
+	}
+	
+	private static class RecordingCreditListener implements CreditListener {
+		private final AtomicInteger exhausted = new AtomicInteger();
+		
+		private final AtomicInteger replenished = new AtomicInteger();
+		
+		private final AtomicReference<InetSocketAddress> lastAddress = new AtomicReference<>();
+		
+		@Override
+		public void onCreditExhausted(InetSocketAddress containerAddress) {
+			this.lastAddress.set(containerAddress);
+			this.exhausted.incrementAndGet();
+		}
+
+		@Override
+		public void onCreditReplenished(InetSocketAddress containerAddress) {
+			this.lastAddress.set(containerAddress);
+			this.replenished.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class FrameBatcherTests {
+
+	@Test
+	public void validateBatchedMessagesAreUnbatchedIndividually() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		FrameBatcher frameBatcher = new FrameBatcher(bufferPool, 1024);
+		assertFalse(frameBatcher.hasBatchedMessages());
+		frameBatcher.add(1, 0, ByteBuffer.wrap("foo".getBytes()));
+		frameBatcher.add(2, 0, ByteBuffer.allocate(0));
+		frameBatcher.add(3, AbstractSocketHandler.COMPRESSED_FLAG, ByteBuffer.wrap("bar".getBytes()));
+		assertTrue(frameBatcher.hasBatchedMessages());
+
+		PooledByteBuffer batchFrame = frameBatcher.seal();
+		assertFalse(frameBatcher.hasBatchedMessages());
+		ByteBuffer frame = batchFrame.asReadOnlyBuffer();
+		assertEquals(AbstractSocketHandler.FRAME_HEADER_SIZE * 4 + 6, frame.getInt());
+		assertEquals(AbstractSocketHandler.BATCH_FRAME_ID, frame.getLong());
+
+		// what the receiving side would get from the FrameDecoder
+		ByteBuffer received = bufferPool.allocate(frame.remaining());
+		received.put(frame);
+		received.flip();
+		PooledByteBuffer batch = new PooledByteBuffer(received, bufferPool);
+
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		FrameBatcher.unbatch(batch, handler);
+		batch.release();
+
+		assertEquals(3, handler.requestIds.size());
+		assertEquals(Long.valueOf(2), handler.requestIds.get(1));
+		assertEquals("foo", this.toString(handler.messages.get(0)));
+		assertEquals("", this.toString(handler.messages.get(1)));
+		assertEquals("bar", this.toString(handler.messages.get(2)));
+		assertEquals(Integer.valueOf(0), handler.flags.get(0));
+		assertEquals(Integer.valueOf(AbstractSocketHandler.COMPRESSED_FLAG), handler.flags.get(2));
+
+		// batch buffer is retained by the messages
+		assertEquals(2, bufferPool.getOutstanding());
+		for (PooledByteBuffer message : handler.messages) {
+			message.release();
+		}
+		assertEquals(1, bufferPool.getOutstanding());
+		batchFrame.release();
+		assertEquals(0, bufferPool.getOutstanding());
+	}
+
+	@Test
+	public void validateBatchCapacity() throws Exception {
+		FrameBatcher frameBatcher = new FrameBatcher(new ByteBufferPool(), 64);
+		assertTrue(frameBatcher.canBatch(64 - AbstractSocketHandler.FRAME_HEADER_SIZE * 2));
+		assertFalse(frameBatcher.canBatch(64 - AbstractSocketHandler.FRAME_HEADER_SIZE * 2 + 1));
+
+		frameBatcher.add(1, 0, ByteBuffer.allocate(20));
+		assertTrue(frameBatcher.hasRoom(64 - AbstractSocketHandler.FRAME_HEADER_SIZE * 3 - 20));
+		assertFalse(frameBatcher.hasRoom(64 - AbstractSocketHandler.FRAME_HEADER_SIZE * 3 - 19));
+	}
+
+	@Test
+	public void validatePrefixIsBatchedInFrontOfPayload() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		FrameBatcher frameBatcher = new FrameBatcher(bufferPool, 1024);
+		frameBatcher.add(1, 0, ByteBuffer.wrap("foo".getBytes()), ByteBuffer.wrap("bar".getBytes()));
+
+		PooledByteBuffer batchFrame = frameBatcher.seal();
+		ByteBuffer frame = batchFrame.asReadOnlyBuffer();
+		frame.position(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		PooledByteBuffer batch = new PooledByteBuffer(frame.slice(), null);
+
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		FrameBatcher.unbatch(batch, handler);
+		assertEquals(1, handler.requestIds.size());
+		assertEquals("foobar", this.toString(handler.messages.get(0)));
+		batchFrame.release();
+	}
+
+	@Test
+	public void validateSealWithoutBatchedMessages() throws Exception {
+		FrameBatcher frameBatcher = new FrameBatcher(new ByteBufferPool(), 64);
+		assertNull(frameBatcher.seal());
+	}
+
+	@Test(expected=StreamCorruptedException.class)
+	public void validateNestedBatchIsRejected() throws Exception {
+		ByteBuffer payload = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		payload.putInt(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		payload.putLong(AbstractSocketHandler.BATCH_FRAME_ID);
+		payload.flip();
+		FrameBatcher.unbatch(new PooledByteBuffer(payload, null), new CollectingFrameHandler());
+	}
+
+	@Test(expected=StreamCorruptedException.class)
+	public void validateTruncatedBatchIsRejected() throws Exception {
+		ByteBuffer payload = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE + 2);
+		payload.putInt(AbstractSocketHandler.FRAME_HEADER_SIZE + 3);
+		payload.putLong(1);
+		payload.flip();
+		FrameBatcher.unbatch(new PooledByteBuffer(payload, null), new CollectingFrameHandler());
+	}
+
+	/**
+	 *
+	 */
+	private String toString(PooledByteBuffer message) {
+		ByteBuffer buffer = message.asReadOnlyBuffer();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return new String(bytes);
+	}
+
+	/**
+	 *
+	 */
+	private static class CollectingFrameHandler implements FrameDecoder.FrameHandler {
+		private final List<Long> requestIds = new ArrayList<>();
+
+		private final List<Integer> flags = new ArrayList<>();
+
+		private final List<PooledByteBuffer> messages = new ArrayList<>();
+
+		@Override
+		public void onFrame(long requestId, int flags, PooledByteBuffer payload) throws IOException {
+			this.requestIds.add(requestId);
+			this.flags.add(flags);
+			this.messages.add(payload);
+		}
+	}
+}
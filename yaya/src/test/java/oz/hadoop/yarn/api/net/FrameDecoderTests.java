@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class FrameDecoderTests {
+
+	@Test
+	public void validateMultipleFramesInSingleBuffer() throws Exception {
+		FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		ByteBuffer input = ByteBuffer.allocate(1024);
+		input.put(this.frame(1, "foo".getBytes()));
+		input.put(this.frame(2, "bar".getBytes()));
+		input.put(this.frame(3, "baz".getBytes()));
+		input.flip();
+
+		decoder.decode(input, handler);
+
+		assertFalse(input.hasRemaining());
+		assertFalse(decoder.hasPartialFrame());
+		assertEquals(3, handler.requestIds.size());
+		assertEquals("foo", new String(handler.payloads.get(0)));
+		assertEquals("bar", new String(handler.payloads.get(1)));
+		assertEquals("baz", new String(handler.payloads.get(2)));
+		assertEquals(Long.valueOf(3), handler.requestIds.get(2));
+	}
+
+	@Test
+	public void validateFramesSplitAtEveryPosition() throws Exception {
+		ByteBuffer stream = ByteBuffer.allocate(1024);
+		stream.put(this.frame(1, "hello".getBytes()));
+		stream.put(this.frame(2, new byte[0]));
+		stream.put(this.frame(3, "world".getBytes()));
+		stream.flip();
+		byte[] data = new byte[stream.remaining()];
+		stream.get(data);
+
+		for (int split = 0; split <= data.length; split++) {
+			FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+			CollectingFrameHandler handler = new CollectingFrameHandler();
+			decoder.decode(ByteBuffer.wrap(data, 0, split), handler);
+			decoder.decode(ByteBuffer.wrap(data, split, data.length - split), handler);
+
+			assertFalse(decoder.hasPartialFrame());
+			assertEquals("Failed at split " + split, 3, handler.requestIds.size());
+			assertEquals("hello", new String(handler.payloads.get(0)));
+			assertEquals(0, handler.payloads.get(1).length);
+			assertEquals("world", new String(handler.payloads.get(2)));
+			assertEquals(Long.valueOf(2), handler.requestIds.get(1));
+		}
+	}
+
+	@Test
+	public void validateFrameByteByByte() throws Exception {
+		byte[] data = this.frame(42, "byte by byte".getBytes());
+		FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		for (int i = 0; i < data.length; i++) {
+			decoder.decode(ByteBuffer.wrap(data, i, 1), handler);
+			if (i < data.length - 1){
+				assertTrue(decoder.hasPartialFrame());
+			}
+		}
+		assertFalse(decoder.hasPartialFrame());
+		assertEquals(1, handler.requestIds.size());
+		assertEquals(Long.valueOf(42), handler.requestIds.get(0));
+		assertEquals("byte by byte", new String(handler.payloads.get(0)));
+	}
+
+	@Test
+	public void validateLargeFrameAccumulatedAcrossReads() throws Exception {
+		byte[] payload = new byte[100000];
+		new Random().nextBytes(payload);
+		byte[] data = this.frame(7, payload);
+		FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		int chunkSize = 4096;
+		for (int i = 0; i < data.length; i += chunkSize) {
+			decoder.decode(ByteBuffer.wrap(data, i, Math.min(chunkSize, data.length - i)), handler);
+		}
+		assertFalse(decoder.hasPartialFrame());
+		assertEquals(1, handler.requestIds.size());
+		assertTrue(Arrays.equals(payload, handler.payloads.get(0)));
+	}
+
+	@Test
+	public void validateLargeFrameBodyReadDirectlyFromChannel() throws Exception {
+		byte[] payload = new byte[100000];
+		new Random().nextBytes(payload);
+		byte[] data = this.frame(8, payload);
+		FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		
+		decoder.decode(ByteBuffer.wrap(data, 0, 4096), handler);
+		assertTrue(decoder.isAccumulatingBody());
+		
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(data, 4096, data.length - 4096));
+		while (decoder.isAccumulatingBody()){
+			assertTrue(decoder.readBody(channel, handler) > 0);
+		}
+		assertFalse(decoder.hasPartialFrame());
+		assertEquals(1, handler.requestIds.size());
+		assertTrue(Arrays.equals(payload, handler.payloads.get(0)));
+	}
+
+	@Test
+	public void validateFlagsAreSeparatedFromFrameLength() throws Exception {
+		FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+		CollectingFrameHandler handler = new CollectingFrameHandler();
+		byte[] data = this.frame(5, "flagged".getBytes());
+		ByteBuffer.wrap(data).putInt(0, (AbstractSocketHandler.FRAME_HEADER_SIZE + 7) | AbstractSocketHandler.COMPRESSED_FLAG);
+		decoder.decode(ByteBuffer.wrap(data), handler);
+
+		assertEquals(1, handler.requestIds.size());
+		assertEquals(Integer.valueOf(AbstractSocketHandler.COMPRESSED_FLAG), handler.flags.get(0));
+		assertEquals("flagged", new String(handler.payloads.get(0)));
+	}
+
+	@Test(expected=StreamCorruptedException.class)
+	public void validateInvalidFrameLength() throws Exception {
+		FrameDecoder decoder = new FrameDecoder(new ByteBufferPool());
+		ByteBuffer input = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE);
+		input.putInt(AbstractSocketHandler.FRAME_HEADER_SIZE - 1);
+		input.putLong(1);
+		input.flip();
+		decoder.decode(input, new CollectingFrameHandler());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void validateFrameLengthDoesNotOverflowIntoFlags() throws Exception {
+		int frameLength = AbstractSocketHandler.frameLength(AbstractSocketHandler.MAX_FRAME_PAYLOAD_SIZE, AbstractSocketHandler.CHUNK_FLAG);
+		assertEquals(AbstractSocketHandler.FRAME_LENGTH_MASK, frameLength & AbstractSocketHandler.FRAME_LENGTH_MASK);
+		assertEquals(AbstractSocketHandler.CHUNK_FLAG, frameLength & ~AbstractSocketHandler.FRAME_LENGTH_MASK);
+		try {
+			AbstractSocketHandler.frameLength(AbstractSocketHandler.MAX_FRAME_PAYLOAD_SIZE + 1, 0);
+			fail();
+		} 
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private byte[] frame(long requestId, byte[] payload) {
+		ByteBuffer frame = ByteBuffer.allocate(AbstractSocketHandler.FRAME_HEADER_SIZE + payload.length);
+		frame.putInt(AbstractSocketHandler.FRAME_HEADER_SIZE + payload.length);
+		frame.putLong(requestId);
+		frame.put(payload);
+		return frame.array();
+	}
+
+	/**
+	 *
+	 */
+	private static class CollectingFrameHandler implements FrameDecoder.FrameHandler {
+		private final List<Long> requestIds = new ArrayList<>();
+
+		private final List<Integer> flags = new ArrayList<>();
+
+		private final List<byte[]> payloads = new ArrayList<>();
+
+		@Override
+		public void onFrame(long requestId, int flags, PooledByteBuffer payload) throws IOException {
+			ByteBuffer buffer = payload.asReadOnlyBuffer();
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			this.requestIds.add(requestId);
+			this.flags.add(flags);
+			this.payloads.add(bytes);
+			payload.release();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class HistogramTests {
+
+	@Test
+	public void validateEmptySnapshot() {
+		HistogramSnapshot snapshot = new Histogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMax());
+		assertEquals(0, snapshot.getP99());
+		assertEquals(0.0, snapshot.getMean());
+	}
+
+	@Test
+	public void validatePercentilesAreUpperBoundsOfPowerOfTwoBuckets() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(1000, snapshot.getMax());
+		assertEquals(500.5, snapshot.getMean());
+		// 500 falls into [256, 512)
+		assertEquals(511, snapshot.getP50());
+		// 900 and above fall into [512, 1024), while max caps the bucket
+		assertEquals(1000, snapshot.getP90());
+		assertEquals(1000, snapshot.getP999());
+	}
+
+	@Test
+	public void validateZeroAndNegativeValues() {
+		Histogram histogram = new Histogram();
+		histogram.record(0);
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(3, snapshot.getCount());
+		assertEquals(0, snapshot.getP50());
+		assertEquals(Long.MAX_VALUE, snapshot.getMax());
+		assertEquals(Long.MAX_VALUE, snapshot.getP999());
+	}
+
+	@Test(timeout=10000)
+	public void validateConcurrentRecordingIsNotLost() throws Exception {
+		final Histogram histogram = new Histogram();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int value = i + 1;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						histogram.record(value);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(400000, snapshot.getCount());
+		assertEquals(4, snapshot.getMax());
+		assertTrue(snapshot.getMean() == 2.5);
+	}
+}
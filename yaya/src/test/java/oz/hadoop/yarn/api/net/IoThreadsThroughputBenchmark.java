@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import oz.hadoop.yarn.api.YayaConstants;
+
+/**
+ * Measures how the throughput (messages/sec) of the {@link ApplicationContainerServerImpl}
+ * scales with the number of I/O threads (see {@link TransportSettings#getIoThreads()}).
+ * All Application Containers are emulated by echoing {@link ApplicationContainerClientImpl}s
+ * running in this JVM.
+ *
+ * Not a test. Run it as a java application:
+ * <pre>
+ * IoThreadsThroughputBenchmark [containers] [messagesPerRound] [payloadSize] [inFlightWindow] [ioThreads,...] [batchMaxSize]
+ * </pre>
+ * Batching is disabled unless 'batchMaxSize' is provided (see {@link TransportSettings#getBatchMaxSize()}).
+ *
+ * @author Oleg Zhurakousky
+ *
+ */
+public class IoThreadsThroughputBenchmark {
+
+	private static final int WARMUP_ROUNDS = 2;
+
+	private static final int MEASURED_ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int containers = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int messagesPerRound = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int payloadSize = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+		int inFlightWindow = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		String[] ioThreadsVariants = (args.length > 4 ? args[4] : "1,2,4,8").split(",");
+		int batchMaxSize = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+		System.out.println("containers=" + containers + ", messagesPerRound=" + messagesPerRound +
+				", payloadSize=" + payloadSize + ", inFlightWindow=" + inFlightWindow + ", batchMaxSize=" + batchMaxSize);
+		System.out.println("ioThreads\tmsgs/sec");
+		for (String ioThreads : ioThreadsVariants) {
+			double throughput = run(containers, messagesPerRound, payloadSize, inFlightWindow, Integer.parseInt(ioThreads.trim()), batchMaxSize);
+			System.out.println(ioThreads.trim() + "\t\t" + String.format("%.0f", throughput));
+		}
+	}
+
+	/**
+	 * Returns the average throughput of the measured rounds.
+	 */
+	private static double run(int containers, int messagesPerRound, int payloadSize, int inFlightWindow, int ioThreads, int batchMaxSize) throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IN_FLIGHT_WINDOW, inFlightWindow);
+		specification.put(YayaConstants.IO_THREADS, ioThreads);
+		specification.put(YayaConstants.BATCH_MAX_SIZE, batchMaxSize);
+		TransportSettings transportSettings = new TransportSettings(specification);
+
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		ApplicationContainerServerImpl clientServer = new ApplicationContainerServerImpl(sa, containers, false, null, transportSettings);
+		InetSocketAddress address = clientServer.start();
+		final ApplicationContainerClientImpl applicationMasterClient = new ApplicationContainerClientImpl(address, new EchoMessageHandler(), null);
+		applicationMasterClient.start();
+		final CountDownLatch containersDisconnected = new CountDownLatch(containers);
+		for (int i = 0; i < containers; i++) {
+			new ApplicationContainerClientImpl(address, new EchoMessageHandler(), new Runnable() {
+				@Override
+				public void run() {
+					containersDisconnected.countDown();
+					if (containersDisconnected.getCount() == 0){
+						applicationMasterClient.stop(true);
+					}
+				}
+			}, transportSettings).start();
+		}
+		if (!clientServer.awaitAllClients(30)){
+			throw new IllegalStateException("Containers failed to connect");
+		}
+
+		ContainerDelegate[] containerDelegates = clientServer.getContainerDelegates();
+		ExecutorService producers = Executors.newFixedThreadPool(containerDelegates.length);
+		ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+		try {
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				runRound(containerDelegates, producers, payload, messagesPerRound);
+			}
+			double totalThroughput = 0;
+			for (int i = 0; i < MEASURED_ROUNDS; i++) {
+				totalThroughput += runRound(containerDelegates, producers, payload, messagesPerRound);
+			}
+			return totalThroughput / MEASURED_ROUNDS;
+		}
+		finally {
+			producers.shutdownNow();
+			clientServer.stop(true);
+		}
+	}
+
+	/**
+	 * Sends 'messages' spread evenly across all {@link ContainerDelegate}s (each driven by its own producer thread),
+	 * returning messages/sec measured once all replies were received.
+	 */
+	private static double runRound(ContainerDelegate[] containerDelegates, ExecutorService producers, final ByteBuffer payload, int messages) throws Exception {
+		final int messagesPerContainer = messages / containerDelegates.length;
+		final CountDownLatch replies = new CountDownLatch(messagesPerContainer * containerDelegates.length);
+		final ReplyPostProcessor[] replyPostProcessors = new ReplyPostProcessor[containerDelegates.length];
+		for (int i = 0; i < replyPostProcessors.length; i++) {
+			replyPostProcessors[i] = new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer replyBuffer) {
+					replies.countDown();
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < containerDelegates.length; i++) {
+			final ContainerDelegate containerDelegate = containerDelegates[i];
+			final ReplyPostProcessor replyPostProcessor = replyPostProcessors[i];
+			producers.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < messagesPerContainer; j++) {
+						containerDelegate.process(payload.duplicate(), replyPostProcessor);
+					}
+				}
+			});
+		}
+		if (!replies.await(5, TimeUnit.MINUTES)){
+			throw new IllegalStateException("Timed out waiting for replies. Remaining: " + replies.getCount());
+		}
+		long elapsed = System.nanoTime() - start;
+		return replies.getCount() == 0 ? (messagesPerContainer * containerDelegates.length) / (elapsed / 1000000000d) : 0;
+	}
+
+	/**
+	 *
+	 */
+	private static class EchoMessageHandler implements ApplicationContainerMessageHandler {
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer) {
+			return messageBuffer;
+		}
+
+		@Override
+		public void onDisconnect() {
+			// noop
+		}
+	}
+}
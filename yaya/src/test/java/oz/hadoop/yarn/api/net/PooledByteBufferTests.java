@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class PooledByteBufferTests {
+
+	@Test
+	public void validateReadOnlySliceOfPayload() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put("Hello World".getBytes());
+		buffer.flip();
+		buffer.position(6);
+		PooledByteBuffer pooledBuffer = new PooledByteBuffer(buffer, null);
+		
+		ByteBuffer view = pooledBuffer.asReadOnlyBuffer();
+		assertTrue(view.isReadOnly());
+		assertEquals(0, view.position());
+		assertEquals(5, view.capacity());
+		byte[] bytes = new byte[view.remaining()];
+		view.get(bytes);
+		assertEquals("World", new String(bytes));
+		try {
+			view.put(0, (byte) 1);
+			throw new AssertionError("Should not be writable");
+		} 
+		catch (ReadOnlyBufferException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void validateBufferIsReturnedToPoolOnlyOnLastRelease() throws Exception {
+		ByteBufferPool bufferPool = mock(ByteBufferPool.class);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		PooledByteBuffer pooledBuffer = new PooledByteBuffer(buffer, bufferPool);
+		assertSame(pooledBuffer, pooledBuffer.retain());
+		assertEquals(2, pooledBuffer.referenceCount());
+		
+		assertFalse(pooledBuffer.release());
+		verify(bufferPool, never()).release(buffer);
+		
+		assertTrue(pooledBuffer.release());
+		verify(bufferPool).release(buffer);
+	}
+	
+	@Test
+	public void validateSliceRetainsParentUntilReleased() throws Exception {
+		ByteBufferPool bufferPool = mock(ByteBufferPool.class);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put("xxHello World".getBytes());
+		buffer.flip();
+		buffer.position(2);
+		PooledByteBuffer pooledBuffer = new PooledByteBuffer(buffer, bufferPool);
+		
+		PooledByteBuffer slice = pooledBuffer.slice(6, 5);
+		assertEquals(2, pooledBuffer.referenceCount());
+		ByteBuffer view = slice.asReadOnlyBuffer();
+		byte[] bytes = new byte[view.remaining()];
+		view.get(bytes);
+		assertEquals("World", new String(bytes));
+		
+		assertFalse(pooledBuffer.release());
+		verify(bufferPool, never()).release(buffer);
+		assertTrue(slice.release());
+		assertEquals(0, pooledBuffer.referenceCount());
+		verify(bufferPool).release(buffer);
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void validateRetainAfterReleaseFails() throws Exception {
+		PooledByteBuffer pooledBuffer = new PooledByteBuffer(ByteBuffer.allocate(8), null);
+		pooledBuffer.release();
+		pooledBuffer.retain();
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void validateDoubleReleaseFails() throws Exception {
+		PooledByteBuffer pooledBuffer = new PooledByteBuffer(ByteBuffer.allocate(8), null);
+		pooledBuffer.release();
+		pooledBuffer.release();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Oleg Zhurakousky
+ *
+ */
+public class SharedMemoryChannelTests {
+
+	private File directory;
+
+	@Before
+	public void before() throws Exception {
+		this.directory = Files.createTempDirectory("yaya-shm").toFile();
+	}
+
+	@After
+	public void after() {
+		for (File file : this.directory.listFiles()) {
+			file.delete();
+		}
+		this.directory.delete();
+	}
+
+	@Test
+	public void validateDataWrapsAroundTheRing() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		SharedMemoryChannel server = SharedMemoryChannel.create(this.directory, 4096, bufferPool);
+		SharedMemoryChannel client = SharedMemoryChannel.open(server.getPath(), server.getToken(), bufferPool);
+
+		Random random = new Random(5);
+		byte[] data = new byte[3000];
+		for (int i = 0; i < 5; i++) {
+			random.nextBytes(data);
+			ByteBuffer[] sources = new ByteBuffer[]{ByteBuffer.wrap(data, 0, 1000), ByteBuffer.wrap(data, 1000, 2000)};
+			assertEquals(data.length, server.getOutboundRing().write(sources, 0, sources.length));
+			assertFalse(sources[1].hasRemaining());
+
+			byte[] received = new byte[data.length];
+			int offset = 0;
+			ByteBuffer readable;
+			while ((readable = client.getInboundRing().readable(received.length)) != null){
+				int length = readable.remaining();
+				readable.get(received, offset, length);
+				offset += length;
+				client.getInboundRing().consumed(length);
+			}
+			assertTrue(Arrays.equals(data, received));
+		}
+		// other direction is independent
+		assertNull(server.getInboundRing().readable(4096));
+		server.release();
+		client.release();
+	}
+
+	@Test
+	public void validateWriteStopsWhenRingIsFull() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		SharedMemoryChannel server = SharedMemoryChannel.create(this.directory, 4096, bufferPool);
+		SharedMemoryChannel client = SharedMemoryChannel.open(server.getPath(), server.getToken(), bufferPool);
+
+		SharedMemoryRing outboundRing = client.getOutboundRing();
+		ByteBuffer source = ByteBuffer.allocate(5000);
+		assertEquals(4096, outboundRing.write(new ByteBuffer[]{source}, 0, 1));
+		assertEquals(904, source.remaining());
+		assertEquals(0, outboundRing.write(new ByteBuffer[]{source}, 0, 1));
+		assertTrue(outboundRing.parkProducer());
+
+		SharedMemoryRing inboundRing = server.getInboundRing();
+		assertEquals(4096, inboundRing.readable(8192).remaining());
+		// producer is woken up only once
+		assertTrue(inboundRing.consumed(100));
+		assertFalse(inboundRing.consumed(100));
+		assertEquals(200, outboundRing.write(new ByteBuffer[]{source}, 0, 1));
+		server.release();
+		client.release();
+	}
+
+	@Test
+	public void validateConsumerParking() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		SharedMemoryChannel server = SharedMemoryChannel.create(this.directory, 4096, bufferPool);
+		SharedMemoryChannel client = SharedMemoryChannel.open(server.getPath(), server.getToken(), bufferPool);
+
+		// consumer starts parked
+		SharedMemoryRing outboundRing = server.getOutboundRing();
+		outboundRing.write(new ByteBuffer[]{ByteBuffer.allocate(10)}, 0, 1);
+		assertTrue(outboundRing.unparkConsumer());
+		outboundRing.write(new ByteBuffer[]{ByteBuffer.allocate(10)}, 0, 1);
+		assertFalse(outboundRing.unparkConsumer());
+
+		SharedMemoryRing inboundRing = client.getInboundRing();
+		// data is available, so consumer must not park
+		assertFalse(inboundRing.parkConsumer());
+		inboundRing.consumed(inboundRing.readable(4096).remaining());
+		assertTrue(inboundRing.parkConsumer());
+		server.release();
+		client.release();
+	}
+
+	@Test
+	public void validateFileIsDeletedOnceUnlinked() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		SharedMemoryChannel server = SharedMemoryChannel.create(this.directory, 4096, bufferPool);
+		SharedMemoryChannel client = SharedMemoryChannel.open(server.getPath(), server.getToken(), bufferPool);
+		server.unlink();
+		assertEquals(0, this.directory.list().length);
+
+		// memory remains shared
+		server.getOutboundRing().write(new ByteBuffer[]{ByteBuffer.wrap("Hello Yarn!".getBytes())}, 0, 1);
+		assertEquals(11, client.getInboundRing().readable(4096).remaining());
+		server.release();
+		client.release();
+	}
+
+	@Test
+	public void validateFileWithWrongTokenIsRejected() throws Exception {
+		ByteBufferPool bufferPool = new ByteBufferPool();
+		SharedMemoryChannel server = SharedMemoryChannel.create(this.directory, 4096, bufferPool);
+		try {
+			SharedMemoryChannel.open(server.getPath(), server.getToken() + 1, bufferPool);
+			fail();
+		}
+		catch (IOException e) {
+			// expected
+		}
+		try {
+			SharedMemoryChannel.open(new File(this.directory, "foo").getAbsolutePath(), server.getToken(), bufferPool);
+			fail();
+		}
+		catch (IOException e) {
+			// expected
+		}
+		server.release();
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package oz.hadoop.yarn.api.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import oz.hadoop.yarn.api.YayaConstants;
+
+/**
+ * Compares the selector transport ({@link ApplicationContainerServerImpl}) with the NIO.2 asynchronous one 
+ * ({@link AsyncApplicationContainerServer}) at 10, 100 and 1000 connections of Application Containers, 
+ * emulated by echoing clients running in this JVM. Shared memory is disabled, so both transports go 
+ * through the socket (see {@link TransportSettings#getSharedMemoryRingSize()}).
+ * <ul>
+ * <li>'roundTrip' - latency of a single request/reply while all connections are open, each 
+ * request going to the next {@link ContainerDelegate}</li>
+ * <li>'fanOut' - throughput of rounds which send a request to every {@link ContainerDelegate} and wait 
+ * for all replies, so messages/sec is the score multiplied by 'connections'</li>
+ * </ul>
+ * 
+ * Not a test. Run it as a java application (JMH):
+ * <pre>
+ * TransportBenchmark [JMH options]
+ * </pre>
+ * 
+ * @author Oleg Zhurakousky
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransportBenchmark {
+	
+	@Param({"selector", "async"})
+	public String transport;
+	
+	@Param({"10", "100", "1000"})
+	public int connections;
+	
+	@Param({"128"})
+	public int payloadSize;
+	
+	private ApplicationContainerServer clientServer;
+	
+	private ContainerDelegate[] containerDelegates;
+	
+	private ReplyPostProcessor[] replyPostProcessors;
+	
+	private ByteBuffer payload;
+	
+	private volatile CountDownLatch replies;
+	
+	private int nextContainerDelegate;
+	
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(TransportBenchmark.class.getSimpleName())
+			.build();
+		new Runner(options).run();
+	}
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Map<String, Object> specification = new HashMap<>();
+		specification.put(YayaConstants.IO_THREADS, 4);
+		specification.put(YayaConstants.SHARED_MEMORY_RING_SIZE, 0);
+		TransportSettings transportSettings = new TransportSettings(specification);
+		boolean async = "async".equals(this.transport);
+		
+		InetSocketAddress sa = new InetSocketAddress(InetAddress.getLocalHost().getHostAddress(), 0);
+		this.clientServer = async ? new AsyncApplicationContainerServer(sa, this.connections, false, null, transportSettings) 
+				: new ApplicationContainerServerImpl(sa, this.connections, false, null, transportSettings);
+		InetSocketAddress address = this.clientServer.start();
+		final ApplicationContainerClient applicationMasterClient = async ? new AsyncApplicationContainerClient(address, new EchoMessageHandler(), null) 
+				: new ApplicationContainerClientImpl(address, new EchoMessageHandler(), null);
+		applicationMasterClient.start();
+		final CountDownLatch containersDisconnected = new CountDownLatch(this.connections);
+		Runnable onDisconnectTask = new Runnable() {
+			@Override
+			public void run() {
+				containersDisconnected.countDown();
+				if (containersDisconnected.getCount() == 0){
+					applicationMasterClient.stop(true);
+				}
+			}
+		};
+		for (int i = 0; i < this.connections; i++) {
+			ApplicationContainerClient containerClient = async ? new AsyncApplicationContainerClient(address, new EchoMessageHandler(), onDisconnectTask, transportSettings) 
+					: new ApplicationContainerClientImpl(address, new EchoMessageHandler(), onDisconnectTask, transportSettings);
+			containerClient.start();
+		}
+		if (!this.clientServer.awaitAllClients(60)){
+			throw new IllegalStateException("Containers failed to connect");
+		}
+		
+		this.containerDelegates = this.clientServer.getContainerDelegates();
+		this.replyPostProcessors = new ReplyPostProcessor[this.containerDelegates.length];
+		for (int i = 0; i < this.replyPostProcessors.length; i++) {
+			this.replyPostProcessors[i] = new ReplyPostProcessor() {
+				@Override
+				public void doProcess(ByteBuffer replyBuffer) {
+					TransportBenchmark.this.replies.countDown();
+				}
+			};
+		}
+		this.payload = ByteBuffer.allocate(this.payloadSize);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.clientServer.stop(true);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void roundTrip() throws InterruptedException {
+		int index = this.nextContainerDelegate++ % this.containerDelegates.length;
+		this.replies = new CountDownLatch(1);
+		this.containerDelegates[index].process(this.payload.duplicate(), this.replyPostProcessors[index]);
+		this.replies.await();
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void fanOut() throws InterruptedException {
+		this.replies = new CountDownLatch(this.containerDelegates.length);
+		for (int i = 0; i < this.containerDelegates.length; i++) {
+			this.containerDelegates[i].process(this.payload.duplicate(), this.replyPostProcessors[i]);
+		}
+		this.replies.await();
+	}
+	
+	/**
+	 *
+	 */
+	private static class EchoMessageHandler implements ApplicationContainerMessageHandler {
+		@Override
+		public ByteBuffer handle(ByteBuffer messageBuffer) {
+			return messageBuffer;
+		}
+
+		@Override
+		public void onDisconnect() {
+			// noop
+		}
+	}
+}